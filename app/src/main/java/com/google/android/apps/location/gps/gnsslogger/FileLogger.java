@@ -33,6 +33,8 @@ import android.util.Log;
 import android.widget.Toast;
 import androidx.core.content.FileProvider;
 import com.google.android.apps.location.gps.gnsslogger.LoggerFragment.UIFragmentComponent;
+import com.google.location.lbs.gnss.gps.pseudorange.GnssSignalIndex;
+import com.google.location.lbs.gnss.gps.pseudorange.SatelliteKey;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
@@ -41,6 +43,7 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -62,6 +65,14 @@ public class FileLogger implements MeasurementListener {
   private static final String RINEX_FILE_PREFIX = "RINEX";
   private BufferedWriter mRinexFileWriter;
   private File mRinexFile;
+  // Systems written, then the C/N0 (S) and received satellite time (C) of the L1 and L5 signals
+  private static final String RINEX_SYSTEMS = "GRCEJSI";
+  private static final String RINEX_OBSERVATION_TYPES = "    4 S1C C1C S5Q C5Q";
+  private static final String RINEX_OBSERVATION_COMMENT =
+      "C1C C5Q: received satellite time of week (s)";
+  private static final String RINEX_BLANK_OBSERVATION = String.format(Locale.US, "%18s", "");
+  // Pairs the L1 and L5 signals of each satellite on one RINEX line
+  private final GnssSignalIndex mRinexSignalIndex = new GnssSignalIndex();
 
   private final Context mContext;
 
@@ -254,7 +265,13 @@ public class FileLogger implements MeasurementListener {
     writer.write("    0.00000000       0.00000000       0.00000000                  APPROX POSITION XYZ\n");
     writer.write("    0.00000000       0.00000000       0.00000000                  ANTENNA: DELTA H/E/N\n");
     writer.write("                                                            WAVELENGTH FACT L1/2\n");
-    writer.write("G    C1C L1C D1C S1C                                                         SYS / # / OBS TYPES\n");
+    // Each satellite line holds the L1 then the L5 observations, blank for a band not received
+    for (char system : RINEX_SYSTEMS.toCharArray()) {
+      writer.write(
+          String.format(
+              Locale.US, "%-60s%s\n", system + RINEX_OBSERVATION_TYPES, "SYS / # / OBS TYPES"));
+    }
+    writer.write(String.format(Locale.US, "%-60s%s\n", RINEX_OBSERVATION_COMMENT, "COMMENT"));
     // 获取当前时间
     Date currentDate = new Date();
     SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy  MM  dd  HH  mm  ss.SSSSSSS", Locale.US);
@@ -381,7 +398,9 @@ public class FileLogger implements MeasurementListener {
   @Override
   public void onProviderDisabled(String provider) {}
 
-  private String convertToRinexFormat(GnssClock clock, GnssMeasurement measurement) {
+  private String convertToRinexFormat(
+      GnssClock clock, GnssMeasurement l1Measurement, GnssMeasurement l5Measurement) {
+    GnssMeasurement measurement = l1Measurement != null ? l1Measurement : l5Measurement;
     StringBuilder rinexData = new StringBuilder();
     // 假设时间格式为 YYYY MM DD HH MM SS.SSS
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy MM dd HH mm ss.SSS");
@@ -396,11 +415,25 @@ public class FileLogger implements MeasurementListener {
     rinexData.append("  0    "); // 时间标志和接收机钟差
     rinexData.append(getConstellationCode(measurement.getConstellationType())); // 星座类型
     rinexData.append(String.format("%02d", measurement.getSvid())); // 卫星编号
+    appendRinexObservations(rinexData, l1Measurement); // S1C C1C
+    appendRinexObservations(rinexData, l5Measurement); // S5Q C5Q
+    return rinexData.toString();
+  }
+
+  /**
+   * Appends the C/N0 and received satellite time of {@code measurement} to a RINEX line, or blanks
+   * if the band was not received.
+   */
+  private static void appendRinexObservations(
+      StringBuilder rinexData, GnssMeasurement measurement) {
+    if (measurement == null) {
+      rinexData.append(RINEX_BLANK_OBSERVATION).append(RINEX_BLANK_OBSERVATION);
+      return;
+    }
     rinexData.append("    ");
     rinexData.append(String.format("%14.3f", measurement.getCn0DbHz())); // C/N0
     rinexData.append("    ");
     rinexData.append(String.format("%14.9f", measurement.getReceivedSvTimeNanos() / 1e9)); // 接收时间
-    return rinexData.toString();
   }
 
   private String convertLocationToRinexFormat(Location location) {
@@ -524,11 +557,37 @@ public class FileLogger implements MeasurementListener {
         } catch (IOException e) {
           logException(ERROR_WRITING_FILE, e);
         }
-        // 示例：将测量数据转换为 RINEX 格式并写入 RINEX 文件
-        String rinexData = convertToRinexFormat(gnssClock, measurement);
-        writeRinexData(rinexData);
+      }
+      if (mRinexFileWriter != null) {
+        writeRinexMeasurements(gnssClock, event.getMeasurements());
+      }
+    }
+  }
+
+  /**
+   * Writes one RINEX line per satellite, with the observations of its L1 and L5 signals in the
+   * columns declared in the header. The signals of the other bands are not declared in the header,
+   * so they are not written.
+   */
+  private void writeRinexMeasurements(
+      GnssClock gnssClock, Collection<GnssMeasurement> measurements) {
+    mRinexSignalIndex.index(measurements);
+    for (int slot = 0; slot < mRinexSignalIndex.size(); slot++) {
+      int pairedSlot = mRinexSignalIndex.getPairedSlot(slot);
+      GnssMeasurement pairedMeasurement =
+          pairedSlot >= 0 ? mRinexSignalIndex.getMeasurement(pairedSlot) : null;
+      int signal = SatelliteKey.getSignal(mRinexSignalIndex.getSatelliteKey(slot));
+      if (signal == SatelliteKey.SIGNAL_L1) {
+        writeRinexData(
+            convertToRinexFormat(
+                gnssClock, mRinexSignalIndex.getMeasurement(slot), pairedMeasurement));
+      } else if (signal == SatelliteKey.SIGNAL_L5 && pairedMeasurement == null) {
+        // Written with the paired L1 signal otherwise
+        writeRinexData(
+            convertToRinexFormat(gnssClock, null, mRinexSignalIndex.getMeasurement(slot)));
       }
     }
+    mRinexSignalIndex.clear();
   }
 
   @Override
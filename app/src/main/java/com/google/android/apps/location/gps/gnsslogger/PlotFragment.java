@@ -36,7 +36,8 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import androidx.collection.ArrayMap;
 import androidx.fragment.app.Fragment;
-import com.google.location.lbs.gnss.gps.pseudorange.GpsNavigationMessageStore;
+import com.google.location.lbs.gnss.gps.pseudorange.GnssSignalIndex;
+import com.google.location.lbs.gnss.gps.pseudorange.SatelliteKey;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
@@ -94,6 +95,7 @@ public class PlotFragment extends Fragment {
   private TextView mAnalysisView;
   private double mLastTimeReceivedSeconds = 0;
   private final ColorMap mColorMap = new ColorMap();
+  private final GnssSignalIndex mSignalIndex = new GnssSignalIndex();
   private DataSetManager mDataSetManager;
   private XYMultipleSeriesRenderer mCurrentRenderer;
   private LinearLayout mLayout;
@@ -157,9 +159,19 @@ public class PlotFragment extends Fragment {
       mInitialTimeSeconds = timeInSeconds;
     }
 
+    // One measurement per satellite, the L5 signals paired with an L1 signal being shown with it,
+    // so that the two bands of a satellite do not alternate in its series
+    mSignalIndex.index(event.getMeasurements());
+    List<GnssMeasurement> measurements = new ArrayList<>(mSignalIndex.size());
+    for (int slot = 0; slot < mSignalIndex.size(); slot++) {
+      if (mSignalIndex.getPairedSlot(slot) < 0
+          || SatelliteKey.getSignal(mSignalIndex.getSatelliteKey(slot)) == SatelliteKey.SIGNAL_L1) {
+        measurements.add(mSignalIndex.getMeasurement(slot));
+      }
+    }
+
     // Building the texts message in analysis text view
-    List<GnssMeasurement> measurements =
-        sortByCarrierToNoiseRatio(new ArrayList<>(event.getMeasurements()));
+    measurements = sortByCarrierToNoiseRatio(measurements);
     SpannableStringBuilder builder = new SpannableStringBuilder();
     double currentAverage = 0;
     if (measurements.size() >= NUMBER_OF_STRONGEST_SATELLITES) {
@@ -188,8 +200,12 @@ public class PlotFragment extends Fragment {
           mDataSetManager.getConstellationPrefix(measurements.get(i).getConstellationType())
               + measurements.get(i).getSvid()
               + ": "
-              + sDataFormat.format(measurements.get(i).getCn0DbHz())
-              + "\n");
+              + sDataFormat.format(measurements.get(i).getCn0DbHz()));
+      GnssMeasurement pairedMeasurement = getPairedL5Measurement(measurements.get(i));
+      if (pairedMeasurement != null) {
+        builder.append(" / L5 " + sDataFormat.format(pairedMeasurement.getCn0DbHz()));
+      }
+      builder.append("\n");
       int end = builder.length();
       builder.setSpan(
           new ForegroundColorSpan(
@@ -209,11 +225,15 @@ public class PlotFragment extends Fragment {
       int svID = measurement.getSvid();
       if (constellationType != GnssStatus.CONSTELLATION_UNKNOWN) {
         mDataSetManager.addValue(
-            CN0_TAB, constellationType, svID, mLastTimeReceivedSeconds, measurement.getCn0DbHz());
+            CN0_TAB,
+            SatelliteKey.create(constellationType, svID, SatelliteKey.SIGNAL_L1),
+            mLastTimeReceivedSeconds,
+            measurement.getCn0DbHz());
       }
     }
 
     mDataSetManager.fillInDiscontinuity(CN0_TAB, mLastTimeReceivedSeconds);
+    mSignalIndex.clear();
 
     // Checks if the plot has reached the end of frame and resize
     if (mLastTimeReceivedSeconds > mCurrentRenderer.getXAxisMax()) {
@@ -228,26 +248,65 @@ public class PlotFragment extends Fragment {
    * Updates the pseudorange residual plot from residual results calculated by {@link
    * RealTimePositionVelocityCalculator}
    *
-   * @param residuals An array of MAX_NUMBER_OF_SATELLITES elements where indexes of satellites was
-   *     not seen are fixed with {@code Double.NaN} and indexes of satellites what were seen are
-   *     filled with pseudorange residual in meters
+   * @param satelliteKeys the {@link SatelliteKey satellite keys} of the signals of {@code
+   *     residuals}
+   * @param residuals the pseudorange residuals in meters of the signals of {@code satelliteKeys},
+   *     {@code Double.NaN} for the signals not used in the solution
+   * @param numberOfResiduals the number of entries set in {@code satelliteKeys} and {@code
+   *     residuals}
    * @param timeInSeconds the time at which measurements are received
    */
-  protected void updatePseudorangeResidualTab(double[] residuals, double timeInSeconds) {
+  protected void updatePseudorangeResidualTab(
+      int[] satelliteKeys, double[] residuals, int numberOfResiduals, double timeInSeconds) {
     double timeSinceLastMeasurement = timeInSeconds - mInitialTimeSeconds;
-    for (int i = 1; i <= GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES; i++) {
-      if (!Double.isNaN(residuals[i - 1])) {
+    for (int i = 0; i < numberOfResiduals; i++) {
+      int constellationType = SatelliteKey.getConstellationType(satelliteKeys[i]);
+      // One residual per satellite as in the CN0 tab, the L1 residual when both bands are used
+      if (!Double.isNaN(residuals[i])
+          && constellationType >= GnssStatus.CONSTELLATION_GPS
+          && constellationType <= NUMBER_OF_CONSTELLATIONS
+          && (SatelliteKey.getSignal(satelliteKeys[i]) == SatelliteKey.SIGNAL_L1
+              || !hasResidual(
+                  satelliteKeys,
+                  residuals,
+                  numberOfResiduals,
+                  SatelliteKey.getPairedKey(satelliteKeys[i])))) {
         mDataSetManager.addValue(
-            PR_RESIDUAL_TAB,
-            GnssStatus.CONSTELLATION_GPS,
-            i,
-            timeSinceLastMeasurement,
-            residuals[i - 1]);
+            PR_RESIDUAL_TAB, satelliteKeys[i], timeSinceLastMeasurement, residuals[i]);
       }
     }
     mDataSetManager.fillInDiscontinuity(PR_RESIDUAL_TAB, timeSinceLastMeasurement);
   }
 
+  /**
+   * Returns {@code true} if the signal {@code satelliteKey} has a residual among the first {@code
+   * numberOfResiduals} entries of {@code satelliteKeys} and {@code residuals}.
+   */
+  private static boolean hasResidual(
+      int[] satelliteKeys, double[] residuals, int numberOfResiduals, int satelliteKey) {
+    for (int i = 0; i < numberOfResiduals; i++) {
+      if (satelliteKeys[i] == satelliteKey) {
+        return !Double.isNaN(residuals[i]);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the L5 measurement of the satellite of the L1 {@code measurement} indexed in {@link
+   * #mSignalIndex}, or {@code null} if the satellite has no L1 / L5 pair.
+   */
+  private GnssMeasurement getPairedL5Measurement(GnssMeasurement measurement) {
+    int slot =
+        mSignalIndex.getSlot(
+            measurement.getConstellationType(), measurement.getSvid(), SatelliteKey.SIGNAL_L1);
+    if (slot < 0 || mSignalIndex.getMeasurement(slot) != measurement) {
+      return null;
+    }
+    int pairedSlot = mSignalIndex.getPairedSlot(slot);
+    return pairedSlot < 0 ? null : mSignalIndex.getMeasurement(pairedSlot);
+  }
+
   private List<GnssMeasurement> sortByCarrierToNoiseRatio(List<GnssMeasurement> measurements) {
     Collections.sort(
         measurements,
@@ -324,8 +383,7 @@ public class PlotFragment extends Fragment {
      */
     private static final String[] CONSTELLATION_PREFIX = {"G", "S", "R", "J", "C", "E"};
 
-    private final List<ArrayMap<Integer, Integer>>[] mSatelliteIndex;
-    private final List<ArrayMap<Integer, Integer>>[] mSatelliteConstellationIndex;
+    private final SatelliteSeriesIndex[] mSeriesIndex;
     private final List<XYMultipleSeriesDataset>[] mDataSetList;
     private final List<XYMultipleSeriesRenderer>[] mRendererList;
     private final Context mContext;
@@ -335,8 +393,7 @@ public class PlotFragment extends Fragment {
         int numberOfTabs, int numberOfConstellations, Context context, ColorMap colorMap) {
       mDataSetList = new ArrayList[numberOfTabs];
       mRendererList = new ArrayList[numberOfTabs];
-      mSatelliteIndex = new ArrayList[numberOfTabs];
-      mSatelliteConstellationIndex = new ArrayList[numberOfTabs];
+      mSeriesIndex = new SatelliteSeriesIndex[numberOfTabs];
       mContext = context;
       mColorMap = colorMap;
 
@@ -344,11 +401,8 @@ public class PlotFragment extends Fragment {
       for (int i = 0; i < numberOfTabs; i++) {
         mDataSetList[i] = new ArrayList<>();
         mRendererList[i] = new ArrayList<>();
-        mSatelliteIndex[i] = new ArrayList<>();
-        mSatelliteConstellationIndex[i] = new ArrayList<>();
+        mSeriesIndex[i] = new SatelliteSeriesIndex(numberOfConstellations);
         for (int k = 0; k <= numberOfConstellations; k++) {
-          mSatelliteIndex[i].add(new ArrayMap<Integer, Integer>());
-          mSatelliteConstellationIndex[i].add(new ArrayMap<Integer, Integer>());
           XYMultipleSeriesRenderer tempRenderer = new XYMultipleSeriesRenderer();
           setUpRenderer(tempRenderer, i);
           mRendererList[i].add(tempRenderer);
@@ -378,31 +432,26 @@ public class PlotFragment extends Fragment {
     }
 
     /**
-     * Adds a value into the both the data set containing all constellations and individual data set
-     * of the constellation of the satellite
+     * Adds a value of the satellite of {@code satelliteKey} into the both the data set containing
+     * all constellations and individual data set of the constellation of the satellite
      */
-    private void addValue(
-        int tab, int constellationType, int svID, double timeInSeconds, double value) {
+    private void addValue(int tab, int satelliteKey, double timeInSeconds, double value) {
       XYMultipleSeriesDataset dataSetAll = getDataSet(tab, DATA_SET_INDEX_ALL);
       XYMultipleSeriesRenderer rendererAll = getRenderer(tab, DATA_SET_INDEX_ALL);
+      int constellationType = SatelliteKey.getConstellationType(satelliteKey);
+      int svID = SatelliteKey.getSvid(satelliteKey);
       value = Double.parseDouble(sDataFormat.format(value));
-      if (hasSeen(constellationType, svID, tab)) {
+      if (!mSeriesIndex[tab].add(satelliteKey)) {
         // If the satellite has been seen before, we retrieve the dataseries it is add and add new
         // data
-        dataSetAll
-            .getSeriesAt(mSatelliteIndex[tab].get(constellationType).get(svID))
-            .add(timeInSeconds, value);
+        dataSetAll.getSeriesAt(mSeriesIndex[tab].getSeries(satelliteKey)).add(timeInSeconds, value);
         mDataSetList[tab]
             .get(constellationType)
-            .getSeriesAt(mSatelliteConstellationIndex[tab].get(constellationType).get(svID))
+            .getSeriesAt(mSeriesIndex[tab].getConstellationSeries(satelliteKey))
             .add(timeInSeconds, value);
       } else {
         // If the satellite has not been seen before, we create new dataset and renderer before
         // adding data
-        mSatelliteIndex[tab].get(constellationType).put(svID, dataSetAll.getSeriesCount());
-        mSatelliteConstellationIndex[tab]
-            .get(constellationType)
-            .put(svID, mDataSetList[tab].get(constellationType).getSeriesCount());
         XYSeries tempSeries = new XYSeries(CONSTELLATION_PREFIX[constellationType - 1] + svID);
         tempSeries.add(timeInSeconds, value);
         dataSetAll.addSeries(tempSeries);
@@ -429,11 +478,6 @@ public class PlotFragment extends Fragment {
       }
     }
 
-    /** Returns a boolean indicating whether the input satellite has been seen. */
-    private boolean hasSeen(int constellationType, int svID, int tab) {
-      return mSatelliteIndex[tab].get(constellationType).containsKey(svID);
-    }
-
     /** Set up a {@link XYMultipleSeriesRenderer} with the specs customized per plot tab. */
     private void setUpRenderer(XYMultipleSeriesRenderer renderer, int tabNumber) {
       renderer.setXAxisMin(0);
@@ -23,15 +23,35 @@ import android.location.GnssStatus;
 import android.location.Location;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 import com.google.android.apps.location.gps.gnsslogger.ResultFragment.UIResultComponent;
-import com.google.location.lbs.gnss.gps.pseudorange.GpsMathOperations;
-import com.google.location.lbs.gnss.gps.pseudorange.GpsNavigationMessageStore;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.location.lbs.gnss.gps.pseudorange.GeoidGrid;
 import com.google.location.lbs.gnss.gps.pseudorange.PseudorangePositionVelocityFromRealTimeEvents;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A class that handles real time position and velocity calculation, passing {@link
@@ -54,6 +74,23 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
   public static final int RESIDUAL_MODE_AT_INPUT_LOCATION = 2;
 
   private static final long EARTH_RADIUS_METERS = 6371000;
+  private static final String WARM_START_STATE_FILE_NAME = "warm_start_state.bin";
+  private static final long WARM_START_STATE_SAVE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final String GEOID_GRID_FILE_NAME = "geoid_grid.bin";
+  /** NGA EGM96 text grid converted into {@link #GEOID_GRID_FILE_NAME} when copied to the device */
+  private static final String WW15MGH_GRID_FILE_NAME = "WW15MGH.GRD";
+  /** Decimation of the EGM96 15 minutes grid into a 30 minutes grid of about 500 KB */
+  private static final int GEOID_GRID_DECIMATION_FACTOR = 2;
+  /** Configurations compared with the default one, see {@link #setSolverComparisonEnabled} */
+  private static final String[] COMPARED_CONFIGURATION_NAMES = {
+    "Carrier smoothing", "C/N0 >= 25 dB-Hz", "Kalman filter", "No atmospheric corrections"
+  };
+  /**
+   * Time from the reception of the measurements within which the compared configurations are waited
+   * for, unless the default configuration has an epoch time budget: measurements are reported once
+   * per second
+   */
+  private static final long SOLVER_COMPARISON_EPOCH_TIME_BUDGET_MILLIS = 1000;
   private PseudorangePositionVelocityFromRealTimeEvents
       mPseudorangePositionVelocityFromRealTimeEvents;
   private HandlerThread mPositionVelocityCalculationHandlerThread;
@@ -73,7 +110,17 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
   };
   private int mResidualPlotStatus;
   private double[] mGroundTruth = null;
-  private int mPositionSolutionCount = 0;
+  private File mWarmStartStateFile = null;
+  private GeoidGrid mGeoidGrid = null;
+  private long mLastWarmStartStateSaveTimeMillis = 0;
+  // Last reference position from the network location, as latitude, longitude and altitude * 1E7
+  private int[] mReferencePositionE7 = null;
+  // Calculators of the compared configurations and the executor computing them, null when the
+  // solver comparison is disabled
+  private PseudorangePositionVelocityFromRealTimeEvents[] mComparedCalculators = null;
+  private ExecutorService mSolverComparisonExecutor = null;
+  // Last solution of each compared configuration, which may still be in progress
+  private List<Future<Long>> mComparedSolutions = null;
 
   public RealTimePositionVelocityCalculator() {
     mPositionVelocityCalculationHandlerThread =
@@ -89,6 +136,9 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
             try {
               mPseudorangePositionVelocityFromRealTimeEvents =
                   new PseudorangePositionVelocityFromRealTimeEvents();
+              // Show a first position from the code locked satellites before their time of week is
+              // decoded
+              mPseudorangePositionVelocityFromRealTimeEvents.setCoarseTimeNavigationEnabled(true);
             } catch (Exception e) {
               Log.e(
                   MeasurementProvider.TAG,
@@ -136,10 +186,15 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
                 return;
               }
               try {
+                mReferencePositionE7 =
+                    new int[] {
+                      (int) (location.getLatitude() * 1E7),
+                      (int) (location.getLongitude() * 1E7),
+                      (int) (location.getAltitude() * 1E7)
+                    };
+                // The compared calculators get it with their next epoch
                 mPseudorangePositionVelocityFromRealTimeEvents.setReferencePosition(
-                    (int) (location.getLatitude() * 1E7),
-                    (int) (location.getLongitude() * 1E7),
-                    (int) (location.getAltitude() * 1E7));
+                    mReferencePositionE7[0], mReferencePositionE7[1], mReferencePositionE7[2]);
               } catch (Exception e) {
                 Log.e(MeasurementProvider.TAG, " Exception setting reference location : ", e);
               }
@@ -284,6 +339,8 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
   @Override
   public void onGnssMeasurementsReceived(final GnssMeasurementsEvent event) {
     mAllowShowingRawResults = true;
+    // The epoch time budget counts the time the measurements wait for the calculation thread
+    final long receivedNanoTime = System.nanoTime();
     final Runnable r =
         new Runnable() {
           @Override
@@ -307,17 +364,32 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
                 mPseudorangePositionVelocityFromRealTimeEvents
                     .setCorrectedResidualComputationTruthLocationLla(mGroundTruth);
               }
-              mPseudorangePositionVelocityFromRealTimeEvents
-                  .computePositionVelocitySolutionsFromRawMeas(event);
+              computePositionVelocitySolutions(event, receivedNanoTime);
+              maybeSaveWarmStartState();
               // Running on main thread instead of in parallel will improve the thread safety
               if (mResidualPlotStatus != RESIDUAL_MODE_DISABLED) {
+                // Copy the residuals as the calculator reuses its arrays at the next epoch
+                final int numberOfResiduals =
+                    mPseudorangePositionVelocityFromRealTimeEvents
+                        .getNumberOfPseudorangeResiduals();
+                final int[] satelliteKeys =
+                    Arrays.copyOf(
+                        mPseudorangePositionVelocityFromRealTimeEvents
+                            .getPseudorangeResidualSatelliteKeys(),
+                        numberOfResiduals);
+                final double[] residuals =
+                    Arrays.copyOf(
+                        mPseudorangePositionVelocityFromRealTimeEvents
+                            .getPseudorangeResidualsMeters(),
+                        numberOfResiduals);
                 mMainActivity.runOnUiThread(
                     new Runnable() {
                       @Override
                       public void run() {
                         mPlotFragment.updatePseudorangeResidualTab(
-                            mPseudorangePositionVelocityFromRealTimeEvents
-                                .getPseudorangeResidualsMeters(),
+                            satelliteKeys,
+                            residuals,
+                            numberOfResiduals,
                             TimeUnit.NANOSECONDS.toSeconds(event.getClock().getTimeNanos()));
                       }
                     });
@@ -328,8 +400,9 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
                       public void run() {
                         // Here we create gaps when the residual plot is disabled
                         mPlotFragment.updatePseudorangeResidualTab(
-                            GpsMathOperations.createAndFillArray(
-                                GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES, Double.NaN),
+                            new int[0],
+                            new double[0],
+                            0,
                             TimeUnit.NANOSECONDS.toSeconds(event.getClock().getTimeNanos()));
                       }
                     });
@@ -445,24 +518,20 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
       mGroundTruth[1] = posSolution[1];
       mGroundTruth[2] = posSolution[2];
     } else if (mResidualPlotStatus == RESIDUAL_MODE_STILL) {
-      // If the user is standing still, we average our WLS position solution
-      // Reference: https://en.wikipedia.org/wiki/Moving_average#Cumulative_moving_average
-      mGroundTruth[0] =
-          (mGroundTruth[0] * mPositionSolutionCount + posSolution[0])
-              / (mPositionSolutionCount + 1);
-      mGroundTruth[1] =
-          (mGroundTruth[1] * mPositionSolutionCount + posSolution[1])
-              / (mPositionSolutionCount + 1);
-      mGroundTruth[2] =
-          (mGroundTruth[2] * mPositionSolutionCount + posSolution[2])
-              / (mPositionSolutionCount + 1);
-      mPositionSolutionCount++;
+      // If the user is standing still, we use the position solved from the normal equations of all
+      // the epochs since the user stopped, once available
+      double[] staticPosSolution =
+          mPseudorangePositionVelocityFromRealTimeEvents.getStaticPositionSolutionLatLngDeg();
+      if (!Double.isNaN(staticPosSolution[0])) {
+        mGroundTruth[0] = staticPosSolution[0];
+        mGroundTruth[1] = staticPosSolution[1];
+        mGroundTruth[2] = staticPosSolution[2];
+      }
     } else if (mResidualPlotStatus == RESIDUAL_MODE_MOVING) {
       // If the user is moving fast, we use single WLS position solution
       mGroundTruth[0] = posSolution[0];
       mGroundTruth[1] = posSolution[1];
       mGroundTruth[2] = posSolution[2];
-      mPositionSolutionCount = 0;
     }
   }
 
@@ -479,9 +548,333 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
     this.mPlotFragment = plotFragment;
   }
 
-  /** Sets {@link MainActivity} for running some UI tasks on UI thread */
+  /**
+   * Sets {@link MainActivity} for running some UI tasks on UI thread, restores the warm start state
+   * of the position calculation saved in its files directory by a previous run and loads the geoid
+   * grid used for the tropospheric correction, see {@link #loadGeoidGrid}
+   */
   public void setMainActivity(MainActivity mainActivity) {
     this.mMainActivity = mainActivity;
+    mWarmStartStateFile = new File(mainActivity.getFilesDir(), WARM_START_STATE_FILE_NAME);
+    final File geoidGridFile = new File(mainActivity.getFilesDir(), GEOID_GRID_FILE_NAME);
+    File externalFilesDir = mainActivity.getExternalFilesDir(null);
+    final File ww15mghGridFile =
+        externalFilesDir == null ? null : new File(externalFilesDir, WW15MGH_GRID_FILE_NAME);
+    final Runnable r =
+        new Runnable() {
+          @Override
+          public void run() {
+            if (mPseudorangePositionVelocityFromRealTimeEvents == null) {
+              return;
+            }
+            mPseudorangePositionVelocityFromRealTimeEvents.restoreWarmStartState(
+                mWarmStartStateFile);
+            mGeoidGrid = loadGeoidGrid(geoidGridFile, ww15mghGridFile);
+            if (mGeoidGrid != null) {
+              // The compared calculators get it with their next epoch
+              mPseudorangePositionVelocityFromRealTimeEvents.setGeoidGrid(mGeoidGrid);
+            }
+          }
+        };
+    mMyPositionVelocityCalculationHandler.post(r);
+  }
+
+  /**
+   * Loads the binary geoid grid {@code geoidGridFile}. If it does not exist yet, it is first
+   * converted from the NGA EGM96 text grid {@code ww15mghGridFile}, which can be copied to the
+   * external files directory of the application. Returns null if there is no grid, in which case
+   * the tropospheric correction assumes a height of 0 meters above sea level. Must be called on the
+   * position calculation thread.
+   */
+  private static GeoidGrid loadGeoidGrid(File geoidGridFile, File ww15mghGridFile) {
+    try {
+      if (!geoidGridFile.exists()) {
+        if (ww15mghGridFile == null || !ww15mghGridFile.exists()) {
+          Log.d(MeasurementProvider.TAG, "No geoid grid available");
+          return null;
+        }
+        convertWw15mghGrid(ww15mghGridFile, geoidGridFile);
+      }
+      return GeoidGrid.fromFile(geoidGridFile);
+    } catch (IOException e) {
+      Log.e(MeasurementProvider.TAG, " Exception loading the geoid grid : ", e);
+      return null;
+    }
+  }
+
+  /** Converts the {@code WW15MGH.GRD} text grid {@code source} into the binary grid {@code dest} */
+  private static void convertWw15mghGrid(File source, File dest) throws IOException {
+    File temporaryFile = new File(dest.getPath() + ".tmp");
+    Reader reader = new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8);
+    try {
+      OutputStream outputStream = new FileOutputStream(temporaryFile);
+      try {
+        GeoidGrid.convertFromWw15mghGrid(reader, outputStream, GEOID_GRID_DECIMATION_FACTOR);
+      } finally {
+        outputStream.close();
+      }
+    } catch (IOException e) {
+      temporaryFile.delete();
+      throw e;
+    } finally {
+      reader.close();
+    }
+    if (!temporaryFile.renameTo(dest)) {
+      temporaryFile.delete();
+      throw new IOException("Cannot write " + dest);
+    }
+  }
+
+  /**
+   * Enables or disables the comparison of solver configurations, disabled by default. While
+   * enabled, each measurement event is also solved with each of {@link
+   * #COMPARED_CONFIGURATION_NAMES} on a bounded executor, meanwhile the default configuration is
+   * solved on the position calculation thread, and the solutions and CPU times of all of them are
+   * logged side by side. The compared calculators share the navigation messages and the geoid grid
+   * of the default one: they only read them, from the immutable snapshots published by its
+   * navigation message store and fetcher, so they may solve an epoch while the default calculator
+   * decodes new navigation messages.
+   */
+  public void setSolverComparisonEnabled(final boolean enabled) {
+    final Runnable r =
+        new Runnable() {
+          @Override
+          public void run() {
+            if (mPseudorangePositionVelocityFromRealTimeEvents == null
+                || enabled == (mSolverComparisonExecutor != null)) {
+              return;
+            }
+            if (enabled) {
+              startSolverComparison();
+            } else {
+              mSolverComparisonExecutor.shutdown();
+              mSolverComparisonExecutor = null;
+              for (PseudorangePositionVelocityFromRealTimeEvents calculator :
+                  mComparedCalculators) {
+                calculator.shutdown();
+              }
+              mComparedCalculators = null;
+              mComparedSolutions = null;
+            }
+          }
+        };
+    mMyPositionVelocityCalculationHandler.post(r);
+  }
+
+  /**
+   * Creates the calculators of {@link #COMPARED_CONFIGURATION_NAMES} and the executor computing
+   * them, with at most one thread per configuration and leaving a core to the position calculation
+   * thread. Must be called on the position calculation thread.
+   */
+  private void startSolverComparison() {
+    int numberOfConfigurations = COMPARED_CONFIGURATION_NAMES.length;
+    mComparedCalculators =
+        new PseudorangePositionVelocityFromRealTimeEvents[numberOfConfigurations];
+    for (int i = 0; i < numberOfConfigurations; i++) {
+      PseudorangePositionVelocityFromRealTimeEvents calculator =
+          PseudorangePositionVelocityFromRealTimeEvents.createSharingNavigationMessagesWith(
+              mPseudorangePositionVelocityFromRealTimeEvents);
+      calculator.setCoarseTimeNavigationEnabled(true);
+      if (mReferencePositionE7 != null) {
+        calculator.setReferencePosition(
+            mReferencePositionE7[0], mReferencePositionE7[1], mReferencePositionE7[2]);
+      }
+      switch (i) {
+        case 0:
+          calculator.setCarrierSmoothingEnabled(true);
+          break;
+        case 1:
+          calculator.setCToN0ThresholdDbHz(25.0);
+          break;
+        case 2:
+          calculator.setPositionVelocitySolver(
+              PseudorangePositionVelocityFromRealTimeEvents.SOLVER_EXTENDED_KALMAN_FILTER);
+          break;
+        case 3:
+          calculator.setAtmosphericCorrectionsEnabled(false);
+          break;
+        default:
+          throw new IllegalStateException("No compared configuration " + i);
+      }
+      mComparedCalculators[i] = calculator;
+    }
+    mComparedSolutions =
+        new ArrayList<>(Collections.<Future<Long>>nCopies(numberOfConfigurations, null));
+    int numberOfThreads =
+        Math.max(
+            1, Math.min(numberOfConfigurations, Runtime.getRuntime().availableProcessors() - 1));
+    mSolverComparisonExecutor =
+        new ThreadPoolExecutor(
+            numberOfThreads,
+            numberOfThreads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(numberOfConfigurations),
+            new ThreadFactoryBuilder()
+                .setNameFormat("SolverComparison-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  /**
+   * Computes the position and velocity solutions of {@code event} with the default configuration
+   * and, if the solver comparison is enabled, with the compared configurations, then logs them side
+   * by side. The compared configurations are waited for until the epoch time budget of the default
+   * configuration, or {@link #SOLVER_COMPARISON_EPOCH_TIME_BUDGET_MILLIS}, has elapsed since {@code
+   * receivedNanoTime}. A configuration still solving an earlier epoch skips this one, so that each
+   * calculator solves one epoch at a time. Must be called on the position calculation thread.
+   */
+  private void computePositionVelocitySolutions(
+      final GnssMeasurementsEvent event, final long receivedNanoTime) throws Exception {
+    if (mSolverComparisonExecutor == null) {
+      mPseudorangePositionVelocityFromRealTimeEvents.computePositionVelocitySolutionsFromRawMeas(
+          event, receivedNanoTime);
+      return;
+    }
+    // Set by the compared calculators themselves, as this thread does not wait for those still
+    // solving an earlier epoch
+    final int[] referencePositionE7 = mReferencePositionE7;
+    final GeoidGrid geoidGrid = mGeoidGrid;
+    boolean[] submitted = new boolean[mComparedCalculators.length];
+    for (int i = 0; i < mComparedCalculators.length; i++) {
+      Future<Long> solution = mComparedSolutions.get(i);
+      if (solution != null && !solution.isDone()) {
+        continue;
+      }
+      final PseudorangePositionVelocityFromRealTimeEvents calculator = mComparedCalculators[i];
+      mComparedSolutions.set(
+          i,
+          mSolverComparisonExecutor.submit(
+              new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                  if (referencePositionE7 != null) {
+                    calculator.setReferencePosition(
+                        referencePositionE7[0], referencePositionE7[1], referencePositionE7[2]);
+                  }
+                  if (geoidGrid != null) {
+                    calculator.setGeoidGrid(geoidGrid);
+                  }
+                  long startCpuTimeNanos = Debug.threadCpuTimeNanos();
+                  calculator.computePositionVelocitySolutionsFromRawMeas(event, receivedNanoTime);
+                  return Debug.threadCpuTimeNanos() - startCpuTimeNanos;
+                }
+              }));
+      submitted[i] = true;
+    }
+    Exception defaultException = null;
+    long startCpuTimeNanos = Debug.threadCpuTimeNanos();
+    try {
+      mPseudorangePositionVelocityFromRealTimeEvents.computePositionVelocitySolutionsFromRawMeas(
+          event, receivedNanoTime);
+    } catch (Exception e) {
+      defaultException = e;
+    }
+    long defaultCpuTimeNanos = Debug.threadCpuTimeNanos() - startCpuTimeNanos;
+
+    long epochTimeBudgetMillis =
+        mPseudorangePositionVelocityFromRealTimeEvents.getEpochTimeBudgetMillis();
+    long deadlineNanoTime =
+        receivedNanoTime
+            + TimeUnit.MILLISECONDS.toNanos(
+                epochTimeBudgetMillis > 0
+                    ? epochTimeBudgetMillis
+                    : SOLVER_COMPARISON_EPOCH_TIME_BUDGET_MILLIS);
+    double[] defaultPosition =
+        mPseudorangePositionVelocityFromRealTimeEvents.getPositionSolutionLatLngDeg();
+    StringBuilder comparison = new StringBuilder();
+    appendComparedSolution(
+        comparison, "Default", defaultPosition, defaultPosition, defaultCpuTimeNanos);
+    for (int i = 0; i < mComparedCalculators.length; i++) {
+      if (!submitted[i]) {
+        comparison
+            .append(COMPARED_CONFIGURATION_NAMES[i])
+            .append(": still solving an earlier epoch\n");
+        continue;
+      }
+      try {
+        long cpuTimeNanos =
+            mComparedSolutions
+                .get(i)
+                .get(Math.max(0, deadlineNanoTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+        appendComparedSolution(
+            comparison,
+            COMPARED_CONFIGURATION_NAMES[i],
+            mComparedCalculators[i].getPositionSolutionLatLngDeg(),
+            defaultPosition,
+            cpuTimeNanos);
+      } catch (ExecutionException e) {
+        comparison
+            .append(COMPARED_CONFIGURATION_NAMES[i])
+            .append(": ")
+            .append(e.getCause())
+            .append("\n");
+      } catch (TimeoutException e) {
+        comparison
+            .append(COMPARED_CONFIGURATION_NAMES[i])
+            .append(": over the epoch time budget\n");
+      }
+    }
+    logEvent("Solver Comparison", comparison.toString(), mCurrentColor);
+    if (defaultException != null) {
+      throw defaultException;
+    }
+  }
+
+  /**
+   * Appends to {@code comparison} the {@code position} of a configuration, its distance to the
+   * {@code defaultPosition} and the CPU time of its solution.
+   */
+  private void appendComparedSolution(
+      StringBuilder comparison,
+      String name,
+      double[] position,
+      double[] defaultPosition,
+      long cpuTimeNanos) {
+    comparison.append(name).append(": ");
+    if (Double.isNaN(position[0])) {
+      comparison.append("no position");
+    } else {
+      comparison
+          .append(new DecimalFormat("##.######").format(position[0]))
+          .append(", ")
+          .append(new DecimalFormat("##.######").format(position[1]))
+          .append(", ")
+          .append(new DecimalFormat("##.#").format(position[2]))
+          .append(" m");
+      if (!Double.isNaN(defaultPosition[0])) {
+        comparison
+            .append(", ")
+            .append(
+                new DecimalFormat("##.##")
+                    .format(
+                        getDistanceMeters(
+                            defaultPosition[0], defaultPosition[1], position[0], position[1])))
+            .append(" m from default");
+      }
+    }
+    comparison
+        .append(", CPU ")
+        .append(new DecimalFormat("##.###").format(cpuTimeNanos * 1e-6))
+        .append(" ms\n");
+  }
+
+  /**
+   * Saves the warm start state of the position calculation at most every {@link
+   * #WARM_START_STATE_SAVE_INTERVAL_MILLIS}. Must be called on the position calculation thread.
+   */
+  private void maybeSaveWarmStartState() {
+    long nowMillis = System.currentTimeMillis();
+    if (mWarmStartStateFile == null
+        || nowMillis - mLastWarmStartStateSaveTimeMillis < WARM_START_STATE_SAVE_INTERVAL_MILLIS) {
+      return;
+    }
+    mLastWarmStartStateSaveTimeMillis = nowMillis;
+    try {
+      mPseudorangePositionVelocityFromRealTimeEvents.saveWarmStartState(mWarmStartStateFile);
+    } catch (IOException e) {
+      Log.e(MeasurementProvider.TAG, " Exception saving warm start state : ", e);
+    }
   }
 
   /**
@@ -493,6 +886,8 @@ public class RealTimePositionVelocityCalculator implements MeasurementListener {
     if (mPseudorangePositionVelocityFromRealTimeEvents == null) {
       return;
     }
+    mPseudorangePositionVelocityFromRealTimeEvents.setStaticReceiverModeEnabled(
+        mResidualPlotStatus == RESIDUAL_MODE_STILL);
     switch (mResidualPlotStatus) {
       case RESIDUAL_MODE_MOVING:
         mPseudorangePositionVelocityFromRealTimeEvents
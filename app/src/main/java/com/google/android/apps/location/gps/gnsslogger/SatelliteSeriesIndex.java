@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.location.gps.gnsslogger;
+
+import com.google.location.lbs.gnss.gps.pseudorange.SatelliteKey;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns the series of a plot to the satellites in the order in which they are first seen, both
+ * in the data set of all the constellations and in the data set of the constellation of each
+ * satellite. A satellite keeps its series when the set of satellites changes between epochs, and
+ * all the signals of a satellite share its series.
+ */
+class SatelliteSeriesIndex {
+
+  private final Map<Integer, Integer> mSeriesIndex = new HashMap<>();
+  private final Map<Integer, Integer> mConstellationSeriesIndex = new HashMap<>();
+  private final int[] mNumberOfConstellationSeries;
+
+  /** Creates an index of the satellites of the constellation types up to {@code maxType}. */
+  SatelliteSeriesIndex(int maxType) {
+    mNumberOfConstellationSeries = new int[maxType + 1];
+  }
+
+  /** Returns the key of the satellite of {@code satelliteKey} shared by all its signals. */
+  private static int getSatellite(int satelliteKey) {
+    return SatelliteKey.create(
+        SatelliteKey.getConstellationType(satelliteKey),
+        SatelliteKey.getSvid(satelliteKey),
+        SatelliteKey.SIGNAL_L1);
+  }
+
+  /**
+   * Assigns the next series of the data set of all the constellations and of the data set of its
+   * constellation to the satellite of {@code satelliteKey} if it has not been seen. Returns {@code
+   * true} if the satellite is new.
+   */
+  boolean add(int satelliteKey) {
+    int satellite = getSatellite(satelliteKey);
+    if (mSeriesIndex.containsKey(satellite)) {
+      return false;
+    }
+    int constellationType = SatelliteKey.getConstellationType(satelliteKey);
+    mSeriesIndex.put(satellite, mSeriesIndex.size());
+    mConstellationSeriesIndex.put(satellite, mNumberOfConstellationSeries[constellationType]++);
+    return true;
+  }
+
+  /**
+   * Returns the series of the satellite of {@code satelliteKey} in the data set of all the
+   * constellations, or -1 if it has not been seen.
+   */
+  int getSeries(int satelliteKey) {
+    Integer series = mSeriesIndex.get(getSatellite(satelliteKey));
+    return series == null ? -1 : series;
+  }
+
+  /**
+   * Returns the series of the satellite of {@code satelliteKey} in the data set of its
+   * constellation, or -1 if it has not been seen.
+   */
+  int getConstellationSeries(int satelliteKey) {
+    Integer series = mConstellationSeriesIndex.get(getSatellite(satelliteKey));
+    return series == null ? -1 : series;
+  }
+
+  /** Returns the number of satellites seen, i.e. of series in the data set of all satellites. */
+  int size() {
+    return mSeriesIndex.size();
+  }
+}
@@ -230,6 +230,23 @@ public class SettingsFragment extends Fragment {
           }
         });
 
+    final Switch solverComparison = (Switch) view.findViewById(R.id.solver_comparison_enabled);
+    final TextView turnOnSolverComparison =
+        (TextView) view.findViewById(R.id.turn_on_solver_comparison);
+    turnOnSolverComparison.setText("Switch is OFF");
+    solverComparison.setOnCheckedChangeListener(
+        new OnCheckedChangeListener() {
+          @Override
+          public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            mRealTimePositionVelocityCalculator.setSolverComparisonEnabled(isChecked);
+            if (isChecked) {
+              turnOnSolverComparison.setText("Switch is ON");
+            } else {
+              turnOnSolverComparison.setText("Switch is OFF");
+            }
+          }
+        });
+
     final Switch registerRinex = view.findViewById(R.id.register_rinex);
     final TextView registerRinexLabel = view.findViewById(R.id.register_rinex_label);
     // set the switch to OFF
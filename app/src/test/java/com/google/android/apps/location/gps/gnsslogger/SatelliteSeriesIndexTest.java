@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.location.gps.gnsslogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.location.lbs.gnss.gps.pseudorange.SatelliteKey;
+import org.junit.Test;
+
+/** Tests for {@link SatelliteSeriesIndex}. */
+public class SatelliteSeriesIndexTest {
+
+  private static final int GPS = 1;
+  private static final int GLONASS = 3;
+  private static final int GALILEO = 6;
+
+  private static int l1(int constellationType, int svid) {
+    return SatelliteKey.create(constellationType, svid, SatelliteKey.SIGNAL_L1);
+  }
+
+  private static int l5(int constellationType, int svid) {
+    return SatelliteKey.create(constellationType, svid, SatelliteKey.SIGNAL_L5);
+  }
+
+  @Test
+  public void getSeries_unseenSatellite_returnsMinusOne() {
+    SatelliteSeriesIndex index = new SatelliteSeriesIndex(GALILEO);
+
+    assertEquals(-1, index.getSeries(l1(GPS, 5)));
+    assertEquals(-1, index.getConstellationSeries(l1(GPS, 5)));
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void add_assignsSeriesInFirstSeenOrder() {
+    SatelliteSeriesIndex index = new SatelliteSeriesIndex(GALILEO);
+
+    assertTrue(index.add(l1(GPS, 5)));
+    assertTrue(index.add(l1(GALILEO, 11)));
+    assertTrue(index.add(l1(GPS, 2)));
+    assertFalse(index.add(l1(GPS, 5)));
+
+    assertEquals(0, index.getSeries(l1(GPS, 5)));
+    assertEquals(1, index.getSeries(l1(GALILEO, 11)));
+    assertEquals(2, index.getSeries(l1(GPS, 2)));
+    // The data set of each constellation counts its own satellites
+    assertEquals(0, index.getConstellationSeries(l1(GPS, 5)));
+    assertEquals(0, index.getConstellationSeries(l1(GALILEO, 11)));
+    assertEquals(1, index.getConstellationSeries(l1(GPS, 2)));
+    assertEquals(3, index.size());
+  }
+
+  @Test
+  public void add_sameSvidInOtherConstellations_getsDistinctSeries() {
+    SatelliteSeriesIndex index = new SatelliteSeriesIndex(GALILEO);
+
+    index.add(l1(GPS, 7));
+    index.add(l1(GLONASS, 7));
+    index.add(l1(GALILEO, 7));
+
+    assertEquals(0, index.getSeries(l1(GPS, 7)));
+    assertEquals(1, index.getSeries(l1(GLONASS, 7)));
+    assertEquals(2, index.getSeries(l1(GALILEO, 7)));
+  }
+
+  @Test
+  public void add_signalsOfOneSatellite_shareItsSeries() {
+    SatelliteSeriesIndex index = new SatelliteSeriesIndex(GALILEO);
+
+    assertTrue(index.add(l5(GPS, 24)));
+    assertFalse(index.add(l1(GPS, 24)));
+
+    assertEquals(0, index.getSeries(l1(GPS, 24)));
+    assertEquals(0, index.getSeries(l5(GPS, 24)));
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  public void getSeries_satelliteSetChangingBetweenEpochs_keepsSeriesOfEachSatellite() {
+    SatelliteSeriesIndex index = new SatelliteSeriesIndex(GALILEO);
+    // Residuals reported in slot order, the slots being reassigned at every epoch
+    int[][] epochs = {
+      {l1(GPS, 5), l1(GPS, 12), l5(GPS, 12), l1(GALILEO, 3)},
+      {l1(GALILEO, 3), l1(GPS, 12)},
+      {l1(GPS, 30), l1(GALILEO, 8), l1(GPS, 12)},
+      {l1(GPS, 5), l5(GALILEO, 3), l1(GPS, 30)},
+      {}
+    };
+    int[][] expectedSeries = {{0, 1, 1, 2}, {2, 1}, {3, 4, 1}, {0, 2, 3}, {}};
+    int[][] expectedConstellationSeries = {{0, 1, 1, 0}, {0, 1}, {2, 1, 1}, {0, 0, 2}, {}};
+
+    for (int epoch = 0; epoch < epochs.length; epoch++) {
+      for (int i = 0; i < epochs[epoch].length; i++) {
+        int satelliteKey = epochs[epoch][i];
+        index.add(satelliteKey);
+
+        String message = "Epoch " + epoch + " residual " + i;
+        assertEquals(message, expectedSeries[epoch][i], index.getSeries(satelliteKey));
+        assertEquals(
+            message,
+            expectedConstellationSeries[epoch][i],
+            index.getConstellationSeries(satelliteKey));
+      }
+    }
+    assertEquals(5, index.size());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link Ecef2LlaConverter} on user positions spread within 100 km of the receiver of
+ * the fixture, one conversion per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Ecef2LlaConverterBenchmark {
+
+  private static final int NUMBER_OF_POSITIONS = 1024;
+  private static final double SPREAD_METERS = 100_000.0;
+  private static final long SEED = 1;
+
+  private final double[][] positionsEcefMeters = new double[NUMBER_OF_POSITIONS][3];
+  private int position;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(SEED);
+    for (double[] positionEcefMeters : positionsEcefMeters) {
+      for (int i = 0; i < 3; i++) {
+        positionEcefMeters[i] =
+            BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS[i]
+                + SPREAD_METERS * (2 * random.nextDouble() - 1);
+      }
+    }
+  }
+
+  /** Closed form conversion. */
+  @Benchmark
+  public GeodeticLlaValues closeForm() {
+    double[] positionEcefMeters = next();
+    return Ecef2LlaConverter.convertECEFToLLACloseForm(
+        positionEcefMeters[0], positionEcefMeters[1], positionEcefMeters[2]);
+  }
+
+  /** Iterative conversion. */
+  @Benchmark
+  public GeodeticLlaValues byIterations() {
+    double[] positionEcefMeters = next();
+    return Ecef2LlaConverter.convertECEFToLLAByIterations(
+        positionEcefMeters[0], positionEcefMeters[1], positionEcefMeters[2]);
+  }
+
+  private double[] next() {
+    position = (position + 1) % NUMBER_OF_POSITIONS;
+    return positionsEcefMeters[position];
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the decoding of {@link GpsNavigationMessageStore} on the subframes of the fixture, as
+ * received from all the satellites during {@link BenchmarkFixture#NUMBER_OF_FRAMES} frames. Each
+ * invocation decodes all of them into a new store, and an operation is one subframe: mostly
+ * repeated ephemeris subframes, as in an actual log.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GpsNavigationMessageStoreBenchmark {
+
+  private static final int NUMBER_OF_SUBFRAMES =
+      BenchmarkFixture.NUMBER_OF_FRAMES * 5 * BenchmarkFixture.NUMBER_OF_SATELLITES;
+  private static final byte GPS_L1CA_MESSAGE_TYPE = 1;
+
+  private BenchmarkFixture fixture;
+
+  @Setup
+  public void setUp() throws Exception {
+    fixture = BenchmarkFixture.create();
+    // Fail early if the subframes do not decode into the ephemerides of the fixture
+    GpsNavMessageProto navMessageProto = decodeSubframes();
+    if (navMessageProto.ephemerids.length != BenchmarkFixture.NUMBER_OF_SATELLITES
+        || navMessageProto.iono == null) {
+      throw new IllegalStateException("The subframes of the fixture are not decoded");
+    }
+  }
+
+  /** Decodes all the subframes into a new store. */
+  @Benchmark
+  @OperationsPerInvocation(NUMBER_OF_SUBFRAMES)
+  public GpsNavMessageProto decodeSubframes() {
+    GpsNavigationMessageStore store = new GpsNavigationMessageStore();
+    for (int i = 0; i < fixture.subframes.length; i++) {
+      store.onNavMessageReported(
+          fixture.subframePrns[i],
+          GPS_L1CA_MESSAGE_TYPE,
+          fixture.subframeIds[i],
+          fixture.subframes[i]);
+    }
+    return store.createDecodedNavMessage();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.location.lbs.gnss.gps.pseudorange.EcefToTopocentricConverter.TopocentricAEDValues;
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the Klobuchar model of {@link IonosphericModel} at the receiver of the fixture, one
+ * satellite per operation, cycling through the satellites of all the epochs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IonosphericModelBenchmark {
+
+  private final double[] userPositionEcefMeters = BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS;
+  private double[][] satellitePositionsEcefMeters;
+  private double[] transmitTowSeconds;
+  private double[] elevationsRadians;
+  private double[] azimuthsRadians;
+  private GeodeticLlaValues userLla;
+  private int measurement;
+
+  @Setup
+  public void setUp() throws Exception {
+    BenchmarkFixture fixture = BenchmarkFixture.create();
+    satellitePositionsEcefMeters = fixture.satellitePositionsEcefMeters;
+    transmitTowSeconds = fixture.transmitTowSeconds;
+    elevationsRadians = new double[satellitePositionsEcefMeters.length];
+    azimuthsRadians = new double[satellitePositionsEcefMeters.length];
+    for (int i = 0; i < elevationsRadians.length; i++) {
+      TopocentricAEDValues elevationAzimuthDistance =
+          EcefToTopocentricConverter.calculateElAzDistBetween2Points(
+              userPositionEcefMeters, satellitePositionsEcefMeters[i]);
+      elevationsRadians[i] = elevationAzimuthDistance.elevationRadians;
+      azimuthsRadians[i] = elevationAzimuthDistance.azimuthRadians;
+    }
+    userLla =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+            userPositionEcefMeters[0], userPositionEcefMeters[1], userPositionEcefMeters[2]);
+  }
+
+  /** Correction from the ECEF positions, computing the elevation and azimuth of the satellite. */
+  @Benchmark
+  public double correctionFromPositions() {
+    next();
+    return IonosphericModel.ionoKlobucharCorrectionSeconds(
+        userPositionEcefMeters,
+        satellitePositionsEcefMeters[measurement],
+        transmitTowSeconds[measurement],
+        BenchmarkFixture.IONOSPHERIC_ALPHA,
+        BenchmarkFixture.IONOSPHERIC_BETA,
+        IonosphericModel.L1_FREQ_HZ);
+  }
+
+  /** Correction from the elevation, azimuth and geodetic user position computed beforehand. */
+  @Benchmark
+  public double correctionFromElevationAndAzimuth() {
+    next();
+    return IonosphericModel.ionoKlobucharCorrectionSeconds(
+        elevationsRadians[measurement],
+        azimuthsRadians[measurement],
+        userLla.latitudeRadians,
+        userLla.longitudeRadians,
+        transmitTowSeconds[measurement],
+        BenchmarkFixture.IONOSPHERIC_ALPHA,
+        BenchmarkFixture.IONOSPHERIC_BETA,
+        IonosphericModel.L1_FREQ_HZ);
+  }
+
+  private void next() {
+    if (++measurement == transmitTowSeconds.length) {
+      measurement = 0;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.location.lbs.gnss.gps.pseudorange.UserPositionVelocityWeightedLeastSquare.SatellitesPositionPseudorangesResidualAndCovarianceMatrix;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link ResidualCorrectionCalculator} on the satellites of the first epoch of the
+ * fixture, with the solution of the least square and residuals of a 1 meter Gaussian noise, one
+ * correction of all the residuals of the epoch per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResidualCorrectionCalculatorBenchmark {
+
+  private static final long SEED = 1;
+
+  private SatellitesPositionPseudorangesResidualAndCovarianceMatrix
+      satellitesPositionPseudorangesResidual;
+  private final double[] positionVelocitySolutionEcef = new double[8];
+
+  @Setup
+  public void setUp() throws Exception {
+    BenchmarkFixture fixture = BenchmarkFixture.create();
+    GpsEpochMeasurements epoch = fixture.epochs[0];
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    leastSquare.setGeoidHeightMeters(0.0);
+    leastSquare.calculateUserPositionVelocityLeastSquare(
+        fixture.navMessage,
+        epoch,
+        fixture.receiverTowSeconds[0],
+        BenchmarkFixture.GPS_WEEK,
+        BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+        positionVelocitySolutionEcef,
+        null /*positionVelocityUncertaintyEnu*/,
+        new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+
+    Random random = new Random(SEED);
+    int numberOfSatellites = epoch.getNumberOfValidSatellites();
+    int[] satelliteSlots = new int[numberOfSatellites];
+    double[][] satellitesPositionsMeters = new double[numberOfSatellites][];
+    double[] pseudorangeResidualsMeters = new double[numberOfSatellites];
+    double[][] covarianceMatrixMetersSquare = new double[numberOfSatellites][numberOfSatellites];
+    for (int i = 0; i < numberOfSatellites; i++) {
+      satelliteSlots[i] = i;
+      satellitesPositionsMeters[i] = fixture.satellitePositionsEcefMeters[i];
+      pseudorangeResidualsMeters[i] = random.nextGaussian();
+      covarianceMatrixMetersSquare[i][i] =
+          epoch.pseudorangeUncertaintyMeters[i] * epoch.pseudorangeUncertaintyMeters[i];
+    }
+    satellitesPositionPseudorangesResidual =
+        new SatellitesPositionPseudorangesResidualAndCovarianceMatrix(
+            satelliteSlots,
+            satellitesPositionsMeters,
+            pseudorangeResidualsMeters,
+            covarianceMatrixMetersSquare);
+  }
+
+  /** Corrects the residuals with the clock bias of the highest elevation satellites. */
+  @Benchmark
+  public double[] correctedResiduals() {
+    return ResidualCorrectionCalculator.calculateCorrectedResiduals(
+        satellitesPositionPseudorangesResidual,
+        positionVelocitySolutionEcef,
+        BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.RangeAndRangeRate;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link SatellitePositionCalculator} on the satellites of the fixture, one satellite
+ * position and velocity per operation, cycling through the satellites and the epochs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SatellitePositionCalculatorBenchmark {
+
+  private static final double TIME_OF_FLIGHT_SECONDS = 0.075;
+
+  private GpsEphemerisProto[] ephemerides;
+  private double[] transmitTowSeconds;
+  private final double[] userPositionEcefMeters = BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS;
+  private final RangeAndRangeRate userSatRangeAndRate = new RangeAndRangeRate(0.0, 0.0);
+  private final PositionAndVelocity satPosAndVel =
+      new PositionAndVelocity(0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+  private int satellite;
+  private int epoch;
+
+  @Setup
+  public void setUp() throws Exception {
+    BenchmarkFixture fixture = BenchmarkFixture.create();
+    ephemerides = fixture.navMessage.ephemerids;
+    transmitTowSeconds = new double[fixture.receiverTowSeconds.length];
+    for (int i = 0; i < transmitTowSeconds.length; i++) {
+      transmitTowSeconds[i] = fixture.receiverTowSeconds[i] - TIME_OF_FLIGHT_SECONDS;
+    }
+  }
+
+  /** Position and velocity including the rotation of the earth during the time of flight. */
+  @Benchmark
+  public PositionAndVelocity positionAndVelocityFromEphemeris() throws Exception {
+    next();
+    return SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+        ephemerides[satellite],
+        transmitTowSeconds[epoch],
+        BenchmarkFixture.GPS_WEEK,
+        userPositionEcefMeters[0],
+        userPositionEcefMeters[1],
+        userPositionEcefMeters[2]);
+  }
+
+  /** Position and velocity written into a reused {@link PositionAndVelocity}. */
+  @Benchmark
+  public PositionAndVelocity positionAndVelocity() throws Exception {
+    next();
+    SatellitePositionCalculator.calculateSatellitePositionAndVelocity(
+        ephemerides[satellite],
+        transmitTowSeconds[epoch],
+        BenchmarkFixture.GPS_WEEK,
+        userSatRangeAndRate,
+        satPosAndVel);
+    return satPosAndVel;
+  }
+
+  private void next() {
+    if (++satellite == ephemerides.length) {
+      satellite = 0;
+      epoch = (epoch + 1) % transmitTowSeconds.length;
+    }
+  }
+}
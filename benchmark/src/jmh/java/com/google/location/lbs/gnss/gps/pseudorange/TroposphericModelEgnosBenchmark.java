@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.location.lbs.gnss.gps.pseudorange.EcefToTopocentricConverter.TopocentricAEDValues;
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import com.google.location.lbs.gnss.gps.pseudorange.TroposphericModelEgnos.ReceiverTerms;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link TroposphericModelEgnos} at the receiver of the fixture, one satellite per
+ * operation, cycling through the elevations of the satellites of all the epochs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TroposphericModelEgnosBenchmark {
+
+  private double[] elevationsRadians;
+  private double userLatitudeRadians;
+  private double heightMetersAboveSeaLevel;
+  private ReceiverTerms receiverTerms;
+  private int measurement;
+
+  @Setup
+  public void setUp() throws Exception {
+    BenchmarkFixture fixture = BenchmarkFixture.create();
+    elevationsRadians = new double[fixture.satellitePositionsEcefMeters.length];
+    for (int i = 0; i < elevationsRadians.length; i++) {
+      TopocentricAEDValues elevationAzimuthDistance =
+          EcefToTopocentricConverter.calculateElAzDistBetween2Points(
+              BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS,
+              fixture.satellitePositionsEcefMeters[i]);
+      elevationsRadians[i] = elevationAzimuthDistance.elevationRadians;
+    }
+    GeodeticLlaValues receiverLla =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+            BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS[0],
+            BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS[1],
+            BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS[2]);
+    userLatitudeRadians = receiverLla.latitudeRadians;
+    heightMetersAboveSeaLevel = receiverLla.altitudeMeters;
+    receiverTerms =
+        TroposphericModelEgnos.calculateReceiverTerms(
+            userLatitudeRadians, heightMetersAboveSeaLevel, BenchmarkFixture.DAY_OF_YEAR_1_TO_366);
+  }
+
+  /** Correction computing the zenith delays and mapping coefficients of the receiver each time. */
+  @Benchmark
+  public double correction() {
+    return TroposphericModelEgnos.calculateTropoCorrectionMeters(
+        nextElevationRadians(),
+        userLatitudeRadians,
+        heightMetersAboveSeaLevel,
+        BenchmarkFixture.DAY_OF_YEAR_1_TO_366);
+  }
+
+  /** Correction with the receiver terms computed once for all the satellites. */
+  @Benchmark
+  public double correctionWithReceiverTerms() {
+    return TroposphericModelEgnos.calculateTropoCorrectionMeters(
+        nextElevationRadians(), receiverTerms);
+  }
+
+  private double nextElevationRadians() {
+    if (++measurement == elevationsRadians.length) {
+      measurement = 0;
+    }
+    return elevationsRadians[measurement];
+  }
+}
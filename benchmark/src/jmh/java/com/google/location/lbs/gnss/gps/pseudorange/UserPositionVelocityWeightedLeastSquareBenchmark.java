@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the full {@link
+ * UserPositionVelocityWeightedLeastSquare#calculateUserPositionVelocityLeastSquare} on the epochs
+ * of the fixture, one epoch per operation. As in the real time pipeline, the solution of an epoch
+ * is the initial estimate of the next one, except after the last epoch, when the solver starts
+ * again from the center of the earth.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UserPositionVelocityWeightedLeastSquareBenchmark {
+
+  /** Tolerance, iteration budget and atmospheric correction policy of the least square */
+  @Param({"PRECISE", "BALANCED", "FAST"})
+  public String profile;
+
+  private BenchmarkFixture fixture;
+  private UserPositionVelocityWeightedLeastSquare leastSquare;
+  private final double[] positionVelocitySolutionEcef = new double[8];
+  private final double[] positionVelocityUncertaintyEnu = new double[6];
+  private final double[] pseudorangeResidualMeters =
+      new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private int epoch;
+
+  @Setup
+  public void setUp() throws Exception {
+    fixture = BenchmarkFixture.create();
+    leastSquare =
+        new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    // A fixed geoid height, the Elevation API must not be queried
+    leastSquare.setGeoidHeightMeters(0.0);
+    leastSquare.setProfile(getProfile(profile));
+  }
+
+  /** Position, velocity, clock and uncertainties of one epoch. */
+  @Benchmark
+  public double[] positionVelocity() throws Exception {
+    if (++epoch == fixture.epochs.length) {
+      epoch = 0;
+      Arrays.fill(positionVelocitySolutionEcef, 0.0);
+    }
+    leastSquare.calculateUserPositionVelocityLeastSquare(
+        fixture.navMessage,
+        fixture.epochs[epoch],
+        fixture.receiverTowSeconds[epoch],
+        BenchmarkFixture.GPS_WEEK,
+        BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+        positionVelocitySolutionEcef,
+        positionVelocityUncertaintyEnu,
+        pseudorangeResidualMeters);
+    return positionVelocitySolutionEcef;
+  }
+
+  private static LeastSquareProfile getProfile(String name) {
+    switch (name) {
+      case "PRECISE":
+        return LeastSquareProfile.PRECISE;
+      case "BALANCED":
+        return LeastSquareProfile.BALANCED;
+      case "FAST":
+        return LeastSquareProfile.FAST;
+      default:
+        throw new IllegalArgumentException("Unknown profile: " + name);
+    }
+  }
+}
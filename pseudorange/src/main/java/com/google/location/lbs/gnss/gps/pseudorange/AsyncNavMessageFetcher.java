@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.util.Log;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fetches GPS assistance navigation messages from a {@link NavMessageSource} on a background thread
+ * and publishes the latest successfully fetched message atomically.
+ *
+ * <p>The positioning thread never blocks: it calls {@link #requestRefreshIfNeeded} at each epoch,
+ * which only schedules a fetch, and reads the published message with {@link
+ * #getLatestNavMessage()}. A refresh is scheduled if no message was fetched yet, if the ephemeris
+ * of a visible satellite is about to leave its validity interval around the time of ephemeris
+ * (TOE), or if a visible satellite has no ephemeris. Such refreshes are at least {@link
+ * #MINIMUM_REFRESH_INTERVAL_MILLIS} apart from the last successful fetch, and failed fetches are
+ * retried with an exponential backoff.
+ */
+class AsyncNavMessageFetcher {
+
+  private static final String TAG = "AsyncNavMessageFetcher";
+  private static final int SECONDS_IN_WEEK = 604800;
+  /** A broadcast ephemeris is valid within 2 hours of its TOE (4 hours fit interval) */
+  static final double EPHEMERIS_VALIDITY_SECONDS = TimeUnit.HOURS.toSeconds(2);
+  /** An ephemeris is refreshed this long before it becomes invalid */
+  private static final double EPHEMERIS_REFRESH_MARGIN_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+  /**
+   * Minimum time between a successful fetch and the next refresh, as the assistance server may not
+   * provide an ephemeris for every visible satellite, nor a newer one for an expiring ephemeris
+   */
+  @VisibleForTesting
+  static final long MINIMUM_REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  @VisibleForTesting static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(2);
+  private static final long MAXIMUM_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final long NEVER = Long.MIN_VALUE;
+
+  private final NavMessageSource navMessageSource;
+  private final ExecutorService executorService;
+  private final Ticker ticker;
+  private final AtomicReference<GpsNavMessageProto> latestNavMessage =
+      new AtomicReference<GpsNavMessageProto>();
+  private final AtomicBoolean fetchInProgress = new AtomicBoolean(false);
+
+  // Written by the background thread and read by the positioning thread
+  private volatile long lastSuccessfulFetchTimeMillis = NEVER;
+  private volatile long nextAllowedAttemptTimeMillis = NEVER;
+  private volatile long backoffMillis = INITIAL_BACKOFF_MILLIS;
+
+  /** Constructor fetching navigation messages from {@code navMessageSource}. */
+  public AsyncNavMessageFetcher(NavMessageSource navMessageSource) {
+    this(
+        navMessageSource,
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat(TAG + "-%d").setDaemon(true).build()),
+        Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor fetching navigation messages from {@code navMessageSource} on {@code
+   * executorService}, and measuring the refresh intervals and backoffs with {@code ticker}.
+   */
+  @VisibleForTesting
+  AsyncNavMessageFetcher(
+      NavMessageSource navMessageSource, ExecutorService executorService, Ticker ticker) {
+    this.navMessageSource = navMessageSource;
+    this.executorService = executorService;
+    this.ticker = ticker;
+  }
+
+  /**
+   * Returns the latest successfully fetched navigation message, or {@code null} if none was
+   * fetched yet. This call never blocks.
+   */
+  public GpsNavMessageProto getLatestNavMessage() {
+    return latestNavMessage.get();
+  }
+
+  /**
+   * Publishes {@code navMessage}, e.g. restored from a previous run, unless a message was already
+   * fetched. Its ephemerides are refreshed as usual once they expire.
+   */
+  public void setInitialNavMessage(GpsNavMessageProto navMessage) {
+    latestNavMessage.compareAndSet(null, navMessage);
+  }
+
+  /**
+   * Schedules a background fetch of the navigation message around the reference location if the
+   * published message is missing, about to expire or lacks the ephemeris of a visible satellite.
+   * Returns immediately.
+   *
+   * @param latE7 latitude of the reference location in degrees multiplied by 1e7
+   * @param lngE7 longitude of the reference location in degrees multiplied by 1e7
+   * @param visibleSatellitesMask bitmask of the satellites currently used for positioning, bit
+   *     {@code PRN - 1} being set for each of them
+   * @param gpsTowSeconds current GPS time of week in seconds
+   * @param gpsWeek current full GPS week number
+   * @return {@code true} if a fetch was scheduled
+   */
+  public boolean requestRefreshIfNeeded(
+      long latE7,
+      long lngE7,
+      long visibleSatellitesMask,
+      double gpsTowSeconds,
+      int gpsWeek) {
+    long nowMillis = getTimeMillis();
+    if (fetchInProgress.get() || nowMillis < nextAllowedAttemptTimeMillis) {
+      return false;
+    }
+    GpsNavMessageProto navMessage = latestNavMessage.get();
+    if (navMessage != null) {
+      if (lastSuccessfulFetchTimeMillis != NEVER
+          && nowMillis - lastSuccessfulFetchTimeMillis < MINIMUM_REFRESH_INTERVAL_MILLIS) {
+        return false;
+      }
+      if (!isAnyEphemerisExpiring(navMessage, visibleSatellitesMask, gpsTowSeconds, gpsWeek)
+          && !isAnyEphemerisMissing(navMessage, visibleSatellitesMask)) {
+        return false;
+      }
+    }
+    return scheduleFetch(latE7, lngE7);
+  }
+
+  /** Schedules a background fetch unless one is already in progress. */
+  public boolean scheduleFetch(final long latE7, final long lngE7) {
+    if (!fetchInProgress.compareAndSet(false, true)) {
+      return false;
+    }
+    executorService.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            fetch(latE7, lngE7);
+          }
+        });
+    return true;
+  }
+
+  /** Stops the background thread. Fetches in progress are interrupted. */
+  public void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  private void fetch(long latE7, long lngE7) {
+    try {
+      GpsNavMessageProto navMessage = navMessageSource.fetchNavMessage(latE7, lngE7);
+      if (navMessage == null || navMessage.iono == null || navMessage.ephemerids.length == 0) {
+        onFetchFailed("empty navigation message");
+        return;
+      }
+      latestNavMessage.set(navMessage);
+      lastSuccessfulFetchTimeMillis = getTimeMillis();
+      nextAllowedAttemptTimeMillis = NEVER;
+      backoffMillis = INITIAL_BACKOFF_MILLIS;
+      Log.d(TAG, "Fetched " + navMessage.ephemerids.length + " ephemerides");
+    } catch (Exception e) {
+      onFetchFailed(e.toString());
+    } finally {
+      fetchInProgress.set(false);
+    }
+  }
+
+  private void onFetchFailed(String reason) {
+    Log.d(TAG, "Navigation message fetch failed, retrying in " + backoffMillis + " ms: " + reason);
+    nextAllowedAttemptTimeMillis = getTimeMillis() + backoffMillis;
+    backoffMillis = Math.min(backoffMillis * 2, MAXIMUM_BACKOFF_MILLIS);
+  }
+
+  private long getTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+  }
+
+  /**
+   * Returns {@code true} if the ephemeris of any visible satellite in {@code navMessage} leaves its
+   * validity interval within {@link #EPHEMERIS_REFRESH_MARGIN_SECONDS}.
+   */
+  private static boolean isAnyEphemerisExpiring(
+      GpsNavMessageProto navMessage,
+      long visibleSatellitesMask,
+      double gpsTowSeconds,
+      int gpsWeek) {
+    for (GpsEphemerisProto ephemeris : navMessage.ephemerids) {
+      int index = ephemeris.prn - 1;
+      if (index < 0 || index >= Long.SIZE || (visibleSatellitesMask & (1L << index)) == 0) {
+        continue;
+      }
+      double secondsSinceToe =
+          (gpsWeek - ephemeris.week) * (double) SECONDS_IN_WEEK + gpsTowSeconds - ephemeris.toe;
+      if (secondsSinceToe > EPHEMERIS_VALIDITY_SECONDS - EPHEMERIS_REFRESH_MARGIN_SECONDS) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns {@code true} if a visible satellite has no ephemeris in {@code navMessage}. */
+  private static boolean isAnyEphemerisMissing(
+      GpsNavMessageProto navMessage, long visibleSatellitesMask) {
+    long missingSatellitesMask = visibleSatellitesMask;
+    for (GpsEphemerisProto ephemeris : navMessage.ephemerids) {
+      int index = ephemeris.prn - 1;
+      if (index >= 0 && index < Long.SIZE) {
+        missingSatellitesMask &= ~(1L << index);
+      }
+    }
+    return missingSatellitesMask != 0;
+  }
+}
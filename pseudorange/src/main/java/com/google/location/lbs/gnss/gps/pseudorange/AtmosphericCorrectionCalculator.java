@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import com.google.location.lbs.gnss.gps.pseudorange.TroposphericModelEgnos.ReceiverTerms;
+
+/**
+ * Calculates the ionospheric and tropospheric corrections of the pseudoranges of all visible
+ * satellites at a given epoch.
+ *
+ * <p>The terms that only depend on the receiver, i.e. its geodetic position, the rotation from
+ * ECEF to the local ENU frame and the EGNOS zenith delays and mapping coefficients, are computed
+ * once and reused for every satellite. They are refreshed whenever the receiver position, the
+ * height above sea level or the day of the year changes. Per satellite only the elevation and
+ * azimuth, the mapping functions and the Klobuchar pierce point terms are evaluated, and the
+ * corrections are numerically identical to calling {@link IonosphericModel} and {@link
+ * TroposphericModelEgnos} per satellite.
+ *
+ * <p>This class is not thread safe.
+ */
+class AtmosphericCorrectionCalculator {
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double MIN_DISTANCE_MAGNITUDE_METERS = 1.0e-22;
+
+  private final double[] receiverPositionEcefMeters = new double[3];
+  private boolean hasReceiverPosition = false;
+  private GeodeticLlaValues receiverLla;
+  // Rows of the ECEF to ENU rotation matrix at the receiver position
+  private double[][] ecefToEnuRotation;
+
+  private ReceiverTerms troposphericReceiverTerms;
+  private double troposphericHeightMetersAboveSeaLevel = Double.NaN;
+  private int troposphericDayOfYear1To366 = -1;
+
+  /**
+   * Updates the receiver position in ECEF meters. The geodetic position and the ECEF to ENU
+   * rotation are recomputed only if the receiver position changed since they were last computed.
+   * Returns {@code true} if the receiver terms were recomputed.
+   */
+  public boolean updateReceiverPosition(double[] userPositionEcefMeters) {
+    if (hasReceiverPosition
+        && userPositionEcefMeters[0] == receiverPositionEcefMeters[0]
+        && userPositionEcefMeters[1] == receiverPositionEcefMeters[1]
+        && userPositionEcefMeters[2] == receiverPositionEcefMeters[2]) {
+      return false;
+    }
+    receiverPositionEcefMeters[0] = userPositionEcefMeters[0];
+    receiverPositionEcefMeters[1] = userPositionEcefMeters[1];
+    receiverPositionEcefMeters[2] = userPositionEcefMeters[2];
+    receiverLla =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+            receiverPositionEcefMeters[0],
+            receiverPositionEcefMeters[1],
+            receiverPositionEcefMeters[2]);
+    ecefToEnuRotation =
+        Ecef2EnuConverter.getRotationMatrix(
+                receiverLla.latitudeRadians, receiverLla.longitudeRadians)
+            .getData();
+    hasReceiverPosition = true;
+    // The tropospheric terms depend on the latitude, hence they have to be recomputed as well
+    troposphericReceiverTerms = null;
+    return true;
+  }
+
+  /** Returns the geodetic position at which the receiver dependent terms were last computed. */
+  public GeodeticLlaValues getReceiverLla() {
+    return receiverLla;
+  }
+
+  /**
+   * Updates the receiver orthometric height above sea level in meters and the day of the year used
+   * by the tropospheric model. The zenith delays are recomputed only if one of them changed or if
+   * the receiver terms were refreshed since.
+   */
+  public void updateTroposphericTerms(double heightMetersAboveSeaLevel, int dayOfYear1To366) {
+    if (troposphericReceiverTerms != null
+        && heightMetersAboveSeaLevel == troposphericHeightMetersAboveSeaLevel
+        && dayOfYear1To366 == troposphericDayOfYear1To366) {
+      return;
+    }
+    troposphericReceiverTerms =
+        TroposphericModelEgnos.calculateReceiverTerms(
+            receiverLla.latitudeRadians, heightMetersAboveSeaLevel, dayOfYear1To366);
+    troposphericHeightMetersAboveSeaLevel = heightMetersAboveSeaLevel;
+    troposphericDayOfYear1To366 = dayOfYear1To366;
+  }
+
+  /**
+   * Calculates the ionospheric and tropospheric corrections in meters of a satellite at {@code
+   * satellitePositionEcefMeters} and sets them in the passed {@link AtmosphericCorrections}
+   * instance. {@link #updateReceiverPosition(double[])} and {@link #updateTroposphericTerms(double,
+   * int)} have to be called first for the current epoch.
+   *
+   * @param satellitePositionEcefMeters satellite position in ECEF meters
+   * @param gpsTowSeconds GPS time of week in seconds used by the Klobuchar model
+   * @param alpha the Klobuchar alpha parameters
+   * @param beta the Klobuchar beta parameters
+   * @param corrections instance in which the computed corrections will be set
+   */
+  public void calculateCorrectionsMeters(
+      double[] satellitePositionEcefMeters,
+      double gpsTowSeconds,
+      double[] alpha,
+      double[] beta,
+      AtmosphericCorrections corrections) {
+    // Line of sight vector in the local ENU frame, following the same operation order as
+    // EcefToTopocentricConverter#convertCartesianToTopocentricRadMeters
+    double dx = satellitePositionEcefMeters[0] - receiverPositionEcefMeters[0];
+    double dy = satellitePositionEcefMeters[1] - receiverPositionEcefMeters[1];
+    double dz = satellitePositionEcefMeters[2] - receiverPositionEcefMeters[2];
+    double eastMeters = 0.0;
+    eastMeters += ecefToEnuRotation[0][0] * dx;
+    eastMeters += ecefToEnuRotation[0][1] * dy;
+    eastMeters += ecefToEnuRotation[0][2] * dz;
+    double northMeters = 0.0;
+    northMeters += ecefToEnuRotation[1][0] * dx;
+    northMeters += ecefToEnuRotation[1][1] * dy;
+    northMeters += ecefToEnuRotation[1][2] * dz;
+    double upMeters = 0.0;
+    upMeters += ecefToEnuRotation[2][0] * dx;
+    upMeters += ecefToEnuRotation[2][1] * dy;
+    upMeters += ecefToEnuRotation[2][2] * dz;
+
+    double horizontalDistanceMeters = Math.hypot(eastMeters, northMeters);
+    double elevationRadians;
+    double azimuthRadians;
+    if (horizontalDistanceMeters < MIN_DISTANCE_MAGNITUDE_METERS) {
+      elevationRadians = Math.PI / 2.0;
+      azimuthRadians = 0;
+    } else {
+      elevationRadians = Math.atan2(upMeters, horizontalDistanceMeters);
+      azimuthRadians = Math.atan2(eastMeters, northMeters);
+    }
+    if (azimuthRadians < 0) {
+      azimuthRadians += 2 * Math.PI;
+    }
+
+    corrections.elevationRadians = elevationRadians;
+    corrections.azimuthRadians = azimuthRadians;
+    corrections.ionosphericCorrectionMeters =
+        IonosphericModel.ionoKlobucharCorrectionSeconds(
+                elevationRadians,
+                azimuthRadians,
+                receiverLla.latitudeRadians,
+                receiverLla.longitudeRadians,
+                gpsTowSeconds,
+                alpha,
+                beta,
+                IonosphericModel.L1_FREQ_HZ)
+            * SPEED_OF_LIGHT_MPS;
+    corrections.troposphericCorrectionMeters =
+        TroposphericModelEgnos.calculateTropoCorrectionMeters(
+            elevationRadians, troposphericReceiverTerms);
+  }
+
+  /**
+   * A class containing the atmospheric corrections of a satellite pseudorange in meters together
+   * with the satellite elevation and azimuth in radians they were computed at.
+   */
+  public static class AtmosphericCorrections {
+    /** Ionospheric correction in meters */
+    public double ionosphericCorrectionMeters;
+    /** Tropospheric correction in meters */
+    public double troposphericCorrectionMeters;
+    /** Satellite elevation in radians */
+    public double elevationRadians;
+    /** Satellite azimuth in radians */
+    public double azimuthRadians;
+  }
+}
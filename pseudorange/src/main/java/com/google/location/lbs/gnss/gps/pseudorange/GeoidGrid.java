@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.common.base.Preconditions;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A global geoid undulation grid (e.g. EGM96 at reduced resolution) used to convert heights above
+ * the WGS84 ellipsoid into heights above sea level without any network access.
+ *
+ * <p>The grid is stored in a compact binary format: a header followed by the undulations as
+ * quantized 16 bit samples, row by row from the north pole to the south pole and column by column
+ * eastwards from longitude 0 degrees. The samples are not decoded up front: they are read on
+ * demand from a memory mapped file or an in memory buffer, so a lookup only touches the four
+ * samples surrounding the requested location and is interpolated bilinearly.
+ *
+ * <p>Header layout (big endian): magic {@code "GEOI"} (int), format version (int), grid spacing in
+ * degrees (double), scale in meters per sample count (double), offset in meters (double), number
+ * of rows (int), number of columns (int).
+ *
+ * <p>A binary grid can be generated from the NGA EGM96 {@code WW15MGH.GRD} text grid with {@link
+ * #convertFromWw15mghGrid}. No grid is bundled with the library: the application provides one,
+ * e.g. from its files directory.
+ */
+public class GeoidGrid {
+
+  private static final int MAGIC = 0x47454f49; // "GEOI"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE_BYTES = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+  /** Quantization step of the written samples: a centimeter is well below the grid accuracy */
+  private static final double DEFAULT_SCALE_METERS = 0.01;
+
+  private final ShortBuffer samples;
+  private final double spacingDegrees;
+  private final double scaleMeters;
+  private final double offsetMeters;
+  private final int numberOfRows;
+  private final int numberOfColumns;
+
+  private GeoidGrid(ByteBuffer buffer) throws IOException {
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    if (buffer.remaining() < HEADER_SIZE_BYTES || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a geoid grid");
+    }
+    int version = buffer.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported geoid grid version: " + version);
+    }
+    spacingDegrees = buffer.getDouble();
+    scaleMeters = buffer.getDouble();
+    offsetMeters = buffer.getDouble();
+    numberOfRows = buffer.getInt();
+    numberOfColumns = buffer.getInt();
+    if (spacingDegrees <= 0.0
+        || numberOfRows < 2
+        || numberOfColumns < 2
+        || buffer.remaining() < 2L * numberOfRows * numberOfColumns) {
+      throw new IOException("Corrupted geoid grid header");
+    }
+    samples = buffer.slice().asShortBuffer();
+  }
+
+  /** Memory maps the binary geoid grid stored in {@code file}. */
+  public static GeoidGrid fromFile(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      // The mapping stays valid after the channel is closed
+      return new GeoidGrid(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Reads a binary geoid grid from {@code inputStream} into memory, e.g. from an Android asset or
+   * a classpath resource that cannot be memory mapped. The stream is not closed.
+   */
+  public static GeoidGrid fromInputStream(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[16 * 1024];
+    int count;
+    while ((count = inputStream.read(chunk)) != -1) {
+      bytes.write(chunk, 0, count);
+    }
+    return new GeoidGrid(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  /**
+   * Returns the geoid height (undulation) in meters above the WGS84 ellipsoid at the given latitude
+   * and longitude in decimal degrees, interpolated bilinearly from the four surrounding grid
+   * points.
+   */
+  public double getGeoidHeightMeters(double latitudeDegrees, double longitudeDegrees) {
+    Preconditions.checkArgument(
+        latitudeDegrees >= -90.0 && latitudeDegrees <= 90.0,
+        "Latitude out of range: %s",
+        latitudeDegrees);
+    // Rows go southwards from the north pole, columns eastwards from longitude 0
+    double rowIndex = (90.0 - latitudeDegrees) / spacingDegrees;
+    double columnIndex = (longitudeDegrees % 360.0) / spacingDegrees;
+    if (columnIndex < 0.0) {
+      columnIndex += 360.0 / spacingDegrees;
+    }
+    int row0 = Math.min((int) rowIndex, numberOfRows - 2);
+    int column0 = Math.min((int) columnIndex, numberOfColumns - 2);
+    double rowFraction = rowIndex - row0;
+    double columnFraction = columnIndex - column0;
+
+    double north =
+        interpolate(
+            getSampleMeters(row0, column0), getSampleMeters(row0, column0 + 1), columnFraction);
+    double south =
+        interpolate(
+            getSampleMeters(row0 + 1, column0),
+            getSampleMeters(row0 + 1, column0 + 1),
+            columnFraction);
+    return interpolate(north, south, rowFraction);
+  }
+
+  private double getSampleMeters(int row, int column) {
+    return samples.get(row * numberOfColumns + column) * scaleMeters + offsetMeters;
+  }
+
+  private static double interpolate(double value0, double value1, double fraction) {
+    return value0 + (value1 - value0) * fraction;
+  }
+
+  /**
+   * Converts a geoid grid in the NGA {@code WW15MGH.GRD} text format into the binary format read by
+   * this class, keeping every {@code decimationFactor}-th grid point in latitude and longitude.
+   *
+   * <p>The text format starts with a header of six values: south, north, west and east bounds and
+   * the latitude and longitude spacing in degrees, followed by the undulations in meters from north
+   * to south, each row from west to east. The grid has to cover the globe. A decimation factor of
+   * 2 turns the 15 minutes EGM96 grid into a 30 minutes grid of about 500 KB.
+   */
+  public static void convertFromWw15mghGrid(
+      Reader reader, OutputStream outputStream, int decimationFactor) throws IOException {
+    Preconditions.checkArgument(decimationFactor >= 1, "Invalid decimation factor");
+    StreamTokenizer tokenizer = new StreamTokenizer(new BufferedReader(reader));
+    tokenizer.resetSyntax();
+    tokenizer.wordChars('+', '+');
+    tokenizer.wordChars('-', '.');
+    tokenizer.wordChars('0', '9');
+    tokenizer.wordChars('e', 'e');
+    tokenizer.wordChars('E', 'E');
+    tokenizer.whitespaceChars(0, ' ');
+
+    double south = nextValue(tokenizer);
+    double north = nextValue(tokenizer);
+    double west = nextValue(tokenizer);
+    double east = nextValue(tokenizer);
+    double latitudeSpacingDegrees = nextValue(tokenizer);
+    double longitudeSpacingDegrees = nextValue(tokenizer);
+    if (south != -90.0
+        || north != 90.0
+        || west != 0.0
+        || east != 360.0
+        || latitudeSpacingDegrees != longitudeSpacingDegrees) {
+      throw new IOException("Only global grids with equal spacing are supported");
+    }
+    int sourceRows = (int) Math.round(180.0 / latitudeSpacingDegrees) + 1;
+    int sourceColumns = (int) Math.round(360.0 / longitudeSpacingDegrees) + 1;
+    if ((sourceRows - 1) % decimationFactor != 0 || (sourceColumns - 1) % decimationFactor != 0) {
+      throw new IOException("The decimation factor has to divide the grid size");
+    }
+    int rows = (sourceRows - 1) / decimationFactor + 1;
+    int columns = (sourceColumns - 1) / decimationFactor + 1;
+
+    DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+    dataOutputStream.writeInt(MAGIC);
+    dataOutputStream.writeInt(FORMAT_VERSION);
+    dataOutputStream.writeDouble(latitudeSpacingDegrees * decimationFactor);
+    dataOutputStream.writeDouble(DEFAULT_SCALE_METERS);
+    dataOutputStream.writeDouble(0.0);
+    dataOutputStream.writeInt(rows);
+    dataOutputStream.writeInt(columns);
+    for (int row = 0; row < sourceRows; row++) {
+      for (int column = 0; column < sourceColumns; column++) {
+        double undulationMeters = nextValue(tokenizer);
+        if (row % decimationFactor == 0 && column % decimationFactor == 0) {
+          long count = Math.round(undulationMeters / DEFAULT_SCALE_METERS);
+          if (count < Short.MIN_VALUE || count > Short.MAX_VALUE) {
+            throw new IOException("Undulation out of range: " + undulationMeters);
+          }
+          dataOutputStream.writeShort((int) count);
+        }
+      }
+    }
+    dataOutputStream.flush();
+  }
+
+  private static double nextValue(StreamTokenizer tokenizer) throws IOException {
+    if (tokenizer.nextToken() != StreamTokenizer.TT_WORD) {
+      throw new IOException("Unexpected end of geoid grid at line " + tokenizer.lineno());
+    }
+    try {
+      return Double.parseDouble(tokenizer.sval);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid value in geoid grid at line " + tokenizer.lineno(), e);
+    }
+  }
+}
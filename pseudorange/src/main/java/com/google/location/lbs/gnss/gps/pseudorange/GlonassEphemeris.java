@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+/**
+ * Broadcast ephemeris of a GLONASS satellite: unlike the Keplerian GPS ephemeris, the immediate
+ * data of the navigation message give the position, velocity and lunisolar acceleration of the
+ * satellite in the PZ-90 earth fixed frame at a reference time tb, from which the orbit is
+ * integrated, see {@link GlonassSatellitePositionCalculator}.
+ *
+ * <p>The reference time is stored as a GPS week and time of week: tb is broadcast as a time of day
+ * in GLONASS time (UTC + 3 hours), which must be converted with the current leap seconds.
+ *
+ * <p>Reference: GLONASS Interface Control Document, Edition 5.1, 2008, Section 4.4.
+ */
+class GlonassEphemeris {
+  /** Orbital slot of the satellite (1-24), its svid in the Android measurements */
+  public int slot;
+  /** Frequency channel number of the satellite (-7 to 6) */
+  public int frequencyChannel;
+  /** GPS week of the reference time tb */
+  public int referenceGpsWeek;
+  /** GPS time of week of the reference time tb (seconds) */
+  public double referenceGpsTowSeconds;
+  /** x - position at tb in meters */
+  public double positionXMeters;
+  /** y - position at tb in meters */
+  public double positionYMeters;
+  /** z - position at tb in meters */
+  public double positionZMeters;
+  /** x - velocity at tb in meters per second */
+  public double velocityXMetersPerSec;
+  /** y - velocity at tb in meters per second */
+  public double velocityYMetersPerSec;
+  /** z - velocity at tb in meters per second */
+  public double velocityZMetersPerSec;
+  /** x - lunisolar acceleration in meters per second squared, constant around tb */
+  public double accelerationXMetersPerSec2;
+  /** y - lunisolar acceleration in meters per second squared, constant around tb */
+  public double accelerationYMetersPerSec2;
+  /** z - lunisolar acceleration in meters per second squared, constant around tb */
+  public double accelerationZMetersPerSec2;
+  /** Offset of the satellite time from GLONASS time at tb, tau_n (seconds) */
+  public double clockBiasSeconds;
+  /** Relative deviation of the carrier frequency from its nominal value, gamma_n */
+  public double relativeFrequencyBias;
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.common.base.Preconditions;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.RangeAndRangeRate;
+
+/**
+ * Calculates GPS-compatible positions and velocities of the GLONASS satellites by integrating their
+ * equations of motion from the broadcast {@link GlonassEphemeris} with the 4th order Runge-Kutta
+ * method, with the same output as {@link SatellitePositionCalculator} for the GPS satellites.
+ *
+ * <p>Integrating from the reference time tb at every query, i.e. for every satellite at every
+ * least square iteration, would cost up to 15 steps per query. Instead, the states of each
+ * satellite at the nodes tb + k * 60 seconds are cached in a table, filled incrementally forward
+ * or backward from the last node integrated as the queries move away from tb. A query then costs a
+ * single Runge-Kutta step of less than 60 seconds from the closest node towards tb, so that the
+ * queries of a 1 Hz receiver reuse the same node for a minute and only integrate a new node once a
+ * minute. The table of a satellite is reset when its ephemeris changes.
+ *
+ * <p>The PZ-90 frame is used as the WGS84 frame, they differ by a few centimeters. Not thread safe:
+ * each solver uses its own instance.
+ *
+ * <p>Only the propagator is provided: the library has no source of GLONASS ephemerides yet, neither
+ * from SUPL nor decoded from the receiver, so the solvers still use the GPS satellites only.
+ *
+ * <p>Reference: GLONASS Interface Control Document, Edition 5.1, 2008, Appendix A.3.1.2.
+ */
+class GlonassSatellitePositionCalculator {
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final int SECONDS_IN_WEEK = 604800;
+  /** Gravitational parameter of the earth in PZ-90 (m^3 / s^2) */
+  private static final double GRAVITATIONAL_PARAMETER_M3_SM2 = 398600.4418e9;
+  /** Equatorial radius of the earth in PZ-90 (meters) */
+  private static final double EARTH_EQUATORIAL_RADIUS_METERS = 6378136.0;
+  /** Second zonal harmonic of the geopotential, J2 = -C20 */
+  private static final double SECOND_ZONAL_HARMONIC = 1082625.75e-9;
+  private static final double EARTH_ROTATION_RATE_RAD_PER_SEC = 7.292115e-5;
+  /** Integration step between two cached nodes, a few millimeters of error over 15 minutes */
+  static final double INTEGRATION_STEP_SECONDS = 60.0;
+  /**
+   * Largest propagation from tb: the ephemeris is broadcast every 30 minutes for tb at the middle
+   * of its interval, and may be kept longer until a new one is received
+   */
+  static final double MAXIMUM_PROPAGATION_SECONDS = 3600.0;
+  private static final int NUMBER_OF_NODES =
+      (int) (MAXIMUM_PROPAGATION_SECONDS / INTEGRATION_STEP_SECONDS) + 1;
+  private static final int MAXIMUM_SLOT = 24;
+
+  // Cached nodes of the satellites, indexed by their slots
+  private final OrbitTable[] orbitTables = new OrbitTable[MAXIMUM_SLOT + 1];
+
+  // Scratch arrays of a Runge-Kutta step
+  private final double[] state = new double[6];
+  private final double[][] derivatives = new double[4][6];
+  private final double[] intermediateState = new double[6];
+
+  /**
+   * Calculates the position and velocity of the GLONASS satellite of {@code ephemeris} in meters
+   * (x, y and z) and meters per second (x, y, z), set in {@code satPosAndVel}.
+   *
+   * @param ephemeris broadcast ephemeris of the satellite
+   * @param receiverGpsTowAtTimeOfTransmissionCorrected Receiver estimate of GPS time of week when
+   *     signal was transmitted corrected with the satellite clock drift (seconds)
+   * @param receiverGpsWeekAtTimeOfTransmission Receiver estimate of GPS week when signal was
+   *     transmitted (0-1024+)
+   * @param userSatRangeAndRate user to satellite range and range rate, to rotate the satellite
+   *     from the earth fixed frame at the transmission time to the frame at the reception time
+   *     (Sagnac effect)
+   * @param satPosAndVel Satellite position and velocity instance in which the method results will
+   *     be set
+   */
+  public void calculateSatellitePositionAndVelocity(
+      GlonassEphemeris ephemeris,
+      double receiverGpsTowAtTimeOfTransmissionCorrected,
+      int receiverGpsWeekAtTimeOfTransmission,
+      RangeAndRangeRate userSatRangeAndRate,
+      PositionAndVelocity satPosAndVel) {
+    double timeFromReferenceSeconds =
+        calculateTimeFromReferenceSeconds(
+            ephemeris,
+            receiverGpsTowAtTimeOfTransmissionCorrected,
+            receiverGpsWeekAtTimeOfTransmission);
+    Preconditions.checkArgument(
+        Math.abs(timeFromReferenceSeconds) <= MAXIMUM_PROPAGATION_SECONDS,
+        "GLONASS ephemeris of slot %s used %s seconds from its reference time",
+        Integer.valueOf(ephemeris.slot),
+        Double.valueOf(timeFromReferenceSeconds));
+
+    // Closest node towards tb, then a single step of less than the integration step from it
+    OrbitTable orbitTable = getOrbitTable(ephemeris);
+    double[][] nodes;
+    double stepSeconds;
+    if (timeFromReferenceSeconds >= 0.0) {
+      nodes = orbitTable.forwardNodes;
+      stepSeconds = INTEGRATION_STEP_SECONDS;
+    } else {
+      nodes = orbitTable.backwardNodes;
+      stepSeconds = -INTEGRATION_STEP_SECONDS;
+    }
+    int node = (int) (timeFromReferenceSeconds / stepSeconds);
+    int numberOfNodes =
+        timeFromReferenceSeconds >= 0.0
+            ? orbitTable.numberOfForwardNodes
+            : orbitTable.numberOfBackwardNodes;
+    for (; numberOfNodes <= node; numberOfNodes++) {
+      integrate(nodes[numberOfNodes - 1], stepSeconds, ephemeris, nodes[numberOfNodes]);
+    }
+    if (timeFromReferenceSeconds >= 0.0) {
+      orbitTable.numberOfForwardNodes = numberOfNodes;
+    } else {
+      orbitTable.numberOfBackwardNodes = numberOfNodes;
+    }
+    integrate(nodes[node], timeFromReferenceSeconds - node * stepSeconds, ephemeris, state);
+
+    // Rotate by the earth rotation during the signal travel time (Sagnac effect)
+    double rotationRadians =
+        EARTH_ROTATION_RATE_RAD_PER_SEC * userSatRangeAndRate.rangeMeters / SPEED_OF_LIGHT_MPS;
+    double cosRotation = Math.cos(rotationRadians);
+    double sinRotation = Math.sin(rotationRadians);
+    satPosAndVel.positionXMeters = cosRotation * state[0] + sinRotation * state[1];
+    satPosAndVel.positionYMeters = -sinRotation * state[0] + cosRotation * state[1];
+    satPosAndVel.positionZMeters = state[2];
+    satPosAndVel.velocityXMetersPerSec = cosRotation * state[3] + sinRotation * state[4];
+    satPosAndVel.velocityYMetersPerSec = -sinRotation * state[3] + cosRotation * state[4];
+    satPosAndVel.velocityZMetersPerSec = state[5];
+  }
+
+  /**
+   * Computes the GLONASS satellite clock correction term in meters, with the same sign as {@link
+   * SatelliteClockCorrectionCalculator} for the GPS satellites: the satellite time minus the
+   * GLONASS time. The offset between the GLONASS and GPS times, besides the whole hours and leap
+   * seconds of the reference time, is left to the receiver clock bias of the GLONASS satellites.
+   */
+  public static double calculateSatelliteClockCorrectionMeters(
+      GlonassEphemeris ephemeris,
+      double receiverGpsTowAtTimeOfTransmission,
+      int receiverGpsWeekAtTimeOfTransmission) {
+    double timeFromReferenceSeconds =
+        calculateTimeFromReferenceSeconds(
+            ephemeris, receiverGpsTowAtTimeOfTransmission, receiverGpsWeekAtTimeOfTransmission);
+    return SPEED_OF_LIGHT_MPS
+        * (-ephemeris.clockBiasSeconds
+            + ephemeris.relativeFrequencyBias * timeFromReferenceSeconds);
+  }
+
+  /** Forgets the cached nodes of all the satellites. */
+  public void clear() {
+    for (int i = 0; i < orbitTables.length; i++) {
+      orbitTables[i] = null;
+    }
+  }
+
+  private static double calculateTimeFromReferenceSeconds(
+      GlonassEphemeris ephemeris, double gpsTowSeconds, int gpsWeek) {
+    return (gpsWeek - ephemeris.referenceGpsWeek) * (double) SECONDS_IN_WEEK
+        + gpsTowSeconds
+        - ephemeris.referenceGpsTowSeconds;
+  }
+
+  /**
+   * Returns the table of the satellite of {@code ephemeris}, reset to its reference state if it was
+   * filled from another ephemeris.
+   */
+  private OrbitTable getOrbitTable(GlonassEphemeris ephemeris) {
+    Preconditions.checkArgument(
+        ephemeris.slot >= 1 && ephemeris.slot <= MAXIMUM_SLOT,
+        "Invalid GLONASS slot: %s",
+        ephemeris.slot);
+    OrbitTable orbitTable = orbitTables[ephemeris.slot];
+    if (orbitTable == null) {
+      orbitTable = new OrbitTable();
+      orbitTables[ephemeris.slot] = orbitTable;
+    }
+    if (orbitTable.ephemeris != ephemeris) {
+      orbitTable.ephemeris = ephemeris;
+      double[] referenceState = orbitTable.forwardNodes[0];
+      referenceState[0] = ephemeris.positionXMeters;
+      referenceState[1] = ephemeris.positionYMeters;
+      referenceState[2] = ephemeris.positionZMeters;
+      referenceState[3] = ephemeris.velocityXMetersPerSec;
+      referenceState[4] = ephemeris.velocityYMetersPerSec;
+      referenceState[5] = ephemeris.velocityZMetersPerSec;
+      System.arraycopy(referenceState, 0, orbitTable.backwardNodes[0], 0, 6);
+      orbitTable.numberOfForwardNodes = 1;
+      orbitTable.numberOfBackwardNodes = 1;
+    }
+    return orbitTable;
+  }
+
+  /**
+   * Integrates the state {@code initialState} (position and velocity) over {@code stepSeconds}
+   * with one 4th order Runge-Kutta step, into {@code finalState}.
+   */
+  private void integrate(
+      double[] initialState, double stepSeconds, GlonassEphemeris ephemeris, double[] finalState) {
+    calculateDerivative(initialState, ephemeris, derivatives[0]);
+    for (int i = 0; i < 6; i++) {
+      intermediateState[i] = initialState[i] + 0.5 * stepSeconds * derivatives[0][i];
+    }
+    calculateDerivative(intermediateState, ephemeris, derivatives[1]);
+    for (int i = 0; i < 6; i++) {
+      intermediateState[i] = initialState[i] + 0.5 * stepSeconds * derivatives[1][i];
+    }
+    calculateDerivative(intermediateState, ephemeris, derivatives[2]);
+    for (int i = 0; i < 6; i++) {
+      intermediateState[i] = initialState[i] + stepSeconds * derivatives[2][i];
+    }
+    calculateDerivative(intermediateState, ephemeris, derivatives[3]);
+    for (int i = 0; i < 6; i++) {
+      finalState[i] =
+          initialState[i]
+              + stepSeconds
+                  / 6.0
+                  * (derivatives[0][i]
+                      + 2.0 * derivatives[1][i]
+                      + 2.0 * derivatives[2][i]
+                      + derivatives[3][i]);
+    }
+  }
+
+  /**
+   * Sets {@code derivative} to the derivative of {@code state} in the earth fixed frame: the
+   * velocity, and the acceleration from the central gravity, the J2 oblateness, the centrifugal and
+   * Coriolis terms and the lunisolar acceleration of the ephemeris.
+   */
+  private static void calculateDerivative(
+      double[] state, GlonassEphemeris ephemeris, double[] derivative) {
+    double x = state[0];
+    double y = state[1];
+    double z = state[2];
+    double radiusSquare = x * x + y * y + z * z;
+    double radius = Math.sqrt(radiusSquare);
+    double gravity = GRAVITATIONAL_PARAMETER_M3_SM2 / (radiusSquare * radius);
+    double oblateness =
+        1.5
+            * SECOND_ZONAL_HARMONIC
+            * gravity
+            * EARTH_EQUATORIAL_RADIUS_METERS
+            * EARTH_EQUATORIAL_RADIUS_METERS
+            / radiusSquare;
+    double zSquareRatio = 5.0 * z * z / radiusSquare;
+    double omegaSquare = EARTH_ROTATION_RATE_RAD_PER_SEC * EARTH_ROTATION_RATE_RAD_PER_SEC;
+    derivative[0] = state[3];
+    derivative[1] = state[4];
+    derivative[2] = state[5];
+    derivative[3] =
+        -gravity * x
+            - oblateness * x * (1.0 - zSquareRatio)
+            + omegaSquare * x
+            + 2.0 * EARTH_ROTATION_RATE_RAD_PER_SEC * state[4]
+            + ephemeris.accelerationXMetersPerSec2;
+    derivative[4] =
+        -gravity * y
+            - oblateness * y * (1.0 - zSquareRatio)
+            + omegaSquare * y
+            - 2.0 * EARTH_ROTATION_RATE_RAD_PER_SEC * state[3]
+            + ephemeris.accelerationYMetersPerSec2;
+    derivative[5] =
+        -gravity * z - oblateness * z * (3.0 - zSquareRatio) + ephemeris.accelerationZMetersPerSec2;
+  }
+
+  /**
+   * States of a satellite at the nodes tb + k * {@link #INTEGRATION_STEP_SECONDS} and tb - k *
+   * {@link #INTEGRATION_STEP_SECONDS}, the first node being the state of the ephemeris at tb
+   */
+  private static class OrbitTable {
+    GlonassEphemeris ephemeris;
+    final double[][] forwardNodes = new double[NUMBER_OF_NODES][6];
+    final double[][] backwardNodes = new double[NUMBER_OF_NODES][6];
+    int numberOfForwardNodes;
+    int numberOfBackwardNodes;
+  }
+}
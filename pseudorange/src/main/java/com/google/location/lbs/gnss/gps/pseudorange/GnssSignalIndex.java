@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.GnssMeasurement;
+import java.util.Collection;
+
+/**
+ * Per epoch index of the raw {@link GnssMeasurement measurements} by constellation, satellite and
+ * signal band, in which the L1 / E1 / B1 and L5 / E5a / B2a signals of each satellite are paired.
+ *
+ * <p>{@link android.location.GnssMeasurementsEvent#getMeasurements()} is a flat collection in which
+ * the signals of one satellite are only told apart by their carrier frequencies. Indexing it once
+ * per epoch gives constant time access to each signal and to the other band of its pair, without
+ * matching the measurements of each band against all the others. The slots and the paired slots
+ * are assigned in a single pass over the collection by {@link SignalSlots}, into arrays allocated
+ * once and reused at every epoch. Not thread safe: each consumer uses its own instance.
+ */
+public final class GnssSignalIndex {
+
+  /** Maximum number of signals indexed at one epoch, the others are dropped */
+  public static final int MAX_NUMBER_OF_SIGNALS = GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS;
+
+  private final SignalSlots<GnssMeasurement> signals = new SignalSlots<>(MAX_NUMBER_OF_SIGNALS);
+
+  /**
+   * Replaces the indexed signals by the {@code epochMeasurements} of a new epoch. If a signal is
+   * reported more than once, the last measurement is kept. Returns the number of measurements
+   * dropped because the index was full.
+   */
+  public int index(Collection<GnssMeasurement> epochMeasurements) {
+    signals.clear();
+    for (GnssMeasurement measurement : epochMeasurements) {
+      signals.put(
+          SatelliteKey.create(
+              measurement.getConstellationType(),
+              measurement.getSvid(),
+              SatelliteKey.getSignalOfCarrierFrequency(
+                  measurement.hasCarrierFrequencyHz(), measurement.getCarrierFrequencyHz())),
+          measurement);
+    }
+    return signals.getNumberOfDroppedSignals();
+  }
+
+  /** Removes all the signals, releasing their measurements. */
+  public void clear() {
+    signals.clear();
+  }
+
+  /** Returns the number of indexed signals, i.e. the upper bound of the loops over the slots. */
+  public int size() {
+    return signals.size();
+  }
+
+  /**
+   * Returns the slot of the signal {@code signal} (one of the {@code SatelliteKey.SIGNAL_}
+   * constants) of the satellite {@code svid} of a constellation, or -1 if it was not received.
+   */
+  public int getSlot(int constellationType, int svid, int signal) {
+    return signals.getSlot(SatelliteKey.create(constellationType, svid, signal));
+  }
+
+  /** Returns the measurement of the signal in {@code slot}. */
+  public GnssMeasurement getMeasurement(int slot) {
+    return signals.getMeasurement(slot);
+  }
+
+  /** Returns the {@link SatelliteKey} of the signal in {@code slot}. */
+  public int getSatelliteKey(int slot) {
+    return signals.getSatelliteKey(slot);
+  }
+
+  /**
+   * Returns the slot of the signal of the same satellite in the other band of the L1 / L5 pair of
+   * the signal in {@code slot}, or -1 if it was not received.
+   */
+  public int getPairedSlot(int slot) {
+    return signals.getPairedSlot(slot);
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.GnssStatus;
+
+/**
+ * A reusable container for the measurements of all the signals received at one epoch.
+ *
+ * <p>Each signal is identified by a {@link SatelliteKey} and stored in a dense slot 0, 1, 2... of
+ * parallel primitive arrays of size {@link #MAX_NUMBER_OF_SIGNALS}; a {@link SatelliteSlotTable}
+ * maps the keys to their slots and a bitmask tells which slots hold a valid measurement. The same
+ * instances are filled at every epoch, from ingestion through smoothing and solving, so no object
+ * is allocated per signal or per epoch, and the loops only visit the slots in use.
+ *
+ * <p>The L1 and L5 signals of a satellite are paired as they are stored, so that the slot of the
+ * other band of a signal is found in constant time by {@link #getPairedSlot(int)}.
+ *
+ * <p>For each signal the container holds the received satellite time of week, the accumulated
+ * delta range with its validity, discontinuity and uncertainty, the pseudorange rate and its
+ * uncertainty, the signal to noise ratio and, once computed, the pseudorange and its uncertainty.
+ */
+class GpsEpochMeasurements {
+
+  /** Maximum number of signals received at one epoch */
+  public static final int MAX_NUMBER_OF_SIGNALS = 256;
+
+  private static final int SIZE = MAX_NUMBER_OF_SIGNALS;
+
+  private final SatelliteSlotTable slotTable = new SatelliteSlotTable(SIZE);
+
+  /** Bit {@code i % 64} of word {@code i / 64} is set if slot {@code i} has a valid measurement */
+  private final long[] validSlotsMask = new long[SIZE / Long.SIZE];
+
+  /** Time since GPS week start of the epoch (Nano seconds) */
+  public long arrivalTimeSinceGpsWeekNs;
+
+  /**
+   * Count of the discontinuities of the receiver hardware clock at the epoch, which change when the
+   * accumulated delta ranges restart
+   */
+  public int hardwareClockDiscontinuityCount;
+
+  /** Largest received satellite time of week of the GPS L1 signals of the epoch (Nano seconds) */
+  public long largestReceivedSvTimeNs = Long.MIN_VALUE;
+
+  /** {@link SatelliteKey} of the signal stored in each slot */
+  public final int[] satelliteKeys = new int[SIZE];
+
+  /** Received satellite time of week (Nano seconds) */
+  public final long[] receivedSvTimeNs = new long[SIZE];
+
+  /** Accumulated delta range (meters) */
+  public final double[] accumulatedDeltaRangeMeters = new double[SIZE];
+
+  /** Accumulated delta range state */
+  public final boolean[] validAccumulatedDeltaRangeMeters = new boolean[SIZE];
+
+  /** Accumulated delta range reset or cycle slip detected since the previous epoch */
+  public final boolean[] accumulatedDeltaRangeDiscontinuity = new boolean[SIZE];
+
+  /** Pseudorange rate measurement (meters per second) */
+  public final double[] pseudorangeRateMps = new double[SIZE];
+
+  /** Signal to noise ratio (dB) */
+  public final double[] signalToNoiseRatioDb = new double[SIZE];
+
+  /** Accumulated Delta Range Uncertainty (meters) */
+  public final double[] accumulatedDeltaRangeUncertaintyMeters = new double[SIZE];
+
+  /** Pseudorange rate uncertainty (meter per seconds) */
+  public final double[] pseudorangeRateUncertaintyMps = new double[SIZE];
+
+  /** Pseudorange measurement (meters) */
+  public final double[] pseudorangeMeters = new double[SIZE];
+
+  /** Pseudorange uncertainty (meters) */
+  public final double[] pseudorangeUncertaintyMeters = new double[SIZE];
+
+  /** Removes all the signals to start a new epoch. */
+  public void clear() {
+    int numberOfWords = (slotTable.size() + Long.SIZE - 1) / Long.SIZE;
+    for (int i = 0; i < numberOfWords; i++) {
+      validSlotsMask[i] = 0;
+    }
+    slotTable.clear();
+    largestReceivedSvTimeNs = Long.MIN_VALUE;
+  }
+
+  /** Returns the number of slots in use, i.e. the upper bound of the loops over the slots. */
+  public int getNumberOfSlots() {
+    return slotTable.size();
+  }
+
+  /** Returns the slot of the signal {@code satelliteKey}, or -1 if it was not received. */
+  public int getSlot(int satelliteKey) {
+    return slotTable.getSlot(satelliteKey);
+  }
+
+  /**
+   * Stores the measurement of the signal {@code satelliteKey} and marks it valid. The pseudorange
+   * and its uncertainty are computed later from the received satellite times of all the GPS
+   * signals. Returns the slot of the signal, or -1 if the container is full and the measurement
+   * was dropped.
+   */
+  public int setMeasurement(
+      int satelliteKey,
+      long receivedSvTimeNs,
+      double accumulatedDeltaRangeMeters,
+      boolean validAccumulatedDeltaRangeMeters,
+      boolean accumulatedDeltaRangeDiscontinuity,
+      double pseudorangeRateMps,
+      double signalToNoiseRatioDb,
+      double accumulatedDeltaRangeUncertaintyMeters,
+      double pseudorangeRateUncertaintyMps) {
+    int slot = slotTable.getOrAddSlot(satelliteKey);
+    if (slot < 0) {
+      return slot;
+    }
+    this.satelliteKeys[slot] = satelliteKey;
+    this.receivedSvTimeNs[slot] = receivedSvTimeNs;
+    this.accumulatedDeltaRangeMeters[slot] = accumulatedDeltaRangeMeters;
+    this.validAccumulatedDeltaRangeMeters[slot] = validAccumulatedDeltaRangeMeters;
+    this.accumulatedDeltaRangeDiscontinuity[slot] = accumulatedDeltaRangeDiscontinuity;
+    this.pseudorangeRateMps[slot] = pseudorangeRateMps;
+    this.signalToNoiseRatioDb[slot] = signalToNoiseRatioDb;
+    this.accumulatedDeltaRangeUncertaintyMeters[slot] = accumulatedDeltaRangeUncertaintyMeters;
+    this.pseudorangeRateUncertaintyMps[slot] = pseudorangeRateUncertaintyMps;
+    this.pseudorangeMeters[slot] = Double.NaN;
+    this.pseudorangeUncertaintyMeters[slot] = Double.NaN;
+    if (isGpsL1(satelliteKey) && receivedSvTimeNs > largestReceivedSvTimeNs) {
+      largestReceivedSvTimeNs = receivedSvTimeNs;
+    }
+    validSlotsMask[slot / Long.SIZE] |= 1L << slot;
+    return slot;
+  }
+
+  /**
+   * Returns the slot of the signal of the same satellite in the other band of the L1 / L5 pair of
+   * the signal in {@code slot}, or -1 if it was not received. The paired slot may hold an invalid
+   * measurement.
+   */
+  public int getPairedSlot(int slot) {
+    return slotTable.getPairedSlot(slot);
+  }
+
+  /** Returns {@code true} if {@code slot} holds a valid measurement. */
+  public boolean isValid(int slot) {
+    return (validSlotsMask[slot / Long.SIZE] & (1L << slot)) != 0;
+  }
+
+  /** Marks the measurement in {@code slot} invalid. */
+  public void invalidate(int slot) {
+    validSlotsMask[slot / Long.SIZE] &= ~(1L << slot);
+  }
+
+  /** Returns the number of signals with a valid measurement. */
+  public int getNumberOfValidSatellites() {
+    int numberOfValidSatellites = 0;
+    for (long word : validSlotsMask) {
+      numberOfValidSatellites += Long.bitCount(word);
+    }
+    return numberOfValidSatellites;
+  }
+
+  /**
+   * Returns a bitmask of the GPS satellites with a valid L1 measurement: bit {@code i} is set for
+   * the satellite of PRN {@code i + 1}.
+   */
+  public long getValidGpsSatellitesMask() {
+    long mask = 0;
+    for (int slot = 0; slot < slotTable.size(); slot++) {
+      int satelliteKey = satelliteKeys[slot];
+      if (isValid(slot) && isGpsL1(satelliteKey)) {
+        int svid = SatelliteKey.getSvid(satelliteKey);
+        if (svid >= 1 && svid <= GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES) {
+          mask |= 1L << (svid - 1);
+        }
+      }
+    }
+    return mask;
+  }
+
+  /** Returns {@code true} if {@code satelliteKey} is a GPS L1 signal. */
+  public static boolean isGpsL1(int satelliteKey) {
+    return SatelliteKey.getConstellationType(satelliteKey) == GnssStatus.CONSTELLATION_GPS
+        && SatelliteKey.getSignal(satelliteKey) == SatelliteKey.SIGNAL_L1;
+  }
+
+  /** Copies all the measurements of {@code other} into this container. */
+  public void copyFrom(GpsEpochMeasurements other) {
+    slotTable.copyFrom(other.slotTable);
+    System.arraycopy(other.validSlotsMask, 0, validSlotsMask, 0, validSlotsMask.length);
+    arrivalTimeSinceGpsWeekNs = other.arrivalTimeSinceGpsWeekNs;
+    hardwareClockDiscontinuityCount = other.hardwareClockDiscontinuityCount;
+    largestReceivedSvTimeNs = other.largestReceivedSvTimeNs;
+    int size = other.getNumberOfSlots();
+    System.arraycopy(other.satelliteKeys, 0, satelliteKeys, 0, size);
+    System.arraycopy(other.receivedSvTimeNs, 0, receivedSvTimeNs, 0, size);
+    System.arraycopy(other.accumulatedDeltaRangeMeters, 0, accumulatedDeltaRangeMeters, 0, size);
+    System.arraycopy(
+        other.validAccumulatedDeltaRangeMeters, 0, validAccumulatedDeltaRangeMeters, 0, size);
+    System.arraycopy(
+        other.accumulatedDeltaRangeDiscontinuity, 0, accumulatedDeltaRangeDiscontinuity, 0, size);
+    System.arraycopy(other.pseudorangeRateMps, 0, pseudorangeRateMps, 0, size);
+    System.arraycopy(other.signalToNoiseRatioDb, 0, signalToNoiseRatioDb, 0, size);
+    System.arraycopy(
+        other.accumulatedDeltaRangeUncertaintyMeters,
+        0,
+        accumulatedDeltaRangeUncertaintyMeters,
+        0,
+        size);
+    System.arraycopy(
+        other.pseudorangeRateUncertaintyMps, 0, pseudorangeRateUncertaintyMps, 0, size);
+    System.arraycopy(other.pseudorangeMeters, 0, pseudorangeMeters, 0, size);
+    System.arraycopy(other.pseudorangeUncertaintyMeters, 0, pseudorangeUncertaintyMeters, 0, size);
+  }
+}
@@ -16,12 +16,15 @@
 
 package com.google.location.lbs.gnss.gps.pseudorange;
 
+import static com.google.location.lbs.gnss.gps.pseudorange.GpsNavigationSubframeDecoder.field;
+
 import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
 import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
 import android.location.cts.nano.Ephemeris.IonosphericModelProto;
 import androidx.annotation.NonNull;
 import com.google.common.base.Preconditions;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -32,7 +35,9 @@ import java.util.concurrent.TimeUnit;
  * byte[])}
  *
  * <p>A {@link GpsNavMessageProto} containing the extracted field is obtained by calling the method
- * {@link #createDecodedNavMessage()}
+ * {@link #createDecodedNavMessage()}, or as part of a versioned {@link NavMessageSnapshot} by
+ * calling {@link #getNavMessageSnapshot()}. Snapshots are published through a volatile reference
+ * only when the decoded content changes, so readers on other threads never block.
  *
  * <p>References: http://www.gps.gov/technical/icwg/IS-GPS-200D.pdf and
  * http://www.gps.gov/technical/ps/1995-SPS-signal-specification.pdf
@@ -41,9 +46,6 @@ public class GpsNavigationMessageStore {
 
   private static final byte IONOSPHERIC_PARAMETERS_PAGE_18_SV_ID = 56;
 
-  private static final int WORD_SIZE_BITS = 30;
-  private static final int WORD_PADDING_BITS = 2;
-  private static final int BYTE_AS_BITS = 8;
   private static final int GPS_CYCLE_WEEKS = 1024;
   private static final int IODE_TO_IODC_MASK = 0xFF;
 
@@ -81,79 +83,63 @@ public class GpsNavigationMessageStore {
 
   private static final int L1_CA_MESSAGE_LENGTH_BYTES = 40;
 
-  private static final int IODC1_INDEX = 82;
-  private static final int IODC1_LENGTH = 2;
-  private static final int IODC2_INDEX = 210;
-  private static final int IODC2_LENGTH = 8;
-  private static final int WEEK_INDEX = 60;
-  private static final int WEEK_LENGTH = 10;
-  private static final int URA_INDEX = 72;
-  private static final int URA_LENGTH = 4;
-  private static final int SV_HEALTH_INDEX = 76;
-  private static final int SV_HEALTH_LENGTH = 6;
-  private static final int TGD_INDEX = 196;
-  private static final int TGD_LENGTH = 8;
-  private static final int AF2_INDEX = 240;
-  private static final int AF2_LENGTH = 8;
-  private static final int AF1_INDEX = 248;
-  private static final int AF1_LENGTH = 16;
-  private static final int AF0_INDEX = 270;
+  // Descriptors of the fields of the subframes: zero based bit index in the subframe without the
+  // padding bits and length in bits
+  private static final int IODC1_FIELD = field(82, 2);
+  private static final int IODC2_FIELD = field(210, 8);
+  private static final int WEEK_FIELD = field(60, 10);
+  private static final int URA_FIELD = field(72, 4);
+  private static final int SV_HEALTH_FIELD = field(76, 6);
+  private static final int TGD_FIELD = field(196, 8);
+  private static final int AF2_FIELD = field(240, 8);
+  private static final int AF1_FIELD = field(248, 16);
+  private static final int AF0_FIELD = field(270, 22);
   private static final int AF0_LENGTH = 22;
-  private static final int IODE1_INDEX = 60;
-  private static final int IODE_LENGTH = 8;
-  private static final int TOC_INDEX = 218;
-  private static final int TOC_LENGTH = 16;
-  private static final int CRS_INDEX = 68;
-  private static final int CRS_LENGTH = 16;
-  private static final int DELTA_N_INDEX = 90;
-  private static final int DELTA_N_LENGTH = 16;
-  private static final int M0_INDEX8 = 106;
-  private static final int M0_INDEX24 = 120;
-  private static final int CUC_INDEX = 150;
-  private static final int CUC_LENGTH = 16;
-  private static final int E_INDEX8 = 166;
-  private static final int E_INDEX24 = 180;
-  private static final int CUS_INDEX = 210;
-  private static final int CUS_LENGTH = 16;
-  private static final int A_INDEX8 = 226;
-  private static final int A_INDEX24 = 240;
-  private static final int TOE_INDEX = 270;
-  private static final int TOE_LENGTH = 16;
-  private static final int IODE2_INDEX = 270;
-  private static final int CIC_INDEX = 60;
-  private static final int CIC_LENGTH = 16;
-  private static final int O0_INDEX8 = 76;
-  private static final int O0_INDEX24 = 90;
-  private static final int O_INDEX8 = 196;
-  private static final int O_INDEX24 = 210;
-  private static final int ODOT_INDEX = 240;
+  private static final int IODE1_FIELD = field(60, 8);
+  private static final int TOC_FIELD = field(218, 16);
+  private static final int CRS_FIELD = field(68, 16);
+  private static final int DELTA_N_FIELD = field(90, 16);
+  private static final int M0_FIELD8 = field(106, 8);
+  private static final int M0_FIELD24 = field(120, 24);
+  private static final int CUC_FIELD = field(150, 16);
+  private static final int E_FIELD8 = field(166, 8);
+  private static final int E_FIELD24 = field(180, 24);
+  private static final int CUS_FIELD = field(210, 16);
+  private static final int A_FIELD8 = field(226, 8);
+  private static final int A_FIELD24 = field(240, 24);
+  private static final int TOE_FIELD = field(270, 16);
+  private static final int IODE2_FIELD = field(270, 8);
+  private static final int CIC_FIELD = field(60, 16);
+  private static final int O0_FIELD8 = field(76, 8);
+  private static final int O0_FIELD24 = field(90, 24);
+  private static final int O_FIELD8 = field(196, 8);
+  private static final int O_FIELD24 = field(210, 24);
+  private static final int ODOT_FIELD = field(240, 24);
   private static final int ODOT_LENGTH = 24;
-  private static final int CIS_INDEX = 120;
-  private static final int CIS_LENGTH = 16;
-  private static final int I0_INDEX8 = 136;
-  private static final int I0_INDEX24 = 150;
-  private static final int CRC_INDEX = 180;
-  private static final int CRC_LENGTH = 16;
-  private static final int IDOT_INDEX = 278;
+  private static final int CIS_FIELD = field(120, 16);
+  private static final int I0_FIELD8 = field(136, 8);
+  private static final int I0_FIELD24 = field(150, 24);
+  private static final int CRC_FIELD = field(180, 16);
+  private static final int IDOT_FIELD = field(278, 14);
   private static final int IDOT_LENGTH = 14;
-  private static final int A0_INDEX = 68;
-  private static final int A_B_LENGTH = 8;
-  private static final int A1_INDEX = 76;
-  private static final int A2_INDEX = 90;
-  private static final int A3_INDEX = 98;
-  private static final int B0_INDEX = 106;
-  private static final int B1_INDEX = 120;
-  private static final int B2_INDEX = 128;
-  private static final int B3_INDEX = 136;
-  private static final int WN_LS_INDEX = 226;
-  private static final int DELTA_T_LS_INDEX = 240;
-  private static final int TOT_LS_INDEX = 218;
-  private static final int DN_LS_INDEX = 256;
-  private static final int WNF_LS_INDEX = 248;
-  private static final int DELTA_TF_LS_INDEX = 270;
-  private static final int I0UTC_INDEX8 = 210;
-  private static final int I0UTC_INDEX24 = 180;
-  private static final int I1UTC_INDEX = 150;
+  private static final int PAGE_ID_FIELD = field(62, 6);
+  private static final int A0_FIELD = field(68, 8);
+  private static final int A1_FIELD = field(76, 8);
+  private static final int A2_FIELD = field(90, 8);
+  private static final int A3_FIELD = field(98, 8);
+  private static final int B0_FIELD = field(106, 8);
+  private static final int B1_FIELD = field(120, 8);
+  private static final int B2_FIELD = field(128, 8);
+  private static final int B3_FIELD = field(136, 8);
+  private static final int WN_LS_FIELD = field(226, 8);
+  private static final int DELTA_T_LS_FIELD = field(240, 8);
+  private static final int TOT_LS_FIELD = field(218, 8);
+  private static final int DN_LS_FIELD = field(256, 8);
+  private static final int WNF_LS_FIELD = field(248, 8);
+  private static final int DELTA_TF_LS_FIELD = field(270, 8);
+  private static final int I0UTC_FIELD8 = field(210, 8);
+  private static final int I0UTC_FIELD24 = field(180, 24);
+  private static final int I1UTC_FIELD = field(150, 24);
 
   /** Partially decoded intermediate ephemerides */
   private final IntermediateEphemeris[] partiallyDecodedIntermediateEphemerides =
@@ -165,49 +151,102 @@ public class GpsNavigationMessageStore {
 
   private IonosphericModelProto decodedIonosphericObj;
 
+  /** Words of the subframe being decoded, reused for each subframe */
+  private final int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+
+  /** Number of subframes rejected because a word failed the parity check */
+  private int numberOfSubframesFailingParity;
+
+  /** Latest published snapshot of the decoded navigation message */
+  private volatile NavMessageSnapshot navMessageSnapshot =
+      new NavMessageSnapshot(0, buildNavMessage(new IntermediateEphemeris[0], null));
+
   /**
-   * Builds and returns the current {@link GpsNavMessageProto} filling the different ephemeris for
-   * the different satellites and setting the ionospheric model parameters.
+   * Returns the current {@link GpsNavMessageProto} containing the fully decoded ephemerides of the
+   * different satellites and the ionospheric model parameters.
+   *
+   * <p>This is the navigation message of the latest {@link NavMessageSnapshot}: it is not rebuilt
+   * on each call and must not be modified.
    */
   @NonNull
   public GpsNavMessageProto createDecodedNavMessage() {
-    synchronized (fullyDecodedIntermediateEphemerides) {
-      ;
-      GpsNavMessageProto gpsNavMessageProto = new GpsNavMessageProto();
-      ArrayList<GpsEphemerisProto> gpsEphemerisProtoList = new ArrayList<>();
-      for (int i = 0; i < MAX_NUMBER_OF_SATELLITES; i++) {
-        if (fullyDecodedIntermediateEphemerides[i] != null) {
-          gpsEphemerisProtoList.add(fullyDecodedIntermediateEphemerides[i].getEphemerisObj());
-        }
-      }
-      if (decodedIonosphericObj != null) {
-        gpsNavMessageProto.iono = decodedIonosphericObj;
+    return navMessageSnapshot.navMessageProto;
+  }
+
+  /**
+   * Returns the latest immutable snapshot of the decoded navigation message. This call never
+   * blocks, and the version of the snapshot only changes when an ephemeris completes or changes or
+   * when new ionospheric parameters are decoded, so readers can skip redundant work by comparing
+   * versions.
+   */
+  @NonNull
+  public NavMessageSnapshot getNavMessageSnapshot() {
+    return navMessageSnapshot;
+  }
+
+  /**
+   * Builds a new {@link GpsNavMessageProto} from the decoded ephemerides and ionospheric model and
+   * publishes it as a new {@link NavMessageSnapshot}. Must be called while holding the {@code
+   * fullyDecodedIntermediateEphemerides} lock.
+   */
+  private void publishNavMessageSnapshot() {
+    navMessageSnapshot =
+        new NavMessageSnapshot(
+            navMessageSnapshot.version + 1,
+            buildNavMessage(fullyDecodedIntermediateEphemerides, decodedIonosphericObj));
+  }
+
+  private static GpsNavMessageProto buildNavMessage(
+      IntermediateEphemeris[] intermediateEphemerides, IonosphericModelProto ionosphericObj) {
+    GpsNavMessageProto gpsNavMessageProto = new GpsNavMessageProto();
+    ArrayList<GpsEphemerisProto> gpsEphemerisProtoList = new ArrayList<>();
+    for (IntermediateEphemeris intermediateEphemeris : intermediateEphemerides) {
+      if (intermediateEphemeris != null) {
+        gpsEphemerisProtoList.add(intermediateEphemeris.getEphemerisObj());
       }
-      gpsNavMessageProto.ephemerids =
-          gpsEphemerisProtoList.toArray(new GpsEphemerisProto[gpsEphemerisProtoList.size()]);
-      return gpsNavMessageProto;
+    }
+    if (ionosphericObj != null) {
+      gpsNavMessageProto.iono = ionosphericObj;
+    }
+    gpsNavMessageProto.ephemerids =
+        gpsEphemerisProtoList.toArray(new GpsEphemerisProto[gpsEphemerisProtoList.size()]);
+    return gpsNavMessageProto;
+  }
+
+  /** Returns the number of subframes rejected so far because a word failed the parity check. */
+  public int getNumberOfSubframesFailingParity() {
+    synchronized (fullyDecodedIntermediateEphemerides) {
+      return numberOfSubframesFailingParity;
     }
   }
 
-  /** Handles a fresh Navigation Message. The message is in its raw format. */
+  /**
+   * Handles a fresh Navigation Message. The message is in its raw format. Subframes failing the
+   * parity check are ignored.
+   */
   public void onNavMessageReported(byte prn, byte type, short id, byte[] rawData) {
     Preconditions.checkArgument(type == 1, "Unsupported NavigationMessage Type: " + type);
     Preconditions.checkArgument(
         rawData != null && rawData.length == L1_CA_MESSAGE_LENGTH_BYTES,
         "Invalid length of rawData for L1 C/A");
     synchronized (fullyDecodedIntermediateEphemerides) {
+      // Corrupted subframes are dropped before any intermediate ephemeris is touched
+      if (!GpsNavigationSubframeDecoder.unpackWordsAndCheckParity(rawData, words)) {
+        numberOfSubframesFailingParity++;
+        return;
+      }
       switch (id) {
         case 1:
-          handleFirstSubframe(prn, rawData);
+          handleFirstSubframe(prn, words);
           break;
         case 2:
-          handleSecondSubframe(prn, rawData);
+          handleSecondSubframe(prn, words);
           break;
         case 3:
-          handleThirdSubframe(prn, rawData);
+          handleThirdSubframe(prn, words);
           break;
         case 4:
-          handleFourthSubframe(rawData);
+          handleFourthSubframe(words);
           break;
         case 5:
           break;
@@ -222,9 +261,9 @@ public class GpsNavigationMessageStore {
    * Handles the first navigation message subframe which contains satellite clock correction
    * parameters, GPS date (week number) plus satellite status and health.
    */
-  private void handleFirstSubframe(byte prn, byte[] rawData) {
-    int iodc = extractBits(IODC1_INDEX, IODC1_LENGTH, rawData) << 8;
-    iodc |= extractBits(IODC2_INDEX, IODC2_LENGTH, rawData);
+  private void handleFirstSubframe(byte prn, int[] words) {
+    int iodc = extractBits(IODC1_FIELD, words) << 8;
+    iodc |= extractBits(IODC2_FIELD, words);
 
     IntermediateEphemeris intermediateEphemeris =
         findIntermediateEphemerisToUpdate(prn, SUBFRAME_1, iodc);
@@ -237,32 +276,32 @@ public class GpsNavigationMessageStore {
     gpsEphemerisProto.iodc = iodc;
 
     // the navigation message contains a modulo-1023 week number
-    int week = extractBits(WEEK_INDEX, WEEK_LENGTH, rawData);
+    int week = extractBits(WEEK_FIELD, words);
     week = getGpsWeekWithRollover(week);
     gpsEphemerisProto.week = week;
 
-    int uraIndex = extractBits(URA_INDEX, URA_LENGTH, rawData);
+    int uraIndex = extractBits(URA_FIELD, words);
     double svAccuracy = computeNominalSvAccuracy(uraIndex);
     gpsEphemerisProto.svAccuracyM = svAccuracy;
 
-    int svHealth = extractBits(SV_HEALTH_INDEX, SV_HEALTH_LENGTH, rawData);
+    int svHealth = extractBits(SV_HEALTH_FIELD, words);
     gpsEphemerisProto.svHealth = svHealth;
 
-    byte tgd = (byte) extractBits(TGD_INDEX, TGD_LENGTH, rawData);
+    byte tgd = (byte) extractBits(TGD_FIELD, words);
     gpsEphemerisProto.tgd = tgd * POW_2_NEG_31;
 
-    int toc = extractBits(TOC_INDEX, TOC_LENGTH, rawData);
+    int toc = extractBits(TOC_FIELD, words);
     double tocScaled = toc * POW_2_4;
     gpsEphemerisProto.toc = tocScaled;
 
-    byte af2 = (byte) extractBits(AF2_INDEX, AF2_LENGTH, rawData);
+    byte af2 = (byte) extractBits(AF2_FIELD, words);
     gpsEphemerisProto.af2 = af2 * POW_2_NEG_55;
 
-    short af1 = (short) extractBits(AF1_INDEX, AF1_LENGTH, rawData);
+    short af1 = (short) extractBits(AF1_FIELD, words);
     gpsEphemerisProto.af1 = af1 * POW_2_NEG_43;
 
     // a 22-bit two's complement number
-    int af0 = extractBits(AF0_INDEX, AF0_LENGTH, rawData);
+    int af0 = extractBits(AF0_FIELD, words);
     af0 = getTwoComplement(af0, AF0_LENGTH);
     gpsEphemerisProto.af0 = af0 * POW_2_NEG_31;
 
@@ -270,8 +309,8 @@ public class GpsNavigationMessageStore {
   }
 
   /** Handles the second navigation message subframe which contains satellite ephemeris */
-  private void handleSecondSubframe(byte prn, byte[] rawData) {
-    int iode = extractBits(IODE1_INDEX, IODE_LENGTH, rawData);
+  private void handleSecondSubframe(byte prn, int[] words) {
+    int iode = extractBits(IODE1_FIELD, words);
 
     IntermediateEphemeris intermediateEphemeris =
         findIntermediateEphemerisToUpdate(prn, SUBFRAME_2, iode);
@@ -284,30 +323,30 @@ public class GpsNavigationMessageStore {
 
     gpsEphemerisProto.iode = iode;
 
-    short crs = (short) extractBits(CRS_INDEX, CRS_LENGTH, rawData);
+    short crs = (short) extractBits(CRS_FIELD, words);
     gpsEphemerisProto.crs = crs * POW_2_NEG_5;
 
-    short deltaN = (short) extractBits(DELTA_N_INDEX, DELTA_N_LENGTH, rawData);
+    short deltaN = (short) extractBits(DELTA_N_FIELD, words);
     gpsEphemerisProto.deltaN = deltaN * POW_2_NEG_43 * Math.PI;
 
-    int m0 = (int) buildUnsigned32BitsWordFrom8And24Words(M0_INDEX8, M0_INDEX24, rawData);
+    int m0 = (int) buildUnsigned32BitsWordFrom8And24Words(M0_FIELD8, M0_FIELD24, words);
     gpsEphemerisProto.m0 = m0 * POW_2_NEG_31 * Math.PI;
 
-    short cuc = (short) extractBits(CUC_INDEX, CUC_LENGTH, rawData);
+    short cuc = (short) extractBits(CUC_FIELD, words);
     gpsEphemerisProto.cuc = cuc * POW_2_NEG_29;
 
     // an unsigned 32 bit value
-    long e = buildUnsigned32BitsWordFrom8And24Words(E_INDEX8, E_INDEX24, rawData);
+    long e = buildUnsigned32BitsWordFrom8And24Words(E_FIELD8, E_FIELD24, words);
     gpsEphemerisProto.e = e * POW_2_NEG_33;
 
-    short cus = (short) extractBits(CUS_INDEX, CUS_LENGTH, rawData);
+    short cus = (short) extractBits(CUS_FIELD, words);
     gpsEphemerisProto.cus = cus * POW_2_NEG_29;
 
     // an unsigned 32 bit value
-    long a = buildUnsigned32BitsWordFrom8And24Words(A_INDEX8, A_INDEX24, rawData);
+    long a = buildUnsigned32BitsWordFrom8And24Words(A_FIELD8, A_FIELD24, words);
     gpsEphemerisProto.rootOfA = a * POW_2_NEG_19;
 
-    int toe = extractBits(TOE_INDEX, TOE_LENGTH, rawData);
+    int toe = extractBits(TOE_FIELD, words);
     double toeScaled = toe * POW_2_4;
     gpsEphemerisProto.toe = toe * POW_2_4;
 
@@ -315,9 +354,9 @@ public class GpsNavigationMessageStore {
   }
 
   /** Handles the third navigation message subframe which contains satellite ephemeris */
-  private void handleThirdSubframe(byte prn, byte[] rawData) {
+  private void handleThirdSubframe(byte prn, int[] words) {
 
-    int iode = extractBits(IODE2_INDEX, IODE_LENGTH, rawData);
+    int iode = extractBits(IODE2_FIELD, words);
 
     IntermediateEphemeris intermediateEphemeris =
         findIntermediateEphemerisToUpdate(prn, SUBFRAME_3, iode);
@@ -329,31 +368,31 @@ public class GpsNavigationMessageStore {
     GpsEphemerisProto gpsEphemerisProto = intermediateEphemeris.getEphemerisObj();
     gpsEphemerisProto.iode = iode;
 
-    short cic = (short) extractBits(CIC_INDEX, CIC_LENGTH, rawData);
+    short cic = (short) extractBits(CIC_FIELD, words);
     gpsEphemerisProto.cic = cic * POW_2_NEG_29;
 
-    int o0 = (int) buildUnsigned32BitsWordFrom8And24Words(O0_INDEX8, O0_INDEX24, rawData);
+    int o0 = (int) buildUnsigned32BitsWordFrom8And24Words(O0_FIELD8, O0_FIELD24, words);
     gpsEphemerisProto.omega0 = o0 * POW_2_NEG_31 * Math.PI;
 
-    int o = (int) buildUnsigned32BitsWordFrom8And24Words(O_INDEX8, O_INDEX24, rawData);
+    int o = (int) buildUnsigned32BitsWordFrom8And24Words(O_FIELD8, O_FIELD24, words);
     gpsEphemerisProto.omega = o * POW_2_NEG_31 * Math.PI;
 
-    int odot = extractBits(ODOT_INDEX, ODOT_LENGTH, rawData);
+    int odot = extractBits(ODOT_FIELD, words);
     odot = getTwoComplement(odot, ODOT_LENGTH);
     ;
     gpsEphemerisProto.omegaDot = odot * POW_2_NEG_43 * Math.PI;
 
-    short cis = (short) extractBits(CIS_INDEX, CIS_LENGTH, rawData);
+    short cis = (short) extractBits(CIS_FIELD, words);
     gpsEphemerisProto.cis = cis * POW_2_NEG_29;
 
-    int i0 = (int) buildUnsigned32BitsWordFrom8And24Words(I0_INDEX8, I0_INDEX24, rawData);
+    int i0 = (int) buildUnsigned32BitsWordFrom8And24Words(I0_FIELD8, I0_FIELD24, words);
     gpsEphemerisProto.i0 = i0 * POW_2_NEG_31 * Math.PI;
 
-    short crc = (short) extractBits(CRC_INDEX, CRC_LENGTH, rawData);
+    short crc = (short) extractBits(CRC_FIELD, words);
     gpsEphemerisProto.crc = crc * POW_2_NEG_5;
 
     // a 14-bit two's complement number
-    int idot = extractBits(IDOT_INDEX, IDOT_LENGTH, rawData);
+    int idot = extractBits(IDOT_FIELD, words);
     idot = getTwoComplement(idot, IDOT_LENGTH);
     gpsEphemerisProto.iDot = idot * POW_2_NEG_43 * Math.PI;
 
@@ -366,8 +405,8 @@ public class GpsNavigationMessageStore {
    *
    * <p>For now, only the ionospheric parameters are parsed.
    */
-  private void handleFourthSubframe(byte[] rawData) {
-    byte pageId = (byte) extractBits(62, 6, rawData);
+  private void handleFourthSubframe(int[] words) {
+    byte pageId = (byte) extractBits(PAGE_ID_FIELD, words);
     if (pageId != IONOSPHERIC_PARAMETERS_PAGE_18_SV_ID) {
       // We only care to decode ionospheric parameters for now
       return;
@@ -376,46 +415,51 @@ public class GpsNavigationMessageStore {
     IonosphericModelProto ionosphericModelProto = new IonosphericModelProto();
 
     double[] alpha = new double[4];
-    byte a0 = (byte) extractBits(A0_INDEX, A_B_LENGTH, rawData);
+    byte a0 = (byte) extractBits(A0_FIELD, words);
     alpha[0] = a0 * POW_2_NEG_30;
-    byte a1 = (byte) extractBits(A1_INDEX, A_B_LENGTH, rawData);
+    byte a1 = (byte) extractBits(A1_FIELD, words);
     alpha[1] = a1 * POW_2_NEG_27;
-    byte a2 = (byte) extractBits(A2_INDEX, A_B_LENGTH, rawData);
+    byte a2 = (byte) extractBits(A2_FIELD, words);
     alpha[2] = a2 * POW_2_NEG_24;
-    byte a3 = (byte) extractBits(A3_INDEX, A_B_LENGTH, rawData);
+    byte a3 = (byte) extractBits(A3_FIELD, words);
     alpha[3] = a3 * POW_2_NEG_24;
     ionosphericModelProto.alpha = alpha;
 
     double[] beta = new double[4];
-    byte b0 = (byte) extractBits(B0_INDEX, A_B_LENGTH, rawData);
+    byte b0 = (byte) extractBits(B0_FIELD, words);
     beta[0] = b0 * POW_2_11;
-    byte b1 = (byte) extractBits(B1_INDEX, A_B_LENGTH, rawData);
+    byte b1 = (byte) extractBits(B1_FIELD, words);
     beta[1] = b1 * POW_2_14;
-    byte b2 = (byte) extractBits(B2_INDEX, A_B_LENGTH, rawData);
+    byte b2 = (byte) extractBits(B2_FIELD, words);
     beta[2] = b2 * POW_2_16;
-    byte b3 = (byte) extractBits(B3_INDEX, A_B_LENGTH, rawData);
+    byte b3 = (byte) extractBits(B3_FIELD, words);
     beta[3] = b3 * POW_2_16;
     ionosphericModelProto.beta = beta;
 
     double a0UTC =
-        buildSigned32BitsWordFrom8And24WordsWith8bitslsb(I0UTC_INDEX8, I0UTC_INDEX24, rawData)
+        buildSigned32BitsWordFrom8And24WordsWith8bitslsb(I0UTC_FIELD8, I0UTC_FIELD24, words)
             * Math.pow(2, -30);
 
-    double a1UTC = getTwoComplement(extractBits(I1UTC_INDEX, 24, rawData), 24) * Math.pow(2, -50);
+    double a1UTC = getTwoComplement(extractBits(I1UTC_FIELD, words), 24) * Math.pow(2, -50);
 
-    short tot = (short) (extractBits(TOT_LS_INDEX, A_B_LENGTH, rawData) * POW_2_12);
+    short tot = (short) (extractBits(TOT_LS_FIELD, words) * POW_2_12);
 
-    short wnt = (short) extractBits(WN_LS_INDEX, A_B_LENGTH, rawData);
+    short wnt = (short) extractBits(WN_LS_FIELD, words);
 
-    short tls = (short) extractBits(DELTA_T_LS_INDEX, A_B_LENGTH, rawData);
+    short tls = (short) extractBits(DELTA_T_LS_FIELD, words);
 
-    short wnlsf = (short) extractBits(WNF_LS_INDEX, A_B_LENGTH, rawData);
+    short wnlsf = (short) extractBits(WNF_LS_FIELD, words);
 
-    short dn = (short) extractBits(DN_LS_INDEX, A_B_LENGTH, rawData);
+    short dn = (short) extractBits(DN_LS_FIELD, words);
 
-    short tlsf = (short) extractBits(DELTA_TF_LS_INDEX, A_B_LENGTH, rawData);
+    short tlsf = (short) extractBits(DELTA_TF_LS_FIELD, words);
 
-    decodedIonosphericObj = ionosphericModelProto;
+    if (decodedIonosphericObj == null
+        || !Arrays.equals(decodedIonosphericObj.alpha, alpha)
+        || !Arrays.equals(decodedIonosphericObj.beta, beta)) {
+      decodedIonosphericObj = ionosphericModelProto;
+      publishNavMessageSnapshot();
+    }
   }
 
   /**
@@ -429,71 +473,50 @@ public class GpsNavigationMessageStore {
     if (intermediateEphemeris.isFullyDecoded()) {
       partiallyDecodedIntermediateEphemerides[prn - 1] = null;
       fullyDecodedIntermediateEphemerides[prn - 1] = intermediateEphemeris;
+      publishNavMessageSnapshot();
     } else {
       partiallyDecodedIntermediateEphemerides[prn - 1] = intermediateEphemeris;
     }
   }
 
   /**
-   * Extracts the requested bits from the raw stream.
+   * Extracts the requested bits from the unpacked words of a subframe.
    *
-   * @param index Zero-based index of the first bit to extract.
-   * @param length The length of the stream of bits to extract.
-   * @param rawData The stream to extract data from.
+   * @param fieldDescriptor Descriptor of the field created with {@link
+   *     GpsNavigationSubframeDecoder#field(int, int)}.
+   * @param words The ten 30 bit words of the subframe.
    * @return The bits requested always shifted to the least significant positions.
    */
-  private static int extractBits(int index, int length, byte[] rawData) {
-    int result = 0;
-
-    for (int i = 0; i < length; ++i) {
-      int workingIndex = index + i;
-
-      int wordIndex = workingIndex / WORD_SIZE_BITS;
-      // account for 2 bit padding for every 30bit word
-      workingIndex += (wordIndex + 1) * WORD_PADDING_BITS;
-      int byteIndex = workingIndex / BYTE_AS_BITS;
-      int byteOffset = workingIndex % BYTE_AS_BITS;
-
-      byte raw = rawData[byteIndex];
-      // account for zero-based indexing
-      int shiftOffset = BYTE_AS_BITS - 1 - byteOffset;
-      int mask = 1 << shiftOffset;
-      int bit = raw & mask;
-      bit >>= shiftOffset;
-
-      // account for zero-based indexing
-      result |= bit << length - 1 - i;
-    }
-    return result;
+  private static int extractBits(int fieldDescriptor, int[] words) {
+    return GpsNavigationSubframeDecoder.extractField(fieldDescriptor, words);
   }
 
   /**
    * Extracts an unsigned 32 bit word where the word is partitioned 8/24 bits.
    *
-   * @param index8 The index of the first 8 bits used.
-   * @param index24 The index of the last 24 bits used.
-   * @param rawData The stream to extract data from.
+   * @param field8 The descriptor of the first 8 bits used.
+   * @param field24 The descriptor of the last 24 bits used.
+   * @param words The ten 30 bit words of the subframe.
    * @return The bits requested represented as a long and stored in the least significant positions.
    */
-  private static long buildUnsigned32BitsWordFrom8And24Words(
-      int index8, int index24, byte[] rawData) {
-    long result = (long) extractBits(index8, 8, rawData) << 24;
-    result |= extractBits(index24, 24, rawData);
+  private static long buildUnsigned32BitsWordFrom8And24Words(int field8, int field24, int[] words) {
+    long result = (long) extractBits(field8, words) << 24;
+    result |= extractBits(field24, words);
     return result;
   }
 
   /**
    * Extracts a signed 32 bit word where the word is partitioned 8/24 bits with LSB first.
    *
-   * @param index8 The index of the first 8 bits used.
-   * @param index24 The index of the last 24 bits used.
-   * @param rawData The stream to extract data from.
+   * @param field8 The descriptor of the first 8 bits used.
+   * @param field24 The descriptor of the last 24 bits used.
+   * @param words The ten 30 bit words of the subframe.
    * @return The bits requested represented as an int and stored in the least significant positions.
    */
   private static int buildSigned32BitsWordFrom8And24WordsWith8bitslsb(
-      int index8, int index24, byte[] rawData) {
-    int result = extractBits(index24, 24, rawData) << 8;
-    result |= extractBits(index8, 8, rawData);
+      int field8, int field24, int[] words) {
+    int result = extractBits(field24, words) << 8;
+    result |= extractBits(field8, words);
     return result;
   }
 
@@ -745,4 +768,20 @@ public class GpsNavigationMessageStore {
       return hasSubframe && issueOfDataMatches;
     }
   }
+
+  /**
+   * An immutable snapshot of the decoded navigation message with a version number incremented each
+   * time a new snapshot is published.
+   */
+  public static final class NavMessageSnapshot {
+
+    public final long version;
+    /** The decoded navigation message, which must not be modified */
+    public final GpsNavMessageProto navMessageProto;
+
+    public NavMessageSnapshot(long version, GpsNavMessageProto navMessageProto) {
+      this.version = version;
+      this.navMessageProto = navMessageProto;
+    }
+  }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Word level decoder of a GPS L1 C/A (LNAV) subframe as reported by {@link
+ * android.location.GnssNavigationMessage#getData()}: ten 30 bit words, each right aligned in 4
+ * bytes with the 2 most significant bits used as padding.
+ *
+ * <p>A subframe is first unpacked into an array of ten words and the parity of each word is
+ * checked with lookup tables. Fields are then extracted from the words with descriptors that are
+ * precomputed from the bit position of the field in the subframe, so extracting a field is a shift
+ * and a mask.
+ *
+ * <p>Reference: IS-GPS-200, section 20.3.5 Parity Algorithm.
+ */
+final class GpsNavigationSubframeDecoder {
+
+  /** Number of 30 bit words in a subframe */
+  public static final int WORDS_PER_SUBFRAME = 10;
+
+  private static final int WORD_SIZE_BITS = 30;
+  private static final int DATA_BITS_PER_WORD = 24;
+  private static final int PARITY_BITS_PER_WORD = 6;
+  private static final int WORD_MASK = (1 << WORD_SIZE_BITS) - 1;
+  private static final int DATA_MASK = (1 << DATA_BITS_PER_WORD) - 1;
+  private static final int PARITY_MASK = (1 << PARITY_BITS_PER_WORD) - 1;
+  private static final int BYTES_PER_WORD = 4;
+
+  /**
+   * Data bits d1 to d24 taking part in the parity bits D25 to D30 (IS-GPS-200 Table 20-XIV), d1
+   * being the most significant of the 24 data bits.
+   */
+  private static final int[][] PARITY_DATA_BITS = {
+    {1, 2, 3, 5, 6, 10, 11, 12, 13, 14, 17, 18, 20, 23},
+    {2, 3, 4, 6, 7, 11, 12, 13, 14, 15, 18, 19, 21, 24},
+    {1, 3, 4, 5, 7, 8, 12, 13, 14, 15, 16, 19, 20, 22},
+    {2, 4, 5, 6, 8, 9, 13, 14, 15, 16, 17, 20, 21, 23},
+    {1, 3, 5, 6, 7, 9, 10, 14, 15, 16, 17, 18, 21, 22, 24},
+    {3, 5, 6, 8, 9, 10, 11, 13, 15, 19, 22, 23, 24}
+  };
+  /** Parity bits D25 to D30 depending on D29 of the previous word, as a 6 bit mask */
+  private static final int PREVIOUS_D29_PARITY_MASK = 0b101001;
+  /** Parity bits D25 to D30 depending on D30 of the previous word, as a 6 bit mask */
+  private static final int PREVIOUS_D30_PARITY_MASK = 0b010110;
+
+  /**
+   * Parity contributions of the high, middle and low data byte of a word: the parity of the data
+   * bits is the XOR of three table lookups
+   */
+  private static final int[] HIGH_BYTE_PARITY = new int[256];
+  private static final int[] MIDDLE_BYTE_PARITY = new int[256];
+  private static final int[] LOW_BYTE_PARITY = new int[256];
+
+  static {
+    for (int value = 0; value < 256; value++) {
+      HIGH_BYTE_PARITY[value] = computeParityBitByBit(value << 16);
+      MIDDLE_BYTE_PARITY[value] = computeParityBitByBit(value << 8);
+      LOW_BYTE_PARITY[value] = computeParityBitByBit(value);
+    }
+  }
+
+  private GpsNavigationSubframeDecoder() {}
+
+  /**
+   * Creates the descriptor of a field of {@code length} bits starting at the zero based bit {@code
+   * index} of the subframe, not counting the padding bits. The field must not span two words.
+   */
+  public static int field(int index, int length) {
+    int wordIndex = index / WORD_SIZE_BITS;
+    int bitInWord = index % WORD_SIZE_BITS;
+    Preconditions.checkArgument(
+        length > 0 && bitInWord + length <= WORD_SIZE_BITS && wordIndex < WORDS_PER_SUBFRAME,
+        "Invalid field at index %s with length %s",
+        index,
+        length);
+    int shift = WORD_SIZE_BITS - bitInWord - length;
+    return (wordIndex << 16) | (shift << 8) | length;
+  }
+
+  /** Extracts the unsigned value of the field described by {@code fieldDescriptor}. */
+  public static int extractField(int fieldDescriptor, int[] words) {
+    int length = fieldDescriptor & 0xFF;
+    int shift = (fieldDescriptor >>> 8) & 0xFF;
+    return (words[fieldDescriptor >>> 16] >>> shift) & ((1 << length) - 1);
+  }
+
+  /**
+   * Unpacks the 40 bytes of {@code rawData} into the ten 30 bit words of {@code words} and checks
+   * their parity. Returns {@code false} as soon as a word fails the parity check, in which case the
+   * content of {@code words} must not be used.
+   *
+   * <p>The two last parity bits of the previous subframe are not available for the first word; they
+   * are zero for all words 10 by design of the GPS signal. When the last parity bit of the previous
+   * word is set, the transmitted data bits are inverted: receivers report them either inverted or
+   * already restored, so both are accepted and the words are stored with restored data bits.
+   */
+  public static boolean unpackWordsAndCheckParity(byte[] rawData, int[] words) {
+    int previousWord = 0;
+    for (int i = 0; i < WORDS_PER_SUBFRAME; i++) {
+      int offset = i * BYTES_PER_WORD;
+      int word =
+          (((rawData[offset] & 0xFF) << 24)
+                  | ((rawData[offset + 1] & 0xFF) << 16)
+                  | ((rawData[offset + 2] & 0xFF) << 8)
+                  | (rawData[offset + 3] & 0xFF))
+              & WORD_MASK;
+      boolean previousD29 = (previousWord & 0b10) != 0;
+      boolean previousD30 = (previousWord & 0b01) != 0;
+      int data = word >>> PARITY_BITS_PER_WORD;
+      int parity = word & PARITY_MASK;
+      if (previousD30 && !isParityValid(data, parity, previousD29, true)) {
+        // The data bits are reported as transmitted, restore them before checking
+        data ^= DATA_MASK;
+        word ^= DATA_MASK << PARITY_BITS_PER_WORD;
+      }
+      if (!isParityValid(data, parity, previousD29, previousD30)) {
+        return false;
+      }
+      words[i] = word;
+      previousWord = word;
+    }
+    return true;
+  }
+
+  private static boolean isParityValid(
+      int data, int parity, boolean previousD29, boolean previousD30) {
+    int expectedParity =
+        HIGH_BYTE_PARITY[data >>> 16]
+            ^ MIDDLE_BYTE_PARITY[(data >>> 8) & 0xFF]
+            ^ LOW_BYTE_PARITY[data & 0xFF];
+    if (previousD29) {
+      expectedParity ^= PREVIOUS_D29_PARITY_MASK;
+    }
+    if (previousD30) {
+      expectedParity ^= PREVIOUS_D30_PARITY_MASK;
+    }
+    return expectedParity == parity;
+  }
+
+  /** Computes the parity bits D25 to D30 of 24 data bits, ignoring the previous word. */
+  private static int computeParityBitByBit(int data) {
+    int parity = 0;
+    for (int[] dataBits : PARITY_DATA_BITS) {
+      int bit = 0;
+      for (int dataBit : dataBits) {
+        bit ^= (data >>> (DATA_BITS_PER_WORD - dataBit)) & 1;
+      }
+      parity = (parity << 1) | bit;
+    }
+    return parity;
+  }
+}
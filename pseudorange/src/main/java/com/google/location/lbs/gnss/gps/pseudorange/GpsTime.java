@@ -42,10 +42,6 @@ public class GpsTime implements Comparable<GpsTime> {
   public static final long GPS_UTC_EPOCH_OFFSET_NANOS =
       TimeUnit.SECONDS.toNanos(GPS_UTC_EPOCH_OFFSET_SECONDS);
   private static final DateTimeZone UTC_ZONE = DateTimeZone.UTC;
-  private static final DateTime LEAP_SECOND_DATE_1981 = new DateTime(1981, 7, 1, 0, 0, UTC_ZONE);
-  private static final DateTime LEAP_SECOND_DATE_2012 = new DateTime(2012, 7, 1, 0, 0, UTC_ZONE);
-  private static final DateTime LEAP_SECOND_DATE_2015 = new DateTime(2015, 7, 1, 0, 0, UTC_ZONE);
-  private static final DateTime LEAP_SECOND_DATE_2017 = new DateTime(2017, 1, 1, 0, 0, UTC_ZONE);
   // nanoseconds since GPS epoch (1980/1/6).
   private long gpsNanos;
 
@@ -141,24 +137,13 @@ public class GpsTime implements Comparable<GpsTime> {
   }
 
   /**
-   * Computes leap seconds. Only accurate after 2009.
+   * Computes leap seconds from the leap second table of {@link GpsTimeArithmetic}.
    *
    * @param time
    * @return number of leap seconds since GPS epoch.
    */
   public static int getLeapSecond(DateTime time) {
-    if (LEAP_SECOND_DATE_2017.compareTo(time) <= 0) {
-      return 18;
-    } else if (LEAP_SECOND_DATE_2015.compareTo(time) <= 0) {
-      return 17;
-    } else if (LEAP_SECOND_DATE_2012.compareTo(time) <= 0) {
-      return 16;
-    } else if (LEAP_SECOND_DATE_1981.compareTo(time) <= 0) {
-      // Only correct between 2012/7/1 to 2008/12/31
-      return 15;
-    } else {
-      return 0;
-    }
+    return GpsTimeArithmetic.getLeapSecondsAtUtcMillis(time.getMillis());
   }
 
   /**
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation free GPS time arithmetic on nanoseconds since the GPS epoch (1980/01/06): GPS week,
+ * time of week, day of year and GPS - UTC leap seconds.
+ *
+ * <p>Unlike {@link GpsTime}, which is backed by Joda {@code DateTime} and {@code Calendar}, all the
+ * methods only use long arithmetic so they can be used on every epoch of the measurement loop.
+ * Calendar dates are computed with the proleptic Gregorian days from civil algorithm, and leap
+ * seconds are looked up in a table that only needs a new row when a leap second is announced.
+ */
+public final class GpsTimeArithmetic {
+
+  private static final long NANOS_IN_DAY = TimeUnit.DAYS.toNanos(1);
+  private static final long MILLIS_IN_DAY = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * Leap seconds between GPS time and UTC as {year, month, GPS - UTC seconds}: each row gives the
+   * number of leap seconds from the first day of the month, 00:00 UTC.
+   */
+  private static final int[][] LEAP_SECOND_TABLE = {
+    {1981, 7, 1},
+    {1982, 7, 2},
+    {1983, 7, 3},
+    {1985, 7, 4},
+    {1988, 1, 5},
+    {1990, 1, 6},
+    {1991, 1, 7},
+    {1992, 7, 8},
+    {1993, 7, 9},
+    {1994, 7, 10},
+    {1996, 1, 11},
+    {1997, 7, 12},
+    {1999, 1, 13},
+    {2006, 1, 14},
+    {2009, 1, 15},
+    {2012, 7, 16},
+    {2015, 7, 17},
+    {2017, 1, 18}
+  };
+
+  /** UTC milliseconds since the Java epoch at which each row of the leap second table applies */
+  private static final long[] LEAP_SECOND_UTC_MILLIS = new long[LEAP_SECOND_TABLE.length];
+  /** GPS nanoseconds since the GPS epoch at which each row of the leap second table applies */
+  private static final long[] LEAP_SECOND_GPS_NANOS = new long[LEAP_SECOND_TABLE.length];
+  private static final int[] LEAP_SECONDS = new int[LEAP_SECOND_TABLE.length];
+
+  static {
+    for (int i = 0; i < LEAP_SECOND_TABLE.length; i++) {
+      int[] row = LEAP_SECOND_TABLE[i];
+      long utcMillis = daysSinceJavaEpoch(row[0], row[1], 1) * MILLIS_IN_DAY;
+      LEAP_SECOND_UTC_MILLIS[i] = utcMillis;
+      LEAP_SECOND_GPS_NANOS[i] = utcMillisToGpsNanos(utcMillis, row[2]);
+      LEAP_SECONDS[i] = row[2];
+    }
+  }
+
+  private GpsTimeArithmetic() {}
+
+  /** Returns the GPS week number of {@code gpsNanos} nanoseconds since the GPS epoch. */
+  public static int getGpsWeek(long gpsNanos) {
+    return (int) Math.floorDiv(gpsNanos, GpsTime.NANOS_IN_WEEK);
+  }
+
+  /** Returns the nanoseconds since the beginning of the GPS week of {@code gpsNanos}. */
+  public static long getNanosSinceGpsWeek(long gpsNanos) {
+    return Math.floorMod(gpsNanos, GpsTime.NANOS_IN_WEEK);
+  }
+
+  /** Returns the GPS time of week in seconds of {@code gpsNanos}. */
+  public static double getGpsTowSeconds(long gpsNanos) {
+    return getNanosSinceGpsWeek(gpsNanos) * 1e-9;
+  }
+
+  /**
+   * Returns the day of the year between 1 and 366 of {@code gpsNanos} in the GPS time scale, i.e.
+   * without applying the leap seconds, as {@link GpsTime#getTimeInCalendar()} does.
+   */
+  public static int getDayOfYear1To366(long gpsNanos) {
+    long daysSinceJavaEpoch =
+        Math.floorDiv(gpsNanos + GpsTime.GPS_UTC_EPOCH_OFFSET_NANOS, NANOS_IN_DAY);
+    int year = yearOfDaysSinceJavaEpoch(daysSinceJavaEpoch);
+    return (int) (daysSinceJavaEpoch - daysSinceJavaEpoch(year, 1, 1)) + 1;
+  }
+
+  /**
+   * Returns the number of leap seconds between GPS time and UTC at {@code utcMillis} milliseconds
+   * since the Java epoch, or 0 before the first leap second after the GPS epoch.
+   */
+  public static int getLeapSecondsAtUtcMillis(long utcMillis) {
+    for (int i = LEAP_SECOND_UTC_MILLIS.length - 1; i >= 0; i--) {
+      if (utcMillis >= LEAP_SECOND_UTC_MILLIS[i]) {
+        return LEAP_SECONDS[i];
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the number of leap seconds between GPS time and UTC at {@code gpsNanos} nanoseconds
+   * since the GPS epoch, or 0 before the first leap second after the GPS epoch.
+   */
+  public static int getLeapSecondsAtGpsNanos(long gpsNanos) {
+    for (int i = LEAP_SECOND_GPS_NANOS.length - 1; i >= 0; i--) {
+      if (gpsNanos >= LEAP_SECOND_GPS_NANOS[i]) {
+        return LEAP_SECONDS[i];
+      }
+    }
+    return 0;
+  }
+
+  /** Converts UTC milliseconds since the Java epoch into GPS nanoseconds since the GPS epoch. */
+  public static long utcMillisToGpsNanos(long utcMillis) {
+    return utcMillisToGpsNanos(utcMillis, getLeapSecondsAtUtcMillis(utcMillis));
+  }
+
+  /** Converts GPS nanoseconds since the GPS epoch into UTC milliseconds since the Java epoch. */
+  public static long gpsNanosToUtcMillis(long gpsNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(
+        gpsNanos
+            + GpsTime.GPS_UTC_EPOCH_OFFSET_NANOS
+            - TimeUnit.SECONDS.toNanos(getLeapSecondsAtGpsNanos(gpsNanos)));
+  }
+
+  private static long utcMillisToGpsNanos(long utcMillis, int leapSeconds) {
+    return TimeUnit.MILLISECONDS.toNanos(utcMillis)
+        + TimeUnit.SECONDS.toNanos(leapSeconds)
+        - GpsTime.GPS_UTC_EPOCH_OFFSET_NANOS;
+  }
+
+  /**
+   * Returns the number of days since the Java epoch (1970/01/01) of a proleptic Gregorian date,
+   * with {@code month} from 1 to 12 and {@code day} from 1 to 31.
+   */
+  static long daysSinceJavaEpoch(int year, int month, int day) {
+    // Years start on March 1st so that the leap day is the last day of the year
+    long shiftedYear = month <= 2 ? year - 1 : year;
+    long era = Math.floorDiv(shiftedYear, 400);
+    long yearOfEra = shiftedYear - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /** Returns the proleptic Gregorian year of the day {@code daysSinceJavaEpoch}. */
+  private static int yearOfDaysSinceJavaEpoch(long daysSinceJavaEpoch) {
+    long shiftedDays = daysSinceJavaEpoch + 719468;
+    long era = Math.floorDiv(shiftedDays, 146097);
+    long dayOfEra = shiftedDays - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    // January and February belong to the next year
+    return (int) (yearOfEra + era * 400 + (shiftedMonth >= 10 ? 1 : 0));
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+/**
+ * Cholesky factorization L * L^T of the normal matrix G^T * W * G of a weighted least square with
+ * a diagonal weight matrix W, which can be updated when a measurement row is added to or removed
+ * from the geometry matrix G without being computed again.
+ *
+ * <p>Adding or removing the row g of weight w is a rank-one update or downdate of the normal matrix
+ * by (sqrt(w) * g) * (sqrt(w) * g)^T, applied to L with Givens like rotations in O(n^2) for n
+ * unknowns, independently of the number of rows.
+ *
+ * <p>Reference: Golub, G.H., Van Loan, C.F.: 'Matrix Computations', section 6.5.4, and LINPACK
+ * routines DCHUD and DCHDD.
+ */
+class IncrementalCholeskyFactorization {
+
+  /**
+   * Fraction of a diagonal entry below which the downdated entry is considered zero, i.e. the
+   * remaining rows do not determine the unknowns
+   */
+  private static final double DOWNDATE_RELATIVE_TOLERANCE = 1.0e-10;
+
+  private final int dimension;
+  /** Lower triangular factor of the normal matrix */
+  private final double[][] lower;
+  /** Scratch arrays for the downdate, which is only committed if it succeeds */
+  private final double[][] lowerScratch;
+  private final double[] rowScratch;
+
+  /** Constructor for a least square of {@code dimension} unknowns. */
+  public IncrementalCholeskyFactorization(int dimension) {
+    this.dimension = dimension;
+    lower = new double[dimension][dimension];
+    lowerScratch = new double[dimension][dimension];
+    rowScratch = new double[dimension];
+  }
+
+  /**
+   * Factorizes the normal matrix of the first {@code numberOfRows} rows of the geometry matrix
+   * {@code rows} weighted by {@code weights}. Returns {@code false} if the normal matrix is not
+   * positive definite, i.e. the geometry does not determine the unknowns.
+   */
+  public boolean factorize(double[][] rows, double[] weights, int numberOfRows) {
+    for (int i = 0; i < dimension; i++) {
+      for (int j = 0; j <= i; j++) {
+        double normal = 0.0;
+        for (int k = 0; k < numberOfRows; k++) {
+          normal += weights[k] * rows[k][i] * rows[k][j];
+        }
+        for (int k = 0; k < j; k++) {
+          normal -= lower[i][k] * lower[j][k];
+        }
+        if (i == j) {
+          if (normal <= 0.0) {
+            return false;
+          }
+          lower[i][i] = Math.sqrt(normal);
+        } else {
+          lower[i][j] = normal / lower[j][j];
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Adds the geometry row {@code row} of weight {@code weight} to the factorization. */
+  public void update(double[] row, double weight) {
+    double sqrtWeight = Math.sqrt(weight);
+    for (int i = 0; i < dimension; i++) {
+      rowScratch[i] = sqrtWeight * row[i];
+    }
+    for (int k = 0; k < dimension; k++) {
+      double diagonal = Math.hypot(lower[k][k], rowScratch[k]);
+      double cosine = diagonal / lower[k][k];
+      double sine = rowScratch[k] / lower[k][k];
+      lower[k][k] = diagonal;
+      for (int i = k + 1; i < dimension; i++) {
+        lower[i][k] = (lower[i][k] + sine * rowScratch[i]) / cosine;
+        rowScratch[i] = cosine * rowScratch[i] - sine * lower[i][k];
+      }
+    }
+  }
+
+  /**
+   * Removes the geometry row {@code row} of weight {@code weight} from the factorization. Returns
+   * {@code false}, leaving the factorization unchanged, if the normal matrix without the row is not
+   * positive definite.
+   */
+  public boolean downdate(double[] row, double weight) {
+    double sqrtWeight = Math.sqrt(weight);
+    for (int i = 0; i < dimension; i++) {
+      rowScratch[i] = sqrtWeight * row[i];
+      System.arraycopy(lower[i], 0, lowerScratch[i], 0, i + 1);
+    }
+    for (int k = 0; k < dimension; k++) {
+      double previousDiagonalSquare = lowerScratch[k][k] * lowerScratch[k][k];
+      double diagonalSquare = previousDiagonalSquare - rowScratch[k] * rowScratch[k];
+      if (diagonalSquare <= DOWNDATE_RELATIVE_TOLERANCE * previousDiagonalSquare) {
+        return false;
+      }
+      double diagonal = Math.sqrt(diagonalSquare);
+      double cosine = diagonal / lowerScratch[k][k];
+      double sine = rowScratch[k] / lowerScratch[k][k];
+      lowerScratch[k][k] = diagonal;
+      for (int i = k + 1; i < dimension; i++) {
+        lowerScratch[i][k] = (lowerScratch[i][k] - sine * rowScratch[i]) / cosine;
+        rowScratch[i] = cosine * rowScratch[i] - sine * lowerScratch[i][k];
+      }
+    }
+    for (int i = 0; i < dimension; i++) {
+      System.arraycopy(lowerScratch[i], 0, lower[i], 0, i + 1);
+    }
+    return true;
+  }
+
+  /** Copies the factorization of {@code other}, which must have the same dimension. */
+  public void copyFrom(IncrementalCholeskyFactorization other) {
+    for (int i = 0; i < dimension; i++) {
+      System.arraycopy(other.lower[i], 0, lower[i], 0, i + 1);
+    }
+  }
+
+  /**
+   * Solves the normal equations L * L^T * {@code solution} = {@code rightHandSide} by forward and
+   * backward substitution. {@code solution} may be the same array as {@code rightHandSide}.
+   */
+  public void solve(double[] rightHandSide, double[] solution) {
+    for (int i = 0; i < dimension; i++) {
+      double sum = rightHandSide[i];
+      for (int k = 0; k < i; k++) {
+        sum -= lower[i][k] * solution[k];
+      }
+      solution[i] = sum / lower[i][i];
+    }
+    for (int i = dimension - 1; i >= 0; i--) {
+      double sum = solution[i];
+      for (int k = i + 1; k < dimension; k++) {
+        sum -= lower[k][i] * solution[k];
+      }
+      solution[i] = sum / lower[i][i];
+    }
+  }
+
+  /**
+   * Computes the inverse of the normal matrix, i.e. the covariance of the least square solution,
+   * into the {@code dimension} x {@code dimension} array {@code inverse}.
+   */
+  public void computeInverse(double[][] inverse) {
+    for (int column = 0; column < dimension; column++) {
+      for (int i = 0; i < dimension; i++) {
+        rowScratch[i] = i == column ? 1.0 : 0.0;
+      }
+      solve(rowScratch, rowScratch);
+      for (int i = 0; i < dimension; i++) {
+        inverse[i][column] = rowScratch[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cache of the intermediate products of {@link UserPositionVelocityWeightedLeastSquare} for each
+ * epoch and satellite of a log: the satellite position, velocity, clock correction and clock drift
+ * and the ionospheric and tropospheric delays, which are the same whatever the solver settings, so
+ * that the runs over a log after the first one load them instead of computing them again.
+ *
+ * <p>The cache is a binary sidecar file addressed by the SHA-256 hash of the content of the log,
+ * {@code <hash>.products} in a cache directory. Each record also holds the version (IODE and
+ * reference time) of the broadcast ephemeris it was computed from, and is only used with the same
+ * ephemeris. If no sidecar exists for the log, the products computed by the run are recorded and
+ * written by {@link #save()}. The products also depend on the geoid heights used for the
+ * tropospheric delays, and are not used with precise ephemerides.
+ *
+ * <p>Layout (big endian): magic {@code "GNPC"} (int), format version (int), log hash (32 bytes),
+ * number of records (int), then the records sorted by epoch: epoch in nanoseconds since the GPS
+ * epoch (long), {@link SatelliteKey} (int), ephemeris version (long), satellite position x, y, z
+ * in meters and clock correction in meters (doubles), satellite velocity x, y, z and clock drift
+ * in meters per second and ionospheric and tropospheric delays in meters (floats). The records are
+ * read on demand from the memory mapped file, by a binary search on the epochs.
+ */
+public class IntermediateProductsCache {
+
+  /** Extension of the sidecar files */
+  public static final String FILE_EXTENSION = ".products";
+
+  private static final int MAGIC = 0x474e5043; // "GNPC"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HASH_SIZE_BYTES = 32;
+  private static final int HEADER_SIZE_BYTES = 4 + 4 + HASH_SIZE_BYTES + 4;
+  private static final int RECORD_SIZE_BYTES = 8 + 4 + 8 + 4 * 8 + 6 * 4;
+  private static final int ENTRY_OFFSET_POSITION = 8 + 4 + 8;
+
+  private final File sidecarFile;
+  private final HashCode logHash;
+  /** Records of the sidecar file, or null while recording */
+  private final ByteBuffer records;
+  private final int numberOfRecords;
+  /** Records of the run, or null if the sidecar file was loaded */
+  private final ByteArrayOutputStream recordedBytes;
+  private final DataOutputStream recordedRecords;
+  private int numberOfRecordedRecords;
+  private long lastRecordedEpochNanos = Long.MIN_VALUE;
+
+  private IntermediateProductsCache(File sidecarFile, HashCode logHash, ByteBuffer buffer)
+      throws IOException {
+    this.sidecarFile = sidecarFile;
+    this.logHash = logHash;
+    if (buffer == null) {
+      records = null;
+      numberOfRecords = 0;
+      recordedBytes = new ByteArrayOutputStream();
+      recordedRecords = new DataOutputStream(recordedBytes);
+      return;
+    }
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    if (buffer.remaining() < HEADER_SIZE_BYTES || buffer.getInt() != MAGIC) {
+      throw new IOException("Not an intermediate products cache: " + sidecarFile);
+    }
+    int version = buffer.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported intermediate products cache version: " + version);
+    }
+    byte[] hash = new byte[HASH_SIZE_BYTES];
+    buffer.get(hash);
+    if (!HashCode.fromBytes(hash).equals(logHash)) {
+      throw new IOException("Intermediate products cache of another log: " + sidecarFile);
+    }
+    numberOfRecords = buffer.getInt();
+    if (numberOfRecords < 0 || buffer.remaining() < (long) numberOfRecords * RECORD_SIZE_BYTES) {
+      throw new IOException("Corrupted intermediate products cache: " + sidecarFile);
+    }
+    records = buffer.slice();
+    recordedBytes = null;
+    recordedRecords = null;
+  }
+
+  /**
+   * Opens the cache of the log {@code logFile} in {@code cacheDirectory}: the sidecar file of the
+   * log is memory mapped if it exists, else the products of the run are recorded.
+   */
+  public static IntermediateProductsCache open(File logFile, File cacheDirectory)
+      throws IOException {
+    HashCode logHash = Hashing.sha256().hashBytes(map(logFile));
+    File sidecarFile = new File(cacheDirectory, logHash + FILE_EXTENSION);
+    return new IntermediateProductsCache(
+        sidecarFile, logHash, sidecarFile.exists() ? map(sidecarFile) : null);
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      // The mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /** Returns {@code true} if the products of the run are recorded, i.e. no sidecar was loaded. */
+  public boolean isRecording() {
+    return records == null;
+  }
+
+  /** Returns the number of records loaded from the sidecar file or recorded by the run. */
+  public int size() {
+    return isRecording() ? numberOfRecordedRecords : numberOfRecords;
+  }
+
+  /**
+   * Writes the recorded products to the sidecar file of the log, replaced atomically. Does
+   * nothing if the sidecar file was loaded.
+   */
+  public void save() throws IOException {
+    if (!isRecording()) {
+      return;
+    }
+    File temporaryFile = new File(sidecarFile.getPath() + ".tmp");
+    DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(temporaryFile));
+    try {
+      outputStream.writeInt(MAGIC);
+      outputStream.writeInt(FORMAT_VERSION);
+      outputStream.write(logHash.asBytes());
+      outputStream.writeInt(numberOfRecordedRecords);
+      recordedBytes.writeTo(outputStream);
+    } finally {
+      outputStream.close();
+    }
+    if (!temporaryFile.renameTo(sidecarFile)) {
+      temporaryFile.delete();
+      throw new IOException("Cannot write " + sidecarFile);
+    }
+  }
+
+  /** Returns the version of {@code ephemerisProto} the products computed from it depend on. */
+  static long getEphemerisVersion(GpsEphemerisProto ephemerisProto) {
+    return ((long) ephemerisProto.iode << 32) | ((long) ephemerisProto.toe & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Sets {@code products} to the products of the signal {@code satelliteKey} at the epoch {@code
+   * epochNanos} (nanoseconds since the GPS epoch) computed from the ephemeris {@code
+   * ephemerisVersion}. Returns {@code false} if they are not in the sidecar file.
+   */
+  boolean find(
+      long epochNanos, int satelliteKey, long ephemerisVersion, SatelliteProducts products) {
+    if (records == null) {
+      return false;
+    }
+    // First record of the epoch
+    int low = 0;
+    int high = numberOfRecords;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (records.getLong(middle * RECORD_SIZE_BYTES) < epochNanos) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    for (int record = low; record < numberOfRecords; record++) {
+      int offset = record * RECORD_SIZE_BYTES;
+      if (records.getLong(offset) != epochNanos) {
+        return false;
+      }
+      if (records.getInt(offset + 8) == satelliteKey
+          && records.getLong(offset + 12) == ephemerisVersion) {
+        readProducts(offset + ENTRY_OFFSET_POSITION, products);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void readProducts(int offset, SatelliteProducts products) {
+    products.positionXMeters = records.getDouble(offset);
+    products.positionYMeters = records.getDouble(offset + 8);
+    products.positionZMeters = records.getDouble(offset + 16);
+    products.clockCorrectionMeters = records.getDouble(offset + 24);
+    products.velocityXMetersPerSec = records.getFloat(offset + 32);
+    products.velocityYMetersPerSec = records.getFloat(offset + 36);
+    products.velocityZMetersPerSec = records.getFloat(offset + 40);
+    products.clockCorrectionRateMps = records.getFloat(offset + 44);
+    products.ionosphericCorrectionMeters = records.getFloat(offset + 48);
+    products.troposphericCorrectionMeters = records.getFloat(offset + 52);
+  }
+
+  /**
+   * Records the {@code products} of the signal {@code satelliteKey} at the epoch {@code
+   * epochNanos} (nanoseconds since the GPS epoch) computed from the ephemeris {@code
+   * ephemerisVersion}. The epochs are recorded in increasing order, the products of an earlier
+   * epoch are not recorded.
+   */
+  void record(
+      long epochNanos, int satelliteKey, long ephemerisVersion, SatelliteProducts products) {
+    if (recordedRecords == null || epochNanos < lastRecordedEpochNanos) {
+      return;
+    }
+    lastRecordedEpochNanos = epochNanos;
+    try {
+      recordedRecords.writeLong(epochNanos);
+      recordedRecords.writeInt(satelliteKey);
+      recordedRecords.writeLong(ephemerisVersion);
+      recordedRecords.writeDouble(products.positionXMeters);
+      recordedRecords.writeDouble(products.positionYMeters);
+      recordedRecords.writeDouble(products.positionZMeters);
+      recordedRecords.writeDouble(products.clockCorrectionMeters);
+      recordedRecords.writeFloat((float) products.velocityXMetersPerSec);
+      recordedRecords.writeFloat((float) products.velocityYMetersPerSec);
+      recordedRecords.writeFloat((float) products.velocityZMetersPerSec);
+      recordedRecords.writeFloat((float) products.clockCorrectionRateMps);
+      recordedRecords.writeFloat((float) products.ionosphericCorrectionMeters);
+      recordedRecords.writeFloat((float) products.troposphericCorrectionMeters);
+    } catch (IOException e) {
+      // Not thrown by a byte array output stream
+      throw new IllegalStateException(e);
+    }
+    numberOfRecordedRecords++;
+  }
+
+  /**
+   * Intermediate products of a satellite at an epoch. The atmospheric delays are NaN if they were
+   * not computed.
+   */
+  static class SatelliteProducts {
+    public double positionXMeters;
+    public double positionYMeters;
+    public double positionZMeters;
+    public double velocityXMetersPerSec;
+    public double velocityYMetersPerSec;
+    public double velocityZMetersPerSec;
+    public double clockCorrectionMeters;
+    public double clockCorrectionRateMps;
+    public double ionosphericCorrectionMeters;
+    public double troposphericCorrectionMeters;
+  }
+}
@@ -63,13 +63,43 @@ public class IonosphericModel {
     TopocentricAEDValues elevationAndAzimuthRadians =
         EcefToTopocentricConverter.calculateElAzDistBetween2Points(
             userPositionECEFMeters, satellitePositionECEFMeters);
-    double elevationSemiCircle = elevationAndAzimuthRadians.elevationRadians / Math.PI;
-    double azimuthSemiCircle = elevationAndAzimuthRadians.azimuthRadians / Math.PI;
     GeodeticLlaValues latLngAlt =
         Ecef2LlaConverter.convertECEFToLLACloseForm(
             userPositionECEFMeters[0], userPositionECEFMeters[1], userPositionECEFMeters[2]);
-    double latitudeUSemiCircle = latLngAlt.latitudeRadians / Math.PI;
-    double longitudeUSemiCircle = latLngAlt.longitudeRadians / Math.PI;
+    return ionoKlobucharCorrectionSeconds(
+        elevationAndAzimuthRadians.elevationRadians,
+        elevationAndAzimuthRadians.azimuthRadians,
+        latLngAlt.latitudeRadians,
+        latLngAlt.longitudeRadians,
+        gpsTOWSeconds,
+        alpha,
+        beta,
+        frequencyHz);
+  }
+
+  /**
+   * Calculates the Ionospheric correction of the pseudorange in seconds using the Klobuchar
+   * Ionospheric model given the satellite elevation and azimuth and the user geodetic latitude and
+   * longitude, all in radians.
+   *
+   * <p>This variant allows the user geodetic position and the satellite elevation and azimuth to be
+   * computed once and shared with other models, so that only the pierce point terms are evaluated
+   * per satellite.
+   */
+  public static double ionoKlobucharCorrectionSeconds(
+      double elevationRadians,
+      double azimuthRadians,
+      double userLatitudeRadians,
+      double userLongitudeRadians,
+      double gpsTOWSeconds,
+      double[] alpha,
+      double[] beta,
+      double frequencyHz) {
+
+    double elevationSemiCircle = elevationRadians / Math.PI;
+    double azimuthSemiCircle = azimuthRadians / Math.PI;
+    double latitudeUSemiCircle = userLatitudeRadians / Math.PI;
+    double longitudeUSemiCircle = userLongitudeRadians / Math.PI;
 
     // earth's centered angle (semi-circles)
     double earthCentredAngleSemiCircle = 0.0137 / (elevationSemiCircle + 0.11) - 0.022;
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+/**
+ * Convergence tolerance, iteration budget and atmospheric correction policy of the iterations of
+ * {@link UserPositionVelocityWeightedLeastSquare}, trading the accuracy of the solution for its
+ * cost.
+ */
+final class LeastSquareProfile {
+  /**
+   * Fewest iterations: centimeter convergence, and the atmospheric corrections of each satellite
+   * reused rather than computed again once the position corrections are below 10 meters, as they
+   * then change by millimeters.
+   */
+  public static final LeastSquareProfile FAST =
+      new LeastSquareProfile(
+          "fast",
+          5.0e-2 /*toleranceMeters*/,
+          8 /*maximumNumberOfIterations*/,
+          true /*reuseAtmosphericCorrections*/,
+          false /*failOnNonConvergence*/);
+
+  /** Millimeter convergence, with the atmospheric corrections computed at each iteration. */
+  public static final LeastSquareProfile BALANCED =
+      new LeastSquareProfile(
+          "balanced",
+          1.0e-3 /*toleranceMeters*/,
+          20 /*maximumNumberOfIterations*/,
+          false /*reuseAtmosphericCorrections*/,
+          false /*failOnNonConvergence*/);
+
+  /** Convergence to the round off of the solution, the default. */
+  public static final LeastSquareProfile PRECISE =
+      new LeastSquareProfile(
+          "precise",
+          4.0e-8 /*toleranceMeters*/,
+          100 /*maximumNumberOfIterations*/,
+          false /*reuseAtmosphericCorrections*/,
+          true /*failOnNonConvergence*/);
+
+  /** Name of the profile, for the logs */
+  public final String name;
+
+  /** Sum of the absolute corrections of the position below which the iterations stop */
+  public final double toleranceMeters;
+
+  /** Number of iterations after which the iterations stop without convergence */
+  public final int maximumNumberOfIterations;
+
+  /**
+   * {@code true} if the atmospheric corrections of a satellite are reused until the end of the
+   * solution once the position corrections are small
+   */
+  public final boolean reuseAtmosphericCorrections;
+
+  /**
+   * {@code true} if an exception is thrown when the iterations do not converge within the
+   * iteration budget or before the deadline, else the last estimate is returned flagged as degraded
+   */
+  public final boolean failOnNonConvergence;
+
+  LeastSquareProfile(
+      String name,
+      double toleranceMeters,
+      int maximumNumberOfIterations,
+      boolean reuseAtmosphericCorrections,
+      boolean failOnNonConvergence) {
+    this.name = name;
+    this.toleranceMeters = toleranceMeters;
+    this.maximumNumberOfIterations = maximumNumberOfIterations;
+    this.reuseAtmosphericCorrections = reuseAtmosphericCorrections;
+    this.failOnNonConvergence = failOnNonConvergence;
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import java.io.IOException;
+
+/** Interface for a source of GPS assistance navigation data, e.g. a SUPL server. */
+public interface NavMessageSource {
+
+  /**
+   * Fetches the navigation message containing the ephemerides of the GPS satellites visible around
+   * the reference location at latitude {@code latE7} and longitude {@code lngE7} in degrees
+   * multiplied by 1e7, together with the ionospheric model parameters.
+   *
+   * <p>This is a blocking call and must not be made on the positioning thread.
+   */
+  GpsNavMessageProto fetchNavMessage(long latE7, long lngE7) throws IOException;
+}
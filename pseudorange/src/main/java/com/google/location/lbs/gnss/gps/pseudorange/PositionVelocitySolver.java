@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+
+/**
+ * Interface of the engines computing the receiver position and velocity from the pseudoranges and
+ * pseudorange rates of an epoch, so that they can be swapped and compared on the same measurements.
+ */
+interface PositionVelocitySolver {
+
+  /**
+   * Computes the position and velocity solution of an epoch.
+   *
+   * @param navMessageProto parameters of the navigation message
+   * @param usefulSatellitesToReceiverMeasurements {@link GpsEpochMeasurements} of the useful
+   *     satellites, with their pseudoranges and uncertainties. The measurements are not modified.
+   * @param receiverGPSTowAtReceptionSeconds Receiver estimate of GPS time of week (seconds)
+   * @param receiverGPSWeek Receiver estimate of GPS week (0-1024+)
+   * @param dayOfYear1To366 The day of the year between 1 and 366
+   * @param positionVelocitySolutionECEF Solution array of the following format: [0-2] xyz solution
+   *     of user. [3] clock bias of user. [4-6] velocity of user. [7] clock bias rate of user. On
+   *     input, an estimate the solver may start from.
+   * @param pseudorangeResidualMeters Corrected pseudorange residuals indexed by the slots of
+   *     {@code usefulSatellitesToReceiverMeasurements}, left unchanged if not computed
+   */
+  void calculateUserPositionVelocity(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] pseudorangeResidualMeters)
+      throws Exception;
+
+  /**
+   * Returns the uncertainties and dilutions of precision of the last solution, computed only when
+   * they are requested.
+   */
+  SolutionQuality getSolutionQuality();
+
+  /** Forgets any state carried from the previous epochs, e.g. after a gap in the measurements. */
+  void reset();
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Precise GPS satellite orbits and clocks, e.g. the IGS final or rapid products, read from SP3
+ * orbit files and optionally RINEX clock files, to replace the broadcast ephemerides in post
+ * processing.
+ *
+ * <p>The files are memory mapped and parsed line by line into a time index per satellite: the
+ * epochs and values of each satellite in primitive arrays. Positions and clocks are interpolated
+ * with Lagrange polynomials of order {@link #INTERPOLATION_ORDER} over the epochs surrounding the
+ * requested time. The barycentric weights of the window of epochs of a satellite are cached and
+ * only computed again when the window slides to the next epoch, and the coefficients at a time are
+ * cached for the iterations of the least square, so that a query of consecutive epochs costs a few
+ * multiplications per epoch of the window.
+ *
+ * <p>The clocks of the RINEX clock files, usually every 30 seconds, replace the clocks of the SP3
+ * files, usually every 15 minutes, for the satellites they contain. The orbits are the centers of
+ * mass of the satellites, the offsets of the antenna phase centers are neglected. Not thread safe.
+ *
+ * <p>References: SP3-d format, ftp://igs.org/pub/data/format/sp3d.pdf; RINEX clock format 3.04,
+ * ftp://igs.org/pub/data/format/rinex_clock304.txt
+ */
+public class PreciseEphemeris {
+
+  /** Order of the Lagrange interpolation polynomials, over {@code ORDER + 1} consecutive epochs */
+  public static final int INTERPOLATION_ORDER = 9;
+
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double EARTH_ROTATION_RATE_RAD_PER_SEC = 7.2921151467e-5;
+  /** Gravitational parameter of the earth in WGS84 (m^3 / s^2) */
+  private static final double GRAVITATIONAL_PARAMETER_M3_SM2 = 3.986005e14;
+  private static final int SECONDS_IN_WEEK = 604800;
+  private static final int NUMBER_OF_NODES = INTERPOLATION_ORDER + 1;
+  private static final int MAX_NUMBER_OF_SATELLITES =
+      GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES;
+  private static final int NUMBER_OF_SAGNAC_ITERATIONS = 3;
+  private static final double METERS_PER_KILOMETER = 1000.0;
+  private static final double SECONDS_PER_MICROSECOND = 1.0e-6;
+  /** SP3 clock values from this value on are missing (microseconds) */
+  private static final double SP3_MISSING_CLOCK_MICROSECONDS = 999999.0;
+  /**
+   * Largest ratio of the longest to the shortest interval between the epochs of an interpolation
+   * window, above which epochs are missing and the window is not used
+   */
+  private static final double MAXIMUM_INTERVAL_RATIO = 1.5;
+  private static final int MAXIMUM_LINE_LENGTH = 256;
+
+  // Time index of each satellite, indexed by PRN
+  private final TimeSeries[] orbits = new TimeSeries[MAX_NUMBER_OF_SATELLITES + 1];
+  private final TimeSeries[] sp3Clocks = new TimeSeries[MAX_NUMBER_OF_SATELLITES + 1];
+  private final TimeSeries[] rinexClocks = new TimeSeries[MAX_NUMBER_OF_SATELLITES + 1];
+
+  // Scratch arrays of the interpolations
+  private final double[] orbitValues = new double[3];
+  private final double[] orbitDerivatives = new double[3];
+  private final double[] clockValue = new double[1];
+  private final double[] clockDerivative = new double[1];
+
+  /**
+   * Reads the SP3 orbit file {@code sp3File} and, if not {@code null}, the RINEX clock file {@code
+   * clockRinexFile} of the same period.
+   */
+  public static PreciseEphemeris fromFiles(File sp3File, File clockRinexFile) throws IOException {
+    PreciseEphemeris preciseEphemeris = new PreciseEphemeris();
+    preciseEphemeris.readSp3(map(sp3File));
+    if (clockRinexFile != null) {
+      preciseEphemeris.readClockRinex(map(clockRinexFile));
+    }
+    return preciseEphemeris;
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      // The mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Adds the orbits and clocks of the GPS satellites of the SP3 file in {@code buffer}. Files of
+   * consecutive periods are read in chronological order, the epochs repeated at their boundaries
+   * being replaced.
+   */
+  public void readSp3(ByteBuffer buffer) throws IOException {
+    byte[] lineBytes = new byte[MAXIMUM_LINE_LENGTH];
+    String line = readLine(buffer, lineBytes);
+    if (line == null || line.length() < 2 || line.charAt(0) != '#') {
+      throw new IOException("Not an SP3 file");
+    }
+    double epochSeconds = Double.NaN;
+    while ((line = readLine(buffer, lineBytes)) != null) {
+      if (line.startsWith("EOF")) {
+        break;
+      } else if (line.startsWith("%c") && line.length() >= 12) {
+        String timeSystem = line.substring(9, 12).trim();
+        if (!timeSystem.isEmpty() && !timeSystem.equals("ccc") && !timeSystem.equals("GPS")) {
+          throw new IOException("Unsupported SP3 time system: " + timeSystem);
+        }
+      } else if (line.startsWith("*")) {
+        String[] fields = line.substring(1).trim().split("\\s+");
+        epochSeconds = parseGpsSeconds(fields, 0);
+      } else if (line.startsWith("P") && line.length() >= 46) {
+        int prn = parsePrn(line.charAt(1), line.substring(2, 4));
+        if (prn < 0 || Double.isNaN(epochSeconds)) {
+          continue;
+        }
+        double xMeters = parseDouble(line.substring(4, 18)) * METERS_PER_KILOMETER;
+        double yMeters = parseDouble(line.substring(18, 32)) * METERS_PER_KILOMETER;
+        double zMeters = parseDouble(line.substring(32, 46)) * METERS_PER_KILOMETER;
+        // Missing positions are set to zero
+        if (xMeters != 0.0 || yMeters != 0.0 || zMeters != 0.0) {
+          orbits[prn] = add(orbits[prn], 3, epochSeconds, xMeters, yMeters, zMeters);
+        }
+        if (line.length() >= 60) {
+          double clockMicroseconds = parseDouble(line.substring(46, 60));
+          if (clockMicroseconds < SP3_MISSING_CLOCK_MICROSECONDS) {
+            sp3Clocks[prn] =
+                add(sp3Clocks[prn], 1, epochSeconds, clockMicroseconds * SECONDS_PER_MICROSECOND);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the clocks of the GPS satellites of the RINEX clock file in {@code buffer}. Files of
+   * consecutive periods are read in chronological order.
+   */
+  public void readClockRinex(ByteBuffer buffer) throws IOException {
+    byte[] lineBytes = new byte[MAXIMUM_LINE_LENGTH];
+    String line = readLine(buffer, lineBytes);
+    if (line == null || !line.contains("RINEX VERSION")) {
+      throw new IOException("Not a RINEX clock file");
+    }
+    while ((line = readLine(buffer, lineBytes)) != null && !line.contains("END OF HEADER")) {}
+    if (line == null) {
+      throw new IOException("Missing end of RINEX clock header");
+    }
+    while ((line = readLine(buffer, lineBytes)) != null) {
+      if (!line.startsWith("AS ")) {
+        continue;
+      }
+      // AS G01 yyyy mm dd hh mm ss.ssssss n bias [sigma]
+      String[] fields = line.trim().split("\\s+");
+      if (fields.length < 10 || fields[1].length() != 3) {
+        continue;
+      }
+      int prn = parsePrn(fields[1].charAt(0), fields[1].substring(1));
+      if (prn < 0) {
+        continue;
+      }
+      double epochSeconds = parseGpsSeconds(fields, 2);
+      double clockSeconds = parseDouble(fields[9].replace('D', 'E'));
+      rinexClocks[prn] = add(rinexClocks[prn], 1, epochSeconds, clockSeconds);
+    }
+  }
+
+  /**
+   * Returns {@code true} if the orbit and clock of satellite {@code prn} can be interpolated at the
+   * GPS time of week {@code gpsTowSeconds} of week {@code gpsWeek}.
+   */
+  public boolean hasSatellite(int prn, double gpsTowSeconds, int gpsWeek) {
+    if (prn < 1 || prn > MAX_NUMBER_OF_SATELLITES || orbits[prn] == null) {
+      return false;
+    }
+    double gpsSeconds = toGpsSeconds(gpsTowSeconds, gpsWeek);
+    TimeSeries clocks = getClocks(prn);
+    return orbits[prn].covers(gpsSeconds) && clocks != null && clocks.covers(gpsSeconds);
+  }
+
+  /**
+   * Calculates the position in meters and velocity in meters per second of satellite {@code prn}
+   * at the GPS time of transmission, rotated to the earth fixed frame at the time of reception as
+   * seen from the user position (Sagnac effect) like {@link
+   * SatellitePositionCalculator#calculateSatellitePositionAndVelocityFromEphemeris}. Returns {@code
+   * false} if the satellite is not covered at that time.
+   */
+  public boolean calculateSatellitePositionAndVelocity(
+      int prn,
+      double receiverGpsTowAtTimeOfTransmissionCorrectedSec,
+      int receiverGpsWeekAtTimeOfTransmission,
+      double userPosXMeters,
+      double userPosYMeters,
+      double userPosZMeters,
+      PositionAndVelocity satPosAndVel) {
+    if (!interpolateOrbit(
+        prn,
+        toGpsSeconds(
+            receiverGpsTowAtTimeOfTransmissionCorrectedSec, receiverGpsWeekAtTimeOfTransmission))) {
+      return false;
+    }
+    double rangeMeters = 0.070 * SPEED_OF_LIGHT_MPS;
+    for (int i = 0; i < NUMBER_OF_SAGNAC_ITERATIONS; i++) {
+      double rotationRadians = EARTH_ROTATION_RATE_RAD_PER_SEC * rangeMeters / SPEED_OF_LIGHT_MPS;
+      double cosRotation = Math.cos(rotationRadians);
+      double sinRotation = Math.sin(rotationRadians);
+      satPosAndVel.positionXMeters = cosRotation * orbitValues[0] + sinRotation * orbitValues[1];
+      satPosAndVel.positionYMeters = -sinRotation * orbitValues[0] + cosRotation * orbitValues[1];
+      satPosAndVel.positionZMeters = orbitValues[2];
+      satPosAndVel.velocityXMetersPerSec =
+          cosRotation * orbitDerivatives[0] + sinRotation * orbitDerivatives[1];
+      satPosAndVel.velocityYMetersPerSec =
+          -sinRotation * orbitDerivatives[0] + cosRotation * orbitDerivatives[1];
+      satPosAndVel.velocityZMetersPerSec = orbitDerivatives[2];
+      double dx = satPosAndVel.positionXMeters - userPosXMeters;
+      double dy = satPosAndVel.positionYMeters - userPosYMeters;
+      double dz = satPosAndVel.positionZMeters - userPosZMeters;
+      rangeMeters = Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+    return true;
+  }
+
+  /**
+   * Computes the clock correction of satellite {@code prn} in meters, including the relativistic
+   * correction, with the same sign as {@link
+   * SatelliteClockCorrectionCalculator#calculateSatClockCorrAndEccAnomAndTkIteratively}. The
+   * precise clocks refer to the dual frequency combination of the P codes: the group delay of the
+   * broadcast ephemeris has to be subtracted for single frequency users. Returns NaN if the
+   * satellite is not covered at that time.
+   */
+  public double calculateSatelliteClockCorrectionMeters(
+      int prn,
+      double receiverGpsTowAtTimeOfTransmissionSeconds,
+      int receiverGpsWeekAtTimeOfTransmission) {
+    double gpsSeconds =
+        toGpsSeconds(
+            receiverGpsTowAtTimeOfTransmissionSeconds, receiverGpsWeekAtTimeOfTransmission);
+    if (!interpolateClock(prn, gpsSeconds) || !interpolateOrbit(prn, gpsSeconds)) {
+      return Double.NaN;
+    }
+    // Periodic relativistic correction, -2 r.v / c^2 (seconds)
+    double relativisticCorrectionMeters =
+        -2.0
+            * (orbitValues[0] * orbitDerivatives[0]
+                + orbitValues[1] * orbitDerivatives[1]
+                + orbitValues[2] * orbitDerivatives[2])
+            / SPEED_OF_LIGHT_MPS;
+    return clockValue[0] * SPEED_OF_LIGHT_MPS + relativisticCorrectionMeters;
+  }
+
+  /**
+   * Computes the rate of the clock correction of satellite {@code prn} in meters per second: the
+   * derivative of the interpolated clock plus the rate of the relativistic correction, -2 (v.v +
+   * r.a) / c with the two body acceleration a = -mu r / |r|^3. Returns NaN if the satellite is not
+   * covered at that time.
+   */
+  public double calculateSatelliteClockCorrectionRateMps(
+      int prn,
+      double receiverGpsTowAtTimeOfTransmissionSeconds,
+      int receiverGpsWeekAtTimeOfTransmission) {
+    double gpsSeconds =
+        toGpsSeconds(
+            receiverGpsTowAtTimeOfTransmissionSeconds, receiverGpsWeekAtTimeOfTransmission);
+    if (!interpolateClock(prn, gpsSeconds) || !interpolateOrbit(prn, gpsSeconds)) {
+      return Double.NaN;
+    }
+    double radiusMeters =
+        Math.sqrt(
+            orbitValues[0] * orbitValues[0]
+                + orbitValues[1] * orbitValues[1]
+                + orbitValues[2] * orbitValues[2]);
+    double squareSpeedMps2 =
+        orbitDerivatives[0] * orbitDerivatives[0]
+            + orbitDerivatives[1] * orbitDerivatives[1]
+            + orbitDerivatives[2] * orbitDerivatives[2];
+    double relativisticCorrectionRateMps =
+        -2.0
+            * (squareSpeedMps2 - GRAVITATIONAL_PARAMETER_M3_SM2 / radiusMeters)
+            / SPEED_OF_LIGHT_MPS;
+    return clockDerivative[0] * SPEED_OF_LIGHT_MPS + relativisticCorrectionRateMps;
+  }
+
+  private boolean interpolateOrbit(int prn, double gpsSeconds) {
+    return prn >= 1
+        && prn <= MAX_NUMBER_OF_SATELLITES
+        && orbits[prn] != null
+        && orbits[prn].interpolate(gpsSeconds, orbitValues, orbitDerivatives);
+  }
+
+  private boolean interpolateClock(int prn, double gpsSeconds) {
+    if (prn < 1 || prn > MAX_NUMBER_OF_SATELLITES) {
+      return false;
+    }
+    TimeSeries clocks = getClocks(prn);
+    return clocks != null && clocks.interpolate(gpsSeconds, clockValue, clockDerivative);
+  }
+
+  private TimeSeries getClocks(int prn) {
+    return rinexClocks[prn] != null ? rinexClocks[prn] : sp3Clocks[prn];
+  }
+
+  private static double toGpsSeconds(double gpsTowSeconds, int gpsWeek) {
+    return gpsWeek * (double) SECONDS_IN_WEEK + gpsTowSeconds;
+  }
+
+  /** Adds an epoch to {@code timeSeries}, created if {@code null}, and returns it. */
+  private static TimeSeries add(
+      TimeSeries timeSeries, int numberOfComponents, double epochSeconds, double... values)
+      throws IOException {
+    if (timeSeries == null) {
+      timeSeries = new TimeSeries(numberOfComponents);
+    }
+    if (!timeSeries.add(epochSeconds, values)) {
+      throw new IOException("Epochs not in chronological order");
+    }
+    return timeSeries;
+  }
+
+  /**
+   * Returns the PRN of a GPS satellite identifier, e.g. {@code 'G'} and {@code "01"}, or -1 for the
+   * satellites of other constellations. A blank system identifier is GPS in older formats.
+   */
+  private static int parsePrn(char system, String number) throws IOException {
+    if (system != 'G' && system != ' ') {
+      return -1;
+    }
+    int prn;
+    try {
+      prn = Integer.parseInt(number.trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid satellite identifier: " + system + number, e);
+    }
+    return prn >= 1 && prn <= MAX_NUMBER_OF_SATELLITES ? prn : -1;
+  }
+
+  /**
+   * Returns the seconds since the GPS epoch of the GPS calendar time in the six {@code fields}
+   * starting at {@code offset}: year, month, day, hour, minute and second.
+   */
+  private static double parseGpsSeconds(String[] fields, int offset) throws IOException {
+    if (fields.length < offset + 6) {
+      throw new IOException("Invalid epoch: " + Arrays.toString(fields));
+    }
+    try {
+      GpsTime gpsTime =
+          new GpsTime(
+              Integer.parseInt(fields[offset]),
+              Integer.parseInt(fields[offset + 1]),
+              Integer.parseInt(fields[offset + 2]),
+              Integer.parseInt(fields[offset + 3]),
+              Integer.parseInt(fields[offset + 4]),
+              0.0);
+      return gpsTime.getMillisSinceGpsEpoch() * 1.0e-3 + Double.parseDouble(fields[offset + 5]);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid epoch: " + Arrays.toString(fields), e);
+    }
+  }
+
+  private static double parseDouble(String field) throws IOException {
+    try {
+      return Double.parseDouble(field.trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid value: " + field, e);
+    }
+  }
+
+  /**
+   * Returns the next line of {@code buffer} without its end of line characters, or {@code null} at
+   * the end of the buffer. The characters beyond {@code lineBytes.length} are skipped.
+   */
+  private static String readLine(ByteBuffer buffer, byte[] lineBytes) {
+    if (!buffer.hasRemaining()) {
+      return null;
+    }
+    int length = 0;
+    while (buffer.hasRemaining()) {
+      byte character = buffer.get();
+      if (character == '\n') {
+        break;
+      } else if (character != '\r' && length < lineBytes.length) {
+        lineBytes[length++] = character;
+      }
+    }
+    return new String(lineBytes, 0, length, US_ASCII);
+  }
+
+  /**
+   * Values of a satellite at increasing epochs, with the Lagrange interpolation window and
+   * coefficients of the last interpolation.
+   */
+  private static class TimeSeries {
+    private static final int INITIAL_CAPACITY = 128;
+
+    private final int numberOfComponents;
+    private double[] epochsSeconds = new double[INITIAL_CAPACITY];
+    private double[][] values;
+    private int size;
+
+    // First epoch of the interpolation window, and the barycentric weights of its epochs
+    private int windowStart = -1;
+    private boolean windowValid;
+    private final double[] weights = new double[NUMBER_OF_NODES];
+    // Time of the last interpolation, and the coefficients of the values and their derivatives
+    private double lastEpochSeconds = Double.NaN;
+    private final double[] coefficients = new double[NUMBER_OF_NODES];
+    private final double[] derivativeCoefficients = new double[NUMBER_OF_NODES];
+
+    TimeSeries(int numberOfComponents) {
+      this.numberOfComponents = numberOfComponents;
+      values = new double[numberOfComponents][INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds the {@code epochValues} at {@code epochSeconds}, replacing the values of the last epoch
+     * if it is the same. Returns {@code false} if the epoch is before the last one.
+     */
+    boolean add(double epochSeconds, double[] epochValues) {
+      if (size > 0 && epochSeconds <= epochsSeconds[size - 1]) {
+        if (epochSeconds < epochsSeconds[size - 1]) {
+          return false;
+        }
+        size--;
+      }
+      if (size == epochsSeconds.length) {
+        epochsSeconds = Arrays.copyOf(epochsSeconds, 2 * size);
+        for (int i = 0; i < numberOfComponents; i++) {
+          values[i] = Arrays.copyOf(values[i], 2 * size);
+        }
+      }
+      epochsSeconds[size] = epochSeconds;
+      for (int i = 0; i < numberOfComponents; i++) {
+        values[i][size] = epochValues[i];
+      }
+      size++;
+      // The windows at the end of the series change
+      windowStart = -1;
+      lastEpochSeconds = Double.NaN;
+      return true;
+    }
+
+    /** Returns {@code true} if {@code epochSeconds} is within the epochs of the series. */
+    boolean covers(double epochSeconds) {
+      return size >= NUMBER_OF_NODES
+          && epochSeconds >= epochsSeconds[0]
+          && epochSeconds <= epochsSeconds[size - 1];
+    }
+
+    /**
+     * Sets the interpolated values at {@code epochSeconds} and their time derivatives. Returns
+     * {@code false} if the time is not covered or epochs are missing around it.
+     */
+    boolean interpolate(double epochSeconds, double[] results, double[] derivatives) {
+      if (!covers(epochSeconds)) {
+        return false;
+      }
+      if (epochSeconds != lastEpochSeconds) {
+        if (windowStart < 0 || !isInWindowCenter(epochSeconds)) {
+          int start = findWindowStart(epochSeconds);
+          if (start != windowStart) {
+            windowStart = start;
+            calculateWeights();
+          }
+        }
+        if (windowValid) {
+          calculateCoefficients(epochSeconds);
+        }
+        lastEpochSeconds = epochSeconds;
+      }
+      if (!windowValid) {
+        return false;
+      }
+      for (int i = 0; i < numberOfComponents; i++) {
+        double[] componentValues = values[i];
+        double value = 0.0;
+        double derivative = 0.0;
+        for (int j = 0; j < NUMBER_OF_NODES; j++) {
+          value += coefficients[j] * componentValues[windowStart + j];
+          derivative += derivativeCoefficients[j] * componentValues[windowStart + j];
+        }
+        results[i] = value;
+        derivatives[i] = derivative;
+      }
+      return true;
+    }
+
+    /**
+     * Returns {@code true} if the current window is still the one of {@code epochSeconds}: the time
+     * is between the two middle epochs of the window, or beyond them at the ends of the series.
+     */
+    private boolean isInWindowCenter(double epochSeconds) {
+      int middle = windowStart + NUMBER_OF_NODES / 2;
+      return (windowStart == 0 || epochSeconds >= epochsSeconds[middle - 1])
+          && (windowStart == size - NUMBER_OF_NODES || epochSeconds <= epochsSeconds[middle]);
+    }
+
+    /** Returns the first epoch of the window centered on {@code epochSeconds}. */
+    private int findWindowStart(double epochSeconds) {
+      int index = Arrays.binarySearch(epochsSeconds, 0, size, epochSeconds);
+      // Index of the last epoch before or at the time
+      int before = index >= 0 ? index : -index - 2;
+      int start = before - (NUMBER_OF_NODES / 2 - 1);
+      return Math.max(0, Math.min(start, size - NUMBER_OF_NODES));
+    }
+
+    /**
+     * Calculates the barycentric weights 1 / prod(t_j - t_k) of the epochs of the window, and
+     * checks that no epoch is missing in the window.
+     */
+    private void calculateWeights() {
+      double minimumIntervalSeconds = Double.MAX_VALUE;
+      double maximumIntervalSeconds = 0.0;
+      for (int j = 0; j < NUMBER_OF_NODES; j++) {
+        double product = 1.0;
+        for (int k = 0; k < NUMBER_OF_NODES; k++) {
+          if (k != j) {
+            product *= epochsSeconds[windowStart + j] - epochsSeconds[windowStart + k];
+          }
+        }
+        weights[j] = 1.0 / product;
+        if (j > 0) {
+          double intervalSeconds =
+              epochsSeconds[windowStart + j] - epochsSeconds[windowStart + j - 1];
+          minimumIntervalSeconds = Math.min(minimumIntervalSeconds, intervalSeconds);
+          maximumIntervalSeconds = Math.max(maximumIntervalSeconds, intervalSeconds);
+        }
+      }
+      windowValid = maximumIntervalSeconds <= MAXIMUM_INTERVAL_RATIO * minimumIntervalSeconds;
+    }
+
+    /**
+     * Calculates the Lagrange coefficients L_j(t) of the values and L_j'(t) of their derivatives
+     * at {@code epochSeconds} from the barycentric weights of the window.
+     */
+    private void calculateCoefficients(double epochSeconds) {
+      int node = -1;
+      double product = 1.0;
+      double sumOfInverses = 0.0;
+      for (int k = 0; k < NUMBER_OF_NODES; k++) {
+        double differenceSeconds = epochSeconds - epochsSeconds[windowStart + k];
+        if (differenceSeconds == 0.0) {
+          node = k;
+        } else {
+          product *= differenceSeconds;
+          sumOfInverses += 1.0 / differenceSeconds;
+        }
+      }
+      if (node < 0) {
+        for (int j = 0; j < NUMBER_OF_NODES; j++) {
+          double differenceSeconds = epochSeconds - epochsSeconds[windowStart + j];
+          coefficients[j] = product * weights[j] / differenceSeconds;
+          derivativeCoefficients[j] = coefficients[j] * (sumOfInverses - 1.0 / differenceSeconds);
+        }
+      } else {
+        // At an epoch of the window: L_j = 1 at that epoch and 0 at the others
+        for (int j = 0; j < NUMBER_OF_NODES; j++) {
+          if (j == node) {
+            coefficients[j] = 1.0;
+            derivativeCoefficients[j] = sumOfInverses;
+          } else {
+            coefficients[j] = 0.0;
+            derivativeCoefficients[j] =
+                weights[j]
+                    / weights[node]
+                    / (epochsSeconds[windowStart + node] - epochsSeconds[windowStart + j]);
+          }
+        }
+      }
+    }
+  }
+}
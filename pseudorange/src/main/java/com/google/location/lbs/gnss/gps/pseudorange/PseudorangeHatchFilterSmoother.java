@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+/**
+ * A {@link PseudorangeSmoother} smoothing the pseudoranges with the Hatch filter.
+ *
+ * <p>Each smoothed pseudorange is the average of the measured pseudorange and of the previous
+ * smoothed pseudorange propagated with the change of the accumulated delta range (carrier
+ * smoothing), or, when the accumulated delta range is not valid, with the pseudorange rate
+ * integrated over the epoch interval (Doppler smoothing). The weight of the measurement decreases
+ * as 1 / N over the first epochs of a satellite, down to 1 / {@value #CARRIER_SMOOTHING_WINDOW}
+ * with the carrier, or 1 / {@value #DOPPLER_SMOOTHING_WINDOW} with the less accurate Doppler.
+ *
+ * <p>When the accumulated delta range of a satellite reports a reset or a cycle slip, its range is
+ * propagated with the Doppler over that epoch. The smoothing of a satellite restarts when the
+ * measured pseudorange departs from the propagated one by more than {@value
+ * #MAXIMUM_CODE_CARRIER_DIVERGENCE_METERS} meters, e.g. after an undetected cycle slip, or after a
+ * gap in its measurements. All the satellites restart when the hardware clock count of
+ * discontinuities changes.
+ *
+ * <p>The pseudoranges of {@link GpsEpochMeasurements} are relative to the satellite received last,
+ * whose bias changes at every epoch; they are smoothed as ranges from the receiver clock instead,
+ * which follow the accumulated delta ranges, and converted back.
+ *
+ * <p>The state of each satellite is kept in primitive arrays indexed by a {@link
+ * SatelliteSlotTable}, so each measurement is smoothed in constant time without allocation.
+ *
+ * <p>Reference: Hatch, R.: 'The Synergism of GPS Code and Carrier Measurements', Proceedings of the
+ * Third International Geodetic Symposium on Satellite Doppler Positioning, 1982.
+ */
+class PseudorangeHatchFilterSmoother implements PseudorangeSmoother {
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double SECONDS_PER_NANO = 1.0e-9;
+  private static final long NANOS_IN_WEEK = 604800L * 1000000000L;
+  /** Average signal travel time from GPS satellite and earth, as assumed for the pseudoranges */
+  private static final double AVERAGE_TRAVEL_TIME_SECONDS = 70.0e-3;
+
+  /** Largest number of epochs averaged with carrier smoothing */
+  private static final int CARRIER_SMOOTHING_WINDOW = 100;
+  /** Largest number of epochs averaged with Doppler smoothing */
+  private static final int DOPPLER_SMOOTHING_WINDOW = 10;
+  /** Longest gap in the measurements of a satellite over which the smoothing continues */
+  private static final double MAXIMUM_SMOOTHING_INTERVAL_SECONDS = 5.0;
+  /** Largest difference between the measured and the propagated pseudoranges */
+  private static final double MAXIMUM_CODE_CARRIER_DIVERGENCE_METERS = 30.0;
+
+  private static final int SIZE = GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS;
+
+  private final SatelliteSlotTable slotTable = new SatelliteSlotTable(SIZE);
+  private int hardwareClockDiscontinuityCount;
+
+  // Smoothing state of each satellite, indexed by its slot in slotTable
+  private final long[] lastArrivalTimeSinceGpsWeekNs = new long[SIZE];
+  /** Smoothed range from the receiver clock (meters) */
+  private final double[] smoothedRangeMeters = new double[SIZE];
+  private final double[] lastAccumulatedDeltaRangeMeters = new double[SIZE];
+  private final boolean[] lastValidAccumulatedDeltaRange = new boolean[SIZE];
+  private final double[] lastPseudorangeRateMps = new double[SIZE];
+  /** Number of epochs averaged in the smoothed range, 0 if the smoothing restarts */
+  private final int[] numberOfSmoothedEpochs = new int[SIZE];
+
+  @Override
+  public void updatePseudorangeSmoothingResult(
+      GpsEpochMeasurements measurements, GpsEpochMeasurements smoothedMeasurements) {
+    smoothedMeasurements.copyFrom(measurements);
+    if (measurements.hardwareClockDiscontinuityCount != hardwareClockDiscontinuityCount) {
+      hardwareClockDiscontinuityCount = measurements.hardwareClockDiscontinuityCount;
+      slotTable.clear();
+    }
+    // Offset from the pseudoranges relative to the satellite received last to the ranges from the
+    // receiver clock, common to all the satellites of the epoch
+    long referenceTravelTimeNs =
+        measurements.arrivalTimeSinceGpsWeekNs - measurements.largestReceivedSvTimeNs;
+    if (referenceTravelTimeNs < -NANOS_IN_WEEK / 2) {
+      referenceTravelTimeNs += NANOS_IN_WEEK;
+    }
+    double rangeOffsetMeters =
+        (referenceTravelTimeNs * SECONDS_PER_NANO - AVERAGE_TRAVEL_TIME_SECONDS)
+            * SPEED_OF_LIGHT_MPS;
+
+    for (int i = 0; i < measurements.getNumberOfSlots(); i++) {
+      if (!measurements.isValid(i)) {
+        continue;
+      }
+      int numberOfStates = slotTable.size();
+      int state = slotTable.getOrAddSlot(measurements.satelliteKeys[i]);
+      if (state < 0) {
+        // More satellites than slots over the session, forget all of them
+        slotTable.clear();
+        numberOfStates = 0;
+        state = slotTable.getOrAddSlot(measurements.satelliteKeys[i]);
+      }
+      if (slotTable.size() > numberOfStates) {
+        numberOfSmoothedEpochs[state] = 0;
+      }
+      double rangeMeters = measurements.pseudorangeMeters[i] + rangeOffsetMeters;
+      int numberOfEpochs =
+          smooth(
+              state,
+              measurements.arrivalTimeSinceGpsWeekNs,
+              rangeMeters,
+              measurements.accumulatedDeltaRangeMeters[i],
+              measurements.validAccumulatedDeltaRangeMeters[i],
+              measurements.accumulatedDeltaRangeDiscontinuity[i],
+              measurements.pseudorangeRateMps[i]);
+      smoothedMeasurements.pseudorangeMeters[i] = smoothedRangeMeters[state] - rangeOffsetMeters;
+      smoothedMeasurements.pseudorangeUncertaintyMeters[i] =
+          measurements.pseudorangeUncertaintyMeters[i] / Math.sqrt(numberOfEpochs);
+    }
+  }
+
+  /**
+   * Smooths the range {@code rangeMeters} of the satellite of state {@code state} received at
+   * {@code arrivalTimeSinceGpsWeekNs}, and returns the number of epochs averaged. Over a reset or
+   * a cycle slip of the accumulated delta range, the range is propagated with the Doppler.
+   */
+  private int smooth(
+      int state,
+      long arrivalTimeSinceGpsWeekNs,
+      double rangeMeters,
+      double accumulatedDeltaRangeMeters,
+      boolean validAccumulatedDeltaRange,
+      boolean accumulatedDeltaRangeDiscontinuity,
+      double pseudorangeRateMps) {
+    double intervalSeconds =
+        (arrivalTimeSinceGpsWeekNs - lastArrivalTimeSinceGpsWeekNs[state]) * SECONDS_PER_NANO;
+    int numberOfEpochs = numberOfSmoothedEpochs[state];
+    double propagatedRangeMeters = Double.NaN;
+    int window = CARRIER_SMOOTHING_WINDOW;
+    if (numberOfEpochs > 0
+        && intervalSeconds > 0.0
+        && intervalSeconds <= MAXIMUM_SMOOTHING_INTERVAL_SECONDS) {
+      if (validAccumulatedDeltaRange
+          && !accumulatedDeltaRangeDiscontinuity
+          && lastValidAccumulatedDeltaRange[state]) {
+        propagatedRangeMeters =
+            smoothedRangeMeters[state]
+                + accumulatedDeltaRangeMeters
+                - lastAccumulatedDeltaRangeMeters[state];
+      } else {
+        propagatedRangeMeters =
+            smoothedRangeMeters[state]
+                + 0.5 * (pseudorangeRateMps + lastPseudorangeRateMps[state]) * intervalSeconds;
+        window = DOPPLER_SMOOTHING_WINDOW;
+      }
+    }
+    if (Double.isNaN(propagatedRangeMeters)
+        || Math.abs(rangeMeters - propagatedRangeMeters)
+            > MAXIMUM_CODE_CARRIER_DIVERGENCE_METERS) {
+      // Start the smoothing again from the measurement
+      numberOfEpochs = 1;
+      smoothedRangeMeters[state] = rangeMeters;
+    } else {
+      numberOfEpochs = Math.min(numberOfEpochs + 1, window);
+      smoothedRangeMeters[state] =
+          rangeMeters / numberOfEpochs
+              + propagatedRangeMeters * (numberOfEpochs - 1) / numberOfEpochs;
+    }
+    numberOfSmoothedEpochs[state] = numberOfEpochs;
+    lastArrivalTimeSinceGpsWeekNs[state] = arrivalTimeSinceGpsWeekNs;
+    lastAccumulatedDeltaRangeMeters[state] = accumulatedDeltaRangeMeters;
+    lastValidAccumulatedDeltaRange[state] = validAccumulatedDeltaRange;
+    lastPseudorangeRateMps[state] = pseudorangeRateMps;
+    return numberOfEpochs;
+  }
+}
@@ -16,20 +16,16 @@
 
 package com.google.location.lbs.gnss.gps.pseudorange;
 
-import java.util.Collections;
-import java.util.List;
-
 /**
  * An implementation of {@link PseudorangeSmoother} that performs no smoothing.
  *
- * <p>A new list of {@link GpsMeasurementWithRangeAndUncertainty} instances is filled with a copy of
- * the input list.
+ * <p>The smoothed measurements are filled with a copy of the input measurements.
  */
 class PseudorangeNoSmoothingSmoother implements PseudorangeSmoother {
 
   @Override
-  public List<GpsMeasurementWithRangeAndUncertainty> updatePseudorangeSmoothingResult(
-      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToGPSReceiverMeasurements) {
-    return Collections.unmodifiableList(usefulSatellitesToGPSReceiverMeasurements);
+  public void updatePseudorangeSmoothingResult(
+      GpsEpochMeasurements measurements, GpsEpochMeasurements smoothedMeasurements) {
+    smoothedMeasurements.copyFrom(measurements);
   }
 }
@@ -20,20 +20,18 @@ import android.location.GnssClock;
 import android.location.GnssMeasurement;
 import android.location.GnssMeasurementsEvent;
 import android.location.GnssNavigationMessage;
-import android.location.GnssStatus;
 import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
 import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
-import android.location.cts.suplClient.SuplRrlpController;
 import android.util.Log;
+import com.google.common.base.Preconditions;
 import com.google.location.lbs.gnss.gps.pseudorange.Ecef2EnuConverter.EnuValues;
 import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import com.google.location.lbs.gnss.gps.pseudorange.GpsNavigationMessageStore.NavMessageSnapshot;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -43,9 +41,34 @@ import java.util.concurrent.TimeUnit;
  */
 public class PseudorangePositionVelocityFromRealTimeEvents {
 
+  /** Computes each epoch with the snapshot weighted least square */
+  public static final int SOLVER_WEIGHTED_LEAST_SQUARE = 0;
+  /** Filters the epochs with the extended Kalman filter, initialized by the least square */
+  public static final int SOLVER_EXTENDED_KALMAN_FILTER = 1;
+  /**
+   * Computes the full least square at the anchor rate only, and the epochs in between with a
+   * single step from the previous solution
+   */
+  public static final int SOLVER_TIERED_LEAST_SQUARE = 2;
+
+  /** Solver profile with the fewest least square iterations */
+  public static final int SOLVER_PROFILE_FAST = 0;
+  /** Solver profile converging to millimeters */
+  public static final int SOLVER_PROFILE_BALANCED = 1;
+  /** Solver profile converging to the round off of the solution, the default */
+  public static final int SOLVER_PROFILE_PRECISE = 2;
+
+  /** Output flag of the position and velocity uncertainties, computed by default */
+  public static final int OUTPUT_POSITION_VELOCITY_UNCERTAINTY = 1;
+  /** Output flag of the dilutions of precision */
+  public static final int OUTPUT_DILUTION_OF_PRECISION = 1 << 1;
+  /** Output flag of the position covariance in the local ENU system */
+  public static final int OUTPUT_POSITION_COVARIANCE_ENU = 1 << 2;
+
   private static final String TAG = "PseudorangePositionVelocityFromRealTimeEvents";
   private static final double SECONDS_PER_NANO = 1.0e-9;
   private static final int TOW_DECODED_MEASUREMENT_STATE_BIT = 3;
+  private static final int CODE_LOCK_MEASUREMENT_STATE_BIT = 0;
   /** Average signal travel time from GPS satellite and earth */
   private static final int MINIMUM_NUMBER_OF_USEFUL_SATELLITES = 4;
 
@@ -55,36 +78,115 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
   private static final int SUPL_SERVER_PORT = 7276;
 
   private GpsNavMessageProto mHardwareGpsNavMessageProto = null;
+  private long mHardwareNavMessageVersion = 0;
 
   // navigation message parser
-  private GpsNavigationMessageStore mGpsNavigationMessageStore = new GpsNavigationMessageStore();
+  private final GpsNavigationMessageStore mGpsNavigationMessageStore;
   private double[] mPositionSolutionLatLngDeg = GpsMathOperations.createAndFillArray(3, Double.NaN);
   private double[] mVelocitySolutionEnuMps = GpsMathOperations.createAndFillArray(3, Double.NaN);
   private final double[] mPositionVelocityUncertaintyEnu =
       GpsMathOperations.createAndFillArray(6, Double.NaN);
-  private double[] mPseudorangeResidualsMeters =
-      GpsMathOperations.createAndFillArray(
-          GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES, Double.NaN);
+  // Geometric, position, horizontal, vertical and time dilutions of precision
+  private final double[] mDilutionOfPrecision = GpsMathOperations.createAndFillArray(5, Double.NaN);
+  private final double[][] mPositionCovarianceEnuMeters2 = {
+    GpsMathOperations.createAndFillArray(3, Double.NaN),
+    GpsMathOperations.createAndFillArray(3, Double.NaN),
+    GpsMathOperations.createAndFillArray(3, Double.NaN)
+  };
+  // Outputs computed after each solution, see setSolutionOutputs
+  private int mSolutionOutputs = OUTPUT_POSITION_VELOCITY_UNCERTAINTY;
+  // Pseudorange residuals and satellite keys of the signals used in the last solution
+  private final double[] mPseudorangeResidualsMeters =
+      new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private final int[] mPseudorangeResidualSatelliteKeys =
+      new int[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private int mNumberOfPseudorangeResiduals = 0;
   private boolean mFirstUsefulMeasurementSet = true;
+  // Position and clock bias in ECEF meters of the last solution, or restored from a previous run
+  private double[] mLastPositionClockEcefMeters = null;
+  private boolean mWarmStarted = false;
   private int[] mReferenceLocation = null;
-  private long mLastReceivedSuplMessageTimeMillis = 0;
-  private long mDeltaTimeMillisToMakeSuplRequest = TimeUnit.MINUTES.toMillis(30);
-  private boolean mFirstSuplRequestNeeded = true;
+  private AsyncNavMessageFetcher mNavMessageFetcher;
+  // false if the fetcher is shared with another instance, which stops the fetching
+  private boolean mOwnsNavMessages;
+  private double mCToN0ThresholdDbHz = C_TO_N0_THRESHOLD_DB_HZ;
   private GpsNavMessageProto mGpsNavMessageProtoUsed = null;
 
-  // Only the interface of pseudorange smoother is provided. Please implement customized smoother.
-  PseudorangeSmoother mPseudorangeSmoother = new PseudorangeNoSmoothingSmoother();
+  // No smoothing by default, see setCarrierSmoothingEnabled
+  private PseudorangeSmoother mPseudorangeSmoother = new PseudorangeNoSmoothingSmoother();
   private final UserPositionVelocityWeightedLeastSquare mUserPositionVelocityLeastSquareCalculator =
       new UserPositionVelocityWeightedLeastSquare(mPseudorangeSmoother);
-  private GpsMeasurement[] mUsefulSatellitesToReceiverMeasurements =
-      new GpsMeasurement[GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES];
-  private Long[] mUsefulSatellitesToTowNs =
-      new Long[GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES];
-  private long mLargestTowNs = Long.MIN_VALUE;
+  // Engine computing the solutions, the least square itself or a solver built upon it
+  private PositionVelocitySolver mPositionVelocitySolver =
+      mUserPositionVelocityLeastSquareCalculator;
+  private double mAnchorIntervalSeconds =
+      UserPositionVelocityTieredLeastSquare.DEFAULT_ANCHOR_INTERVAL_SECONDS;
+  // Selection of the satellites used in the solutions, see setMaximumNumberOfSatellites
+  private final SatelliteSubsetSelector mSatelliteSubsetSelector = new SatelliteSubsetSelector();
+  // Normal equations of the epochs while the receiver is static, null if it is not
+  private StaticReceiverNormalEquations mStaticReceiverNormalEquations = null;
+  private final double[] mStaticPositionSolutionLatLngDeg =
+      GpsMathOperations.createAndFillArray(3, Double.NaN);
+  private final double[] mStaticPositionSolutionEcefMeters = new double[3];
+  // Measurements of the useful satellites, reused at every epoch
+  private final GpsEpochMeasurements mUsefulSatellitesMeasurements = new GpsEpochMeasurements();
+  // Scratch arrays of the least square solution, reused at every epoch
+  private final double[] mPositionVelocitySolutionEcef = new double[8];
+  private final double[] mPseudorangeResidualsMetersScratch =
+      new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
   private double mArrivalTimeSinceGPSWeekNs = 0.0;
   private int mDayOfYear1To366 = 0;
   private int mGpsWeekNumber = 0;
   private long mArrivalTimeSinceGpsEpochNs = 0;
+  // Time budget of each epoch from the reception of its measurements, 0 if there is none
+  private long mEpochTimeBudgetNanos = 0;
+  private boolean mSolutionDegraded = false;
+  // Coarse time solutions from the code locked satellites before their time of week is decoded,
+  // see setCoarseTimeNavigationEnabled
+  private boolean mCoarseTimeNavigationEnabled = false;
+  private final UserPositionCoarseTimeLeastSquare mUserPositionCoarseTimeLeastSquare =
+      new UserPositionCoarseTimeLeastSquare();
+  private final GpsEpochMeasurements mCodeLockedSatellitesMeasurements = new GpsEpochMeasurements();
+  private final double[] mPositionClockTimeSolutionEcef = new double[5];
+  // Error of the receiver time found by the last coarse time solution, added to the next epochs
+  private double mCoarseTimeCorrectionSeconds = 0.0;
+  private boolean mCoarseTimeSolution = false;
+
+  /** Creates an instance fetching the assistance navigation messages from the SUPL server. */
+  public PseudorangePositionVelocityFromRealTimeEvents() {
+    this(
+        new AsyncNavMessageFetcher(new SuplNavMessageSource(SUPL_SERVER_NAME, SUPL_SERVER_PORT)),
+        new GpsNavigationMessageStore(),
+        true /* ownsNavMessages */);
+  }
+
+  private PseudorangePositionVelocityFromRealTimeEvents(
+      AsyncNavMessageFetcher navMessageFetcher,
+      GpsNavigationMessageStore gpsNavigationMessageStore,
+      boolean ownsNavMessages) {
+    mNavMessageFetcher = navMessageFetcher;
+    mGpsNavigationMessageStore = gpsNavigationMessageStore;
+    mOwnsNavMessages = ownsNavMessages;
+  }
+
+  /**
+   * Creates an instance using the assistance navigation messages fetched by {@code other}, the
+   * navigation messages decoded from the receiver parsed by {@code other} and its geoid grid,
+   * instead of fetching, parsing and loading them again, e.g. to compare several configurations on
+   * the same epochs. The navigation messages are published atomically and only read by the created
+   * instance, so both instances may compute their solutions on different threads; {@code other}
+   * keeps fetching until it is shut down.
+   */
+  public static PseudorangePositionVelocityFromRealTimeEvents createSharingNavigationMessagesWith(
+      PseudorangePositionVelocityFromRealTimeEvents other) {
+    PseudorangePositionVelocityFromRealTimeEvents calculator =
+        new PseudorangePositionVelocityFromRealTimeEvents(
+            other.mNavMessageFetcher,
+            other.mGpsNavigationMessageStore,
+            false /* ownsNavMessages */);
+    calculator.setGeoidGrid(other.mUserPositionVelocityLeastSquareCalculator.getGeoidGrid());
+    return calculator;
+  }
 
   /**
    * Computes Weighted least square position and velocity solutions from a received {@link
@@ -94,123 +196,142 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
    */
   public void computePositionVelocitySolutionsFromRawMeas(GnssMeasurementsEvent event)
       throws Exception {
+    computePositionVelocitySolutionsFromRawMeas(event, System.nanoTime());
+  }
+
+  /**
+   * Computes the solutions as {@link #computePositionVelocitySolutionsFromRawMeas(
+   * GnssMeasurementsEvent)}, for an {@code event} received at {@code receivedNanoTime} from {@link
+   * System#nanoTime()}, from which the time budget set with {@link #setEpochTimeBudgetMillis(long)}
+   * is counted: when the computation is behind, the solution is degraded sooner.
+   */
+  public void computePositionVelocitySolutionsFromRawMeas(
+      GnssMeasurementsEvent event, long receivedNanoTime) throws Exception {
     if (mReferenceLocation == null) {
       // If no reference location is received, we can not get navigation message from SUPL and hence
       // we will not try to compute location.
       Log.d(TAG, " No reference Location ..... no position is calculated");
       return;
     }
-    for (int i = 0; i < GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES; i++) {
-      mUsefulSatellitesToReceiverMeasurements[i] = null;
-      mUsefulSatellitesToTowNs[i] = null;
-    }
+    mUsefulSatellitesMeasurements.clear();
+    mCodeLockedSatellitesMeasurements.clear();
 
     GnssClock gnssClock = event.getClock();
     mArrivalTimeSinceGpsEpochNs = gnssClock.getTimeNanos() - gnssClock.getFullBiasNanos();
+    // calculate the time of week, Gps week number and day of year needed for the least square
+    // once per epoch, as they are the same for all the measurements
+    mArrivalTimeSinceGPSWeekNs =
+        GpsTimeArithmetic.getNanosSinceGpsWeek(mArrivalTimeSinceGpsEpochNs);
+    mGpsWeekNumber = GpsTimeArithmetic.getGpsWeek(mArrivalTimeSinceGpsEpochNs);
+    mDayOfYear1To366 = GpsTimeArithmetic.getDayOfYear1To366(mArrivalTimeSinceGpsEpochNs);
+    mUsefulSatellitesMeasurements.arrivalTimeSinceGpsWeekNs = (long) mArrivalTimeSinceGPSWeekNs;
+    mUsefulSatellitesMeasurements.hardwareClockDiscontinuityCount =
+        gnssClock.getHardwareClockDiscontinuityCount();
+    mCodeLockedSatellitesMeasurements.arrivalTimeSinceGpsWeekNs =
+        mUsefulSatellitesMeasurements.arrivalTimeSinceGpsWeekNs;
+    mCodeLockedSatellitesMeasurements.hardwareClockDiscontinuityCount =
+        mUsefulSatellitesMeasurements.hardwareClockDiscontinuityCount;
 
     for (GnssMeasurement measurement : event.getMeasurements()) {
-      // ignore any measurement if it is not from GPS constellation
-      if (measurement.getConstellationType() != GnssStatus.CONSTELLATION_GPS) {
-        continue;
-      }
       // ignore raw data if time is zero, if signal to noise ratio is below threshold or if
       // TOW is not yet decoded
-      if (measurement.getCn0DbHz() >= C_TO_N0_THRESHOLD_DB_HZ
+      if (measurement.getCn0DbHz() >= mCToN0ThresholdDbHz
           && (measurement.getState() & (1L << TOW_DECODED_MEASUREMENT_STATE_BIT)) != 0) {
-
-        // calculate day of year and Gps week number needed for the least square
-        GpsTime gpsTime = new GpsTime(mArrivalTimeSinceGpsEpochNs);
-        // Gps weekly epoch in Nanoseconds: defined as of every Sunday night at 00:00:000
-        long gpsWeekEpochNs = GpsTime.getGpsWeekEpochNano(gpsTime);
-        mArrivalTimeSinceGPSWeekNs = mArrivalTimeSinceGpsEpochNs - gpsWeekEpochNs;
-        mGpsWeekNumber = gpsTime.getGpsWeekSecond().first;
-        // calculate day of the year between 1 and 366
-        Calendar cal = gpsTime.getTimeInCalendar();
-        mDayOfYear1To366 = cal.get(Calendar.DAY_OF_YEAR);
-
-        long receivedGPSTowNs = measurement.getReceivedSvTimeNanos();
-        if (receivedGPSTowNs > mLargestTowNs) {
-          mLargestTowNs = receivedGPSTowNs;
-        }
-        mUsefulSatellitesToTowNs[measurement.getSvid() - 1] = receivedGPSTowNs;
-        GpsMeasurement gpsReceiverMeasurement =
-            new GpsMeasurement(
-                (long) mArrivalTimeSinceGPSWeekNs,
-                measurement.getAccumulatedDeltaRangeMeters(),
-                isAccumulatedDeltaRangeStateValid(measurement.getAccumulatedDeltaRangeState()),
-                measurement.getPseudorangeRateMetersPerSecond(),
-                measurement.getCn0DbHz(),
-                measurement.getAccumulatedDeltaRangeUncertaintyMeters(),
-                measurement.getPseudorangeRateUncertaintyMetersPerSecond());
-        mUsefulSatellitesToReceiverMeasurements[measurement.getSvid() - 1] = gpsReceiverMeasurement;
+        setMeasurement(mUsefulSatellitesMeasurements, measurement);
       }
+      // the coarse time solution only needs the code lock, the received satellite time being then
+      // known modulo the 1 millisecond code period
+      if (mCoarseTimeNavigationEnabled
+          && measurement.getCn0DbHz() >= mCToN0ThresholdDbHz
+          && (measurement.getState() & (1L << CODE_LOCK_MEASUREMENT_STATE_BIT)) != 0) {
+        setMeasurement(mCodeLockedSatellitesMeasurements, measurement);
+      }
+    }
+
+    // pick up the navigation message decoded from the receiver if a new one was published
+    NavMessageSnapshot navMessageSnapshot = mGpsNavigationMessageStore.getNavMessageSnapshot();
+    if (navMessageSnapshot.version != mHardwareNavMessageVersion) {
+      mHardwareGpsNavMessageProto = navMessageSnapshot.navMessageProto;
+      mHardwareNavMessageVersion = navMessageSnapshot.version;
     }
 
     // check if we should continue using the navigation message from the SUPL server, or use the
     // navigation message from the device if we fully received it
     boolean useNavMessageFromSupl =
         continueUsingNavMessageFromSupl(
-            mUsefulSatellitesToReceiverMeasurements, mHardwareGpsNavMessageProto);
+            mUsefulSatellitesMeasurements, mHardwareGpsNavMessageProto);
     if (useNavMessageFromSupl) {
       Log.d(TAG, "Using navigation message from SUPL server");
 
-      if (mFirstSuplRequestNeeded
-          || (System.currentTimeMillis() - mLastReceivedSuplMessageTimeMillis)
-              > mDeltaTimeMillisToMakeSuplRequest) {
-        // The following line is blocking call for SUPL connection and back. But it is fast enough
-        mGpsNavMessageProtoUsed = getSuplNavMessage(mReferenceLocation[0], mReferenceLocation[1]);
-        if (!isEmptyNavMessage(mGpsNavMessageProtoUsed)) {
-          mFirstSuplRequestNeeded = false;
-          mLastReceivedSuplMessageTimeMillis = System.currentTimeMillis();
-        } else {
-          return;
-        }
+      // The SUPL request is made in the background, the latest fetched message is used meanwhile
+      mNavMessageFetcher.requestRefreshIfNeeded(
+          mReferenceLocation[0],
+          mReferenceLocation[1],
+          mUsefulSatellitesMeasurements.getValidGpsSatellitesMask()
+              | mCodeLockedSatellitesMeasurements.getValidGpsSatellitesMask(),
+          mArrivalTimeSinceGPSWeekNs * SECONDS_PER_NANO,
+          mGpsWeekNumber);
+      GpsNavMessageProto suplNavMessageProto = mNavMessageFetcher.getLatestNavMessage();
+      if (suplNavMessageProto == null) {
+        Log.d(TAG, "Waiting for the navigation message from SUPL server");
+        return;
       }
+      mGpsNavMessageProtoUsed = suplNavMessageProto;
 
     } else {
       Log.d(TAG, "Using navigation message from the GPS receiver");
       mGpsNavMessageProtoUsed = mHardwareGpsNavMessageProto;
     }
 
-    // some times the SUPL server returns less satellites than the visible ones, so remove those
-    // visible satellites that are not returned by SUPL
-    for (int i = 0; i < GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES; i++) {
-      if (mUsefulSatellitesToReceiverMeasurements[i] != null
-          && !navMessageProtoContainsSvid(mGpsNavMessageProtoUsed, i + 1)) {
-        mUsefulSatellitesToReceiverMeasurements[i] = null;
-        mUsefulSatellitesToTowNs[i] = null;
-      }
-    }
+    invalidateUnusableSatellites(mUsefulSatellitesMeasurements);
 
-    // calculate the number of useful satellites
-    int numberOfUsefulSatellites = 0;
-    for (GpsMeasurement element : mUsefulSatellitesToReceiverMeasurements) {
-      if (element != null) {
-        numberOfUsefulSatellites++;
-      }
-    }
+    int numberOfUsefulSatellites = mUsefulSatellitesMeasurements.getNumberOfValidSatellites();
+    mCoarseTimeSolution = false;
     if (numberOfUsefulSatellites >= MINIMUM_NUMBER_OF_USEFUL_SATELLITES) {
+      mCoarseTimeCorrectionSeconds = 0.0;
       // ignore first set of > 4 satellites as they often result in erroneous position
       if (!mFirstUsefulMeasurementSet) {
         // start with last known position and velocity of zero. Following the structure:
         // [X position, Y position, Z position, clock bias,
         //  X Velocity, Y Velocity, Z Velocity, clock bias rate]
-        double[] positionVelocitySolutionEcef = GpsMathOperations.createAndFillArray(8, 0);
-        double[] positionVelocityUncertaintyEnu = GpsMathOperations.createAndFillArray(6, 0);
-        double[] pseudorangeResidualMeters =
-            GpsMathOperations.createAndFillArray(
-                GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES, Double.NaN);
+        double[] positionVelocitySolutionEcef = mPositionVelocitySolutionEcef;
+        Arrays.fill(positionVelocitySolutionEcef, 0.0);
+        if (mWarmStarted) {
+          // Start from the position and clock bias restored from the previous run
+          System.arraycopy(mLastPositionClockEcefMeters, 0, positionVelocitySolutionEcef, 0, 4);
+          mWarmStarted = false;
+        }
+        double[] pseudorangeResidualMeters = mPseudorangeResidualsMetersScratch;
+        Arrays.fill(pseudorangeResidualMeters, Double.NaN);
+        if (mEpochTimeBudgetNanos > 0) {
+          mUserPositionVelocityLeastSquareCalculator.setDeadlineNanoTime(
+              receivedNanoTime + mEpochTimeBudgetNanos);
+        } else {
+          mUserPositionVelocityLeastSquareCalculator.clearDeadline();
+        }
         performPositionVelocityComputationEcef(
-            mUserPositionVelocityLeastSquareCalculator,
-            mUsefulSatellitesToReceiverMeasurements,
-            mUsefulSatellitesToTowNs,
-            mLargestTowNs,
+            mPositionVelocitySolver,
+            mUsefulSatellitesMeasurements,
             mArrivalTimeSinceGPSWeekNs,
             mDayOfYear1To366,
             mGpsWeekNumber,
             positionVelocitySolutionEcef,
-            positionVelocityUncertaintyEnu,
             pseudorangeResidualMeters);
+        updateSolutionOutputs(mPositionVelocitySolver.getSolutionQuality());
+        mSolutionDegraded = mPositionVelocitySolver.getSolutionQuality().isDegraded();
+        if (mSolutionDegraded) {
+          Log.d(TAG, "Solution degraded to meet the epoch time budget or iteration budget");
+        }
+        StaticReceiverNormalEquations staticReceiverNormalEquations =
+            mStaticReceiverNormalEquations;
+        if (staticReceiverNormalEquations != null) {
+          updateStaticPositionSolution(
+              staticReceiverNormalEquations, mPositionVelocitySolver.getSolutionQuality());
+        }
+        if (mLastPositionClockEcefMeters == null) {
+          mLastPositionClockEcefMeters = new double[4];
+        }
+        System.arraycopy(positionVelocitySolutionEcef, 0, mLastPositionClockEcefMeters, 0, 4);
         // convert the position solution from ECEF to latitude, longitude and altitude
         GeodeticLlaValues latLngAlt =
             Ecef2LlaConverter.convertECEFToLLACloseForm(
@@ -220,15 +341,19 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
         mPositionSolutionLatLngDeg[0] = Math.toDegrees(latLngAlt.latitudeRadians);
         mPositionSolutionLatLngDeg[1] = Math.toDegrees(latLngAlt.longitudeRadians);
         mPositionSolutionLatLngDeg[2] = latLngAlt.altitudeMeters;
-        mPositionVelocityUncertaintyEnu[0] = positionVelocityUncertaintyEnu[0];
-        mPositionVelocityUncertaintyEnu[1] = positionVelocityUncertaintyEnu[1];
-        mPositionVelocityUncertaintyEnu[2] = positionVelocityUncertaintyEnu[2];
+        mNumberOfPseudorangeResiduals = mUsefulSatellitesMeasurements.getNumberOfSlots();
         System.arraycopy(
             pseudorangeResidualMeters,
             0 /*source starting pos*/,
             mPseudorangeResidualsMeters,
             0 /*destination starting pos*/,
-            GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES /*length of elements*/);
+            mNumberOfPseudorangeResiduals /*length of elements*/);
+        System.arraycopy(
+            mUsefulSatellitesMeasurements.satelliteKeys,
+            0 /*source starting pos*/,
+            mPseudorangeResidualSatelliteKeys,
+            0 /*destination starting pos*/,
+            mNumberOfPseudorangeResiduals /*length of elements*/);
         Log.d(
             TAG,
             "Position Uncertainty ENU Meters :"
@@ -264,9 +389,6 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
                 + mVelocitySolutionEnuMps[1]
                 + " "
                 + mVelocitySolutionEnuMps[2]);
-        mPositionVelocityUncertaintyEnu[3] = positionVelocityUncertaintyEnu[3];
-        mPositionVelocityUncertaintyEnu[4] = positionVelocityUncertaintyEnu[4];
-        mPositionVelocityUncertaintyEnu[5] = positionVelocityUncertaintyEnu[5];
         Log.d(
             TAG,
             "Velocity Uncertainty ENU Mps :"
@@ -277,6 +399,15 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
                 + mPositionVelocityUncertaintyEnu[5]);
       }
       mFirstUsefulMeasurementSet = false;
+    } else if (mCoarseTimeNavigationEnabled && computeCoarseTimePositionSolution()) {
+      Log.d(
+          TAG,
+          "Coarse time Latitude, Longitude, Altitude: "
+              + mPositionSolutionLatLngDeg[0]
+              + " "
+              + mPositionSolutionLatLngDeg[1]
+              + " "
+              + mPositionSolutionLatLngDeg[2]);
     } else {
       Log.d(
           TAG,
@@ -285,22 +416,142 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
 
       mPositionSolutionLatLngDeg = GpsMathOperations.createAndFillArray(3, Double.NaN);
       mVelocitySolutionEnuMps = GpsMathOperations.createAndFillArray(3, Double.NaN);
-      mPseudorangeResidualsMeters =
-          GpsMathOperations.createAndFillArray(
-              GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES, Double.NaN);
+      mNumberOfPseudorangeResiduals = 0;
     }
   }
 
-  private boolean isEmptyNavMessage(GpsNavMessageProto navMessageProto) {
-    if (navMessageProto.iono == null) return true;
-    if (navMessageProto.ephemerids.length == 0) return true;
-    return false;
+  /**
+   * Computes the outputs subscribed with {@link #setSolutionOutputs(int)} from the {@code
+   * solutionQuality} of the last solution, the others are NaN.
+   */
+  private void updateSolutionOutputs(SolutionQuality solutionQuality) {
+    if ((mSolutionOutputs & OUTPUT_POSITION_VELOCITY_UNCERTAINTY) != 0) {
+      solutionQuality.getPositionVelocityUncertaintyEnu(mPositionVelocityUncertaintyEnu);
+    } else {
+      Arrays.fill(mPositionVelocityUncertaintyEnu, Double.NaN);
+    }
+    if ((mSolutionOutputs & OUTPUT_DILUTION_OF_PRECISION) != 0) {
+      SolutionQuality.DilutionOfPrecision dilutionOfPrecision =
+          solutionQuality.getDilutionOfPrecision();
+      mDilutionOfPrecision[0] = dilutionOfPrecision.geometric;
+      mDilutionOfPrecision[1] = dilutionOfPrecision.position;
+      mDilutionOfPrecision[2] = dilutionOfPrecision.horizontal;
+      mDilutionOfPrecision[3] = dilutionOfPrecision.vertical;
+      mDilutionOfPrecision[4] = dilutionOfPrecision.time;
+    } else {
+      Arrays.fill(mDilutionOfPrecision, Double.NaN);
+    }
+    if ((mSolutionOutputs & OUTPUT_POSITION_COVARIANCE_ENU) != 0) {
+      solutionQuality.getPositionCovarianceEnu(mPositionCovarianceEnuMeters2);
+    } else {
+      for (double[] row : mPositionCovarianceEnuMeters2) {
+        Arrays.fill(row, Double.NaN);
+      }
+    }
+  }
+
+  /**
+   * Adds the normal equations of the last solution, of quality {@code solutionQuality}, to the
+   * {@code staticReceiverNormalEquations} and updates the static position.
+   */
+  private void updateStaticPositionSolution(
+      StaticReceiverNormalEquations staticReceiverNormalEquations,
+      SolutionQuality solutionQuality) {
+    if (!staticReceiverNormalEquations.addEpoch(solutionQuality)
+        || !staticReceiverNormalEquations.getPositionEcefMeters(
+            mStaticPositionSolutionEcefMeters)) {
+      return;
+    }
+    GeodeticLlaValues latLngAlt =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+            mStaticPositionSolutionEcefMeters[0],
+            mStaticPositionSolutionEcefMeters[1],
+            mStaticPositionSolutionEcefMeters[2]);
+    mStaticPositionSolutionLatLngDeg[0] = Math.toDegrees(latLngAlt.latitudeRadians);
+    mStaticPositionSolutionLatLngDeg[1] = Math.toDegrees(latLngAlt.longitudeRadians);
+    mStaticPositionSolutionLatLngDeg[2] = latLngAlt.altitudeMeters;
+  }
+
+  /**
+   * Computes a coarse time position solution from {@link #mCodeLockedSatellitesMeasurements},
+   * starting from the last solution or the reference location, and stores it in {@link
+   * #mPositionSolutionLatLngDeg}. The velocity, uncertainties and residuals are not computed.
+   * Returns {@code false} if there is no solution.
+   */
+  private boolean computeCoarseTimePositionSolution() throws Exception {
+    invalidateUnusableSatellites(mCodeLockedSatellitesMeasurements);
+    if (mCodeLockedSatellitesMeasurements.getNumberOfValidSatellites()
+        < UserPositionCoarseTimeLeastSquare.MINIMUM_NUMBER_OF_SATELLITES) {
+      return false;
+    }
+    UserPositionVelocityWeightedLeastSquare.computePseudorangeAndUncertainties(
+        mCodeLockedSatellitesMeasurements);
+    double[] referencePositionEcefMeters;
+    if (mLastPositionClockEcefMeters != null) {
+      referencePositionEcefMeters = mLastPositionClockEcefMeters;
+    } else {
+      referencePositionEcefMeters =
+          Lla2EcefConverter.convertFromLlaToEcefMeters(
+              new GeodeticLlaValues(
+                  Math.toRadians(mReferenceLocation[0] * 1e-7),
+                  Math.toRadians(mReferenceLocation[1] * 1e-7),
+                  mReferenceLocation[2] * 1e-7));
+    }
+    double approximateReceiverGpsTowSeconds =
+        mArrivalTimeSinceGPSWeekNs * SECONDS_PER_NANO + mCoarseTimeCorrectionSeconds;
+    double[] positionClockTimeSolutionEcef = mPositionClockTimeSolutionEcef;
+    if (!mUserPositionCoarseTimeLeastSquare.calculateUserPositionCoarseTime(
+        mGpsNavMessageProtoUsed,
+        mCodeLockedSatellitesMeasurements,
+        approximateReceiverGpsTowSeconds,
+        mGpsWeekNumber,
+        referencePositionEcefMeters,
+        positionClockTimeSolutionEcef)) {
+      Log.d(TAG, "No coarse time solution from the code locked satellites");
+      return false;
+    }
+    mCoarseTimeCorrectionSeconds += positionClockTimeSolutionEcef[4];
+    Log.d(TAG, "Coarse time correction in seconds: " + mCoarseTimeCorrectionSeconds);
+    // the clock bias includes the unresolved millisecond of the satellites and is not kept
+    if (mLastPositionClockEcefMeters == null) {
+      mLastPositionClockEcefMeters = new double[4];
+    }
+    System.arraycopy(positionClockTimeSolutionEcef, 0, mLastPositionClockEcefMeters, 0, 3);
+    mLastPositionClockEcefMeters[3] = 0.0;
+    GeodeticLlaValues latLngAlt =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+            positionClockTimeSolutionEcef[0],
+            positionClockTimeSolutionEcef[1],
+            positionClockTimeSolutionEcef[2]);
+    mPositionSolutionLatLngDeg[0] = Math.toDegrees(latLngAlt.latitudeRadians);
+    mPositionSolutionLatLngDeg[1] = Math.toDegrees(latLngAlt.longitudeRadians);
+    mPositionSolutionLatLngDeg[2] = latLngAlt.altitudeMeters;
+    mVelocitySolutionEnuMps = GpsMathOperations.createAndFillArray(3, Double.NaN);
+    Arrays.fill(mPositionVelocityUncertaintyEnu, Double.NaN);
+    mNumberOfPseudorangeResiduals = 0;
+    mCoarseTimeSolution = true;
+    return true;
+  }
+
+  /**
+   * Invalidates in {@code measurements} the signals that are not used for the position solution:
+   * only the GPS L1 signals are used. Some times the SUPL server returns less satellites than the
+   * visible ones, so those visible satellites that are not returned by SUPL are removed as well.
+   */
+  private void invalidateUnusableSatellites(GpsEpochMeasurements measurements) {
+    for (int i = 0; i < measurements.getNumberOfSlots(); i++) {
+      int satelliteKey = measurements.satelliteKeys[i];
+      if (measurements.isValid(i)
+          && (!GpsEpochMeasurements.isGpsL1(satelliteKey)
+              || !navMessageProtoContainsSvid(
+                  mGpsNavMessageProtoUsed, SatelliteKey.getSvid(satelliteKey)))) {
+        measurements.invalidate(i);
+      }
+    }
   }
 
   private boolean navMessageProtoContainsSvid(GpsNavMessageProto navMessageProto, int svid) {
-    List<GpsEphemerisProto> ephemeridesList =
-        new ArrayList<GpsEphemerisProto>(Arrays.asList(navMessageProto.ephemerids));
-    for (GpsEphemerisProto ephProtoFromList : ephemeridesList) {
+    for (GpsEphemerisProto ephProtoFromList : navMessageProto.ephemerids) {
       if (ephProtoFromList.prn == svid) {
         return true;
       }
@@ -309,38 +560,46 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
   }
 
   /**
-   * Calculates ECEF least square position and velocity solutions from an array of {@link
-   * GpsMeasurement} in meters and meters per second and store the result in {@code
-   * positionVelocitySolutionEcef}
+   * Calculates ECEF position and velocity solutions with {@code positionVelocitySolver} from the
+   * {@link GpsEpochMeasurements} of the useful satellites in meters and meters per second and store
+   * the result in {@code positionVelocitySolutionEcef}
    */
   private void performPositionVelocityComputationEcef(
-      UserPositionVelocityWeightedLeastSquare userPositionVelocityLeastSquare,
-      GpsMeasurement[] usefulSatellitesToReceiverMeasurements,
-      Long[] usefulSatellitesToTOWNs,
-      long largestTowNs,
+      PositionVelocitySolver positionVelocitySolver,
+      GpsEpochMeasurements usefulSatellitesMeasurements,
       double arrivalTimeSinceGPSWeekNs,
       int dayOfYear1To366,
       int gpsWeekNumber,
       double[] positionVelocitySolutionEcef,
-      double[] positionVelocityUncertaintyEnu,
       double[] pseudorangeResidualMeters)
       throws Exception {
 
-    List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToPseudorangeMeasurements =
-        UserPositionVelocityWeightedLeastSquare.computePseudorangeAndUncertainties(
-            Arrays.asList(usefulSatellitesToReceiverMeasurements),
-            usefulSatellitesToTOWNs,
-            largestTowNs);
+    UserPositionVelocityWeightedLeastSquare.computePseudorangeAndUncertainties(
+        usefulSatellitesMeasurements);
+
+    // keep only the satellites with the best geometry if there are more than the maximum, seen from
+    // the last solution
+    if (mLastPositionClockEcefMeters != null) {
+      int numberOfUnselectedSatellites =
+          mSatelliteSubsetSelector.selectSatellites(
+              mGpsNavMessageProtoUsed,
+              usefulSatellitesMeasurements,
+              arrivalTimeSinceGPSWeekNs * SECONDS_PER_NANO,
+              gpsWeekNumber,
+              mLastPositionClockEcefMeters);
+      if (numberOfUnselectedSatellites > 0) {
+        Log.d(TAG, "Satellites not selected for the solution: " + numberOfUnselectedSatellites);
+      }
+    }
 
     // calculate iterative least square position solution and velocity solutions
-    userPositionVelocityLeastSquare.calculateUserPositionVelocityLeastSquare(
+    positionVelocitySolver.calculateUserPositionVelocity(
         mGpsNavMessageProtoUsed,
-        usefulSatellitesToPseudorangeMeasurements,
+        usefulSatellitesMeasurements,
         arrivalTimeSinceGPSWeekNs * SECONDS_PER_NANO,
         gpsWeekNumber,
         dayOfYear1To366,
         positionVelocitySolutionEcef,
-        positionVelocityUncertaintyEnu,
         pseudorangeResidualMeters);
 
     Log.d(
@@ -364,40 +623,24 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
     Log.d(TAG, "Estimated Receiver clock offset rate in mps: " + positionVelocitySolutionEcef[7]);
   }
 
-  /**
-   * Reads the navigation message from the SUPL server by creating a Stubby client to Stubby server
-   * that wraps the SUPL server. The input is the time in nanoseconds since the GPS epoch at which
-   * the navigation message is required and the output is a {@link GpsNavMessageProto}
-   *
-   * @throws IOException
-   * @throws UnknownHostException
-   */
-  private GpsNavMessageProto getSuplNavMessage(long latE7, long lngE7)
-      throws UnknownHostException, IOException {
-    SuplRrlpController suplRrlpController =
-        new SuplRrlpController(SUPL_SERVER_NAME, SUPL_SERVER_PORT);
-    GpsNavMessageProto navMessageProto = suplRrlpController.generateNavMessage(latE7, lngE7);
-
-    return navMessageProto;
-  }
-
   /**
    * Checks if we should continue using the navigation message from the SUPL server, or use the
    * navigation message from the device if we fully received it. If the navigation message read from
    * the receiver has all the visible satellite ephemerides, return false, otherwise, return true.
    */
   private static boolean continueUsingNavMessageFromSupl(
-      GpsMeasurement[] usefulSatellitesToReceiverMeasurements,
+      GpsEpochMeasurements usefulSatellitesMeasurements,
       GpsNavMessageProto hardwareGpsNavMessageProto) {
     boolean useNavMessageFromSupl = true;
     if (hardwareGpsNavMessageProto != null) {
-      ArrayList<GpsEphemerisProto> hardwareEphemeridesList =
-          new ArrayList<GpsEphemerisProto>(Arrays.asList(hardwareGpsNavMessageProto.ephemerids));
       if (hardwareGpsNavMessageProto.iono != null) {
-        for (int i = 0; i < GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES; i++) {
-          if (usefulSatellitesToReceiverMeasurements[i] != null) {
-            int prn = i + 1;
-            for (GpsEphemerisProto hardwareEphProtoFromList : hardwareEphemeridesList) {
+        for (int i = 0; i < usefulSatellitesMeasurements.getNumberOfSlots(); i++) {
+          int satelliteKey = usefulSatellitesMeasurements.satelliteKeys[i];
+          if (usefulSatellitesMeasurements.isValid(i)
+              && GpsEpochMeasurements.isGpsL1(satelliteKey)) {
+            int prn = SatelliteKey.getSvid(satelliteKey);
+            for (GpsEphemerisProto hardwareEphProtoFromList :
+                hardwareGpsNavMessageProto.ephemerids) {
               if (hardwareEphProtoFromList.prn == prn) {
                 useNavMessageFromSupl = false;
                 break;
@@ -414,6 +657,30 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
     return useNavMessageFromSupl;
   }
 
+  /**
+   * Stores in {@code measurements} the raw {@code measurement} of a signal, keyed by its
+   * constellation, satellite and carrier frequency.
+   */
+  private static void setMeasurement(
+      GpsEpochMeasurements measurements, GnssMeasurement measurement) {
+    int satelliteKey =
+        SatelliteKey.create(
+            measurement.getConstellationType(),
+            measurement.getSvid(),
+            SatelliteKey.getSignalOfCarrierFrequency(
+                measurement.hasCarrierFrequencyHz(), measurement.getCarrierFrequencyHz()));
+    measurements.setMeasurement(
+        satelliteKey,
+        measurement.getReceivedSvTimeNanos(),
+        measurement.getAccumulatedDeltaRangeMeters(),
+        isAccumulatedDeltaRangeStateValid(measurement.getAccumulatedDeltaRangeState()),
+        isAccumulatedDeltaRangeDiscontinuous(measurement.getAccumulatedDeltaRangeState()),
+        measurement.getPseudorangeRateMetersPerSecond(),
+        measurement.getCn0DbHz(),
+        measurement.getAccumulatedDeltaRangeUncertaintyMeters(),
+        measurement.getPseudorangeRateUncertaintyMetersPerSecond());
+  }
+
   /**
    * Returns the result of the GnssMeasurement.ADR_STATE_VALID bitmask being applied to the
    * AccumulatedDeltaRangeState from a GnssMeasurement - true if the ADR state is valid, false if it
@@ -429,9 +696,15 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
         == GnssMeasurement.ADR_STATE_VALID;
   }
 
+  private static boolean isAccumulatedDeltaRangeDiscontinuous(int accumulatedDeltaRangeState) {
+    return (accumulatedDeltaRangeState
+            & (GnssMeasurement.ADR_STATE_RESET | GnssMeasurement.ADR_STATE_CYCLE_SLIP))
+        != 0;
+  }
+
   /**
-   * Parses a string array containing an updates to the navigation message and return the most
-   * recent {@link GpsNavMessageProto}.
+   * Parses an update to the navigation message. The decoded {@link GpsNavMessageProto} is published
+   * by {@link GpsNavigationMessageStore} and picked up by the next position computation.
    */
   public void parseHwNavigationMessageUpdates(GnssNavigationMessage navigationMessage) {
     byte messagePrn = (byte) navigationMessage.getSvid();
@@ -443,10 +716,289 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
     if (messageType == 1) {
       mGpsNavigationMessageStore.onNavMessageReported(
           messagePrn, messageType, (short) subMessageId, messageRawData);
-      mHardwareGpsNavMessageProto = mGpsNavigationMessageStore.createDecodedNavMessage();
     }
   }
 
+  /**
+   * Sets the geoid grid used to compute heights above sea level for the tropospheric correction.
+   * No grid is set by default, see {@link UserPositionVelocityWeightedLeastSquare#setGeoidGrid}.
+   */
+  public void setGeoidGrid(GeoidGrid geoidGrid) {
+    mUserPositionVelocityLeastSquareCalculator.setGeoidGrid(geoidGrid);
+  }
+
+  /**
+   * Sets the signal to noise ratio below which the measurements are ignored, 18 dB-Hz by default.
+   */
+  public void setCToN0ThresholdDbHz(double cToN0ThresholdDbHz) {
+    mCToN0ThresholdDbHz = cToN0ThresholdDbHz;
+  }
+
+  /**
+   * Enables or disables the ionospheric and tropospheric corrections of the solutions, enabled by
+   * default.
+   */
+  public void setAtmosphericCorrectionsEnabled(boolean enabled) {
+    mUserPositionVelocityLeastSquareCalculator.setAtmosphericCorrectionsEnabled(enabled);
+  }
+
+  /**
+   * Sets the precise orbits and clocks used by the weighted least square instead of the broadcast
+   * ephemerides, e.g. to post process a log, or {@code null} to only use the broadcast ephemerides.
+   */
+  public void setPreciseEphemeris(PreciseEphemeris preciseEphemeris) {
+    mUserPositionVelocityLeastSquareCalculator.setPreciseEphemeris(preciseEphemeris);
+  }
+
+  /**
+   * Sets the cache of the satellite positions, clocks and atmospheric delays of each epoch of the
+   * log being post processed, e.g. opened with {@link IntermediateProductsCache#open}, or {@code
+   * null} to always compute them. A cache that is recording has to be saved after the run.
+   */
+  public void setIntermediateProductsCache(IntermediateProductsCache intermediateProductsCache) {
+    mUserPositionVelocityLeastSquareCalculator.setIntermediateProductsCache(
+        intermediateProductsCache);
+  }
+
+  /**
+   * Enables or disables the solution separation integrity monitoring. When enabled, faulty
+   * satellites are detected and excluded from the leave-one-out subset solutions, computed on the
+   * common fork join pool, and protection levels are computed; otherwise the satellites with high
+   * residuals are removed.
+   */
+  public void setIntegrityMonitoringEnabled(boolean enabled) {
+    mUserPositionVelocityLeastSquareCalculator.setSolutionSeparationRaim(
+        enabled ? new SolutionSeparationRaim(ForkJoinPool.commonPool()) : null);
+  }
+
+  /**
+   * Enables or disables the smoothing of the pseudoranges with the accumulated delta ranges, or
+   * with the pseudorange rates when the accumulated delta ranges are not valid. The smoothing
+   * starts again from the next epoch.
+   */
+  public void setCarrierSmoothingEnabled(boolean enabled) {
+    mPseudorangeSmoother =
+        enabled ? new PseudorangeHatchFilterSmoother() : new PseudorangeNoSmoothingSmoother();
+    mUserPositionVelocityLeastSquareCalculator.setPseudorangeSmoother(mPseudorangeSmoother);
+  }
+
+  /**
+   * Selects the engine computing the position and velocity solutions, {@link
+   * #SOLVER_WEIGHTED_LEAST_SQUARE} by default, {@link #SOLVER_EXTENDED_KALMAN_FILTER} or {@link
+   * #SOLVER_TIERED_LEAST_SQUARE}. All use the same measurements, smoother and least square
+   * configuration, so that they can be compared on the same replay. Protection levels are only
+   * computed by the least square.
+   */
+  public void setPositionVelocitySolver(int solver) {
+    switch (solver) {
+      case SOLVER_WEIGHTED_LEAST_SQUARE:
+        mPositionVelocitySolver = mUserPositionVelocityLeastSquareCalculator;
+        break;
+      case SOLVER_EXTENDED_KALMAN_FILTER:
+        mPositionVelocitySolver =
+            new UserPositionVelocityExtendedKalmanFilter(
+                mUserPositionVelocityLeastSquareCalculator);
+        break;
+      case SOLVER_TIERED_LEAST_SQUARE:
+        UserPositionVelocityTieredLeastSquare tieredLeastSquare =
+            new UserPositionVelocityTieredLeastSquare(mUserPositionVelocityLeastSquareCalculator);
+        tieredLeastSquare.setAnchorIntervalSeconds(mAnchorIntervalSeconds);
+        mPositionVelocitySolver = tieredLeastSquare;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown solver " + solver);
+    }
+  }
+
+  /**
+   * Selects the tolerance, iteration budget and atmospheric correction policy of the least square
+   * iterations: {@link #SOLVER_PROFILE_FAST}, {@link #SOLVER_PROFILE_BALANCED} or {@link
+   * #SOLVER_PROFILE_PRECISE}, the default. The fast and balanced profiles return a degraded
+   * solution instead of failing when their iteration budget or the epoch time budget is exhausted.
+   */
+  public void setSolverProfile(int profile) {
+    LeastSquareProfile leastSquareProfile;
+    switch (profile) {
+      case SOLVER_PROFILE_FAST:
+        leastSquareProfile = LeastSquareProfile.FAST;
+        break;
+      case SOLVER_PROFILE_BALANCED:
+        leastSquareProfile = LeastSquareProfile.BALANCED;
+        break;
+      case SOLVER_PROFILE_PRECISE:
+        leastSquareProfile = LeastSquareProfile.PRECISE;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown solver profile " + profile);
+    }
+    mUserPositionVelocityLeastSquareCalculator.setProfile(leastSquareProfile);
+  }
+
+  /**
+   * Sets the time budget of each epoch in milliseconds, counted from the reception of its
+   * measurements, or 0 for no budget, the default. When the budget is exhausted, the least square
+   * stops iterating and removing satellites and its current estimate is used, flagged as degraded,
+   * see {@link #isSolutionDegraded()}. With {@link #SOLVER_PROFILE_PRECISE}, an epoch whose
+   * iterations have not converged within the budget fails instead, as for its iteration budget.
+   */
+  public void setEpochTimeBudgetMillis(long epochTimeBudgetMillis) {
+    Preconditions.checkArgument(epochTimeBudgetMillis >= 0, "Invalid epoch time budget");
+    mEpochTimeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(epochTimeBudgetMillis);
+  }
+
+  /** Returns the time budget of each epoch in milliseconds, 0 if there is none. */
+  public long getEpochTimeBudgetMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(mEpochTimeBudgetNanos);
+  }
+
+  /**
+   * Sets the interval in seconds between two full least square solutions of {@link
+   * #SOLVER_TIERED_LEAST_SQUARE}, one second by default.
+   */
+  public void setAnchorIntervalSeconds(double anchorIntervalSeconds) {
+    Preconditions.checkArgument(anchorIntervalSeconds > 0.0, "Invalid anchor interval");
+    mAnchorIntervalSeconds = anchorIntervalSeconds;
+    if (mPositionVelocitySolver instanceof UserPositionVelocityTieredLeastSquare) {
+      ((UserPositionVelocityTieredLeastSquare) mPositionVelocitySolver)
+          .setAnchorIntervalSeconds(anchorIntervalSeconds);
+    }
+  }
+
+  /**
+   * Sets the maximum number of satellites used in each solution, at least 4, or 0 to use all of
+   * them, which is the default. When more satellites are useful, those giving the smallest dilution
+   * of precision weighted by their C/N0 and elevation are selected, to bound the cost of the
+   * solution.
+   */
+  public void setMaximumNumberOfSatellites(int maximumNumberOfSatellites) {
+    mSatelliteSubsetSelector.setMaximumNumberOfSatellites(maximumNumberOfSatellites);
+  }
+
+  /**
+   * Enables or disables the coarse time navigation, disabled by default. While enabled, the epochs
+   * with less than four satellites with a decoded time of week but at least five with code lock
+   * get a coarse time position solution, see {@link #isCoarseTimeSolution()}: the whole
+   * milliseconds of the pseudoranges are resolved from the last solution or the reference position,
+   * which must be within about a hundred kilometers, and the error of the receiver time, which
+   * must be within about a minute, is solved besides the position.
+   */
+  public void setCoarseTimeNavigationEnabled(boolean enabled) {
+    mCoarseTimeNavigationEnabled = enabled;
+    mCoarseTimeCorrectionSeconds = 0.0;
+  }
+
+  /**
+   * Enables or disables the static receiver mode. While enabled, the normal equations of each
+   * solution are accumulated with those of the previous ones, with a clock bias per epoch, to solve
+   * the position of the receiver assumed not to move, see {@link
+   * #getStaticPositionSolutionLatLngDeg()}. Enabling it while it is enabled keeps the accumulated
+   * solutions; after it is disabled, it starts again from the next solution.
+   */
+  public void setStaticReceiverModeEnabled(boolean enabled) {
+    if (enabled == (mStaticReceiverNormalEquations != null)) {
+      return;
+    }
+    mStaticReceiverNormalEquations = enabled ? new StaticReceiverNormalEquations() : null;
+    Arrays.fill(mStaticPositionSolutionLatLngDeg, Double.NaN);
+  }
+
+  /**
+   * Selects the outputs computed after each solution besides the position and velocity, as a
+   * combination of {@link #OUTPUT_POSITION_VELOCITY_UNCERTAINTY}, {@link
+   * #OUTPUT_DILUTION_OF_PRECISION} and {@link #OUTPUT_POSITION_COVARIANCE_ENU}. Only the
+   * uncertainties are computed by default; the outputs not selected are not computed and are NaN.
+   */
+  public void setSolutionOutputs(int outputs) {
+    mSolutionOutputs = outputs;
+  }
+
+  /**
+   * Sets the source of the assistance navigation messages, replacing the default SUPL server. The
+   * previous source stops fetching.
+   */
+  public void setNavMessageSource(NavMessageSource navMessageSource) {
+    if (mOwnsNavMessages) {
+      mNavMessageFetcher.shutdown();
+    }
+    mNavMessageFetcher = new AsyncNavMessageFetcher(navMessageSource);
+    mOwnsNavMessages = true;
+  }
+
+  /** Stops the background fetching of assistance navigation messages. */
+  public void shutdown() {
+    if (mOwnsNavMessages) {
+      mNavMessageFetcher.shutdown();
+    }
+  }
+
+  /**
+   * Saves the decoded navigation message, the last position and clock bias solution and the geoid
+   * height to {@code file}, so that the next run can start from them with {@link
+   * #restoreWarmStartState(File)}.
+   */
+  public void saveWarmStartState(File file) throws IOException {
+    WarmStartState state = new WarmStartState();
+    state.savedTimeMillis = System.currentTimeMillis();
+    if (mLastPositionClockEcefMeters != null) {
+      state.positionEcefMeters = Arrays.copyOf(mLastPositionClockEcefMeters, 3);
+      state.clockBiasMeters = mLastPositionClockEcefMeters[3];
+    }
+    state.geoidHeightMeters = mUserPositionVelocityLeastSquareCalculator.getGeoidHeightMeters();
+    state.navMessageProto = mGpsNavMessageProtoUsed;
+    state.write(file);
+  }
+
+  /**
+   * Restores the state saved by {@link #saveWarmStartState(File)} in {@code file}. Expired
+   * ephemerides and implausible values are ignored. If a position is restored, it is used as
+   * reference location if none is set, as initial estimate of the first solution and the first
+   * set of measurements is not skipped. Returns {@code true} if any state was restored.
+   */
+  public boolean restoreWarmStartState(File file) {
+    WarmStartState state = WarmStartState.read(file, System.currentTimeMillis());
+    if (state == null) {
+      Log.d(TAG, "No valid warm start state in " + file);
+      return false;
+    }
+    if (state.navMessageProto != null) {
+      mNavMessageFetcher.setInitialNavMessage(state.navMessageProto);
+    }
+    if (!Double.isNaN(state.geoidHeightMeters)) {
+      mUserPositionVelocityLeastSquareCalculator.setGeoidHeightMeters(state.geoidHeightMeters);
+    }
+    if (state.positionEcefMeters != null) {
+      mLastPositionClockEcefMeters =
+          new double[] {
+            state.positionEcefMeters[0],
+            state.positionEcefMeters[1],
+            state.positionEcefMeters[2],
+            state.clockBiasMeters
+          };
+      mWarmStarted = true;
+      mFirstUsefulMeasurementSet = false;
+      mPositionVelocitySolver.reset();
+      if (mReferenceLocation == null) {
+        GeodeticLlaValues latLngAlt =
+            Ecef2LlaConverter.convertECEFToLLACloseForm(
+                state.positionEcefMeters[0],
+                state.positionEcefMeters[1],
+                state.positionEcefMeters[2]);
+        setReferencePosition(
+            (int) (Math.toDegrees(latLngAlt.latitudeRadians) * 1e7),
+            (int) (Math.toDegrees(latLngAlt.longitudeRadians) * 1e7),
+            (int) (latLngAlt.altitudeMeters * 1e7));
+      }
+    }
+    Log.d(
+        TAG,
+        "Restored warm start state saved at "
+            + state.savedTimeMillis
+            + (state.navMessageProto == null
+                ? " without navigation message"
+                : " with " + state.navMessageProto.ephemerids.length + " ephemerides"));
+    return true;
+  }
+
   /** Sets a rough location of the receiver that can be used to request SUPL assistance data */
   public void setReferencePosition(int latE7, int lngE7, int altE7) {
     if (mReferenceLocation == null) {
@@ -487,6 +1039,30 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
     return mPositionSolutionLatLngDeg;
   }
 
+  /**
+   * Returns the position of the static receiver solved from all the solutions since the static
+   * receiver mode was enabled, NaN if it is disabled or not solved yet.
+   */
+  public double[] getStaticPositionSolutionLatLngDeg() {
+    return mStaticPositionSolutionLatLngDeg;
+  }
+
+  /**
+   * Returns {@code true} if the last solution is the estimate available when the epoch time budget
+   * or the iteration budget was exhausted, rather than a converged solution.
+   */
+  public boolean isSolutionDegraded() {
+    return mSolutionDegraded;
+  }
+
+  /**
+   * Returns {@code true} if the last position solution is a coarse time solution, without velocity
+   * nor uncertainties, see {@link #setCoarseTimeNavigationEnabled(boolean)}.
+   */
+  public boolean isCoarseTimeSolution() {
+    return mCoarseTimeSolution;
+  }
+
   /** Returns the last computed Velocity solution */
   public double[] getVelocitySolutionEnuMps() {
     return mVelocitySolutionEnuMps;
@@ -494,17 +1070,73 @@ public class PseudorangePositionVelocityFromRealTimeEvents {
 
   /**
    * Returns the last computed position and velocity uncertainties in meters and meter per seconds,
-   * respectively.
+   * respectively, NaN if not selected with {@link #setSolutionOutputs(int)}.
    */
   public double[] getPositionVelocityUncertaintyEnu() {
     return mPositionVelocityUncertaintyEnu;
   }
 
+  /**
+   * Returns the geometric, position, horizontal, vertical and time dilutions of precision of the
+   * last computed solution, NaN unless selected with {@link #setSolutionOutputs(int)}.
+   */
+  public double[] getDilutionOfPrecision() {
+    return mDilutionOfPrecision;
+  }
+
+  /**
+   * Returns the covariance in square meters of the last computed position in the local ENU system,
+   * NaN unless selected with {@link #setSolutionOutputs(int)}.
+   */
+  public double[][] getPositionCovarianceEnuMeters2() {
+    return mPositionCovarianceEnuMeters2;
+  }
+
   /**
    * Returns the pseudorange residuals corrected by using clock bias computed from highest
-   * elevationDegree satellites.
+   * elevationDegree satellites. Only the first {@link #getNumberOfPseudorangeResiduals()} entries
+   * are set, each of them being the residual of the signal with the same index in {@link
+   * #getPseudorangeResidualSatelliteKeys()}, or NaN if the signal was not used in the solution.
    */
   public double[] getPseudorangeResidualsMeters() {
     return mPseudorangeResidualsMeters;
   }
+
+  /**
+   * Returns the {@link SatelliteKey satellite keys} of the signals of the pseudorange residuals
+   * returned by {@link #getPseudorangeResidualsMeters()}.
+   */
+  public int[] getPseudorangeResidualSatelliteKeys() {
+    return mPseudorangeResidualSatelliteKeys;
+  }
+
+  /** Returns the number of pseudorange residuals of the last computed solution. */
+  public int getNumberOfPseudorangeResiduals() {
+    return mNumberOfPseudorangeResiduals;
+  }
+
+  /**
+   * Returns the horizontal protection level in meters of the last computed solution, NaN if the
+   * integrity monitoring is disabled or not enough satellites are visible, or infinite if a fault
+   * was detected but could not be excluded.
+   */
+  public double getHorizontalProtectionLevelMeters() {
+    return mUserPositionVelocityLeastSquareCalculator.getIntegrityResult()
+        .horizontalProtectionLevelMeters;
+  }
+
+  /**
+   * Returns the vertical protection level in meters of the last computed solution, as {@link
+   * #getHorizontalProtectionLevelMeters()}.
+   */
+  public double getVerticalProtectionLevelMeters() {
+    return mUserPositionVelocityLeastSquareCalculator.getIntegrityResult()
+        .verticalProtectionLevelMeters;
+  }
+
+  /** Returns the number of satellites excluded by the integrity monitoring at the last solution. */
+  public int getNumberOfExcludedSatellites() {
+    return mUserPositionVelocityLeastSquareCalculator.getIntegrityResult()
+        .numberOfExcludedSatellites;
+  }
 }
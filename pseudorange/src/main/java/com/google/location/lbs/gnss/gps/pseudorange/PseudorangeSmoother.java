@@ -16,23 +16,24 @@
 
 package com.google.location.lbs.gnss.gps.pseudorange;
 
-import java.util.List;
-
 /**
- * Interface for smoothing a list of {@link GpsMeasurementWithRangeAndUncertainty} instances
- * received at a point of time.
+ * Interface for smoothing the pseudoranges of the {@link GpsEpochMeasurements} received at a point
+ * of time.
  */
 interface PseudorangeSmoother {
 
   /**
-   * Takes an input list of {@link GpsMeasurementWithRangeAndUncertainty} instances and returns a
-   * new list that contains smoothed pseudorange measurements.
+   * Takes the measurements of an epoch and fills {@code smoothedMeasurements} with a copy of them
+   * in which the pseudorange measurements are smoothed.
    *
-   * <p>The input list is of size {@link GpsNavigationMessageStore#MAX_NUMBER_OF_SATELLITES} with
-   * not visible GPS satellites having null entries, and the returned new list is of the same size.
+   * <p>{@code smoothedMeasurements} must keep the slots of {@code measurements}, i.e. hold the
+   * same {@link SatelliteKey satellite keys} at the same slots, so that the results computed from
+   * it can be reported per slot of {@code measurements}. The smoother may invalidate slots in
+   * {@code smoothedMeasurements}.
    *
-   * <p>The method does not modify the input list.
+   * <p>The method does not modify {@code measurements}, and must not allocate on each call as it
+   * is invoked at every epoch.
    */
-  List<GpsMeasurementWithRangeAndUncertainty> updatePseudorangeSmoothingResult(
-      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToGPSReceiverMeasurements);
+  void updatePseudorangeSmoothingResult(
+      GpsEpochMeasurements measurements, GpsEpochMeasurements smoothedMeasurements);
 }
@@ -50,7 +50,8 @@ public class ResidualCorrectionCalculator {
    *     passed in from WLS
    * @param positionVelocitySolutionECEF position velocity solution passed in from WLS
    * @param groundTruthInputECEFMeters the reference position in ECEF meters
-   * @return an array contains the corrected pseudorange residual in meters for each satellite
+   * @return an array of size {@link GpsEpochMeasurements#MAX_NUMBER_OF_SIGNALS} containing the
+   *     corrected pseudorange residual in meters of each satellite at its slot in the measurements
    */
   public static double[] calculateCorrectedResiduals(
       SatellitesPositionPseudorangesResidualAndCovarianceMatrix
@@ -59,13 +60,13 @@ public class ResidualCorrectionCalculator {
       double[] groundTruthInputECEFMeters) {
 
     double[] residuals = satellitesPositionPseudorangesResidual.pseudorangeResidualsMeters.clone();
-    int[] satellitePrn = satellitesPositionPseudorangesResidual.satellitePRNs.clone();
+    int[] satelliteSlots = satellitesPositionPseudorangesResidual.satelliteSlots.clone();
     double[] satelliteElevationDegree = new double[residuals.length];
     SatelliteElevationAndResiduals[] satelliteResidualsListAndElevation =
         new SatelliteElevationAndResiduals[residuals.length];
 
     // Check the alignment between inputs
-    Preconditions.checkArgument(residuals.length == satellitePrn.length);
+    Preconditions.checkArgument(residuals.length == satelliteSlots.length);
 
     // Apply residual corrections per satellite
     for (int i = 0; i < residuals.length; i++) {
@@ -102,7 +103,7 @@ public class ResidualCorrectionCalculator {
           new SatelliteElevationAndResiduals(
               satelliteElevationDegree[i],
               residuals[i] + positionVelocitySolutionECEF[3],
-              satellitePrn[i]);
+              satelliteSlots[i]);
     }
 
     double bestUserClockBiasMeters = calculateBestUserClockBias(satelliteResidualsListAndElevation);
@@ -111,10 +112,10 @@ public class ResidualCorrectionCalculator {
     // removed from the reported residuals in the analysis
     double[] correctedResidualsMeters =
         GpsMathOperations.createAndFillArray(
-            GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES, Double.NaN);
+            GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS, Double.NaN);
 
     for (SatelliteElevationAndResiduals element : satelliteResidualsListAndElevation) {
-      correctedResidualsMeters[element.svID - 1] = element.residual - bestUserClockBiasMeters;
+      correctedResidualsMeters[element.slot] = element.residual - bestUserClockBiasMeters;
     }
 
     return correctedResidualsMeters;
@@ -181,12 +182,12 @@ public class ResidualCorrectionCalculator {
     /** Satellite elevation in degrees with respect to the user */
     final double elevationDegree;
 
-    /** Satellite ID */
-    final int svID;
+    /** Slot of the satellite in the measurements */
+    final int slot;
 
-    SatelliteElevationAndResiduals(double elevationDegree, double residual, int svID) {
+    SatelliteElevationAndResiduals(double elevationDegree, double residual, int slot) {
       this.residual = residual;
-      this.svID = svID;
+      this.slot = slot;
       this.elevationDegree = elevationDegree;
     }
   }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Packs the identity of a received signal, i.e. the constellation type (as defined in {@link
+ * android.location.GnssStatus}), the satellite id and the signal band, into a single
+ * non-negative {@code int} so that signals of any constellation can be used as primitive keys.
+ *
+ * <p>Layout: bits 24 to 30 hold the constellation type, bits 16 to 23 the signal band and bits 0
+ * to 15 the satellite id.
+ */
+public final class SatelliteKey {
+
+  /** L1 band: GPS and QZSS L1, Galileo E1, BeiDou B1, GLONASS G1, SBAS L1 */
+  public static final int SIGNAL_L1 = 0;
+  /** L2 band: GPS and QZSS L2, GLONASS G2 */
+  public static final int SIGNAL_L2 = 1;
+  /** L5 band: GPS and QZSS L5, Galileo E5a, BeiDou B2a, SBAS L5 */
+  public static final int SIGNAL_L5 = 2;
+  /** Any other band, e.g. Galileo E5b or E6 */
+  public static final int SIGNAL_OTHER = 3;
+
+  private static final int CONSTELLATION_SHIFT = 24;
+  private static final int SIGNAL_SHIFT = 16;
+  private static final int CONSTELLATION_MASK = 0x7F;
+  private static final int SIGNAL_MASK = 0xFF;
+  private static final int SVID_MASK = 0xFFFF;
+
+  private SatelliteKey() {}
+
+  /** Creates the key of the signal {@code signal} of satellite {@code svid} of a constellation. */
+  public static int create(int constellationType, int svid, int signal) {
+    Preconditions.checkArgument(
+        (constellationType & ~CONSTELLATION_MASK) == 0
+            && (svid & ~SVID_MASK) == 0
+            && (signal & ~SIGNAL_MASK) == 0,
+        "Invalid satellite: constellation %s, svid %s, signal %s",
+        constellationType,
+        svid,
+        signal);
+    return (constellationType << CONSTELLATION_SHIFT) | (signal << SIGNAL_SHIFT) | svid;
+  }
+
+  /** Returns the constellation type of {@code satelliteKey}. */
+  public static int getConstellationType(int satelliteKey) {
+    return (satelliteKey >>> CONSTELLATION_SHIFT) & CONSTELLATION_MASK;
+  }
+
+  /** Returns the satellite id of {@code satelliteKey}. */
+  public static int getSvid(int satelliteKey) {
+    return satelliteKey & SVID_MASK;
+  }
+
+  /** Returns the signal band of {@code satelliteKey}. */
+  public static int getSignal(int satelliteKey) {
+    return (satelliteKey >>> SIGNAL_SHIFT) & SIGNAL_MASK;
+  }
+
+  /**
+   * Returns the key of the signal paired with {@code satelliteKey} for dual frequency combinations,
+   * i.e. the L5 signal of the same satellite for an L1 signal and the L1 signal for an L5 signal,
+   * or -1 for the signals of the other bands.
+   */
+  public static int getPairedKey(int satelliteKey) {
+    int signal = getSignal(satelliteKey);
+    if (signal != SIGNAL_L1 && signal != SIGNAL_L5) {
+      return -1;
+    }
+    int pairedSignal = signal == SIGNAL_L1 ? SIGNAL_L5 : SIGNAL_L1;
+    return (satelliteKey & ~(SIGNAL_MASK << SIGNAL_SHIFT)) | (pairedSignal << SIGNAL_SHIFT);
+  }
+
+  /**
+   * Returns the signal band of a measurement from its carrier frequency. Measurements without a
+   * carrier frequency are assumed to be in the L1 band, as receivers only report the frequency
+   * when they track more than one band.
+   */
+  public static int getSignalOfCarrierFrequency(
+      boolean hasCarrierFrequencyHz, double carrierFrequencyHz) {
+    if (!hasCarrierFrequencyHz) {
+      return SIGNAL_L1;
+    }
+    double carrierFrequencyMhz = carrierFrequencyHz * 1e-6;
+    if (carrierFrequencyMhz >= 1559.0 && carrierFrequencyMhz <= 1610.0) {
+      return SIGNAL_L1;
+    } else if (carrierFrequencyMhz >= 1215.0 && carrierFrequencyMhz <= 1254.0) {
+      return SIGNAL_L2;
+    } else if (carrierFrequencyMhz >= 1164.0 && carrierFrequencyMhz <= 1189.0) {
+      return SIGNAL_L5;
+    }
+    return SIGNAL_OTHER;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+
+/**
+ * Maps {@link SatelliteKey satellite keys} to dense slots 0, 1, 2... in the order the keys are
+ * added, so that per satellite data can be stored in primitive arrays without boxing.
+ *
+ * <p>The map is an open addressing hash table with linear probing, at most half full, on
+ * primitive arrays allocated once: adding, looking up and clearing never allocate.
+ *
+ * <p>The L1 and L5 signals of a satellite are paired as their keys are added, whatever their
+ * order, so that the slot of the other band of a signal is found in constant time by {@link
+ * #getPairedSlot(int)}.
+ */
+class SatelliteSlotTable {
+
+  private static final int EMPTY_KEY = -1;
+  /** Fibonacci hashing multiplier, spreading the packed key bits over the table */
+  private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+  private final int maximumNumberOfSlots;
+  private final int[] tableKeys;
+  private final int[] tableSlots;
+  /** Slot of the other band of the L1 / L5 pair of the key in each slot, or -1 */
+  private final int[] pairedSlots;
+  private final int tableMask;
+  private final int hashShift;
+  private int numberOfSlots;
+
+  /** Constructor for a table of up to {@code maximumNumberOfSlots} keys. */
+  public SatelliteSlotTable(int maximumNumberOfSlots) {
+    Preconditions.checkArgument(maximumNumberOfSlots > 0, "Invalid number of slots");
+    this.maximumNumberOfSlots = maximumNumberOfSlots;
+    int tableBits = 32 - Integer.numberOfLeadingZeros(2 * maximumNumberOfSlots - 1);
+    tableKeys = new int[1 << tableBits];
+    tableSlots = new int[1 << tableBits];
+    pairedSlots = new int[maximumNumberOfSlots];
+    tableMask = (1 << tableBits) - 1;
+    hashShift = 32 - tableBits;
+    Arrays.fill(tableKeys, EMPTY_KEY);
+  }
+
+  /** Removes all the keys. */
+  public void clear() {
+    if (numberOfSlots > 0) {
+      Arrays.fill(tableKeys, EMPTY_KEY);
+      numberOfSlots = 0;
+    }
+  }
+
+  /** Returns the number of keys, i.e. the number of slots in use. */
+  public int size() {
+    return numberOfSlots;
+  }
+
+  /** Returns the slot of {@code satelliteKey}, or -1 if the key was not added. */
+  public int getSlot(int satelliteKey) {
+    for (int index = hash(satelliteKey); ; index = (index + 1) & tableMask) {
+      int key = tableKeys[index];
+      if (key == satelliteKey) {
+        return tableSlots[index];
+      } else if (key == EMPTY_KEY) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Returns the slot of {@code satelliteKey}, adding the key with the next free slot if it was not
+   * added yet. Returns -1 if the key is new and all the slots are in use.
+   */
+  public int getOrAddSlot(int satelliteKey) {
+    Preconditions.checkArgument(satelliteKey != EMPTY_KEY, "Invalid satellite key");
+    for (int index = hash(satelliteKey); ; index = (index + 1) & tableMask) {
+      int key = tableKeys[index];
+      if (key == satelliteKey) {
+        return tableSlots[index];
+      } else if (key == EMPTY_KEY) {
+        if (numberOfSlots == maximumNumberOfSlots) {
+          return -1;
+        }
+        tableKeys[index] = satelliteKey;
+        tableSlots[index] = numberOfSlots;
+        pairSlot(numberOfSlots, satelliteKey);
+        return numberOfSlots++;
+      }
+    }
+  }
+
+  /**
+   * Returns the slot of the signal of the same satellite in the other band of the L1 / L5 pair of
+   * the signal in {@code slot}, or -1 if it was not added.
+   */
+  public int getPairedSlot(int slot) {
+    return pairedSlots[slot];
+  }
+
+  /** Links the new {@code slot} of {@code satelliteKey} with the slot of its paired signal. */
+  private void pairSlot(int slot, int satelliteKey) {
+    int pairedKey = SatelliteKey.getPairedKey(satelliteKey);
+    int pairedSlot = pairedKey < 0 ? -1 : getSlot(pairedKey);
+    pairedSlots[slot] = pairedSlot;
+    if (pairedSlot >= 0) {
+      pairedSlots[pairedSlot] = slot;
+    }
+  }
+
+  /**
+   * Copies the keys, slots and pairs of {@code other}, which must have the same maximum size.
+   */
+  public void copyFrom(SatelliteSlotTable other) {
+    Preconditions.checkArgument(
+        other.maximumNumberOfSlots == maximumNumberOfSlots, "Tables of different sizes");
+    System.arraycopy(other.tableKeys, 0, tableKeys, 0, tableKeys.length);
+    System.arraycopy(other.tableSlots, 0, tableSlots, 0, tableSlots.length);
+    System.arraycopy(other.pairedSlots, 0, pairedSlots, 0, other.numberOfSlots);
+    numberOfSlots = other.numberOfSlots;
+  }
+
+  private int hash(int satelliteKey) {
+    return (satelliteKey * HASH_MULTIPLIER) >>> hashShift;
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import com.google.common.base.Preconditions;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.RangeAndRangeRate;
+
+/**
+ * Selects at most a maximum number of satellites of an epoch by greedy reduction of their
+ * dilution of precision, to bound the cost of the solvers when many satellites are visible.
+ *
+ * <p>The selection only uses the lines of sight of the satellites from an approximate receiver
+ * position, e.g. the last solution, and their weights sin(elevation)^2 / sigma^2, with sigma the
+ * pseudorange uncertainty from the C/N0. Starting from a loose prior covariance of the position
+ * and clock bias, the satellite reducing the most the trace of the covariance, i.e. the weighted
+ * geometric dilution of precision, is added at each step with a rank-one update of the covariance.
+ * The cost is O(K * n) for K satellites selected out of n, without any matrix inversion.
+ *
+ * <p>Reference: Global Positioning System: Signals, Measurements, and Performance by Pratap Misra,
+ * Per Enge, Page 206 - 209.
+ */
+class SatelliteSubsetSelector {
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final int SECONDS_IN_WEEK = 604800;
+  private static final double AVERAGE_TRAVEL_TIME_SECONDS = 70.0e-3;
+  private static final int MINIMUM_NUMBER_OF_SATELLITES = 4;
+  private static final int SIZE = GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS;
+  /** Prior variance of the position and clock bias, loose enough not to bias the selection */
+  private static final double PRIOR_VARIANCE_METERS2 = 1.0e8;
+  /** Smallest sine of the elevation in the weights, for the satellites close to the horizon */
+  private static final double MINIMUM_SINE_ELEVATION = 0.1;
+
+  private int maximumNumberOfSatellites = 0;
+
+  // Scratch arrays of an epoch, indexed by the candidates
+  private final double[][] linesOfSight = new double[SIZE][3];
+  private final double[] weights = new double[SIZE];
+  private final int[] slots = new int[SIZE];
+  private final boolean[] selected = new boolean[SIZE];
+  private final double[][] covariance = new double[4][4];
+  private final double[] covarianceTimesRow = new double[4];
+  private final RangeAndRangeRate rangeAndRangeRate = new RangeAndRangeRate(0.0, 0.0);
+  private final PositionAndVelocity satellitePositionAndVelocity =
+      new PositionAndVelocity(0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+
+  /**
+   * Sets the maximum number of satellites selected at each epoch, at least 4, or 0 to select all
+   * of them, which is the default.
+   */
+  public void setMaximumNumberOfSatellites(int maximumNumberOfSatellites) {
+    Preconditions.checkArgument(
+        maximumNumberOfSatellites == 0 || maximumNumberOfSatellites >= MINIMUM_NUMBER_OF_SATELLITES,
+        "Invalid maximum number of satellites");
+    this.maximumNumberOfSatellites = maximumNumberOfSatellites;
+  }
+
+  /** Returns the maximum number of satellites selected at each epoch, 0 if there is none. */
+  public int getMaximumNumberOfSatellites() {
+    return maximumNumberOfSatellites;
+  }
+
+  /**
+   * Invalidates in {@code measurements} the satellites that are not selected, if there are more
+   * than the maximum. Their lines of sight are computed from {@code receiverPositionEcefMeters} at
+   * the receiver time {@code receiverGpsTowSeconds} of week {@code receiverGpsWeek}, and their
+   * pseudorange uncertainties must be computed. Satellites without ephemeris in {@code
+   * navMessageProto} are left to the solver. Returns the number of invalidated satellites.
+   */
+  public int selectSatellites(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements measurements,
+      double receiverGpsTowSeconds,
+      int receiverGpsWeek,
+      double[] receiverPositionEcefMeters)
+      throws Exception {
+    if (maximumNumberOfSatellites == 0
+        || measurements.getNumberOfValidSatellites() <= maximumNumberOfSatellites) {
+      return 0;
+    }
+    double receiverRadiusMeters =
+        Math.sqrt(
+            receiverPositionEcefMeters[0] * receiverPositionEcefMeters[0]
+                + receiverPositionEcefMeters[1] * receiverPositionEcefMeters[1]
+                + receiverPositionEcefMeters[2] * receiverPositionEcefMeters[2]);
+    if (receiverRadiusMeters == 0.0) {
+      return 0;
+    }
+
+    // Lines of sight and weights of the candidates, from a single evaluation of the ephemeris at
+    // the average travel time, accurate enough for the geometry
+    double transmitTowSeconds = receiverGpsTowSeconds - AVERAGE_TRAVEL_TIME_SECONDS;
+    int transmitWeek = receiverGpsWeek;
+    if (transmitTowSeconds < 0.0) {
+      transmitTowSeconds += SECONDS_IN_WEEK;
+      transmitWeek--;
+    }
+    rangeAndRangeRate.rangeMeters = AVERAGE_TRAVEL_TIME_SECONDS * SPEED_OF_LIGHT_MPS;
+    int numberOfCandidates = 0;
+    for (int i = 0; i < measurements.getNumberOfSlots(); i++) {
+      if (!measurements.isValid(i)) {
+        continue;
+      }
+      GpsEphemerisProto ephemeris =
+          getEphemerisForSatellite(
+              navMessageProto, SatelliteKey.getSvid(measurements.satelliteKeys[i]));
+      if (ephemeris == null) {
+        continue;
+      }
+      SatellitePositionCalculator.calculateSatellitePositionAndVelocity(
+          ephemeris,
+          transmitTowSeconds,
+          transmitWeek,
+          rangeAndRangeRate,
+          satellitePositionAndVelocity);
+      double[] lineOfSight = linesOfSight[numberOfCandidates];
+      lineOfSight[0] = satellitePositionAndVelocity.positionXMeters - receiverPositionEcefMeters[0];
+      lineOfSight[1] = satellitePositionAndVelocity.positionYMeters - receiverPositionEcefMeters[1];
+      lineOfSight[2] = satellitePositionAndVelocity.positionZMeters - receiverPositionEcefMeters[2];
+      double rangeMeters =
+          Math.sqrt(
+              lineOfSight[0] * lineOfSight[0]
+                  + lineOfSight[1] * lineOfSight[1]
+                  + lineOfSight[2] * lineOfSight[2]);
+      double sineElevation = 0.0;
+      for (int axis = 0; axis < 3; axis++) {
+        lineOfSight[axis] /= rangeMeters;
+        sineElevation += lineOfSight[axis] * receiverPositionEcefMeters[axis];
+      }
+      sineElevation = Math.max(sineElevation / receiverRadiusMeters, MINIMUM_SINE_ELEVATION);
+      double sigmaMeters = measurements.pseudorangeUncertaintyMeters[i];
+      weights[numberOfCandidates] = sineElevation * sineElevation / (sigmaMeters * sigmaMeters);
+      slots[numberOfCandidates] = i;
+      selected[numberOfCandidates] = false;
+      numberOfCandidates++;
+    }
+    int numberWithoutEphemeris = measurements.getNumberOfValidSatellites() - numberOfCandidates;
+    int numberToSelect = maximumNumberOfSatellites - numberWithoutEphemeris;
+    if (numberOfCandidates <= numberToSelect || numberToSelect < MINIMUM_NUMBER_OF_SATELLITES) {
+      return 0;
+    }
+    selectGreedily(numberOfCandidates, numberToSelect);
+
+    int numberOfInvalidated = 0;
+    for (int i = 0; i < numberOfCandidates; i++) {
+      if (!selected[i]) {
+        measurements.invalidate(slots[i]);
+        numberOfInvalidated++;
+      }
+    }
+    return numberOfInvalidated;
+  }
+
+  /**
+   * Marks in {@link #selected} the {@code numberToSelect} candidates among the first {@code
+   * numberOfCandidates} chosen by greedy reduction of the trace of the covariance.
+   */
+  private void selectGreedily(int numberOfCandidates, int numberToSelect) {
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        covariance[i][j] = i == j ? PRIOR_VARIANCE_METERS2 : 0.0;
+      }
+    }
+    for (int step = 0; step < numberToSelect; step++) {
+      // Adding the row g of weight w to the normal matrix changes the covariance P by
+      // - w * (P * g) * (P * g)^T / (1 + w * g^T * P * g), and its trace by the norm of P * g
+      int best = -1;
+      double bestReduction = -1.0;
+      for (int k = 0; k < numberOfCandidates; k++) {
+        if (selected[k]) {
+          continue;
+        }
+        double rowCovarianceRow = multiplyCovariance(linesOfSight[k]);
+        double normSquare = 0.0;
+        for (int i = 0; i < 4; i++) {
+          normSquare += covarianceTimesRow[i] * covarianceTimesRow[i];
+        }
+        double reduction = weights[k] * normSquare / (1.0 + weights[k] * rowCovarianceRow);
+        if (reduction > bestReduction) {
+          bestReduction = reduction;
+          best = k;
+        }
+      }
+      selected[best] = true;
+      double rowCovarianceRow = multiplyCovariance(linesOfSight[best]);
+      double gain = weights[best] / (1.0 + weights[best] * rowCovarianceRow);
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          covariance[i][j] -= gain * covarianceTimesRow[i] * covarianceTimesRow[j];
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets {@link #covarianceTimesRow} to P * g for the geometry row g of {@code lineOfSight}, and
+   * returns g^T * P * g.
+   */
+  private double multiplyCovariance(double[] lineOfSight) {
+    for (int i = 0; i < 4; i++) {
+      covarianceTimesRow[i] =
+          covariance[i][0] * lineOfSight[0]
+              + covariance[i][1] * lineOfSight[1]
+              + covariance[i][2] * lineOfSight[2]
+              + covariance[i][3];
+    }
+    return lineOfSight[0] * covarianceTimesRow[0]
+        + lineOfSight[1] * covarianceTimesRow[1]
+        + lineOfSight[2] * covarianceTimesRow[2]
+        + covarianceTimesRow[3];
+  }
+
+  private static GpsEphemerisProto getEphemerisForSatellite(
+      GpsNavMessageProto navMessageProto, int satPrn) {
+    for (GpsEphemerisProto ephemeridesProto : navMessageProto.ephemerids) {
+      if (ephemeridesProto.prn == satPrn) {
+        return ephemeridesProto;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+/**
+ * Measurements of type {@code M} of the signals of one epoch, stored by the slots of a {@link
+ * SatelliteSlotTable}, with the L1 and L5 signals of each satellite paired.
+ *
+ * <p>A signal stored again replaces its measurement in the same slot. The signals stored when all
+ * the slots are in use are dropped and counted until the next {@link #clear()}, which releases the
+ * measurements.
+ */
+final class SignalSlots<M> {
+
+  private final SatelliteSlotTable slotTable;
+  private final Object[] measurements;
+  private final int[] satelliteKeys;
+  private int numberOfDroppedSignals;
+
+  /** Constructor for up to {@code maximumNumberOfSignals} signals per epoch. */
+  public SignalSlots(int maximumNumberOfSignals) {
+    slotTable = new SatelliteSlotTable(maximumNumberOfSignals);
+    measurements = new Object[maximumNumberOfSignals];
+    satelliteKeys = new int[maximumNumberOfSignals];
+  }
+
+  /**
+   * Stores the {@code measurement} of the signal {@code satelliteKey}, replacing its previous
+   * measurement of the epoch if any. Returns its slot, or -1 if it is dropped because all the
+   * slots are in use.
+   */
+  public int put(int satelliteKey, M measurement) {
+    int slot = slotTable.getOrAddSlot(satelliteKey);
+    if (slot < 0) {
+      numberOfDroppedSignals++;
+      return slot;
+    }
+    satelliteKeys[slot] = satelliteKey;
+    measurements[slot] = measurement;
+    return slot;
+  }
+
+  /** Removes all the signals, releasing their measurements. */
+  public void clear() {
+    for (int slot = 0; slot < slotTable.size(); slot++) {
+      measurements[slot] = null;
+    }
+    slotTable.clear();
+    numberOfDroppedSignals = 0;
+  }
+
+  /** Returns the number of signals stored, i.e. the upper bound of the loops over the slots. */
+  public int size() {
+    return slotTable.size();
+  }
+
+  /** Returns the number of signals dropped since the last {@link #clear()}. */
+  public int getNumberOfDroppedSignals() {
+    return numberOfDroppedSignals;
+  }
+
+  /** Returns the slot of the signal {@code satelliteKey}, or -1 if it was not stored. */
+  public int getSlot(int satelliteKey) {
+    return slotTable.getSlot(satelliteKey);
+  }
+
+  /** Returns the measurement of the signal in {@code slot}, or null if it was released. */
+  @SuppressWarnings("unchecked")
+  public M getMeasurement(int slot) {
+    return (M) measurements[slot];
+  }
+
+  /** Returns the {@link SatelliteKey} of the signal in {@code slot}. */
+  public int getSatelliteKey(int slot) {
+    return satelliteKeys[slot];
+  }
+
+  /**
+   * Returns the slot of the signal of the same satellite in the other band of the L1 / L5 pair of
+   * the signal in {@code slot}, or -1 if it was not stored.
+   */
+  public int getPairedSlot(int slot) {
+    return slotTable.getPairedSlot(slot);
+  }
+}
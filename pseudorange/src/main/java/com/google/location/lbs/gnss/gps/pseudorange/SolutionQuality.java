@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Uncertainties, dilutions of precision and ENU covariance of a position and velocity solution,
+ * computed on demand rather than after every epoch.
+ *
+ * <p>A solver only records the geometry matrix rows and the weights of the satellites used in its
+ * solution, in primitive buffers. The first request of an output factorizes the normal matrix it
+ * needs, inverts it and rotates it to the local ENU system; the result is cached until the next
+ * solution, so outputs sharing a covariance share its factorization, and outputs never requested
+ * cost nothing.
+ *
+ * <p>The covariance of the position and clock bias is (G^T * W * G)^-1 with the pseudorange
+ * weights, that of the velocity and clock bias rate the same with the pseudorange rate weights,
+ * unless the solver provides its own covariance. The dilutions of precision are computed from
+ * (G^T * G)^-1.
+ *
+ * <p>Reference: Global Positioning System: Signals, Measurements, and Performance by Pratap Misra,
+ * Per Enge, Page 206 - 209.
+ */
+class SolutionQuality {
+  private static final int SIZE = GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS;
+  private static final int MINIMUM_NUMBER_OF_SATELLITES = 4;
+  private static final int VELOCITY_STATE = 4;
+
+  /** Dilutions of precision of a solution, NaN if they can not be computed */
+  public static class DilutionOfPrecision {
+    /** Geometric dilution of precision, of the position and clock bias */
+    public double geometric = Double.NaN;
+
+    /** Position dilution of precision */
+    public double position = Double.NaN;
+
+    /** Horizontal dilution of precision */
+    public double horizontal = Double.NaN;
+
+    /** Vertical dilution of precision */
+    public double vertical = Double.NaN;
+
+    /** Time dilution of precision */
+    public double time = Double.NaN;
+
+    private void clear() {
+      geometric = Double.NaN;
+      position = Double.NaN;
+      horizontal = Double.NaN;
+      vertical = Double.NaN;
+      time = Double.NaN;
+    }
+  }
+
+  // Solution, set by the solver
+  private final double[][] geometry = new double[SIZE][4];
+  private final double[] positionWeights = new double[SIZE];
+  private final double[] velocityWeights = new double[SIZE];
+  private final double[] unitWeights = GpsMathOperations.createAndFillArray(SIZE, 1.0);
+  private int numberOfSatellites;
+  private boolean solutionSet;
+  private boolean degraded;
+  private final double[] positionEcefMeters = new double[3];
+
+  // Outputs, computed on demand and cached until the next solution
+  private final IncrementalCholeskyFactorization factorization =
+      new IncrementalCholeskyFactorization(4);
+  private final double[][] inverse = new double[4][4];
+  private boolean rotationComputed;
+  private final double[][] rotationEcefToEnu = new double[3][3];
+  private boolean covarianceComputed;
+  /** Covariance of the position and clock bias [0-3] and velocity and clock bias rate [4-7] */
+  private final double[][] covarianceEcef = new double[8][8];
+  private boolean dilutionOfPrecisionComputed;
+  private final DilutionOfPrecision dilutionOfPrecision = new DilutionOfPrecision();
+
+  /** Forgets the previous solution and its satellites, all the outputs are NaN until the next. */
+  public void clear() {
+    numberOfSatellites = 0;
+    solutionSet = false;
+    degraded = false;
+    invalidateOutputs();
+  }
+
+  /**
+   * Adds a satellite used in the solution, with the line of sight {@code geometryRow} in its first
+   * three entries, the weight {@code positionWeight} of its pseudorange and {@code velocityWeight}
+   * of its pseudorange rate (1 / square meters and 1 / square meters per second).
+   */
+  public void addSatellite(double[] geometryRow, double positionWeight, double velocityWeight) {
+    if (numberOfSatellites == SIZE) {
+      return;
+    }
+    double[] row = geometry[numberOfSatellites];
+    row[0] = geometryRow[0];
+    row[1] = geometryRow[1];
+    row[2] = geometryRow[2];
+    row[3] = 1.0;
+    positionWeights[numberOfSatellites] = positionWeight;
+    velocityWeights[numberOfSatellites] = velocityWeight;
+    numberOfSatellites++;
+    invalidateOutputs();
+  }
+
+  /**
+   * Sets the solution {@code positionVelocitySolutionEcef} of the satellites added since {@link
+   * #clear()}, whose covariance is computed from their weights on demand.
+   */
+  public void setSolution(double[] positionVelocitySolutionEcef) {
+    System.arraycopy(positionVelocitySolutionEcef, 0, positionEcefMeters, 0, 3);
+    solutionSet = true;
+    invalidateOutputs();
+  }
+
+  /**
+   * Sets the solution {@code positionVelocitySolutionEcef} of the satellites added since {@link
+   * #clear()} with its own 8 x 8 covariance {@code positionVelocityCovarianceEcef}, in the order of
+   * the solution, e.g. the covariance of a filtered state.
+   */
+  public void setSolution(
+      double[] positionVelocitySolutionEcef, double[][] positionVelocityCovarianceEcef) {
+    setSolution(positionVelocitySolutionEcef);
+    for (int i = 0; i < 8; i++) {
+      System.arraycopy(positionVelocityCovarianceEcef[i], 0, covarianceEcef[i], 0, 8);
+    }
+    covarianceComputed = true;
+  }
+
+  /**
+   * Flags the solution as degraded, i.e. the best estimate available when the solver had to stop
+   * before converging, until the next {@link #clear()}.
+   */
+  public void setDegraded() {
+    degraded = true;
+  }
+
+  /** Returns {@code true} if the solver stopped before converging to the solution. */
+  public boolean isDegraded() {
+    return degraded;
+  }
+
+  /** Returns the number of satellites used in the solution, 0 if there is no solution. */
+  public int getNumberOfSatellites() {
+    return solutionSet ? numberOfSatellites : 0;
+  }
+
+  /**
+   * Returns the geometry matrix row of the satellite {@code index}, the line of sight followed by
+   * 1, which must not be modified.
+   */
+  public double[] getGeometryRow(int index) {
+    return geometry[index];
+  }
+
+  /** Returns the weight of the pseudorange of the satellite {@code index}, in 1 / square meters. */
+  public double getPositionWeight(int index) {
+    return positionWeights[index];
+  }
+
+  /** Returns the ECEF position of the solution in meters, which must not be modified. */
+  public double[] getPositionEcefMeters() {
+    return positionEcefMeters;
+  }
+
+  /**
+   * Fills {@code positionVelocityUncertaintyEnu} with the uncertainty of the position in meters
+   * [0-2] and of the velocity in meters per second [3-5] in the local ENU system, or NaN.
+   */
+  public void getPositionVelocityUncertaintyEnu(double[] positionVelocityUncertaintyEnu) {
+    if (!computeCovariance()) {
+      for (int i = 0; i < 6; i++) {
+        positionVelocityUncertaintyEnu[i] = Double.NaN;
+      }
+      return;
+    }
+    computeRotation();
+    for (int axis = 0; axis < 3; axis++) {
+      positionVelocityUncertaintyEnu[axis] = Math.sqrt(rotateVariance(covarianceEcef, 0, axis));
+      positionVelocityUncertaintyEnu[axis + 3] =
+          Math.sqrt(rotateVariance(covarianceEcef, VELOCITY_STATE, axis));
+    }
+  }
+
+  /**
+   * Fills the 3 x 3 array {@code positionCovarianceEnu} with the covariance of the position in the
+   * local ENU system in square meters, or NaN.
+   */
+  public void getPositionCovarianceEnu(double[][] positionCovarianceEnu) {
+    boolean computed = computeCovariance();
+    if (computed) {
+      computeRotation();
+    }
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        double covariance = Double.NaN;
+        if (computed) {
+          covariance = 0.0;
+          for (int k = 0; k < 3; k++) {
+            for (int l = 0; l < 3; l++) {
+              covariance +=
+                  rotationEcefToEnu[i][k] * covarianceEcef[k][l] * rotationEcefToEnu[j][l];
+            }
+          }
+        }
+        positionCovarianceEnu[i][j] = covariance;
+      }
+    }
+  }
+
+  /** Returns the dilutions of precision of the solution, which are updated in place. */
+  public DilutionOfPrecision getDilutionOfPrecision() {
+    if (!dilutionOfPrecisionComputed) {
+      dilutionOfPrecisionComputed = true;
+      dilutionOfPrecision.clear();
+      if (invertNormalMatrix(unitWeights)) {
+        computeRotation();
+        double east = rotateVariance(inverse, 0, 0);
+        double north = rotateVariance(inverse, 0, 1);
+        double up = rotateVariance(inverse, 0, 2);
+        double time = inverse[3][3];
+        dilutionOfPrecision.geometric = Math.sqrt(east + north + up + time);
+        dilutionOfPrecision.position = Math.sqrt(east + north + up);
+        dilutionOfPrecision.horizontal = Math.sqrt(east + north);
+        dilutionOfPrecision.vertical = Math.sqrt(up);
+        dilutionOfPrecision.time = Math.sqrt(time);
+      }
+    }
+    return dilutionOfPrecision;
+  }
+
+  private void invalidateOutputs() {
+    rotationComputed = false;
+    covarianceComputed = false;
+    dilutionOfPrecisionComputed = false;
+  }
+
+  /**
+   * Computes {@link #covarianceEcef} from the weights if it is not known yet, and returns {@code
+   * false} if it can not be computed.
+   */
+  private boolean computeCovariance() {
+    if (covarianceComputed) {
+      return true;
+    }
+    if (!invertNormalMatrix(positionWeights)) {
+      return false;
+    }
+    for (int i = 0; i < 4; i++) {
+      System.arraycopy(inverse[i], 0, covarianceEcef[i], 0, 4);
+    }
+    if (!invertNormalMatrix(velocityWeights)) {
+      return false;
+    }
+    for (int i = 0; i < 4; i++) {
+      System.arraycopy(inverse[i], 0, covarianceEcef[VELOCITY_STATE + i], VELOCITY_STATE, 4);
+    }
+    covarianceComputed = true;
+    return true;
+  }
+
+  /**
+   * Factorizes the normal matrix of the satellites weighted by {@code weights} and inverts it into
+   * {@link #inverse}. Returns {@code false} if there is no solution or it is not determined.
+   */
+  private boolean invertNormalMatrix(double[] weights) {
+    if (!solutionSet
+        || numberOfSatellites < MINIMUM_NUMBER_OF_SATELLITES
+        || !factorization.factorize(geometry, weights, numberOfSatellites)) {
+      return false;
+    }
+    factorization.computeInverse(inverse);
+    return true;
+  }
+
+  private void computeRotation() {
+    if (rotationComputed) {
+      return;
+    }
+    GeodeticLlaValues lla =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+            positionEcefMeters[0], positionEcefMeters[1], positionEcefMeters[2]);
+    RealMatrix rotation =
+        Ecef2EnuConverter.getRotationMatrix(lla.latitudeRadians, lla.longitudeRadians);
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        rotationEcefToEnu[i][j] = rotation.getEntry(i, j);
+      }
+    }
+    rotationComputed = true;
+  }
+
+  /**
+   * Returns the variance along the ENU axis {@code axis} of the ECEF covariance block of {@code
+   * covariance} starting at row and column {@code firstState}.
+   */
+  private double rotateVariance(double[][] covariance, int firstState, int axis) {
+    double variance = 0.0;
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        variance +=
+            rotationEcefToEnu[axis][i]
+                * covariance[firstState + i][firstState + j]
+                * rotationEcefToEnu[axis][j];
+      }
+    }
+    return variance;
+  }
+}
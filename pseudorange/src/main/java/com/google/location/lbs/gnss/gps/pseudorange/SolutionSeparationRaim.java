@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Solution separation receiver autonomous integrity monitoring (RAIM) with fault detection and
+ * exclusion, under the assumption of at most one faulty satellite at a time.
+ *
+ * <p>For a converged all-in-view weighted least square solution, the N leave-one-out subset
+ * solutions are computed concurrently on a {@link ForkJoinPool}. Each subset reuses the geometry,
+ * weights and residuals of the epoch and the Cholesky factorization of the all-in-view normal
+ * equations, which is downdated with the row of the left out satellite. A fault is detected if the
+ * separation between a subset solution and the all-in-view solution exceeds its threshold on the
+ * east, north or up axis, and the satellite whose subset separates the most is proposed for
+ * exclusion. Horizontal and vertical protection levels bound the position error of the
+ * all-in-view solution.
+ *
+ * <p>Reference: Blanch, J., Walter, T., Enge, P. et al.: 'Baseline Advanced RAIM User Algorithm
+ * and Possible Improvements', IEEE Transactions on Aerospace and Electronic Systems, 2015. The
+ * allocation of the probabilities is simplified to an equal split over the subsets and axes.
+ */
+class SolutionSeparationRaim {
+
+  /** Probability of false alarm per epoch */
+  private static final double PROBABILITY_OF_FALSE_ALARM = 1.0e-5;
+  /** Integrity risk per epoch, i.e. probability of a position error above the protection level */
+  private static final double INTEGRITY_RISK = 1.0e-7;
+  private static final int MINIMUM_NUMBER_OF_SATELLITES_FOR_DETECTION = 5;
+  private static final int MINIMUM_NUMBER_OF_SATELLITES_FOR_EXCLUSION = 6;
+  /** Number of subsets computed sequentially by a leaf task of the fork join pool */
+  private static final int SUBSETS_PER_TASK = 4;
+  private static final int NUMBER_OF_UNKNOWNS = 4;
+  private static final int NUMBER_OF_AXES = 3;
+  private static final NormalDistribution STANDARD_NORMAL_DISTRIBUTION = new NormalDistribution();
+
+  /** Result of the integrity monitoring of an epoch */
+  public static class IntegrityResult {
+    /**
+     * Horizontal protection level (meters): NaN if there are not enough satellites to detect a
+     * fault, infinite if a fault is detected but can not be excluded
+     */
+    public double horizontalProtectionLevelMeters = Double.NaN;
+
+    /** Vertical protection level (meters), NaN or infinite as the horizontal one */
+    public double verticalProtectionLevelMeters = Double.NaN;
+
+    /** {@code true} if a fault was detected at the last check */
+    public boolean faultDetected;
+
+    /** Number of satellites excluded at the epoch */
+    public int numberOfExcludedSatellites;
+
+    /** Resets the result for a new epoch. */
+    public void clear() {
+      horizontalProtectionLevelMeters = Double.NaN;
+      verticalProtectionLevelMeters = Double.NaN;
+      faultDetected = false;
+      numberOfExcludedSatellites = 0;
+    }
+  }
+
+  private final ForkJoinPool forkJoinPool;
+
+  // State of the epoch, shared read only by the subset tasks
+  private double[][] geometry;
+  private double[] weights;
+  private double[] residualsMeters;
+  private final double[][] ecefToEnuRotation = new double[NUMBER_OF_AXES][];
+  private final IncrementalCholeskyFactorization allInViewFactorization =
+      new IncrementalCholeskyFactorization(NUMBER_OF_UNKNOWNS);
+  private final double[] allInViewRightHandSide = new double[NUMBER_OF_UNKNOWNS];
+  private final double[] allInViewSolution = new double[NUMBER_OF_UNKNOWNS];
+  private final double[][] allInViewCovariance = new double[NUMBER_OF_UNKNOWNS][NUMBER_OF_UNKNOWNS];
+  private final double[] allInViewSigmaEnuMeters = new double[NUMBER_OF_AXES];
+
+  // Results per subset, written by the subset tasks
+  private boolean[] subsetObservable = new boolean[0];
+  private double[][] separationEnuMeters = new double[0][];
+  private double[][] separationSigmaEnuMeters = new double[0][];
+  private double[][] subsetSigmaEnuMeters = new double[0][];
+
+  /** Constructor computing the subset solutions on {@code forkJoinPool}. */
+  public SolutionSeparationRaim(ForkJoinPool forkJoinPool) {
+    this.forkJoinPool = forkJoinPool;
+  }
+
+  /**
+   * Checks the consistency of the converged weighted least square solution of {@code
+   * numberOfSatellites} satellites and fills the protection levels and fault detection of {@code
+   * result}.
+   *
+   * @param geometryMatrix geometry matrix of the satellites at the solution
+   * @param weights weight of each satellite, i.e. the diagonal of the weight matrix
+   * @param residualsMeters pseudorange residual of each satellite at the solution
+   * @param numberOfSatellites number of satellites of the solution
+   * @param latitudeRadians latitude of the solution
+   * @param longitudeRadians longitude of the solution
+   * @param result integrity result of the epoch to fill
+   * @return the index of the satellite to exclude, or -1 if no fault is detected or the fault can
+   *     not be excluded
+   */
+  public int checkIntegrity(
+      double[][] geometryMatrix,
+      double[] weights,
+      double[] residualsMeters,
+      int numberOfSatellites,
+      double latitudeRadians,
+      double longitudeRadians,
+      IntegrityResult result) {
+    result.faultDetected = false;
+    result.horizontalProtectionLevelMeters = Double.NaN;
+    result.verticalProtectionLevelMeters = Double.NaN;
+    if (numberOfSatellites < MINIMUM_NUMBER_OF_SATELLITES_FOR_DETECTION
+        || !allInViewFactorization.factorize(geometryMatrix, weights, numberOfSatellites)) {
+      return -1;
+    }
+    this.geometry = geometryMatrix;
+    this.weights = weights;
+    this.residualsMeters = residualsMeters;
+    RealMatrix rotation = Ecef2EnuConverter.getRotationMatrix(latitudeRadians, longitudeRadians);
+    for (int axis = 0; axis < NUMBER_OF_AXES; axis++) {
+      ecefToEnuRotation[axis] = rotation.getRow(axis);
+    }
+
+    // All-in-view solution, relative to the linearization point
+    for (int j = 0; j < NUMBER_OF_UNKNOWNS; j++) {
+      allInViewRightHandSide[j] = 0.0;
+      for (int i = 0; i < numberOfSatellites; i++) {
+        allInViewRightHandSide[j] += weights[i] * residualsMeters[i] * geometryMatrix[i][j];
+      }
+    }
+    allInViewFactorization.solve(allInViewRightHandSide, allInViewSolution);
+    allInViewFactorization.computeInverse(allInViewCovariance);
+    for (int axis = 0; axis < NUMBER_OF_AXES; axis++) {
+      allInViewSigmaEnuMeters[axis] =
+          Math.sqrt(rotatedVariance(ecefToEnuRotation[axis], allInViewCovariance));
+    }
+
+    ensureSubsetCapacity(numberOfSatellites);
+    forkJoinPool.invoke(new SubsetTask(this, 0, numberOfSatellites));
+
+    // Detection thresholds: two sided tests on each axis of each subset
+    double falseAlarmMultiplier =
+        inverseTailProbability(
+            PROBABILITY_OF_FALSE_ALARM / (2.0 * NUMBER_OF_AXES * numberOfSatellites));
+    double missedDetectionMultiplier =
+        inverseTailProbability(INTEGRITY_RISK / (2.0 * NUMBER_OF_AXES * (numberOfSatellites + 1)));
+    double[] protectionLevelsEnuMeters = new double[NUMBER_OF_AXES];
+    for (int axis = 0; axis < NUMBER_OF_AXES; axis++) {
+      protectionLevelsEnuMeters[axis] = missedDetectionMultiplier * allInViewSigmaEnuMeters[axis];
+    }
+    int exclusionCandidate = -1;
+    double largestTestRatio = 1.0;
+    for (int k = 0; k < numberOfSatellites; k++) {
+      if (!subsetObservable[k]) {
+        // A fault on this satellite could not be detected
+        for (int axis = 0; axis < NUMBER_OF_AXES; axis++) {
+          protectionLevelsEnuMeters[axis] = Double.POSITIVE_INFINITY;
+        }
+        continue;
+      }
+      for (int axis = 0; axis < NUMBER_OF_AXES; axis++) {
+        double thresholdMeters = falseAlarmMultiplier * separationSigmaEnuMeters[k][axis];
+        double testRatio = Math.abs(separationEnuMeters[k][axis]) / thresholdMeters;
+        if (testRatio > largestTestRatio) {
+          largestTestRatio = testRatio;
+          exclusionCandidate = k;
+        }
+        protectionLevelsEnuMeters[axis] =
+            Math.max(
+                protectionLevelsEnuMeters[axis],
+                thresholdMeters + missedDetectionMultiplier * subsetSigmaEnuMeters[k][axis]);
+      }
+    }
+
+    if (exclusionCandidate >= 0) {
+      result.faultDetected = true;
+      if (numberOfSatellites < MINIMUM_NUMBER_OF_SATELLITES_FOR_EXCLUSION) {
+        result.horizontalProtectionLevelMeters = Double.POSITIVE_INFINITY;
+        result.verticalProtectionLevelMeters = Double.POSITIVE_INFINITY;
+        return -1;
+      }
+      return exclusionCandidate;
+    }
+    result.horizontalProtectionLevelMeters =
+        Math.hypot(protectionLevelsEnuMeters[0], protectionLevelsEnuMeters[1]);
+    result.verticalProtectionLevelMeters = protectionLevelsEnuMeters[2];
+    return -1;
+  }
+
+  /** Computes the subset solution without the satellite {@code k} and its separation. */
+  private void computeSubset(
+      int k,
+      IncrementalCholeskyFactorization factorization,
+      double[] rightHandSide,
+      double[] solution,
+      double[][] covariance) {
+    factorization.copyFrom(allInViewFactorization);
+    if (!factorization.downdate(geometry[k], weights[k])) {
+      subsetObservable[k] = false;
+      return;
+    }
+    for (int j = 0; j < NUMBER_OF_UNKNOWNS; j++) {
+      rightHandSide[j] =
+          allInViewRightHandSide[j] - weights[k] * residualsMeters[k] * geometry[k][j];
+    }
+    factorization.solve(rightHandSide, solution);
+    factorization.computeInverse(covariance);
+    for (int axis = 0; axis < NUMBER_OF_AXES; axis++) {
+      double[] rotationRow = ecefToEnuRotation[axis];
+      double separationMeters = 0.0;
+      for (int j = 0; j < NUMBER_OF_AXES; j++) {
+        separationMeters += rotationRow[j] * (solution[j] - allInViewSolution[j]);
+      }
+      double subsetVariance = rotatedVariance(rotationRow, covariance);
+      double allInViewVariance = allInViewSigmaEnuMeters[axis] * allInViewSigmaEnuMeters[axis];
+      separationEnuMeters[k][axis] = separationMeters;
+      subsetSigmaEnuMeters[k][axis] = Math.sqrt(subsetVariance);
+      separationSigmaEnuMeters[k][axis] =
+          Math.sqrt(Math.max(subsetVariance - allInViewVariance, 0.0));
+    }
+    subsetObservable[k] = true;
+  }
+
+  /** Returns the variance along {@code rotationRow} of the position block of {@code covariance} */
+  private static double rotatedVariance(double[] rotationRow, double[][] covariance) {
+    double variance = 0.0;
+    for (int i = 0; i < NUMBER_OF_AXES; i++) {
+      for (int j = 0; j < NUMBER_OF_AXES; j++) {
+        variance += rotationRow[i] * covariance[i][j] * rotationRow[j];
+      }
+    }
+    return variance;
+  }
+
+  /** Returns the multiplier of the standard deviation with a tail probability {@code p} */
+  private static double inverseTailProbability(double p) {
+    return STANDARD_NORMAL_DISTRIBUTION.inverseCumulativeProbability(1.0 - p);
+  }
+
+  private void ensureSubsetCapacity(int numberOfSatellites) {
+    if (subsetObservable.length >= numberOfSatellites) {
+      return;
+    }
+    subsetObservable = new boolean[numberOfSatellites];
+    separationEnuMeters = new double[numberOfSatellites][NUMBER_OF_AXES];
+    separationSigmaEnuMeters = new double[numberOfSatellites][NUMBER_OF_AXES];
+    subsetSigmaEnuMeters = new double[numberOfSatellites][NUMBER_OF_AXES];
+  }
+
+  /** Computes the subsets from {@code from} to {@code to}, splitting the range among workers */
+  private static final class SubsetTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient SolutionSeparationRaim raim;
+    private final int from;
+    private final int to;
+
+    SubsetTask(SolutionSeparationRaim raim, int from, int to) {
+      this.raim = raim;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > SUBSETS_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new SubsetTask(raim, from, middle), new SubsetTask(raim, middle, to));
+        return;
+      }
+      IncrementalCholeskyFactorization factorization =
+          new IncrementalCholeskyFactorization(NUMBER_OF_UNKNOWNS);
+      double[] rightHandSide = new double[NUMBER_OF_UNKNOWNS];
+      double[] solution = new double[NUMBER_OF_UNKNOWNS];
+      double[][] covariance = new double[NUMBER_OF_UNKNOWNS][NUMBER_OF_UNKNOWNS];
+      for (int k = from; k < to; k++) {
+        raim.computeSubset(k, factorization, rightHandSide, solution, covariance);
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.LUDecomposition;
+
+/**
+ * Least square position of a receiver that does not move, accumulating the normal equations of the
+ * pseudoranges of all the epochs, with a clock bias per epoch.
+ *
+ * <p>The pseudoranges of an epoch are linearized around a reference position, the first solution,
+ * as y = G * dx + b with G the lines of sight, dx the position relative to the reference and b the
+ * clock bias of the epoch. The clock bias is eliminated from the normal equations of the epoch
+ * with its Schur complement, giving the 3 x 3 information matrix
+ *
+ * <p>N = G^T * W * G - (G^T * W * 1) * (1^T * W * G) / (1^T * W * 1)
+ *
+ * <p>and the information vector u = N * dx_k, where dx_k is the least square solution of the
+ * epoch: its residuals are orthogonal to the columns of G and 1 and do not contribute to u. Both
+ * are summed over the epochs in O(n) per epoch for n satellites, and the static position solves
+ * the accumulated 3 x 3 system when requested, without solving the previous epochs again. This
+ * weights each epoch by its geometry and pseudorange weights, unlike an average of the solutions.
+ *
+ * <p>Reference: Global Positioning System: Signals, Measurements, and Performance by Pratap Misra,
+ * Per Enge, Page 206 - 209.
+ */
+class StaticReceiverNormalEquations {
+  private static final int MINIMUM_NUMBER_OF_SATELLITES = 4;
+
+  private int numberOfEpochs = 0;
+  private final double[] referencePositionEcefMeters = new double[3];
+  private final double[][] information = new double[3][3];
+  private final double[] informationVector = new double[3];
+
+  // Scratch arrays of an epoch
+  private final double[][] epochInformation = new double[3][3];
+  private final double[] weightedLineOfSight = new double[3];
+  private final double[] deltaPositionMeters = new double[3];
+
+  // Static position, solved on demand and cached until the next epoch
+  private boolean solved = false;
+  private boolean solvable = false;
+  private final double[] positionEcefMeters = new double[3];
+
+  /** Forgets all the epochs, the reference position is the solution of the next one. */
+  public void reset() {
+    numberOfEpochs = 0;
+    for (int i = 0; i < 3; i++) {
+      informationVector[i] = 0.0;
+      for (int j = 0; j < 3; j++) {
+        information[i][j] = 0.0;
+      }
+    }
+    solved = false;
+  }
+
+  /** Returns the number of epochs accumulated since the last {@link #reset()}. */
+  public int getNumberOfEpochs() {
+    return numberOfEpochs;
+  }
+
+  /**
+   * Adds the normal equations of the solution of {@code solutionQuality}. Returns {@code false},
+   * adding nothing, if the solution does not have enough satellites.
+   */
+  public boolean addEpoch(SolutionQuality solutionQuality) {
+    int numberOfSatellites = solutionQuality.getNumberOfSatellites();
+    if (numberOfSatellites < MINIMUM_NUMBER_OF_SATELLITES) {
+      return false;
+    }
+    double[] solutionEcefMeters = solutionQuality.getPositionEcefMeters();
+    if (numberOfEpochs == 0) {
+      System.arraycopy(solutionEcefMeters, 0, referencePositionEcefMeters, 0, 3);
+    }
+
+    // G^T * W * G, G^T * W * 1 and 1^T * W * 1 of the position and clock bias
+    double sumOfWeights = 0.0;
+    for (int i = 0; i < 3; i++) {
+      weightedLineOfSight[i] = 0.0;
+      for (int j = 0; j <= i; j++) {
+        epochInformation[i][j] = 0.0;
+      }
+    }
+    for (int k = 0; k < numberOfSatellites; k++) {
+      double[] lineOfSight = solutionQuality.getGeometryRow(k);
+      double weight = solutionQuality.getPositionWeight(k);
+      sumOfWeights += weight;
+      for (int i = 0; i < 3; i++) {
+        weightedLineOfSight[i] += weight * lineOfSight[i];
+        for (int j = 0; j <= i; j++) {
+          epochInformation[i][j] += weight * lineOfSight[i] * lineOfSight[j];
+        }
+      }
+    }
+
+    // Eliminate the clock bias, then accumulate N and N * dx_k
+    for (int i = 0; i < 3; i++) {
+      deltaPositionMeters[i] = solutionEcefMeters[i] - referencePositionEcefMeters[i];
+      for (int j = 0; j <= i; j++) {
+        epochInformation[i][j] -= weightedLineOfSight[i] * weightedLineOfSight[j] / sumOfWeights;
+        epochInformation[j][i] = epochInformation[i][j];
+      }
+    }
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        information[i][j] += epochInformation[i][j];
+        informationVector[i] += epochInformation[i][j] * deltaPositionMeters[j];
+      }
+    }
+    numberOfEpochs++;
+    solved = false;
+    return true;
+  }
+
+  /**
+   * Fills {@code positionEcefMeters} with the static position of the accumulated epochs in ECEF
+   * meters. Returns {@code false}, leaving it unchanged, if no epoch was accumulated or their
+   * geometry does not determine the position.
+   */
+  public boolean getPositionEcefMeters(double[] positionEcefMeters) {
+    if (!solved) {
+      solved = true;
+      solvable = solve();
+    }
+    if (solvable) {
+      System.arraycopy(this.positionEcefMeters, 0, positionEcefMeters, 0, 3);
+    }
+    return solvable;
+  }
+
+  private boolean solve() {
+    if (numberOfEpochs == 0) {
+      return false;
+    }
+    DecompositionSolver solver =
+        new LUDecomposition(new Array2DRowRealMatrix(information, false)).getSolver();
+    if (!solver.isNonSingular()) {
+      return false;
+    }
+    double[] delta = solver.solve(new ArrayRealVector(informationVector, false)).toArray();
+    for (int i = 0; i < 3; i++) {
+      positionEcefMeters[i] = referencePositionEcefMeters[i] + delta[i];
+    }
+    return true;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.location.cts.suplClient.SuplRrlpController;
+import java.io.IOException;
+
+/** A {@link NavMessageSource} reading the navigation message from a SUPL server over RRLP. */
+public class SuplNavMessageSource implements NavMessageSource {
+
+  private final String suplServerName;
+  private final int suplServerPort;
+
+  /** Constructor with the host name and port of the SUPL server */
+  public SuplNavMessageSource(String suplServerName, int suplServerPort) {
+    this.suplServerName = suplServerName;
+    this.suplServerPort = suplServerPort;
+  }
+
+  @Override
+  public GpsNavMessageProto fetchNavMessage(long latE7, long lngE7) throws IOException {
+    SuplRrlpController suplRrlpController =
+        new SuplRrlpController(suplServerName, suplServerPort);
+    return suplRrlpController.generateNavMessage(latE7, lngE7);
+  }
+}
@@ -117,25 +117,73 @@ public class TroposphericModelEgnos {
       double userLatitudeRadian,
       double heightMetersAboveSeaLevel,
       int dayOfYear1To366) {
+    return calculateTropoCorrectionMeters(
+        satElevationRadians,
+        calculateReceiverTerms(userLatitudeRadian, heightMetersAboveSeaLevel, dayOfYear1To366));
+  }
+
+  /**
+   * Computes the tropospheric correction in meters given the satellite elevation in radians and the
+   * {@link ReceiverTerms} previously computed for the user location and day of the year.
+   *
+   * <p>Only the elevation dependent part of the mapping functions is evaluated here, which allows
+   * computing the receiver dependent terms once and reusing them for all visible satellites.
+   */
+  public static double calculateTropoCorrectionMeters(
+      double satElevationRadians, ReceiverTerms receiverTerms) {
     DryAndWetMappingValues dryAndWetMappingValues =
-        computeDryAndWetMappingValuesUsingUNBabcMappingFunction(
-            satElevationRadians, userLatitudeRadian, heightMetersAboveSeaLevel);
-    DryAndWetZenithDelays dryAndWetZenithDelays =
-        calculateZenithDryAndWetDelaysSec(
-            userLatitudeRadian, heightMetersAboveSeaLevel, dayOfYear1To366);
+        computeDryAndWetMappingValuesUsingUNBabcMappingFunction(satElevationRadians, receiverTerms);
 
     double drydelaySeconds =
-        dryAndWetZenithDelays.dryZenithDelaySec * dryAndWetMappingValues.dryMappingValue;
+        receiverTerms.dryZenithDelaySec * dryAndWetMappingValues.dryMappingValue;
     double wetdelaySeconds =
-        dryAndWetZenithDelays.wetZenithDelaySec * dryAndWetMappingValues.wetMappingValue;
+        receiverTerms.wetZenithDelaySec * dryAndWetMappingValues.wetMappingValue;
     return drydelaySeconds + wetdelaySeconds;
   }
 
+  /**
+   * Computes the terms of the model that depend only on the user latitude in radians, the user
+   * orthometric height above sea level in meters and the day of the year: the dry and wet zenith
+   * delays and the elevation independent coefficients of the UNBabc mapping functions.
+   */
+  public static ReceiverTerms calculateReceiverTerms(
+      double userLatitudeRadians, double heightMetersAboveSeaLevel, int dayOfYear1To366) {
+    DryAndWetZenithDelays dryAndWetZenithDelays =
+        calculateZenithDryAndWetDelaysSec(
+            userLatitudeRadians, heightMetersAboveSeaLevel, dayOfYear1To366);
+
+    // dry components mapping parameters
+    double aHydrostatic =
+        (1.18972
+                - 0.026855 * heightMetersAboveSeaLevel / 1000.0
+                + 0.10664 * Math.cos(userLatitudeRadians))
+            / 1000.0;
+    double numeratorDry = 1.0 + (aHydrostatic / (1.0 + (B_HYDROSTATIC / (1.0 + C_HYDROSTATIC))));
+
+    // wet components mapping parameters
+    double aNonHydrostatic =
+        (0.61120
+                - 0.035348 * heightMetersAboveSeaLevel / 1000.0
+                - 0.01526 * Math.cos(userLatitudeRadians))
+            / 1000.0;
+    double numeratorWet =
+        1.0 + (aNonHydrostatic / (1.0 + (B_NON_HYDROSTATIC / (1.0 + C_NON_HYDROSTATIC))));
+
+    return new ReceiverTerms(
+        dryAndWetZenithDelays.dryZenithDelaySec,
+        dryAndWetZenithDelays.wetZenithDelaySec,
+        aHydrostatic,
+        numeratorDry,
+        aNonHydrostatic,
+        numeratorWet);
+  }
+
   /**
    * Computes the dry and wet mapping values based on the University of Brunswick UNBabc model. The
-   * mapping function inputs are satellite elevation in radians, user latitude in radians and user
-   * orthometric height above sea level in meters. The function returns {@code
-   * DryAndWetMappingValues} containing dry and wet mapping values.
+   * mapping function inputs are satellite elevation in radians and the {@link ReceiverTerms}
+   * holding the mapping coefficients computed from the user latitude and orthometric height above
+   * sea level. The function returns {@code DryAndWetMappingValues} containing dry and wet mapping
+   * values.
    *
    * <p>From the many dry and wet mapping functions of components of the troposphere, the method
    * from the University of Brunswick in Canada was selected due to its reasonable computation time
@@ -144,7 +192,7 @@ public class TroposphericModelEgnos {
    * <p>Source: http://gauss2.gge.unb.ca/papers.pdf/iongpsgnss2003.guo.pdf
    */
   private static DryAndWetMappingValues computeDryAndWetMappingValuesUsingUNBabcMappingFunction(
-      double satElevationRadians, double userLatitudeRadians, double heightMetersAboveSeaLevel) {
+      double satElevationRadians, ReceiverTerms receiverTerms) {
 
     if (satElevationRadians > Math.PI / 2.0) {
       satElevationRadians = Math.PI / 2.0;
@@ -152,38 +200,21 @@ public class TroposphericModelEgnos {
       satElevationRadians = Math.toRadians(2.0);
     }
 
-    // dry components mapping parameters
-    double aHydrostatic =
-        (1.18972
-                - 0.026855 * heightMetersAboveSeaLevel / 1000.0
-                + 0.10664 * Math.cos(userLatitudeRadians))
-            / 1000.0;
-
-    double numeratorDry = 1.0 + (aHydrostatic / (1.0 + (B_HYDROSTATIC / (1.0 + C_HYDROSTATIC))));
     double denominatorDry =
         Math.sin(satElevationRadians)
-            + (aHydrostatic
+            + (receiverTerms.aHydrostatic
                 / (Math.sin(satElevationRadians)
                     + (B_HYDROSTATIC / (Math.sin(satElevationRadians) + C_HYDROSTATIC))));
 
-    double drymap = numeratorDry / denominatorDry;
-
-    // wet components mapping parameters
-    double aNonHydrostatic =
-        (0.61120
-                - 0.035348 * heightMetersAboveSeaLevel / 1000.0
-                - 0.01526 * Math.cos(userLatitudeRadians))
-            / 1000.0;
+    double drymap = receiverTerms.numeratorDry / denominatorDry;
 
-    double numeratorWet =
-        1.0 + (aNonHydrostatic / (1.0 + (B_NON_HYDROSTATIC / (1.0 + C_NON_HYDROSTATIC))));
     double denominatorWet =
         Math.sin(satElevationRadians)
-            + (aNonHydrostatic
+            + (receiverTerms.aNonHydrostatic
                 / (Math.sin(satElevationRadians)
                     + (B_NON_HYDROSTATIC / (Math.sin(satElevationRadians) + C_NON_HYDROSTATIC))));
 
-    double wetmap = numeratorWet / denominatorWet;
+    double wetmap = receiverTerms.numeratorWet / denominatorWet;
     return new DryAndWetMappingValues(drymap, wetmap);
   }
 
@@ -391,4 +422,33 @@ public class TroposphericModelEgnos {
       this.wetZenithDelaySec = wetZenithDelay;
     }
   }
+
+  /**
+   * A class containing the terms of the model that depend only on the receiver location and the day
+   * of the year: dry and wet delays experienced at zenith and the elevation independent
+   * coefficients of the dry and wet mapping functions.
+   */
+  public static class ReceiverTerms {
+    final double dryZenithDelaySec;
+    final double wetZenithDelaySec;
+    final double aHydrostatic;
+    final double numeratorDry;
+    final double aNonHydrostatic;
+    final double numeratorWet;
+
+    private ReceiverTerms(
+        double dryZenithDelaySec,
+        double wetZenithDelaySec,
+        double aHydrostatic,
+        double numeratorDry,
+        double aNonHydrostatic,
+        double numeratorWet) {
+      this.dryZenithDelaySec = dryZenithDelaySec;
+      this.wetZenithDelaySec = wetZenithDelaySec;
+      this.aHydrostatic = aHydrostatic;
+      this.numeratorDry = numeratorDry;
+      this.aNonHydrostatic = aNonHydrostatic;
+      this.numeratorWet = numeratorWet;
+    }
+  }
 }
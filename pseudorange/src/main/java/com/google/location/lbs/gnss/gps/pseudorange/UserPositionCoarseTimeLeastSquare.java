@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.LUDecomposition;
+
+/**
+ * Computes a coarse time receiver position from the sub-millisecond part of the received satellite
+ * times, before the time of week (TOW) of the satellites is decoded.
+ *
+ * <p>With only code lock, the received satellite time is known modulo the 1 millisecond period of
+ * the C/A code, so the pseudoranges are known modulo about 300 kilometers. The whole milliseconds
+ * of each pseudorange are resolved from the ranges predicted at a reference position and an
+ * approximate time: relative to the satellite with the highest elevation, whose millisecond only
+ * shifts the clock bias, they are correct as long as the errors of the predicted ranges differ by
+ * less than half a millisecond, i.e. within about a hundred kilometers of the reference position
+ * and a minute of the approximate time.
+ *
+ * <p>The error of the approximate time moves the satellites by up to 800 meters per second along
+ * their lines of sight, so it is solved as a fifth state besides the position and clock bias, with
+ * the range rate of each satellite as its partial derivative, which needs at least 5 satellites.
+ * The atmospheric corrections are not applied to this coarse solution.
+ *
+ * <p>Reference: A-GPS: Assisted GPS, GNSS, and SBAS by Frank van Diggelen, Chapter 4, Coarse-Time
+ * Navigation.
+ */
+class UserPositionCoarseTimeLeastSquare {
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final int SECONDS_IN_WEEK = 604800;
+  private static final double SECONDS_PER_NANO = 1.0e-9;
+  private static final long NANOS_PER_MILLISECOND = 1000000L;
+  /** Length of the pseudorange ambiguity, the distance traveled in a C/A code period */
+  private static final double MILLISECOND_METERS = 1.0e-3 * SPEED_OF_LIGHT_MPS;
+  private static final double AVERAGE_TRAVEL_TIME_SECONDS = 70.0e-3;
+  /** Position, clock bias and coarse time error */
+  private static final int NUMBER_OF_STATES = 5;
+  public static final int MINIMUM_NUMBER_OF_SATELLITES = NUMBER_OF_STATES;
+  private static final int MAXIMUM_NUMBER_OF_ITERATIONS = 20;
+  private static final double POSITION_TOLERANCE_METERS = 1.0e-3;
+  private static final double TIME_TOLERANCE_SECONDS = 1.0e-6;
+  /**
+   * Largest residual of the solution, far above the unmodelled atmospheric delays but far below
+   * the residuals left by a wrongly resolved millisecond
+   */
+  private static final double MAXIMUM_RESIDUAL_METERS = 1000.0;
+  private static final int SIZE = GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS;
+
+  // Satellites of the epoch, indexed by the satellites with an ephemeris
+  private int numberOfSatellites = 0;
+  private final GpsEphemerisProto[] ephemerides = new GpsEphemerisProto[SIZE];
+  private final double[] pseudorangesMeters = new double[SIZE];
+  private final double[] weights = new double[SIZE];
+  // Geometry rows [-line of sight, 1, range rate] and residuals at the current estimate
+  private final double[][] geometryRows = new double[SIZE][NUMBER_OF_STATES];
+  private final double[] residualsMeters = new double[SIZE];
+  private final double[][] normalMatrix = new double[NUMBER_OF_STATES][NUMBER_OF_STATES];
+  private final double[] normalVector = new double[NUMBER_OF_STATES];
+
+  /**
+   * Computes the coarse time solution of an epoch.
+   *
+   * @param navMessageProto parameters of the navigation message
+   * @param measurements {@link GpsEpochMeasurements} of the satellites with code lock, with their
+   *     pseudorange uncertainties. Only the received satellite times modulo 1 millisecond are used,
+   *     and the satellites without ephemeris are ignored. The measurements are not modified.
+   * @param approximateReceiverGpsTowSeconds Approximate GPS time of week of the reception (seconds)
+   * @param receiverGpsWeek GPS week of the reception (0-1024+)
+   * @param referencePositionEcefMeters Reference position of the receiver in ECEF meters
+   * @param positionClockTimeSolutionEcef Solution array of the following format: [0-2] xyz solution
+   *     of user. [3] clock bias of user in meters. [4] error of the approximate time in seconds, to
+   *     add to {@code approximateReceiverGpsTowSeconds}. Left unchanged if there is no solution.
+   * @return {@code true} if a solution was computed, {@code false} if there are not enough
+   *     satellites, or if the least square did not converge or left a large residual, e.g. because
+   *     the reference position or the approximate time are too far off
+   */
+  public boolean calculateUserPositionCoarseTime(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements measurements,
+      double approximateReceiverGpsTowSeconds,
+      int receiverGpsWeek,
+      double[] referencePositionEcefMeters,
+      double[] positionClockTimeSolutionEcef)
+      throws Exception {
+    double[] solution = new double[NUMBER_OF_STATES];
+    System.arraycopy(referencePositionEcefMeters, 0, solution, 0, 3);
+    solution[3] =
+        resolveMilliseconds(
+            navMessageProto,
+            measurements,
+            approximateReceiverGpsTowSeconds,
+            receiverGpsWeek,
+            referencePositionEcefMeters);
+    if (numberOfSatellites < MINIMUM_NUMBER_OF_SATELLITES) {
+      return false;
+    }
+
+    boolean converged = false;
+    for (int iteration = 0; iteration < MAXIMUM_NUMBER_OF_ITERATIONS && !converged; iteration++) {
+      calculateResiduals(approximateReceiverGpsTowSeconds, receiverGpsWeek, solution);
+      double[] delta = solveNormalEquations();
+      if (delta == null) {
+        return false;
+      }
+      for (int i = 0; i < NUMBER_OF_STATES; i++) {
+        solution[i] += delta[i];
+      }
+      converged =
+          Math.abs(delta[0]) + Math.abs(delta[1]) + Math.abs(delta[2]) < POSITION_TOLERANCE_METERS
+              && Math.abs(delta[4]) < TIME_TOLERANCE_SECONDS;
+    }
+    if (!converged) {
+      return false;
+    }
+    calculateResiduals(approximateReceiverGpsTowSeconds, receiverGpsWeek, solution);
+    for (int k = 0; k < numberOfSatellites; k++) {
+      if (Math.abs(residualsMeters[k]) > MAXIMUM_RESIDUAL_METERS) {
+        return false;
+      }
+    }
+    System.arraycopy(solution, 0, positionClockTimeSolutionEcef, 0, NUMBER_OF_STATES);
+    return true;
+  }
+
+  /**
+   * Fills {@link #pseudorangesMeters} with the pseudoranges of the satellites with an ephemeris,
+   * their whole milliseconds resolved from the ranges predicted at the reference position and
+   * approximate time, and returns the clock bias in meters they share with the predicted ranges.
+   */
+  private double resolveMilliseconds(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements measurements,
+      double approximateReceiverGpsTowSeconds,
+      int receiverGpsWeek,
+      double[] referencePositionEcefMeters)
+      throws Exception {
+    double referenceRadiusMeters = GpsMathOperations.vectorNorm(referencePositionEcefMeters);
+    double transmitTowSeconds = approximateReceiverGpsTowSeconds - AVERAGE_TRAVEL_TIME_SECONDS;
+    int transmitWeek = receiverGpsWeek;
+    if (transmitTowSeconds < 0.0) {
+      transmitTowSeconds += SECONDS_IN_WEEK;
+      transmitWeek--;
+    }
+    long receptionTimeNanos =
+        Math.round(approximateReceiverGpsTowSeconds / SECONDS_PER_NANO) % NANOS_PER_MILLISECOND;
+
+    // Sub-millisecond pseudoranges, and whole milliseconds of the predicted ranges relative to
+    // them, kept in residualsMeters meanwhile
+    numberOfSatellites = 0;
+    int referenceSatellite = -1;
+    double highestSineElevation = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < measurements.getNumberOfSlots(); i++) {
+      if (!measurements.isValid(i)) {
+        continue;
+      }
+      GpsEphemerisProto ephemeris =
+          getEphemerisForSatellite(
+              navMessageProto, SatelliteKey.getSvid(measurements.satelliteKeys[i]));
+      if (ephemeris == null) {
+        continue;
+      }
+      PositionAndVelocity satellitePositionAndVelocity =
+          SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+              ephemeris,
+              transmitTowSeconds,
+              transmitWeek,
+              referencePositionEcefMeters[0],
+              referencePositionEcefMeters[1],
+              referencePositionEcefMeters[2]);
+      double satelliteClockCorrectionMeters =
+          SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+                  ephemeris, transmitTowSeconds, transmitWeek)
+              .satelliteClockCorrectionMeters;
+      double[] lineOfSight = {
+        satellitePositionAndVelocity.positionXMeters - referencePositionEcefMeters[0],
+        satellitePositionAndVelocity.positionYMeters - referencePositionEcefMeters[1],
+        satellitePositionAndVelocity.positionZMeters - referencePositionEcefMeters[2]
+      };
+      double rangeMeters = GpsMathOperations.vectorNorm(lineOfSight);
+      double sineElevation =
+          (lineOfSight[0] * referencePositionEcefMeters[0]
+                  + lineOfSight[1] * referencePositionEcefMeters[1]
+                  + lineOfSight[2] * referencePositionEcefMeters[2])
+              / (rangeMeters * referenceRadiusMeters);
+
+      long subMillisecondNanos =
+          Math.floorMod(
+              receptionTimeNanos - measurements.receivedSvTimeNs[i], NANOS_PER_MILLISECOND);
+      double subMillisecondPseudorangeMeters =
+          subMillisecondNanos * SECONDS_PER_NANO * SPEED_OF_LIGHT_MPS;
+      double predictedPseudorangeMeters = rangeMeters - satelliteClockCorrectionMeters;
+
+      ephemerides[numberOfSatellites] = ephemeris;
+      pseudorangesMeters[numberOfSatellites] = subMillisecondPseudorangeMeters;
+      residualsMeters[numberOfSatellites] =
+          (predictedPseudorangeMeters - subMillisecondPseudorangeMeters) / MILLISECOND_METERS;
+      double sigmaMeters = measurements.pseudorangeUncertaintyMeters[i];
+      weights[numberOfSatellites] = 1.0 / (sigmaMeters * sigmaMeters);
+      if (sineElevation > highestSineElevation) {
+        highestSineElevation = sineElevation;
+        referenceSatellite = numberOfSatellites;
+      }
+      numberOfSatellites++;
+    }
+    if (numberOfSatellites == 0) {
+      return 0.0;
+    }
+
+    // The fraction of millisecond of the reference satellite is the clock bias, common to all the
+    // satellites, and the remaining whole milliseconds are rounded
+    double referenceMilliseconds = residualsMeters[referenceSatellite];
+    double clockBiasMilliseconds = Math.rint(referenceMilliseconds) - referenceMilliseconds;
+    for (int k = 0; k < numberOfSatellites; k++) {
+      pseudorangesMeters[k] +=
+          Math.rint(residualsMeters[k] + clockBiasMilliseconds) * MILLISECOND_METERS;
+    }
+    return clockBiasMilliseconds * MILLISECOND_METERS;
+  }
+
+  /**
+   * Fills {@link #geometryRows} and {@link #residualsMeters} at the estimate {@code solution} of
+   * the position, clock bias and time error.
+   */
+  private void calculateResiduals(
+      double approximateReceiverGpsTowSeconds, int receiverGpsWeek, double[] solution)
+      throws Exception {
+    double receiverGpsTowSeconds = approximateReceiverGpsTowSeconds + solution[4];
+    for (int k = 0; k < numberOfSatellites; k++) {
+      GpsEphemerisProto ephemeris = ephemerides[k];
+      double transmitTowSeconds =
+          receiverGpsTowSeconds - (pseudorangesMeters[k] - solution[3]) / SPEED_OF_LIGHT_MPS;
+      int transmitWeek = receiverGpsWeek;
+      if (transmitTowSeconds < 0.0) {
+        transmitTowSeconds += SECONDS_IN_WEEK;
+        transmitWeek--;
+      } else if (transmitTowSeconds > SECONDS_IN_WEEK) {
+        transmitTowSeconds -= SECONDS_IN_WEEK;
+        transmitWeek++;
+      }
+      double satelliteClockCorrectionMeters =
+          SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+                  ephemeris, transmitTowSeconds, transmitWeek)
+              .satelliteClockCorrectionMeters;
+      PositionAndVelocity satellitePositionAndVelocity =
+          SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+              ephemeris,
+              transmitTowSeconds + satelliteClockCorrectionMeters / SPEED_OF_LIGHT_MPS,
+              transmitWeek,
+              solution[0],
+              solution[1],
+              solution[2]);
+      double[] lineOfSight = {
+        satellitePositionAndVelocity.positionXMeters - solution[0],
+        satellitePositionAndVelocity.positionYMeters - solution[1],
+        satellitePositionAndVelocity.positionZMeters - solution[2]
+      };
+      double rangeMeters = GpsMathOperations.vectorNorm(lineOfSight);
+      double[] geometryRow = geometryRows[k];
+      for (int axis = 0; axis < 3; axis++) {
+        geometryRow[axis] = -lineOfSight[axis] / rangeMeters;
+      }
+      geometryRow[3] = 1.0;
+      // The satellite moves along the line of sight at its range rate as the time advances
+      geometryRow[4] =
+          -(geometryRow[0] * satellitePositionAndVelocity.velocityXMetersPerSec
+              + geometryRow[1] * satellitePositionAndVelocity.velocityYMetersPerSec
+              + geometryRow[2] * satellitePositionAndVelocity.velocityZMetersPerSec);
+      residualsMeters[k] =
+          pseudorangesMeters[k] - (rangeMeters - satelliteClockCorrectionMeters + solution[3]);
+    }
+  }
+
+  /**
+   * Solves the weighted normal equations of {@link #geometryRows} and {@link #residualsMeters}.
+   * Returns the correction of the solution, or {@code null} if the geometry is singular.
+   */
+  private double[] solveNormalEquations() {
+    for (int i = 0; i < NUMBER_OF_STATES; i++) {
+      normalVector[i] = 0.0;
+      for (int j = 0; j < NUMBER_OF_STATES; j++) {
+        normalMatrix[i][j] = 0.0;
+      }
+    }
+    for (int k = 0; k < numberOfSatellites; k++) {
+      double[] geometryRow = geometryRows[k];
+      for (int i = 0; i < NUMBER_OF_STATES; i++) {
+        double weightedEntry = weights[k] * geometryRow[i];
+        normalVector[i] += weightedEntry * residualsMeters[k];
+        for (int j = 0; j < NUMBER_OF_STATES; j++) {
+          normalMatrix[i][j] += weightedEntry * geometryRow[j];
+        }
+      }
+    }
+    DecompositionSolver solver =
+        new LUDecomposition(new Array2DRowRealMatrix(normalMatrix, false)).getSolver();
+    if (!solver.isNonSingular()) {
+      return null;
+    }
+    return solver.solve(new ArrayRealVector(normalVector, false)).toArray();
+  }
+
+  /** Searches ephemerides list for the ephemeris associated with current satellite in process */
+  private static GpsEphemerisProto getEphemerisForSatellite(
+      GpsNavMessageProto navMessageProto, int satPrn) {
+    for (GpsEphemerisProto ephemeridesProto : navMessageProto.ephemerids) {
+      if (ephemeridesProto.prn == satPrn) {
+        return ephemeridesProto;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import com.google.location.lbs.gnss.gps.pseudorange.UserPositionVelocityWeightedLeastSquare.SatellitesPositionPseudorangesResidualAndCovarianceMatrix;
+import java.util.Arrays;
+
+/**
+ * Extended Kalman filter computing the receiver position and velocity from the pseudoranges and
+ * pseudorange rates, as an alternative to the snapshot {@link
+ * UserPositionVelocityWeightedLeastSquare}.
+ *
+ * <p>The state is [X position, Y position, Z position, clock bias, X velocity, Y velocity, Z
+ * velocity, clock bias rate] in ECEF meters and meters per second. The position and velocity follow
+ * a white noise acceleration model, and the clock bias rate a random walk. Each epoch predicts the
+ * state, linearizes the measurements once around the prediction and applies them as scalar updates
+ * on fixed size primitive arrays, so that the cost per epoch is constant and independent of the
+ * convergence of an iterative solution.
+ *
+ * <p>The pseudoranges of {@link GpsEpochMeasurements} are built relative to the satellite received
+ * last with an assumed travel time, so their common bias follows the range of that satellite and
+ * jumps when another satellite becomes the reference: the clock bias is not propagated with the
+ * clock bias rate but estimated again at every epoch, while the clock bias rate, observed by the
+ * pseudorange rates, is filtered.
+ *
+ * <p>The filter is initialized with the weighted least square solution, which also provides the
+ * measurement model (satellite positions, satellite clock and atmospheric corrections) so that both
+ * engines share the same configuration. It is initialized again after a gap in the measurements,
+ * after a discontinuity of the receiver hardware clock, or when most measurements of an epoch are
+ * rejected as inconsistent with the prediction.
+ *
+ * <p>Reference: Brown, R.G., Hwang, P.Y.C.: 'Introduction to Random Signals and Applied Kalman
+ * Filtering', chapter 9.
+ */
+class UserPositionVelocityExtendedKalmanFilter implements PositionVelocitySolver {
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final int SECONDS_IN_WEEK = 604800;
+  private static final int NUMBER_OF_STATES = 8;
+  private static final int CLOCK_BIAS_STATE = 3;
+  private static final int VELOCITY_STATE = 4;
+  private static final int CLOCK_BIAS_RATE_STATE = 7;
+
+  /** Largest interval over which the state is predicted before the filter is initialized again */
+  private static final double MAXIMUM_PREDICTION_INTERVAL_SECONDS = 10.0;
+  /** Spectral density of the receiver acceleration on each axis (m^2/s^3) */
+  private static final double ACCELERATION_SPECTRAL_DENSITY_M2_PER_S3 = 1.0;
+  /** Spectral density of the clock bias rate random walk (m^2/s^3) */
+  private static final double CLOCK_BIAS_RATE_SPECTRAL_DENSITY_M2_PER_S3 = 1.0;
+  /**
+   * Variance of the clock bias at each epoch once centered on the median pseudorange residual,
+   * large enough to leave it unconstrained by the previous epochs
+   */
+  private static final double CLOCK_BIAS_PRIOR_VARIANCE_M2 = 1.0e6;
+  /** Clock bias correction above which the satellite positions are computed again */
+  private static final double CLOCK_BIAS_RELINEARIZATION_THRESHOLD_METERS = 1000.0;
+  /**
+   * Floor of the pseudorange uncertainty. The uncertainties computed from the signal to noise ratio
+   * only weight the satellites relatively to each other in the least square, while the filter
+   * balances them with the prediction and would trust them too much.
+   */
+  private static final double MINIMUM_PSEUDORANGE_UNCERTAINTY_METERS = 3.0;
+  /** Innovations larger than this number of standard deviations are rejected */
+  private static final double INNOVATION_GATE_SIGMAS = 5.0;
+
+  private final UserPositionVelocityWeightedLeastSquare leastSquare;
+  private final GpsEpochMeasurements smoothedMeasurements = new GpsEpochMeasurements();
+
+  private boolean initialized = false;
+  private double lastReceiverGpsTowSeconds;
+  private int lastReceiverGpsWeek;
+  private int lastHardwareClockDiscontinuityCount;
+  private final double[] state = new double[NUMBER_OF_STATES];
+  private final double[][] covariance = new double[NUMBER_OF_STATES][NUMBER_OF_STATES];
+  // Scratch arrays, reused at every epoch
+  private final double[] linearizationState = new double[NUMBER_OF_STATES];
+  private final double[] measurementRow = new double[NUMBER_OF_STATES];
+  private final double[] covarianceTimesRow = new double[NUMBER_OF_STATES];
+  private final double[][] lineOfSight = new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS][3];
+  private final double[] pseudorangeVariances =
+      new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private final boolean[] consistentPseudoranges =
+      new boolean[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private final double[] medianScratch = new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private final double[] uncertaintyEnu = new double[6];
+  /** Geometry and covariance of the filtered solution */
+  private final SolutionQuality solutionQuality = new SolutionQuality();
+  /** {@code true} if the last solution was filtered, not the least square one */
+  private boolean filtered = false;
+
+  /**
+   * Constructor with the least square solver {@code leastSquare} used to initialize the filter, to
+   * compute the satellite positions and pseudorange residuals, and whose pseudorange smoother is
+   * applied to the filtered epochs.
+   */
+  public UserPositionVelocityExtendedKalmanFilter(
+      UserPositionVelocityWeightedLeastSquare leastSquare) {
+    this.leastSquare = leastSquare;
+  }
+
+  @Override
+  public void reset() {
+    initialized = false;
+  }
+
+  /**
+   * Returns the quality of the filtered solution, or of the least square solution if the filter was
+   * initialized at the last epoch.
+   */
+  @Override
+  public SolutionQuality getSolutionQuality() {
+    return filtered ? solutionQuality : leastSquare.getSolutionQuality();
+  }
+
+  @Override
+  public void calculateUserPositionVelocity(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] pseudorangeResidualMeters)
+      throws Exception {
+    double intervalSeconds =
+        receiverGPSTowAtReceptionSeconds
+            - lastReceiverGpsTowSeconds
+            + (receiverGPSWeek - lastReceiverGpsWeek) * (double) SECONDS_IN_WEEK;
+    if (!initialized
+        || intervalSeconds <= 0.0
+        || intervalSeconds > MAXIMUM_PREDICTION_INTERVAL_SECONDS
+        || usefulSatellitesToReceiverMeasurements.hardwareClockDiscontinuityCount
+            != lastHardwareClockDiscontinuityCount) {
+      initialize(
+          navMessageProto,
+          usefulSatellitesToReceiverMeasurements,
+          receiverGPSTowAtReceptionSeconds,
+          receiverGPSWeek,
+          dayOfYear1To366,
+          positionVelocitySolutionECEF,
+          pseudorangeResidualMeters);
+      return;
+    }
+    lastReceiverGpsTowSeconds = receiverGPSTowAtReceptionSeconds;
+    lastReceiverGpsWeek = receiverGPSWeek;
+
+    leastSquare
+        .getPseudorangeSmoother()
+        .updatePseudorangeSmoothingResult(
+            usefulSatellitesToReceiverMeasurements, smoothedMeasurements);
+    predict(intervalSeconds);
+    boolean consistent =
+        update(
+            navMessageProto,
+            smoothedMeasurements,
+            receiverGPSTowAtReceptionSeconds,
+            receiverGPSWeek,
+            dayOfYear1To366);
+    // Start again from a snapshot solution at the next epoch if the prediction was rejected
+    initialized = consistent;
+
+    System.arraycopy(state, 0, positionVelocitySolutionECEF, 0, NUMBER_OF_STATES);
+    solutionQuality.setSolution(state, covariance);
+    filtered = true;
+    // The filtered solution is not checked by the integrity monitoring of the least square
+    leastSquare.getIntegrityResult().clear();
+  }
+
+  /** Initializes the state and its covariance with the least square solution of the epoch. */
+  private void initialize(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] pseudorangeResidualMeters)
+      throws Exception {
+    initialized = false;
+    filtered = false;
+    leastSquare.calculateUserPositionVelocityLeastSquare(
+        navMessageProto,
+        usefulSatellitesToReceiverMeasurements,
+        receiverGPSTowAtReceptionSeconds,
+        receiverGPSWeek,
+        dayOfYear1To366,
+        positionVelocitySolutionECEF,
+        uncertaintyEnu,
+        pseudorangeResidualMeters);
+    System.arraycopy(positionVelocitySolutionECEF, 0, state, 0, NUMBER_OF_STATES);
+
+    // The uncertainties are rotation invariant only in their sum, use the largest on each axis
+    double positionVariance = 0.0;
+    double velocityVariance = 0.0;
+    for (int axis = 0; axis < 3; axis++) {
+      positionVariance =
+          Math.max(
+              positionVariance,
+              uncertaintyEnu[axis] * uncertaintyEnu[axis]);
+      velocityVariance =
+          Math.max(
+              velocityVariance,
+              uncertaintyEnu[axis + 3] * uncertaintyEnu[axis + 3]);
+    }
+    for (int i = 0; i < NUMBER_OF_STATES; i++) {
+      for (int j = 0; j < NUMBER_OF_STATES; j++) {
+        covariance[i][j] = 0.0;
+      }
+    }
+    for (int axis = 0; axis < 3; axis++) {
+      covariance[axis][axis] = positionVariance;
+      covariance[VELOCITY_STATE + axis][VELOCITY_STATE + axis] = velocityVariance;
+    }
+    covariance[CLOCK_BIAS_STATE][CLOCK_BIAS_STATE] = CLOCK_BIAS_PRIOR_VARIANCE_M2;
+    covariance[CLOCK_BIAS_RATE_STATE][CLOCK_BIAS_RATE_STATE] = velocityVariance;
+    if (!Double.isNaN(positionVariance) && !Double.isNaN(velocityVariance)) {
+      lastReceiverGpsTowSeconds = receiverGPSTowAtReceptionSeconds;
+      lastReceiverGpsWeek = receiverGPSWeek;
+      lastHardwareClockDiscontinuityCount =
+          usefulSatellitesToReceiverMeasurements.hardwareClockDiscontinuityCount;
+      initialized = true;
+    }
+  }
+
+  /**
+   * Predicts the state and its covariance over {@code intervalSeconds}: P = F * P * F^T + Q with
+   * the position integrating the velocity, and the clock bias reset to an unconstrained prior.
+   */
+  private void predict(double intervalSeconds) {
+    double dt = intervalSeconds;
+    for (int axis = 0; axis < 3; axis++) {
+      state[axis] += state[VELOCITY_STATE + axis] * dt;
+    }
+    // P * F^T then F * (P * F^T), F only adds dt times the velocity rows to the position rows
+    for (int i = 0; i < NUMBER_OF_STATES; i++) {
+      for (int axis = 0; axis < 3; axis++) {
+        covariance[i][axis] += dt * covariance[i][VELOCITY_STATE + axis];
+      }
+    }
+    for (int axis = 0; axis < 3; axis++) {
+      for (int j = 0; j < NUMBER_OF_STATES; j++) {
+        covariance[axis][j] += dt * covariance[VELOCITY_STATE + axis][j];
+      }
+    }
+    double q = ACCELERATION_SPECTRAL_DENSITY_M2_PER_S3;
+    for (int axis = 0; axis < 3; axis++) {
+      int velocityAxis = VELOCITY_STATE + axis;
+      covariance[axis][axis] += q * dt * dt * dt / 3.0;
+      covariance[axis][velocityAxis] += q * dt * dt / 2.0;
+      covariance[velocityAxis][axis] += q * dt * dt / 2.0;
+      covariance[velocityAxis][velocityAxis] += q * dt;
+    }
+    covariance[CLOCK_BIAS_RATE_STATE][CLOCK_BIAS_RATE_STATE] +=
+        CLOCK_BIAS_RATE_SPECTRAL_DENSITY_M2_PER_S3 * dt;
+    for (int i = 0; i < NUMBER_OF_STATES; i++) {
+      covariance[i][CLOCK_BIAS_STATE] = 0.0;
+      covariance[CLOCK_BIAS_STATE][i] = 0.0;
+    }
+    covariance[CLOCK_BIAS_STATE][CLOCK_BIAS_STATE] = CLOCK_BIAS_PRIOR_VARIANCE_M2;
+  }
+
+  /**
+   * Linearizes the pseudoranges and pseudorange rates of the valid satellites of {@code
+   * measurements} around the predicted state and applies them as scalar updates. Returns {@code
+   * false} if most measurements are rejected by the innovation gate.
+   */
+  private boolean update(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements measurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366)
+      throws Exception {
+    System.arraycopy(state, 0, linearizationState, 0, NUMBER_OF_STATES);
+    SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidual =
+        leastSquare.calculateSatPosAndPseudorangeResidual(
+            navMessageProto,
+            measurements,
+            receiverGPSTowAtReceptionSeconds,
+            receiverGPSWeek,
+            dayOfYear1To366,
+            linearizationState,
+            true /*doAtmosphericCorrections*/);
+    // Center the unconstrained clock bias on the median residual, so that a faulty pseudorange can
+    // not pull it before being gated. Satellite positions depend on the clock bias through the
+    // reception time, linearize again if it moved significantly.
+    double clockBiasCorrectionMeters = median(satPosPseudorangeResidual.pseudorangeResidualsMeters);
+    linearizationState[CLOCK_BIAS_STATE] += clockBiasCorrectionMeters;
+    state[CLOCK_BIAS_STATE] = linearizationState[CLOCK_BIAS_STATE];
+    if (Math.abs(clockBiasCorrectionMeters) > CLOCK_BIAS_RELINEARIZATION_THRESHOLD_METERS) {
+      satPosPseudorangeResidual =
+          leastSquare.calculateSatPosAndPseudorangeResidual(
+              navMessageProto,
+              measurements,
+              receiverGPSTowAtReceptionSeconds,
+              receiverGPSWeek,
+              dayOfYear1To366,
+              linearizationState,
+              true /*doAtmosphericCorrections*/);
+      clockBiasCorrectionMeters = 0.0;
+    }
+    int numberOfSatellites = satPosPseudorangeResidual.satelliteSlots.length;
+    double[] residualsMeters = satPosPseudorangeResidual.pseudorangeResidualsMeters;
+    int numberOfMeasurements = 0;
+    int numberOfRejectedMeasurements = 0;
+
+    // Pseudoranges: residual = measured - predicted at the linearization state. Gate them all
+    // against the prediction first, then apply the consistent ones.
+    for (int i = 0; i < numberOfSatellites; i++) {
+      pseudorangeVariances[i] =
+          Math.max(
+              satPosPseudorangeResidual.covarianceMatrixMetersSquare[i][i],
+              MINIMUM_PSEUDORANGE_UNCERTAINTY_METERS * MINIMUM_PSEUDORANGE_UNCERTAINTY_METERS);
+      double[] satellitePosition = satPosPseudorangeResidual.satellitesPositionsMeters[i];
+      double rangeMeters =
+          Math.sqrt(
+              square(linearizationState[0] - satellitePosition[0])
+                  + square(linearizationState[1] - satellitePosition[1])
+                  + square(linearizationState[2] - satellitePosition[2]));
+      for (int axis = 0; axis < 3; axis++) {
+        lineOfSight[i][axis] = (linearizationState[axis] - satellitePosition[axis]) / rangeMeters;
+      }
+      residualsMeters[i] -= clockBiasCorrectionMeters;
+      setMeasurementRow(lineOfSight[i], 0, 0.0);
+      double innovationVariance = computeInnovationVariance(pseudorangeVariances[i]);
+      consistentPseudoranges[i] =
+          residualsMeters[i] * residualsMeters[i]
+              <= INNOVATION_GATE_SIGMAS * INNOVATION_GATE_SIGMAS * innovationVariance;
+      numberOfMeasurements++;
+      if (!consistentPseudoranges[i]) {
+        numberOfRejectedMeasurements++;
+      }
+    }
+    covariance[CLOCK_BIAS_STATE][CLOCK_BIAS_STATE] = CLOCK_BIAS_PRIOR_VARIANCE_M2;
+    solutionQuality.clear();
+    for (int i = 0; i < numberOfSatellites; i++) {
+      if (consistentPseudoranges[i]) {
+        setMeasurementRow(lineOfSight[i], 0, 1.0);
+        applyScalarUpdate(residualsMeters[i], pseudorangeVariances[i]);
+        double rateUncertaintyMps =
+            measurements.pseudorangeRateUncertaintyMps[satPosPseudorangeResidual.satelliteSlots[i]];
+        solutionQuality.addSatellite(
+            lineOfSight[i],
+            1.0 / pseudorangeVariances[i],
+            1.0 / (rateUncertaintyMps * rateUncertaintyMps));
+      }
+    }
+
+    // Pseudorange rates: predicted = range rate + line of sight . velocity + clock bias rate
+    // - satellite clock error rate, as in the velocity solution of the least square
+    double receiverGpsTowSeconds =
+        receiverGPSTowAtReceptionSeconds
+            - linearizationState[CLOCK_BIAS_STATE] / SPEED_OF_LIGHT_MPS;
+    for (int i = 0; i < numberOfSatellites; i++) {
+      int slot = satPosPseudorangeResidual.satelliteSlots[i];
+      double uncertaintyMps = measurements.pseudorangeRateUncertaintyMps[slot];
+      GpsEphemerisProto ephemeris =
+          getEphemerisForSatellite(
+              navMessageProto, SatelliteKey.getSvid(measurements.satelliteKeys[slot]));
+      if (ephemeris == null || !(uncertaintyMps > 0.0)) {
+        continue;
+      }
+      double transmitTowSeconds =
+          receiverGpsTowSeconds - measurements.pseudorangeMeters[slot] / SPEED_OF_LIGHT_MPS;
+      int transmitWeek = receiverGPSWeek;
+      if (transmitTowSeconds < 0.0) {
+        transmitTowSeconds += SECONDS_IN_WEEK;
+        transmitWeek--;
+      }
+      PositionAndVelocity satellitePositionAndVelocity =
+          SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+              ephemeris,
+              transmitTowSeconds,
+              transmitWeek,
+              linearizationState[0],
+              linearizationState[1],
+              linearizationState[2]);
+      double satelliteClockErrorRateMps =
+          SatelliteClockCorrectionCalculator.calculateSatClockCorrErrorRate(
+              ephemeris, transmitTowSeconds, transmitWeek);
+      double[] los = lineOfSight[i];
+      double predictedRateMps =
+          -(satellitePositionAndVelocity.velocityXMetersPerSec * los[0]
+                  + satellitePositionAndVelocity.velocityYMetersPerSec * los[1]
+                  + satellitePositionAndVelocity.velocityZMetersPerSec * los[2])
+              + los[0] * linearizationState[VELOCITY_STATE]
+              + los[1] * linearizationState[VELOCITY_STATE + 1]
+              + los[2] * linearizationState[VELOCITY_STATE + 2]
+              + linearizationState[CLOCK_BIAS_RATE_STATE]
+              - satelliteClockErrorRateMps;
+      setMeasurementRow(los, VELOCITY_STATE, 1.0);
+      double residualMps = measurements.pseudorangeRateMps[slot] - predictedRateMps;
+      double innovationMps = residualMps - computeLinearizationOffset();
+      double innovationVariance = computeInnovationVariance(uncertaintyMps * uncertaintyMps);
+      numberOfMeasurements++;
+      if (innovationMps * innovationMps
+          <= INNOVATION_GATE_SIGMAS * INNOVATION_GATE_SIGMAS * innovationVariance) {
+        applyScalarUpdate(residualMps, uncertaintyMps * uncertaintyMps);
+      } else {
+        numberOfRejectedMeasurements++;
+      }
+    }
+    return 2 * numberOfRejectedMeasurements <= numberOfMeasurements;
+  }
+
+  /**
+   * Sets {@link #measurementRow} to the line of sight {@code los} at {@code firstState} followed
+   * by the clock coefficient {@code clockCoefficient}, and zero elsewhere.
+   */
+  private void setMeasurementRow(double[] los, int firstState, double clockCoefficient) {
+    for (int j = 0; j < NUMBER_OF_STATES; j++) {
+      measurementRow[j] = 0.0;
+    }
+    for (int axis = 0; axis < 3; axis++) {
+      measurementRow[firstState + axis] = los[axis];
+    }
+    measurementRow[firstState + 3] = clockCoefficient;
+  }
+
+  /** Returns the change of the measurement of {@link #measurementRow} since the linearization. */
+  private double computeLinearizationOffset() {
+    double offset = 0.0;
+    for (int j = 0; j < NUMBER_OF_STATES; j++) {
+      offset += measurementRow[j] * (state[j] - linearizationState[j]);
+    }
+    return offset;
+  }
+
+  /**
+   * Returns the variance of the innovation of the measurement of {@link #measurementRow} with the
+   * variance {@code variance}, and fills {@link #covarianceTimesRow}.
+   */
+  private double computeInnovationVariance(double variance) {
+    double innovationVariance = variance;
+    for (int i = 0; i < NUMBER_OF_STATES; i++) {
+      double sum = 0.0;
+      for (int j = 0; j < NUMBER_OF_STATES; j++) {
+        sum += covariance[i][j] * measurementRow[j];
+      }
+      covarianceTimesRow[i] = sum;
+      innovationVariance += measurementRow[i] * sum;
+    }
+    return innovationVariance;
+  }
+
+  /**
+   * Applies the measurement of {@link #measurementRow} with the residual {@code residual} at the
+   * linearization state and the variance {@code variance}. The residual is moved to the current
+   * state, as the previous scalar updates of the epoch already moved it.
+   */
+  private void applyScalarUpdate(double residual, double variance) {
+    double innovation = residual - computeLinearizationOffset();
+    double innovationVariance = computeInnovationVariance(variance);
+    for (int i = 0; i < NUMBER_OF_STATES; i++) {
+      double gain = covarianceTimesRow[i] / innovationVariance;
+      state[i] += gain * innovation;
+      for (int j = 0; j <= i; j++) {
+        covariance[i][j] -= gain * covarianceTimesRow[j];
+        covariance[j][i] = covariance[i][j];
+      }
+    }
+  }
+
+  /** Returns the median of {@code values}, which is not modified. */
+  private double median(double[] values) {
+    int length = values.length;
+    System.arraycopy(values, 0, medianScratch, 0, length);
+    Arrays.sort(medianScratch, 0, length);
+    return length % 2 == 1
+        ? medianScratch[length / 2]
+        : 0.5 * (medianScratch[length / 2 - 1] + medianScratch[length / 2]);
+  }
+
+  /** Searches ephemerides list for the ephemeris associated with current satellite in process */
+  private static GpsEphemerisProto getEphemerisForSatellite(
+      GpsNavMessageProto navMessageProto, int satPrn) {
+    for (GpsEphemerisProto ephemeridesProto : navMessageProto.ephemerids) {
+      if (ephemeridesProto.prn == satPrn) {
+        return ephemeridesProto;
+      }
+    }
+    return null;
+  }
+
+  private static double square(double value) {
+    return value * value;
+  }
+}
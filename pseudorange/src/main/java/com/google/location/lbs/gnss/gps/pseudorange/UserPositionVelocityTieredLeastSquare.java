@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import com.google.common.base.Preconditions;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import com.google.location.lbs.gnss.gps.pseudorange.UserPositionVelocityWeightedLeastSquare.SatellitesPositionPseudorangesResidualAndCovarianceMatrix;
+
+/**
+ * Computes the receiver position and velocity with the full {@link
+ * UserPositionVelocityWeightedLeastSquare} at a low anchor rate, and with a single linearized step
+ * at the epochs in between.
+ *
+ * <p>At each anchor, the position, velocity, clock rate and pseudorange corrections (satellite
+ * clock and atmospheric delays) of the satellites are cached. At the following epochs the
+ * satellites are propagated from their cached states, the receiver position from the previous
+ * solution with its velocity, and one weighted least square step corrects the propagated position
+ * and clock bias with the pseudoranges, then the velocity is solved from the pseudorange rates.
+ * This costs a few operations per satellite instead of the satellite orbits, the atmospheric
+ * corrections and the iterations of the full solution.
+ *
+ * <p>The full solution is computed again, and becomes the next anchor, when the anchor interval
+ * elapsed, after a gap in the measurements, when the set of satellites changed, when the clock
+ * bias moved too far from the anchor for the cached satellite states, or when a residual of the
+ * step is above the threshold at which the least square removes satellites. The step always uses
+ * all the satellites, so that a satellite wrongly removed at the anchor, e.g. because of another
+ * faulty one, is not excluded until the next anchor.
+ */
+class UserPositionVelocityTieredLeastSquare implements PositionVelocitySolver {
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final int SECONDS_IN_WEEK = 604800;
+  private static final double UNIVERSAL_GRAVITATIONAL_PARAMETER_M3_SM2 = 3.986005e14;
+  private static final double EARTH_ROTATION_RATE_RAD_PER_SEC = 7.2921151467e-5;
+  private static final int MINIMUM_NUMBER_OF_SATELLITES = 4;
+  private static final int SIZE = GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS;
+
+  /** Default interval between two full least square solutions */
+  public static final double DEFAULT_ANCHOR_INTERVAL_SECONDS = 1.0;
+  /** Largest residual of a step, as the residual above which the least square removes satellites */
+  private static final double MAXIMUM_STEP_RESIDUAL_METERS = 20.0;
+  /**
+   * Largest change of the clock bias from the anchor. The satellite positions depend on the clock
+   * bias through the transmission time, by about 2.6 centimeters per kilometer.
+   */
+  private static final double MAXIMUM_CLOCK_BIAS_CHANGE_METERS = 1000.0;
+
+  private final UserPositionVelocityWeightedLeastSquare leastSquare;
+  private double anchorIntervalSeconds = DEFAULT_ANCHOR_INTERVAL_SECONDS;
+  private final GpsEpochMeasurements smoothedMeasurements = new GpsEpochMeasurements();
+  private final SolutionQuality solutionQuality = new SolutionQuality();
+  /** {@code true} if the last solution was a step, not the least square one */
+  private boolean stepped = false;
+
+  // Anchor solution
+  private boolean anchored = false;
+  private double anchorReceiverGpsTowSeconds;
+  private int anchorReceiverGpsWeek;
+  private double lastReceiverGpsTowSeconds;
+  private int lastReceiverGpsWeek;
+  private final double[] solution = new double[8];
+  private double anchorClockBiasMeters;
+
+  // Satellites of the anchor, indexed by their slot in anchorSatellites
+  private final SatelliteSlotTable anchorSatellites = new SatelliteSlotTable(SIZE);
+  private final boolean[] cachedAtAnchor = new boolean[SIZE];
+  private final double[][] satellitePositionsMeters = new double[SIZE][3];
+  private final double[][] satelliteVelocitiesMps = new double[SIZE][3];
+  private final double[][] satelliteAccelerationsMps2 = new double[SIZE][3];
+  /** Pseudorange minus range and clock bias at the anchor, i.e. the modeled delays */
+  private final double[] pseudorangeCorrectionsMeters = new double[SIZE];
+  private final double[] satelliteClockErrorRatesMps = new double[SIZE];
+
+  // Scratch arrays of the step, reused at every epoch
+  private final IncrementalCholeskyFactorization factorization =
+      new IncrementalCholeskyFactorization(4);
+  private final double[][] geometry = new double[SIZE][4];
+  private final double[] residualsMeters = new double[SIZE];
+  private final double[] rangeRateResidualsMps = new double[SIZE];
+  private final double[] positionWeights = new double[SIZE];
+  private final double[] velocityWeights = new double[SIZE];
+  private final double[] rightHandSide = new double[4];
+  private final double[] correction = new double[4];
+
+  /**
+   * Constructor with the least square solver {@code leastSquare} computing the anchor solutions,
+   * whose pseudorange smoother is applied to the epochs in between.
+   */
+  public UserPositionVelocityTieredLeastSquare(
+      UserPositionVelocityWeightedLeastSquare leastSquare) {
+    this.leastSquare = leastSquare;
+  }
+
+  /** Sets the interval between two full least square solutions, in seconds. */
+  public void setAnchorIntervalSeconds(double anchorIntervalSeconds) {
+    Preconditions.checkArgument(anchorIntervalSeconds > 0.0, "Invalid anchor interval");
+    this.anchorIntervalSeconds = anchorIntervalSeconds;
+  }
+
+  @Override
+  public void reset() {
+    anchored = false;
+  }
+
+  /**
+   * Returns the quality of the stepped solution, or of the least square solution if the last epoch
+   * was an anchor.
+   */
+  @Override
+  public SolutionQuality getSolutionQuality() {
+    return stepped ? solutionQuality : leastSquare.getSolutionQuality();
+  }
+
+  /**
+   * Computes the solution of the epoch with a step from the previous solution if possible, else
+   * with the full least square. The pseudorange residuals are only computed by the least square.
+   */
+  @Override
+  public void calculateUserPositionVelocity(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] pseudorangeResidualMeters)
+      throws Exception {
+    double sinceAnchorSeconds =
+        receiverGPSTowAtReceptionSeconds
+            - anchorReceiverGpsTowSeconds
+            + (receiverGPSWeek - anchorReceiverGpsWeek) * (double) SECONDS_IN_WEEK;
+    double intervalSeconds =
+        receiverGPSTowAtReceptionSeconds
+            - lastReceiverGpsTowSeconds
+            + (receiverGPSWeek - lastReceiverGpsWeek) * (double) SECONDS_IN_WEEK;
+    if (anchored
+        && intervalSeconds > 0.0
+        && sinceAnchorSeconds < anchorIntervalSeconds
+        && hasAnchorSatellites(usefulSatellitesToReceiverMeasurements)) {
+      leastSquare
+          .getPseudorangeSmoother()
+          .updatePseudorangeSmoothingResult(
+              usefulSatellitesToReceiverMeasurements, smoothedMeasurements);
+      if (step(smoothedMeasurements, sinceAnchorSeconds, intervalSeconds)) {
+        lastReceiverGpsTowSeconds = receiverGPSTowAtReceptionSeconds;
+        lastReceiverGpsWeek = receiverGPSWeek;
+        System.arraycopy(solution, 0, positionVelocitySolutionECEF, 0, 8);
+        // The stepped solution is not checked by the integrity monitoring of the least square
+        leastSquare.getIntegrityResult().clear();
+        stepped = true;
+        return;
+      }
+    }
+    anchor(
+        navMessageProto,
+        usefulSatellitesToReceiverMeasurements,
+        receiverGPSTowAtReceptionSeconds,
+        receiverGPSWeek,
+        dayOfYear1To366,
+        positionVelocitySolutionECEF,
+        pseudorangeResidualMeters);
+  }
+
+  /**
+   * Computes the full least square solution of the epoch and caches the states of its satellites
+   * for the following epochs.
+   */
+  private void anchor(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] pseudorangeResidualMeters)
+      throws Exception {
+    anchored = false;
+    stepped = false;
+    leastSquare.calculateUserPositionVelocityLeastSquare(
+        navMessageProto,
+        usefulSatellitesToReceiverMeasurements,
+        receiverGPSTowAtReceptionSeconds,
+        receiverGPSWeek,
+        dayOfYear1To366,
+        positionVelocitySolutionECEF,
+        null /*positionVelocityUncertaintyEnu*/,
+        pseudorangeResidualMeters);
+    System.arraycopy(positionVelocitySolutionECEF, 0, solution, 0, 8);
+    anchorClockBiasMeters = solution[3];
+
+    anchorSatellites.clear();
+    for (int i = 0; i < usefulSatellitesToReceiverMeasurements.getNumberOfSlots(); i++) {
+      if (usefulSatellitesToReceiverMeasurements.isValid(i)) {
+        int slot =
+            anchorSatellites.getOrAddSlot(usefulSatellitesToReceiverMeasurements.satelliteKeys[i]);
+        cachedAtAnchor[slot] = false;
+      }
+    }
+
+    // Model of the pseudoranges of all the satellites at the solution, including those removed by
+    // the least square
+    SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidual =
+        leastSquare.calculateSatPosAndPseudorangeResidual(
+            navMessageProto,
+            usefulSatellitesToReceiverMeasurements,
+            receiverGPSTowAtReceptionSeconds,
+            receiverGPSWeek,
+            dayOfYear1To366,
+            solution,
+            true /*doAtmosphericCorrections*/);
+    double receiverGpsTowSeconds =
+        receiverGPSTowAtReceptionSeconds - solution[3] / SPEED_OF_LIGHT_MPS;
+    for (int i = 0; i < satPosPseudorangeResidual.satelliteSlots.length; i++) {
+      int measurementSlot = satPosPseudorangeResidual.satelliteSlots[i];
+      int satelliteKey = usefulSatellitesToReceiverMeasurements.satelliteKeys[measurementSlot];
+      int slot = anchorSatellites.getSlot(satelliteKey);
+      GpsEphemerisProto ephemeris =
+          getEphemerisForSatellite(navMessageProto, SatelliteKey.getSvid(satelliteKey));
+      if (slot < 0 || ephemeris == null) {
+        continue;
+      }
+      double pseudorangeMeters =
+          usefulSatellitesToReceiverMeasurements.pseudorangeMeters[measurementSlot];
+      double transmitTowSeconds = receiverGpsTowSeconds - pseudorangeMeters / SPEED_OF_LIGHT_MPS;
+      int transmitWeek = receiverGPSWeek;
+      if (transmitTowSeconds < 0.0) {
+        transmitTowSeconds += SECONDS_IN_WEEK;
+        transmitWeek--;
+      }
+      PositionAndVelocity satellitePositionAndVelocity =
+          SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+              ephemeris, transmitTowSeconds, transmitWeek, solution[0], solution[1], solution[2]);
+      double[] position = satellitePositionsMeters[slot];
+      System.arraycopy(satPosPseudorangeResidual.satellitesPositionsMeters[i], 0, position, 0, 3);
+      double[] velocity = satelliteVelocitiesMps[slot];
+      velocity[0] = satellitePositionAndVelocity.velocityXMetersPerSec;
+      velocity[1] = satellitePositionAndVelocity.velocityYMetersPerSec;
+      velocity[2] = satellitePositionAndVelocity.velocityZMetersPerSec;
+      computeAcceleration(position, velocity, satelliteAccelerationsMps2[slot]);
+      pseudorangeCorrectionsMeters[slot] =
+          pseudorangeMeters
+              - satPosPseudorangeResidual.pseudorangeResidualsMeters[i]
+              - distance(position, solution)
+              - solution[3];
+      satelliteClockErrorRatesMps[slot] =
+          SatelliteClockCorrectionCalculator.calculateSatClockCorrErrorRate(
+              ephemeris, transmitTowSeconds, transmitWeek);
+      cachedAtAnchor[slot] = true;
+    }
+    anchorReceiverGpsTowSeconds = receiverGPSTowAtReceptionSeconds;
+    anchorReceiverGpsWeek = receiverGPSWeek;
+    lastReceiverGpsTowSeconds = receiverGPSTowAtReceptionSeconds;
+    lastReceiverGpsWeek = receiverGPSWeek;
+    anchored = true;
+  }
+
+  /**
+   * Returns {@code true} if the valid satellites of {@code measurements} are those of the anchor.
+   */
+  private boolean hasAnchorSatellites(GpsEpochMeasurements measurements) {
+    int numberOfSatellites = 0;
+    for (int i = 0; i < measurements.getNumberOfSlots(); i++) {
+      if (measurements.isValid(i)) {
+        if (anchorSatellites.getSlot(measurements.satelliteKeys[i]) < 0) {
+          return false;
+        }
+        numberOfSatellites++;
+      }
+    }
+    return numberOfSatellites == anchorSatellites.size();
+  }
+
+  /**
+   * Moves {@link #solution} to the epoch of {@code measurements}, {@code sinceAnchorSeconds} after
+   * the anchor and {@code intervalSeconds} after the previous solution, with one least square
+   * step. Returns {@code false}, leaving the solution unusable, if the step is not reliable and the
+   * full solution has to be computed.
+   */
+  private boolean step(
+      GpsEpochMeasurements measurements, double sinceAnchorSeconds, double intervalSeconds) {
+    for (int axis = 0; axis < 3; axis++) {
+      solution[axis] += solution[4 + axis] * intervalSeconds;
+    }
+    double halfSquareSinceAnchor = 0.5 * sinceAnchorSeconds * sinceAnchorSeconds;
+
+    // Linearize the pseudoranges and pseudorange rates at the propagated receiver and satellites
+    int numberOfSatellites = 0;
+    for (int i = 0; i < measurements.getNumberOfSlots(); i++) {
+      if (!measurements.isValid(i)) {
+        continue;
+      }
+      int slot = anchorSatellites.getSlot(measurements.satelliteKeys[i]);
+      if (!cachedAtAnchor[slot]) {
+        return false;
+      }
+      int row = numberOfSatellites++;
+      double[] position = satellitePositionsMeters[slot];
+      double[] velocity = satelliteVelocitiesMps[slot];
+      double[] acceleration = satelliteAccelerationsMps2[slot];
+      double[] lineOfSight = geometry[row];
+      double rangeMeters = 0.0;
+      for (int axis = 0; axis < 3; axis++) {
+        double satellitePosition =
+            position[axis]
+                + velocity[axis] * sinceAnchorSeconds
+                + acceleration[axis] * halfSquareSinceAnchor;
+        lineOfSight[axis] = solution[axis] - satellitePosition;
+        rangeMeters += lineOfSight[axis] * lineOfSight[axis];
+      }
+      rangeMeters = Math.sqrt(rangeMeters);
+      double satelliteRangeRateMps = 0.0;
+      for (int axis = 0; axis < 3; axis++) {
+        lineOfSight[axis] /= rangeMeters;
+        satelliteRangeRateMps +=
+            (velocity[axis] + acceleration[axis] * sinceAnchorSeconds) * lineOfSight[axis];
+      }
+      lineOfSight[3] = 1.0;
+      residualsMeters[row] =
+          measurements.pseudorangeMeters[i]
+              - rangeMeters
+              - pseudorangeCorrectionsMeters[slot]
+              + satelliteClockErrorRatesMps[slot] * sinceAnchorSeconds
+              - solution[3];
+      rangeRateResidualsMps[row] =
+          measurements.pseudorangeRateMps[i]
+              + satelliteRangeRateMps
+              + satelliteClockErrorRatesMps[slot];
+      double pseudorangeUncertaintyMeters = measurements.pseudorangeUncertaintyMeters[i];
+      double pseudorangeRateUncertaintyMps = measurements.pseudorangeRateUncertaintyMps[i];
+      positionWeights[row] = 1.0 / (pseudorangeUncertaintyMeters * pseudorangeUncertaintyMeters);
+      velocityWeights[row] = 1.0 / (pseudorangeRateUncertaintyMps * pseudorangeRateUncertaintyMps);
+    }
+    if (numberOfSatellites < MINIMUM_NUMBER_OF_SATELLITES
+        || !solveNormalEquations(positionWeights, residualsMeters, numberOfSatellites)) {
+      return false;
+    }
+    for (int j = 0; j < 4; j++) {
+      solution[j] += correction[j];
+    }
+    // All the satellites must fit, the satellites to remove are selected by the full solution
+    for (int i = 0; i < numberOfSatellites; i++) {
+      if (Math.abs(computeStepResidualMeters(i)) > MAXIMUM_STEP_RESIDUAL_METERS) {
+        return false;
+      }
+    }
+    if (Math.abs(solution[3] - anchorClockBiasMeters) > MAXIMUM_CLOCK_BIAS_CHANGE_METERS) {
+      return false;
+    }
+
+    // Velocity and clock bias rate, as in the least square: the pseudorange rates are solved
+    // directly with the geometry of the pseudoranges
+    if (!solveNormalEquations(velocityWeights, rangeRateResidualsMps, numberOfSatellites)) {
+      return false;
+    }
+    System.arraycopy(correction, 0, solution, 4, 4);
+
+    solutionQuality.clear();
+    for (int i = 0; i < numberOfSatellites; i++) {
+      solutionQuality.addSatellite(geometry[i], positionWeights[i], velocityWeights[i]);
+    }
+    solutionQuality.setSolution(solution);
+    return true;
+  }
+
+  /** Returns the residual of the row {@code row} of {@link #geometry} after the step. */
+  private double computeStepResidualMeters(int row) {
+    double[] lineOfSight = geometry[row];
+    return residualsMeters[row]
+        - (lineOfSight[0] * correction[0]
+            + lineOfSight[1] * correction[1]
+            + lineOfSight[2] * correction[2]
+            + lineOfSight[3] * correction[3]);
+  }
+
+  /**
+   * Solves the normal equations of the first {@code numberOfSatellites} rows of {@link #geometry}
+   * weighted by {@code weights} with the right hand side {@code values} into {@link #correction}.
+   * Returns {@code false} if the geometry does not determine the solution.
+   */
+  private boolean solveNormalEquations(double[] weights, double[] values, int numberOfSatellites) {
+    if (!factorization.factorize(geometry, weights, numberOfSatellites)) {
+      return false;
+    }
+    for (int j = 0; j < 4; j++) {
+      rightHandSide[j] = 0.0;
+    }
+    for (int i = 0; i < numberOfSatellites; i++) {
+      for (int j = 0; j < 4; j++) {
+        rightHandSide[j] += weights[i] * geometry[i][j] * values[i];
+      }
+    }
+    factorization.solve(rightHandSide, correction);
+    return true;
+  }
+
+  /**
+   * Computes the acceleration in the rotating ECEF frame of a satellite at {@code position} moving
+   * at {@code velocity}: the central gravity, and the centrifugal and Coriolis accelerations.
+   */
+  private static void computeAcceleration(
+      double[] position, double[] velocity, double[] acceleration) {
+    double radiusMeters =
+        Math.sqrt(
+            position[0] * position[0] + position[1] * position[1] + position[2] * position[2]);
+    double gravity =
+        -UNIVERSAL_GRAVITATIONAL_PARAMETER_M3_SM2 / (radiusMeters * radiusMeters * radiusMeters);
+    double omega = EARTH_ROTATION_RATE_RAD_PER_SEC;
+    acceleration[0] = gravity * position[0] + omega * omega * position[0] + 2 * omega * velocity[1];
+    acceleration[1] = gravity * position[1] + omega * omega * position[1] - 2 * omega * velocity[0];
+    acceleration[2] = gravity * position[2];
+  }
+
+  private static double distance(double[] position, double[] otherPosition) {
+    double dx = position[0] - otherPosition[0];
+    double dy = position[1] - otherPosition[1];
+    double dz = position[2] - otherPosition[2];
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  /** Searches ephemerides list for the ephemeris associated with current satellite in process */
+  private static GpsEphemerisProto getEphemerisForSatellite(
+      GpsNavMessageProto navMessageProto, int satPrn) {
+    for (GpsEphemerisProto ephemeridesProto : navMessageProto.ephemerids) {
+      if (ephemeridesProto.prn == satPrn) {
+        return ephemeridesProto;
+      }
+    }
+    return null;
+  }
+}
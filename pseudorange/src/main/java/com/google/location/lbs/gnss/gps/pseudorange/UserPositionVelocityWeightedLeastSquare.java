@@ -20,14 +20,10 @@ import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
 import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.location.lbs.gnss.gps.pseudorange.AtmosphericCorrectionCalculator.AtmosphericCorrections;
 import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
-import com.google.location.lbs.gnss.gps.pseudorange.EcefToTopocentricConverter.TopocentricAEDValues;
 import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.QRDecomposition;
@@ -38,16 +34,19 @@ import org.apache.commons.math3.linear.RealMatrix;
  * accumulated delta range (meters) measurements, receiver time of week, week number and the
  * navigation message.
  */
-class UserPositionVelocityWeightedLeastSquare {
+class UserPositionVelocityWeightedLeastSquare implements PositionVelocitySolver {
   private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
   private static final int SECONDS_IN_WEEK = 604800;
-  private static final double LEAST_SQUARE_TOLERANCE_METERS = 4.0e-8;
   /** Position correction threshold below which atmospheric correction will be applied */
   private static final double ATMOSPHERIC_CORRECTIONS_THRESHOLD_METERS = 1000.0;
+  /**
+   * Position correction threshold below which atmospheric corrections are reused, if the profile
+   * allows it, as they change by millimeters for such a change of the position
+   */
+  private static final double ATMOSPHERIC_CORRECTIONS_REUSE_THRESHOLD_METERS = 10.0;
 
   private static final int MINIMUM_NUMBER_OF_SATELLITES = 4;
   private static final double RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS = 20.0;
-  private static final int MAXIMUM_NUMBER_OF_LEAST_SQUARE_ITERATIONS = 100;
   /** GPS C/A code chip width Tc = 1 microseconds */
   private static final double GPS_CHIP_WIDTH_T_C_SEC = 1.0e-6;
   /** Narrow correlator with spacing d = 0.1 chip */
@@ -60,12 +59,67 @@ class UserPositionVelocityWeightedLeastSquare {
   private static final double SECONDS_PER_NANO = 1.0e-9;
   private static final double DOUBLE_ROUND_OFF_TOLERANCE = 0.0000000001;
 
-  private final PseudorangeSmoother pseudorangeSmoother;
+  private PseudorangeSmoother pseudorangeSmoother;
   private double geoidHeightMeters;
   private ElevationApiHelper elevationApiHelper;
   private boolean calculateGeoidMeters = true;
+  private GeoidGrid geoidGrid;
+  /** {@code false} to leave the ionospheric and tropospheric delays out of the predictions */
+  private boolean atmosphericCorrectionsEnabled = true;
+  /** Precise orbits and clocks used instead of the broadcast ephemerides, or null */
+  private PreciseEphemeris preciseEphemeris = null;
+  /** Position and velocity of a satellite from the precise orbits, reused at every query */
+  private final PositionAndVelocity preciseSatPosAndVel =
+      new PositionAndVelocity(0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+  /** Cache of the intermediate products of the satellites at each epoch, or null */
+  private IntermediateProductsCache intermediateProductsCache = null;
+  /**
+   * {@code true} if the intermediate products of the current epoch are loaded or recorded, only
+   * while the least square computes its solution
+   */
+  private boolean useIntermediateProducts = false;
+  /** Epoch of the current solution in nanoseconds since the GPS epoch, the key of the cache */
+  private long epochGpsNanos;
+  /** Intermediate products of the satellites by slot, allocated with the cache */
+  private IntermediateProductsCache.SatelliteProducts[] satelliteProducts;
+  /** {@code true} for the slots whose intermediate products were loaded from the cache */
+  private final boolean[] satelliteProductsLoaded =
+      new boolean[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
   private RealMatrix geometryMatrix;
+  /** Weight matrix of the pseudoranges, or null if the ordinary least square is applied */
+  private RealMatrix weightMatrixMetersMinus2;
+  /** Factorization of the normal equations, downdated when satellites are removed */
+  private final IncrementalCholeskyFactorization normalEquationsFactorization =
+      new IncrementalCholeskyFactorization(4);
+  /** Solution separation integrity monitoring, or null to remove the high residual satellites */
+  private SolutionSeparationRaim solutionSeparationRaim = null;
+  private final SolutionSeparationRaim.IntegrityResult integrityResult =
+      new SolutionSeparationRaim.IntegrityResult();
+  private final SolutionQuality solutionQuality = new SolutionQuality();
+  private final AtmosphericCorrectionCalculator atmosphericCorrectionCalculator =
+      new AtmosphericCorrectionCalculator();
+  private final AtmosphericCorrections atmosphericCorrections = new AtmosphericCorrections();
   private double[] truthLocationForCorrectedResidualComputationEcef = null;
+  /** Smoothed measurements of the current epoch, from which high residual satellites are removed */
+  private final GpsEpochMeasurements smoothedMeasurements = new GpsEpochMeasurements();
+  /** Tolerance, iteration budget and atmospheric correction policy of the iterations */
+  private LeastSquareProfile profile = LeastSquareProfile.PRECISE;
+  /** {@link System#nanoTime()} after which the solution stops improving, if hasDeadline */
+  private long deadlineNanoTime;
+  private boolean hasDeadline = false;
+  /** Number of iterations of the last solution */
+  private int numberOfIterations = 0;
+  /** {@code true} while a solution is computed, during which atmospheric corrections are cached */
+  private boolean solving = false;
+  /** {@code true} if the cached atmospheric corrections are reused by the current iteration */
+  private boolean reuseAtmosphericCorrections = false;
+  /** Atmospheric corrections of the satellites by slot, reused according to the profile */
+  private final double[] ionosphericCorrectionsMeters =
+      new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private final double[] troposphericCorrectionsMeters =
+      new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
+  private final boolean[] atmosphericCorrectionsComputed =
+      new boolean[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS];
 
   /** Constructor */
   public UserPositionVelocityWeightedLeastSquare(PseudorangeSmoother pseudorangeSmoother) {
@@ -79,6 +133,133 @@ class UserPositionVelocityWeightedLeastSquare {
     this.elevationApiHelper = new ElevationApiHelper(elevationApiKey);
   }
 
+  /**
+   * Returns the geoid height in meters used for the tropospheric correction, or NaN if it was not
+   * computed yet.
+   */
+  public double getGeoidHeightMeters() {
+    return calculateGeoidMeters ? Double.NaN : geoidHeightMeters;
+  }
+
+  /**
+   * Sets the geoid height in meters known from a previous run, so that it does not need to be
+   * computed again with the Google Elevation API.
+   */
+  public void setGeoidHeightMeters(double geoidHeightMeters) {
+    this.geoidHeightMeters = geoidHeightMeters;
+    calculateGeoidMeters = false;
+  }
+
+  /**
+   * Sets the geoid grid used to compute the height above sea level of the receiver for the
+   * tropospheric correction. If a grid is set, the Google Elevation API is not queried; otherwise
+   * the Elevation API is used once if a key was provided, else a height of 0 meters is assumed.
+   */
+  public void setGeoidGrid(GeoidGrid geoidGrid) {
+    this.geoidGrid = geoidGrid;
+  }
+
+  /** Returns the geoid grid set with {@link #setGeoidGrid}, {@code null} if none is set. */
+  GeoidGrid getGeoidGrid() {
+    return geoidGrid;
+  }
+
+  /**
+   * Enables or disables the ionospheric and tropospheric corrections of the predicted pseudoranges,
+   * enabled by default.
+   */
+  public void setAtmosphericCorrectionsEnabled(boolean enabled) {
+    atmosphericCorrectionsEnabled = enabled;
+  }
+
+  /**
+   * Sets the precise orbits and clocks used instead of the broadcast ephemerides for the
+   * satellites and times they cover, or {@code null} to only use the broadcast ephemerides. The
+   * broadcast ephemeris of a satellite is still required, for its group delay and as a fallback.
+   */
+  public void setPreciseEphemeris(PreciseEphemeris preciseEphemeris) {
+    this.preciseEphemeris = preciseEphemeris;
+  }
+
+  /**
+   * Sets the cache from which the satellite positions, clocks and atmospheric delays of each epoch
+   * are loaded instead of being computed, or into which they are recorded if it has no sidecar
+   * file yet, or {@code null} to always compute them. The cache is not used with precise
+   * ephemerides.
+   */
+  public void setIntermediateProductsCache(IntermediateProductsCache intermediateProductsCache) {
+    this.intermediateProductsCache = intermediateProductsCache;
+    if (intermediateProductsCache != null && satelliteProducts == null) {
+      satelliteProducts =
+          new IntermediateProductsCache.SatelliteProducts[satelliteProductsLoaded.length];
+      for (int i = 0; i < satelliteProducts.length; i++) {
+        satelliteProducts[i] = new IntermediateProductsCache.SatelliteProducts();
+      }
+    }
+  }
+
+  /** Returns the smoother applied to the pseudoranges of each epoch. */
+  public PseudorangeSmoother getPseudorangeSmoother() {
+    return pseudorangeSmoother;
+  }
+
+  /** Sets the smoother applied to the pseudoranges of each epoch. */
+  public void setPseudorangeSmoother(PseudorangeSmoother pseudorangeSmoother) {
+    this.pseudorangeSmoother = pseudorangeSmoother;
+  }
+
+  /** Sets the tolerance, iteration budget and correction policy of the iterations. */
+  public void setProfile(LeastSquareProfile profile) {
+    this.profile = Preconditions.checkNotNull(profile);
+  }
+
+  /** Returns the tolerance, iteration budget and correction policy of the iterations. */
+  public LeastSquareProfile getProfile() {
+    return profile;
+  }
+
+  /**
+   * Sets the {@link System#nanoTime()} after which the solutions return their current estimate,
+   * flagged as degraded in their {@link SolutionQuality}, instead of iterating further or removing
+   * further satellites. If the profile fails on non convergence, a solution whose iterations have
+   * not converged by then throws instead. It applies to all the following solutions until it is
+   * cleared.
+   */
+  public void setDeadlineNanoTime(long deadlineNanoTime) {
+    this.deadlineNanoTime = deadlineNanoTime;
+    hasDeadline = true;
+  }
+
+  /** Removes the deadline of the solutions. */
+  public void clearDeadline() {
+    hasDeadline = false;
+  }
+
+  /**
+   * Returns the number of least square iterations of the last solution, after the first step from
+   * the initial estimate, summed over the solutions computed again after removing satellites.
+   */
+  public int getNumberOfIterations() {
+    return numberOfIterations;
+  }
+
+  /**
+   * Sets the solution separation integrity monitoring used to detect and exclude faulty satellites
+   * and compute protection levels, or null to remove instead the satellites with residuals above
+   * {@value #RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS}.
+   */
+  public void setSolutionSeparationRaim(SolutionSeparationRaim solutionSeparationRaim) {
+    this.solutionSeparationRaim = solutionSeparationRaim;
+  }
+
+  /**
+   * Returns the integrity result of the last solution, with NaN protection levels if the integrity
+   * monitoring is disabled.
+   */
+  public SolutionSeparationRaim.IntegrityResult getIntegrityResult() {
+    return integrityResult;
+  }
+
   /**
    * Sets the reference ground truth for pseudorange residual correction calculation. If no ground
    * truth is set, no corrected pseudorange residual will be calculated.
@@ -117,13 +298,12 @@ class UserPositionVelocityWeightedLeastSquare {
    *       389.
    * </ul>
    *
-   * <p>The function does not modify the smoothed measurement list {@code
-   * immutableSmoothedSatellitesToReceiverMeasurements}
+   * <p>The function does not modify the measurements {@code
+   * usefulSatellitesToReceiverMeasurements}
    *
    * @param navMessageProto parameters of the navigation message
-   * @param usefulSatellitesToReceiverMeasurements Map of useful satellite PRN to {@link
-   *     GpsMeasurementWithRangeAndUncertainty} containing receiver measurements for computing the
-   *     position solution.
+   * @param usefulSatellitesToReceiverMeasurements {@link GpsEpochMeasurements} of the useful
+   *     satellites, with their pseudoranges and uncertainties, for computing the position solution.
    * @param receiverGPSTowAtReceptionSeconds Receiver estimate of GPS time of week (seconds)
    * @param receiverGPSWeek Receiver estimate of GPS week (0-1024+)
    * @param dayOfYear1To366 The day of the year between 1 and 366
@@ -132,13 +312,15 @@ class UserPositionVelocityWeightedLeastSquare {
    * @param positionVelocityUncertaintyEnu Uncertainty of calculated position and velocity solution
    *     in meters and mps local ENU system. Array has the following format: [0-2] Enu uncertainty
    *     of position solution in meters [3-5] Enu uncertainty of velocity solution in meters per
-   *     second.
+   *     second. May be null, the uncertainty is then only computed if requested from {@link
+   *     #getSolutionQuality()}.
    * @param pseudorangeResidualMeters The pseudorange residual corrected by subtracting expected
-   *     pseudorange calculated with the use clock bias of the highest elevation satellites.
+   *     pseudorange calculated with the use clock bias of the highest elevation satellites,
+   *     indexed by the slots of {@code usefulSatellitesToReceiverMeasurements}.
    */
   public void calculateUserPositionVelocityLeastSquare(
       GpsNavMessageProto navMessageProto,
-      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToReceiverMeasurements,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
       double receiverGPSTowAtReceptionSeconds,
       int receiverGPSWeek,
       int dayOfYear1To366,
@@ -150,119 +332,127 @@ class UserPositionVelocityWeightedLeastSquare {
     // Use PseudorangeSmoother to smooth the pseudorange according to: Satellite Communications and
     // Navigation Systems book, page 424 and Principles of GNSS, Inertial, and Multisensor
     // Integrated Navigation Systems, page 388, 389.
-    double[] deltaPositionMeters;
-    List<GpsMeasurementWithRangeAndUncertainty> immutableSmoothedSatellitesToReceiverMeasurements =
-        pseudorangeSmoother.updatePseudorangeSmoothingResult(
-            Collections.unmodifiableList(usefulSatellitesToReceiverMeasurements));
-    List<GpsMeasurementWithRangeAndUncertainty> mutableSmoothedSatellitesToReceiverMeasurements =
-        Lists.newArrayList(immutableSmoothedSatellitesToReceiverMeasurements);
-    int numberOfUsefulSatellites =
-        getNumberOfUsefulSatellites(mutableSmoothedSatellitesToReceiverMeasurements);
+    solutionQuality.clear();
+    numberOfIterations = 0;
+    pseudorangeSmoother.updatePseudorangeSmoothingResult(
+        usefulSatellitesToReceiverMeasurements, smoothedMeasurements);
+    Arrays.fill(atmosphericCorrectionsComputed, false);
+    useIntermediateProducts = intermediateProductsCache != null && preciseEphemeris == null;
+    if (useIntermediateProducts) {
+      loadIntermediateProducts(navMessageProto, receiverGPSTowAtReceptionSeconds, receiverGPSWeek);
+    }
+    solving = true;
+    try {
+      solveSmoothedMeasurements(
+          navMessageProto,
+          receiverGPSTowAtReceptionSeconds,
+          receiverGPSWeek,
+          dayOfYear1To366,
+          positionVelocitySolutionECEF,
+          positionVelocityUncertaintyEnu,
+          pseudorangeResidualMeters);
+    } finally {
+      solving = false;
+      reuseAtmosphericCorrections = false;
+      // The products are by slot of this solution, not of the measurements of later calls
+      useIntermediateProducts = false;
+    }
+  }
+
+  /**
+   * Computes the solution of {@link #smoothedMeasurements}, with the parameters of {@link
+   * #calculateUserPositionVelocityLeastSquare}.
+   */
+  private void solveSmoothedMeasurements(
+      GpsNavMessageProto navMessageProto,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] positionVelocityUncertaintyEnu,
+      double[] pseudorangeResidualMeters)
+      throws Exception {
+    int numberOfUsefulSatellites = smoothedMeasurements.getNumberOfValidSatellites();
     // Least square position solution is supported only if 4 or more satellites visible
     Preconditions.checkArgument(
         numberOfUsefulSatellites >= MINIMUM_NUMBER_OF_SATELLITES,
         "At least 4 satellites have to be visible... Only 3D mode is supported...");
-    boolean repeatLeastSquare = false;
-    SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidualAndWeight;
-
-    boolean isFirstWLS = true;
-
-    do {
-      // Calculate satellites' positions, measurement residuals per visible satellite and
-      // weight matrix for the iterative least square
-      boolean doAtmosphericCorrections = false;
-      satPosPseudorangeResidualAndWeight =
-          calculateSatPosAndPseudorangeResidual(
-              navMessageProto,
-              mutableSmoothedSatellitesToReceiverMeasurements,
-              receiverGPSTowAtReceptionSeconds,
-              receiverGPSWeek,
-              dayOfYear1To366,
-              positionVelocitySolutionECEF,
-              doAtmosphericCorrections);
+    SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidualAndWeight =
+        solveFromCurrentEstimate(
+            navMessageProto,
+            smoothedMeasurements,
+            receiverGPSTowAtReceptionSeconds,
+            receiverGPSWeek,
+            dayOfYear1To366,
+            positionVelocitySolutionECEF);
+
+    // We use the first WLS iteration results and correct them based on the ground truth position
+    // and using a clock error computed from high elevation satellites. The first iteration is
+    // used before satellite with high residuals being removed.
+    if (truthLocationForCorrectedResidualComputationEcef != null) {
+      System.arraycopy(
+          ResidualCorrectionCalculator.calculateCorrectedResiduals(
+              satPosPseudorangeResidualAndWeight,
+              positionVelocitySolutionECEF.clone(),
+              truthLocationForCorrectedResidualComputationEcef),
+          0 /*source starting pos*/,
+          pseudorangeResidualMeters,
+          0 /*destination starting pos*/,
+          smoothedMeasurements.getNumberOfSlots() /*length of elements*/);
+    }
 
-      // Calculate the geometry matrix according to "Global Positioning System: Theory and
-      // Applications", Parkinson and Spilker page 413
-      RealMatrix covarianceMatrixM2 =
-          new Array2DRowRealMatrix(satPosPseudorangeResidualAndWeight.covarianceMatrixMetersSquare);
-      geometryMatrix =
-          new Array2DRowRealMatrix(
-              calculateGeometryMatrix(
-                  satPosPseudorangeResidualAndWeight.satellitesPositionsMeters,
-                  positionVelocitySolutionECEF));
-      RealMatrix weightedGeometryMatrix;
-      RealMatrix weightMatrixMetersMinus2 = null;
-      // Apply weighted least square only if the covariance matrix is not singular (has a non-zero
-      // determinant), otherwise apply ordinary least square. The reason is to ignore reported
-      // signal to noise ratios by the receiver that can lead to such singularities
-      LUDecomposition ludCovMatrixM2 = new LUDecomposition(covarianceMatrixM2);
-      double det = ludCovMatrixM2.getDeterminant();
-
-      if (det <= DOUBLE_ROUND_OFF_TOLERANCE) {
-        // Do not weight the geometry matrix if covariance matrix is singular.
-        weightedGeometryMatrix = geometryMatrix;
-      } else {
-        weightMatrixMetersMinus2 = ludCovMatrixM2.getSolver().getInverse();
-        RealMatrix hMatrix = calculateHMatrix(weightMatrixMetersMinus2, geometryMatrix);
-        weightedGeometryMatrix =
-            hMatrix.multiply(geometryMatrix.transpose()).multiply(weightMatrixMetersMinus2);
+    // remove satellites that have residuals above RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS, or that
+    // are excluded by the integrity monitoring, as they worsen the position solution accuracy. The
+    // solution without them is obtained by downdating the factorization of the normal equations,
+    // then only refined from there, until no satellite is removed anymore
+    integrityResult.clear();
+    double[] deltaPositionMeters = new double[4];
+    boolean[] satellitesToRemove;
+    while ((satellitesToRemove =
+            selectSatellitesToRemove(
+                satPosPseudorangeResidualAndWeight, positionVelocitySolutionECEF))
+        != null) {
+      if (solutionQuality.isDegraded()) {
+        // The residuals of an estimate that has not converged do not single out faulty satellites
+        break;
       }
-
-      // Equation 9 page 413 from "Global Positioning System: Theory and Applications", Parkinson
-      // and Spilker
-      deltaPositionMeters =
-          GpsMathOperations.matrixByColVectMultiplication(
-              weightedGeometryMatrix.getData(),
-              satPosPseudorangeResidualAndWeight.pseudorangeResidualsMeters);
-
-      // Apply corrections to the position estimate
-      positionVelocitySolutionECEF[0] += deltaPositionMeters[0];
-      positionVelocitySolutionECEF[1] += deltaPositionMeters[1];
-      positionVelocitySolutionECEF[2] += deltaPositionMeters[2];
-      positionVelocitySolutionECEF[3] += deltaPositionMeters[3];
-      // Iterate applying corrections to the position solution until correction is below threshold
-      satPosPseudorangeResidualAndWeight =
-          applyWeightedLeastSquare(
-              navMessageProto,
-              mutableSmoothedSatellitesToReceiverMeasurements,
-              receiverGPSTowAtReceptionSeconds,
-              receiverGPSWeek,
-              dayOfYear1To366,
-              positionVelocitySolutionECEF,
-              deltaPositionMeters,
-              doAtmosphericCorrections,
-              satPosPseudorangeResidualAndWeight,
-              weightMatrixMetersMinus2);
-
-      // We use the first WLS iteration results and correct them based on the ground truth position
-      // and using a clock error computed from high elevation satellites. The first iteration is
-      // used before satellite with high residuals being removed.
-      if (isFirstWLS && truthLocationForCorrectedResidualComputationEcef != null) {
-        // Snapshot the information needed before high residual satellites are removed
-        System.arraycopy(
-            ResidualCorrectionCalculator.calculateCorrectedResiduals(
-                satPosPseudorangeResidualAndWeight,
-                positionVelocitySolutionECEF.clone(),
-                truthLocationForCorrectedResidualComputationEcef),
-            0 /*source starting pos*/,
-            pseudorangeResidualMeters,
-            0 /*destination starting pos*/,
-            GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES /*length of elements*/);
-        isFirstWLS = false;
+      if (isDeadlinePassed()) {
+        // Keep the satellites, the solution with them is the best estimate available in time
+        solutionQuality.setDegraded();
+        break;
       }
-      repeatLeastSquare = false;
-      int satsWithResidualBelowThreshold =
-          satPosPseudorangeResidualAndWeight.pseudorangeResidualsMeters.length;
-      // remove satellites that have residuals above RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS as they
-      // worsen the position solution accuracy. If any satellite is removed, repeat the least square
-      repeatLeastSquare =
-          removeHighResidualSats(
-              mutableSmoothedSatellitesToReceiverMeasurements,
-              repeatLeastSquare,
+      SatellitesPositionPseudorangesResidualAndCovarianceMatrix reducedSatPosResidualAndWeight =
+          removeSats(
+              smoothedMeasurements,
               satPosPseudorangeResidualAndWeight,
-              satsWithResidualBelowThreshold);
-
-    } while (repeatLeastSquare);
+              satellitesToRemove,
+              positionVelocitySolutionECEF,
+              deltaPositionMeters);
+      if (reducedSatPosResidualAndWeight == null) {
+        // The remaining geometry is too weak for the incremental update, solve again
+        satPosPseudorangeResidualAndWeight =
+            solveFromCurrentEstimate(
+                navMessageProto,
+                smoothedMeasurements,
+                receiverGPSTowAtReceptionSeconds,
+                receiverGPSWeek,
+                dayOfYear1To366,
+                positionVelocitySolutionECEF);
+      } else {
+        satPosPseudorangeResidualAndWeight =
+            applyWeightedLeastSquare(
+                navMessageProto,
+                smoothedMeasurements,
+                receiverGPSTowAtReceptionSeconds,
+                receiverGPSWeek,
+                dayOfYear1To366,
+                positionVelocitySolutionECEF,
+                deltaPositionMeters,
+                true /*doAtmosphericCorrections*/,
+                reducedSatPosResidualAndWeight,
+                weightMatrixMetersMinus2);
+      }
+    }
     calculateGeoidMeters = false;
 
     // The computed ECEF position will be used next to compute the user velocity.
@@ -287,66 +477,85 @@ class UserPositionVelocityWeightedLeastSquare {
     int measurementCount = 0;
 
     // Calculate range rates
-    for (int i = 0; i < GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES; i++) {
-      if (mutableSmoothedSatellitesToReceiverMeasurements.get(i) != null) {
-        GpsEphemerisProto ephemeridesProto = getEphemerisForSatellite(navMessageProto, i + 1);
-
-        double pseudorangeMeasurementMeters =
-            mutableSmoothedSatellitesToReceiverMeasurements.get(i).pseudorangeMeters;
-        GpsTimeOfWeekAndWeekNumber correctedTowAndWeek =
-            calculateCorrectedTransmitTowAndWeek(
-                ephemeridesProto,
-                receiverGPSTowAtReceptionSeconds,
-                receiverGPSWeek,
-                pseudorangeMeasurementMeters);
-
-        // Calculate satellite velocity
-        PositionAndVelocity satPosECEFMetersVelocityMPS =
-            SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
-                ephemeridesProto,
-                correctedTowAndWeek.gpsTimeOfWeekSeconds,
-                correctedTowAndWeek.weekNumber,
-                positionVelocitySolutionECEF[0],
-                positionVelocitySolutionECEF[1],
-                positionVelocitySolutionECEF[2]);
-
-        // Calculate satellite clock error rate
-        double satelliteClockErrorRateMps =
-            SatelliteClockCorrectionCalculator.calculateSatClockCorrErrorRate(
-                ephemeridesProto,
-                correctedTowAndWeek.gpsTimeOfWeekSeconds,
-                correctedTowAndWeek.weekNumber);
+    for (int i = 0; i < smoothedMeasurements.getNumberOfSlots(); i++) {
+      if (smoothedMeasurements.isValid(i)) {
+        GpsEphemerisProto ephemeridesProto =
+            getEphemerisForSatellite(
+                navMessageProto, SatelliteKey.getSvid(smoothedMeasurements.satelliteKeys[i]));
+
+        double satelliteVelocityXMps;
+        double satelliteVelocityYMps;
+        double satelliteVelocityZMps;
+        double satelliteClockErrorRateMps;
+        if (useIntermediateProducts && satelliteProductsLoaded[i]) {
+          IntermediateProductsCache.SatelliteProducts products = satelliteProducts[i];
+          satelliteVelocityXMps = products.velocityXMetersPerSec;
+          satelliteVelocityYMps = products.velocityYMetersPerSec;
+          satelliteVelocityZMps = products.velocityZMetersPerSec;
+          satelliteClockErrorRateMps = products.clockCorrectionRateMps;
+        } else {
+          double pseudorangeMeasurementMeters = smoothedMeasurements.pseudorangeMeters[i];
+          GpsTimeOfWeekAndWeekNumber correctedTowAndWeek =
+              calculateCorrectedTransmitTowAndWeek(
+                  ephemeridesProto,
+                  receiverGPSTowAtReceptionSeconds,
+                  receiverGPSWeek,
+                  pseudorangeMeasurementMeters);
+
+          // Calculate satellite velocity
+          PositionAndVelocity satPosECEFMetersVelocityMPS =
+              calculateSatellitePositionAndVelocity(
+                  ephemeridesProto,
+                  correctedTowAndWeek.gpsTimeOfWeekSeconds,
+                  correctedTowAndWeek.weekNumber,
+                  positionVelocitySolutionECEF[0],
+                  positionVelocitySolutionECEF[1],
+                  positionVelocitySolutionECEF[2]);
+          satelliteVelocityXMps = satPosECEFMetersVelocityMPS.velocityXMetersPerSec;
+          satelliteVelocityYMps = satPosECEFMetersVelocityMPS.velocityYMetersPerSec;
+          satelliteVelocityZMps = satPosECEFMetersVelocityMPS.velocityZMetersPerSec;
+
+          // Calculate satellite clock error rate
+          satelliteClockErrorRateMps =
+              calculateSatelliteClockCorrectionRateMps(
+                  ephemeridesProto,
+                  correctedTowAndWeek.gpsTimeOfWeekSeconds,
+                  correctedTowAndWeek.weekNumber);
+
+          if (useIntermediateProducts) {
+            IntermediateProductsCache.SatelliteProducts products = satelliteProducts[i];
+            products.velocityXMetersPerSec = satelliteVelocityXMps;
+            products.velocityYMetersPerSec = satelliteVelocityYMps;
+            products.velocityZMetersPerSec = satelliteVelocityZMps;
+            products.clockCorrectionRateMps = satelliteClockErrorRateMps;
+          }
+        }
 
         // Fill in range rates. range rate = satellite velocity (dot product) line-of-sight vector
         rangeRateMps.setEntry(
             measurementCount,
             0,
             -1
-                * (satPosECEFMetersVelocityMPS.velocityXMetersPerSec
-                        * geometryMatrix.getEntry(measurementCount, 0)
-                    + satPosECEFMetersVelocityMPS.velocityYMetersPerSec
-                        * geometryMatrix.getEntry(measurementCount, 1)
-                    + satPosECEFMetersVelocityMPS.velocityZMetersPerSec
-                        * geometryMatrix.getEntry(measurementCount, 2)));
+                * (satelliteVelocityXMps * geometryMatrix.getEntry(measurementCount, 0)
+                    + satelliteVelocityYMps * geometryMatrix.getEntry(measurementCount, 1)
+                    + satelliteVelocityZMps * geometryMatrix.getEntry(measurementCount, 2)));
 
         deltaPseudoRangeRateMps.setEntry(
             measurementCount,
             0,
-            mutableSmoothedSatellitesToReceiverMeasurements.get(i).pseudorangeRateMps
+            smoothedMeasurements.pseudorangeRateMps[i]
                 - rangeRateMps.getEntry(measurementCount, 0)
                 + satelliteClockErrorRateMps
                 - positionVelocitySolutionECEF[7]);
 
         // Calculate the velocity weight matrix by using 1 / square(PseudorangeRate Uncertainty)
         // along the diagonal
+        double pseudorangeRateUncertaintyMps =
+            smoothedMeasurements.pseudorangeRateUncertaintyMps[i];
         pseudorangeRateWeight.setEntry(
             measurementCount,
             measurementCount,
-            1
-                / (mutableSmoothedSatellitesToReceiverMeasurements.get(i)
-                        .pseudorangeRateUncertaintyMps
-                    * mutableSmoothedSatellitesToReceiverMeasurements.get(i)
-                        .pseudorangeRateUncertaintyMps));
+            1 / (pseudorangeRateUncertaintyMps * pseudorangeRateUncertaintyMps));
         measurementCount++;
       }
     }
@@ -362,76 +571,55 @@ class UserPositionVelocityWeightedLeastSquare {
     positionVelocitySolutionECEF[6] = velocityMps.getEntry(2, 0);
     positionVelocitySolutionECEF[7] = velocityMps.getEntry(3, 0);
 
-    RealMatrix pseudorangeWeight =
-        new LUDecomposition(
-                new Array2DRowRealMatrix(
-                    satPosPseudorangeResidualAndWeight.covarianceMatrixMetersSquare))
-            .getSolver()
-            .getInverse();
-
-    // Calculate and store the uncertainties of position and velocity in local ENU system in meters
-    // and meters per second.
-    double[] pvUncertainty =
-        calculatePositionVelocityUncertaintyEnu(
-            pseudorangeRateWeight, pseudorangeWeight, positionVelocitySolutionECEF);
-    System.arraycopy(
-        pvUncertainty,
-        0 /*source starting pos*/,
-        positionVelocityUncertaintyEnu,
-        0 /*destination starting pos*/,
-        6 /*length of elements*/);
-  }
-
-  /**
-   * Calculates the position uncertainty in meters and the velocity uncertainty in meters per second
-   * solution in local ENU system.
-   *
-   * <p>Reference: Global Positioning System: Signals, Measurements, and Performance by Pratap
-   * Misra, Per Enge, Page 206 - 209.
-   *
-   * @param velocityWeightMatrix the velocity weight matrix
-   * @param positionWeightMatrix the position weight matrix
-   * @param positionVelocitySolution the position and velocity solution in ECEF
-   * @return an array containing the position and velocity uncertainties in ENU coordinate system.
-   *     [0-2] Enu uncertainty of position solution in meters. [3-5] Enu uncertainty of velocity
-   *     solution in meters per second.
-   */
-  public double[] calculatePositionVelocityUncertaintyEnu(
-      RealMatrix velocityWeightMatrix,
-      RealMatrix positionWeightMatrix,
-      double[] positionVelocitySolution) {
+    if (useIntermediateProducts && intermediateProductsCache.isRecording()) {
+      recordIntermediateProducts(navMessageProto);
+    }
 
-    if (geometryMatrix == null) {
-      return null;
+    // Record the geometry and weights of the solution, from which its uncertainties and dilutions
+    // of precision are only computed when requested
+    double[][] geometry = geometryMatrix.getData();
+    for (int i = 0; i < numberOfUsefulSatellites; i++) {
+      solutionQuality.addSatellite(
+          geometry[i],
+          1.0 / satPosPseudorangeResidualAndWeight.covarianceMatrixMetersSquare[i][i],
+          pseudorangeRateWeight.getEntry(i, i));
     }
+    solutionQuality.setSolution(positionVelocitySolutionECEF);
+    if (positionVelocityUncertaintyEnu != null) {
+      solutionQuality.getPositionVelocityUncertaintyEnu(positionVelocityUncertaintyEnu);
+    }
+  }
 
-    RealMatrix velocityH = calculateHMatrix(velocityWeightMatrix, geometryMatrix);
-    RealMatrix positionH = calculateHMatrix(positionWeightMatrix, geometryMatrix);
-
-    // Calculate the rotation Matrix to convert to local ENU system.
-    RealMatrix rotationMatrix = new Array2DRowRealMatrix(4, 4);
-    GeodeticLlaValues llaValues =
-        Ecef2LlaConverter.convertECEFToLLACloseForm(
-            positionVelocitySolution[0], positionVelocitySolution[1], positionVelocitySolution[2]);
-    rotationMatrix.setSubMatrix(
-        Ecef2EnuConverter.getRotationMatrix(llaValues.longitudeRadians, llaValues.latitudeRadians)
-            .getData(),
-        0,
-        0);
-    rotationMatrix.setEntry(3, 3, 1);
-
-    // Convert to local ENU by pre-multiply rotation matrix and multiply rotation matrix transposed
-    velocityH = rotationMatrix.multiply(velocityH).multiply(rotationMatrix.transpose());
-    positionH = rotationMatrix.multiply(positionH).multiply(rotationMatrix.transpose());
-
-    // Return the square root of diagonal entries
-    return new double[] {
-      Math.sqrt(positionH.getEntry(0, 0)), Math.sqrt(positionH.getEntry(1, 1)),
-      Math.sqrt(positionH.getEntry(2, 2)), Math.sqrt(velocityH.getEntry(0, 0)),
-      Math.sqrt(velocityH.getEntry(1, 1)), Math.sqrt(velocityH.getEntry(2, 2))
-    };
+  @Override
+  public void calculateUserPositionVelocity(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] pseudorangeResidualMeters)
+      throws Exception {
+    calculateUserPositionVelocityLeastSquare(
+        navMessageProto,
+        usefulSatellitesToReceiverMeasurements,
+        receiverGPSTowAtReceptionSeconds,
+        receiverGPSWeek,
+        dayOfYear1To366,
+        positionVelocitySolutionECEF,
+        null /*positionVelocityUncertaintyEnu*/,
+        pseudorangeResidualMeters);
   }
 
+  @Override
+  public SolutionQuality getSolutionQuality() {
+    return solutionQuality;
+  }
+
+  /** The least square solution of each epoch is computed from scratch, there is no state. */
+  @Override
+  public void reset() {}
+
   /**
    * Calculates the measurement connection matrix H as a function of weightMatrix and
    * geometryMatrix.
@@ -449,14 +637,96 @@ class UserPositionVelocityWeightedLeastSquare {
     return new LUDecomposition(tempH).getSolver().getInverse();
   }
 
+  /**
+   * Computes the weighted least square position solution of the satellites of {@code
+   * usefulSatellitesToReceiverMeasurements} starting from the estimate {@code
+   * positionVelocitySolutionECEF}, which is corrected in place, and returns the satellite
+   * positions, residuals and covariance matrix of the converged solution. {@link #geometryMatrix}
+   * and {@link #weightMatrixMetersMinus2} are set for the converged solution.
+   */
+  private SatellitesPositionPseudorangesResidualAndCovarianceMatrix solveFromCurrentEstimate(
+      GpsNavMessageProto navMessageProto,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF)
+      throws Exception {
+    // Calculate satellites' positions, measurement residuals per visible satellite and
+    // weight matrix for the iterative least square
+    boolean doAtmosphericCorrections = false;
+    SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidualAndWeight =
+        calculateSatPosAndPseudorangeResidual(
+            navMessageProto,
+            usefulSatellitesToReceiverMeasurements,
+            receiverGPSTowAtReceptionSeconds,
+            receiverGPSWeek,
+            dayOfYear1To366,
+            positionVelocitySolutionECEF,
+            doAtmosphericCorrections);
+
+    // Calculate the geometry matrix according to "Global Positioning System: Theory and
+    // Applications", Parkinson and Spilker page 413
+    RealMatrix covarianceMatrixM2 =
+        new Array2DRowRealMatrix(satPosPseudorangeResidualAndWeight.covarianceMatrixMetersSquare);
+    geometryMatrix =
+        new Array2DRowRealMatrix(
+            calculateGeometryMatrix(
+                satPosPseudorangeResidualAndWeight.satellitesPositionsMeters,
+                positionVelocitySolutionECEF));
+    RealMatrix weightedGeometryMatrix;
+    weightMatrixMetersMinus2 = null;
+    // Apply weighted least square only if the covariance matrix is not singular (has a non-zero
+    // determinant), otherwise apply ordinary least square. The reason is to ignore reported
+    // signal to noise ratios by the receiver that can lead to such singularities
+    LUDecomposition ludCovMatrixM2 = new LUDecomposition(covarianceMatrixM2);
+    double det = ludCovMatrixM2.getDeterminant();
+
+    if (det <= DOUBLE_ROUND_OFF_TOLERANCE) {
+      // Do not weight the geometry matrix if covariance matrix is singular.
+      weightedGeometryMatrix = geometryMatrix;
+    } else {
+      weightMatrixMetersMinus2 = ludCovMatrixM2.getSolver().getInverse();
+      RealMatrix hMatrix = calculateHMatrix(weightMatrixMetersMinus2, geometryMatrix);
+      weightedGeometryMatrix =
+          hMatrix.multiply(geometryMatrix.transpose()).multiply(weightMatrixMetersMinus2);
+    }
+
+    // Equation 9 page 413 from "Global Positioning System: Theory and Applications", Parkinson
+    // and Spilker
+    double[] deltaPositionMeters =
+        GpsMathOperations.matrixByColVectMultiplication(
+            weightedGeometryMatrix.getData(),
+            satPosPseudorangeResidualAndWeight.pseudorangeResidualsMeters);
+
+    // Apply corrections to the position estimate
+    positionVelocitySolutionECEF[0] += deltaPositionMeters[0];
+    positionVelocitySolutionECEF[1] += deltaPositionMeters[1];
+    positionVelocitySolutionECEF[2] += deltaPositionMeters[2];
+    positionVelocitySolutionECEF[3] += deltaPositionMeters[3];
+    // Iterate applying corrections to the position solution until correction is below threshold
+    return applyWeightedLeastSquare(
+        navMessageProto,
+        usefulSatellitesToReceiverMeasurements,
+        receiverGPSTowAtReceptionSeconds,
+        receiverGPSWeek,
+        dayOfYear1To366,
+        positionVelocitySolutionECEF,
+        deltaPositionMeters,
+        doAtmosphericCorrections,
+        satPosPseudorangeResidualAndWeight,
+        weightMatrixMetersMinus2);
+  }
+
   /**
    * Applies weighted least square iterations and corrects to the position solution until correction
-   * is below threshold. An exception is thrown if the maximum number of iterations: {@value
-   * #MAXIMUM_NUMBER_OF_LEAST_SQUARE_ITERATIONS} is reached without convergence.
+   * is below the tolerance of the profile and the atmospheric corrections are applied. If the
+   * iteration budget of the profile is exhausted or the deadline passes, an exception is thrown or,
+   * depending on the profile, the current estimate is kept and flagged as degraded.
    */
   private SatellitesPositionPseudorangesResidualAndCovarianceMatrix applyWeightedLeastSquare(
       GpsNavMessageProto navMessageProto,
-      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToReceiverMeasurements,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
       double receiverGPSTowAtReceptionSeconds,
       int receiverGPSWeek,
       int dayOfYear1To366,
@@ -467,20 +737,39 @@ class UserPositionVelocityWeightedLeastSquare {
       RealMatrix weightMatrixMetersMinus2)
       throws Exception {
     RealMatrix weightedGeometryMatrix;
-    int numberOfIterations = 0;
+    int iteration = 0;
 
     while ((Math.abs(deltaPositionMeters[0])
-            + Math.abs(deltaPositionMeters[1])
-            + Math.abs(deltaPositionMeters[2]))
-        >= LEAST_SQUARE_TOLERANCE_METERS) {
+                + Math.abs(deltaPositionMeters[1])
+                + Math.abs(deltaPositionMeters[2]))
+            >= profile.toleranceMeters
+        || !doAtmosphericCorrections) {
+      if (iteration == profile.maximumNumberOfIterations) {
+        Preconditions.checkArgument(
+            !profile.failOnNonConvergence,
+            "Maximum number of least square iterations reached without convergence...");
+        solutionQuality.setDegraded();
+        break;
+      }
+      if (isDeadlinePassed()) {
+        Preconditions.checkArgument(
+            !profile.failOnNonConvergence,
+            "Deadline passed before the least square iterations converged...");
+        solutionQuality.setDegraded();
+        break;
+      }
       // Apply ionospheric and tropospheric corrections only if the applied correction to
       // position is below a specific threshold
-      if ((Math.abs(deltaPositionMeters[0])
+      double sumAbsDeltaPositionMeters =
+          Math.abs(deltaPositionMeters[0])
               + Math.abs(deltaPositionMeters[1])
-              + Math.abs(deltaPositionMeters[2]))
-          < ATMOSPHERIC_CORRECTIONS_THRESHOLD_METERS) {
+              + Math.abs(deltaPositionMeters[2]);
+      if (sumAbsDeltaPositionMeters < ATMOSPHERIC_CORRECTIONS_THRESHOLD_METERS) {
         doAtmosphericCorrections = true;
       }
+      reuseAtmosphericCorrections =
+          profile.reuseAtmosphericCorrections
+              && sumAbsDeltaPositionMeters < ATMOSPHERIC_CORRECTIONS_REUSE_THRESHOLD_METERS;
       // Calculate satellites' positions, measurement residual per visible satellite and
       // weight matrix for the iterative least square
       satPosPseudorangeResidualAndWeight =
@@ -524,37 +813,154 @@ class UserPositionVelocityWeightedLeastSquare {
       positionSolutionECEF[1] += deltaPositionMeters[1];
       positionSolutionECEF[2] += deltaPositionMeters[2];
       positionSolutionECEF[3] += deltaPositionMeters[3];
+      iteration++;
       numberOfIterations++;
-      Preconditions.checkArgument(
-          numberOfIterations <= MAXIMUM_NUMBER_OF_LEAST_SQUARE_ITERATIONS,
-          "Maximum number of least square iterations reached without convergence...");
     }
     return satPosPseudorangeResidualAndWeight;
   }
 
   /**
-   * Removes satellites that have residuals above {@value #RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS}
-   * from the {@code usefulSatellitesToReceiverMeasurements} list. Returns true if any satellite is
-   * removed.
+   * Selects the satellites to remove from the converged solution: the satellite excluded by the
+   * solution separation integrity monitoring if it is enabled, otherwise the satellites that have
+   * residuals above {@value #RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS}, keeping at least {@value
+   * #MINIMUM_NUMBER_OF_SATELLITES} satellites. Returns null if no satellite is to be removed.
    */
-  private boolean removeHighResidualSats(
-      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToReceiverMeasurements,
-      boolean repeatLeastSquare,
+  private boolean[] selectSatellitesToRemove(
       SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidualAndWeight,
-      int satsWithResidualBelowThreshold) {
-
-    for (int i = 0; i < satPosPseudorangeResidualAndWeight.pseudorangeResidualsMeters.length; i++) {
-      if (satsWithResidualBelowThreshold > MINIMUM_NUMBER_OF_SATELLITES) {
-        if (Math.abs(satPosPseudorangeResidualAndWeight.pseudorangeResidualsMeters[i])
-            > RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS) {
-          int prn = satPosPseudorangeResidualAndWeight.satellitePRNs[i];
-          usefulSatellitesToReceiverMeasurements.set(prn - 1, null);
-          satsWithResidualBelowThreshold--;
-          repeatLeastSquare = true;
+      double[] positionSolutionECEF) {
+    double[] residualsMeters = satPosPseudorangeResidualAndWeight.pseudorangeResidualsMeters;
+    int numberOfSatellites = residualsMeters.length;
+    boolean[] satellitesToRemove = new boolean[numberOfSatellites];
+    if (solutionSeparationRaim != null) {
+      GeodeticLlaValues lla =
+          Ecef2LlaConverter.convertECEFToLLACloseForm(
+              positionSolutionECEF[0], positionSolutionECEF[1], positionSolutionECEF[2]);
+      int excludedSatellite =
+          solutionSeparationRaim.checkIntegrity(
+              geometryMatrix.getData(),
+              getSatelliteWeights(numberOfSatellites),
+              residualsMeters,
+              numberOfSatellites,
+              lla.latitudeRadians,
+              lla.longitudeRadians,
+              integrityResult);
+      if (excludedSatellite < 0) {
+        return null;
+      }
+      integrityResult.numberOfExcludedSatellites++;
+      satellitesToRemove[excludedSatellite] = true;
+      return satellitesToRemove;
+    }
+
+    int satsWithResidualBelowThreshold = numberOfSatellites;
+    for (int i = 0; i < numberOfSatellites; i++) {
+      if (satsWithResidualBelowThreshold > MINIMUM_NUMBER_OF_SATELLITES
+          && Math.abs(residualsMeters[i]) > RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS) {
+        satellitesToRemove[i] = true;
+        satsWithResidualBelowThreshold--;
+      }
+    }
+    return satsWithResidualBelowThreshold == numberOfSatellites ? null : satellitesToRemove;
+  }
+
+  /** Returns the weights of the satellites, i.e. the diagonal of the weight matrix */
+  private double[] getSatelliteWeights(int numberOfSatellites) {
+    double[] weights = new double[numberOfSatellites];
+    for (int i = 0; i < numberOfSatellites; i++) {
+      weights[i] =
+          weightMatrixMetersMinus2 == null ? 1.0 : weightMatrixMetersMinus2.getEntry(i, i);
+    }
+    return weights;
+  }
+
+  /**
+   * Removes the satellites flagged in {@code satellitesToRemove} from the {@code
+   * usefulSatellitesToReceiverMeasurements}, and moves the converged solution {@code
+   * positionSolutionECEF} to the least square solution of the remaining satellites.
+   *
+   * <p>Instead of solving again from new satellite positions, the Cholesky factorization of the
+   * normal equations of the converged solution is downdated with the rows of the removed
+   * satellites, and the correction {@code deltaPositionMeters} to the solution and the residuals of
+   * the remaining satellites are computed from the current linearization, which costs O(n) for n
+   * satellites. The solution then only needs to be refined to absorb the linearization error.
+   *
+   * @return the satellite positions, predicted residuals and covariance matrix of the remaining
+   *     satellites, or null if the normal equations of the remaining satellites can not be
+   *     downdated and the solution has to be computed again
+   */
+  private SatellitesPositionPseudorangesResidualAndCovarianceMatrix removeSats(
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
+      SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidualAndWeight,
+      boolean[] satellitesToRemove,
+      double[] positionSolutionECEF,
+      double[] deltaPositionMeters) {
+    double[] residualsMeters = satPosPseudorangeResidualAndWeight.pseudorangeResidualsMeters;
+    int numberOfSatellites = residualsMeters.length;
+    int numberOfRemainingSatellites = numberOfSatellites;
+    for (int i = 0; i < numberOfSatellites; i++) {
+      if (satellitesToRemove[i]) {
+        usefulSatellitesToReceiverMeasurements.invalidate(
+            satPosPseudorangeResidualAndWeight.satelliteSlots[i]);
+        numberOfRemainingSatellites--;
+      }
+    }
+
+    double[][] geometry = geometryMatrix.getData();
+    double[] weights = getSatelliteWeights(numberOfSatellites);
+    if (!normalEquationsFactorization.factorize(geometry, weights, numberOfSatellites)) {
+      return null;
+    }
+    // Right hand side G^T * W * residuals of the remaining satellites
+    double[] rightHandSide = new double[4];
+    for (int i = 0; i < numberOfSatellites; i++) {
+      if (satellitesToRemove[i]) {
+        if (!normalEquationsFactorization.downdate(geometry[i], weights[i])) {
+          return null;
+        }
+      } else {
+        for (int j = 0; j < 4; j++) {
+          rightHandSide[j] += weights[i] * geometry[i][j] * residualsMeters[i];
         }
       }
     }
-    return repeatLeastSquare;
+    normalEquationsFactorization.solve(rightHandSide, deltaPositionMeters);
+    for (int j = 0; j < 4; j++) {
+      positionSolutionECEF[j] += deltaPositionMeters[j];
+    }
+
+    // Keep the rows of the remaining satellites, with their residuals after the correction
+    int[] keptRows = new int[numberOfRemainingSatellites];
+    int[] satelliteSlots = new int[numberOfRemainingSatellites];
+    double[][] satellitesPositionsMeters = new double[numberOfRemainingSatellites][];
+    double[] pseudorangeResidualsMeters = new double[numberOfRemainingSatellites];
+    int keptCounter = 0;
+    for (int i = 0; i < numberOfSatellites; i++) {
+      if (!satellitesToRemove[i]) {
+        keptRows[keptCounter] = i;
+        satelliteSlots[keptCounter] = satPosPseudorangeResidualAndWeight.satelliteSlots[i];
+        satellitesPositionsMeters[keptCounter] =
+            satPosPseudorangeResidualAndWeight.satellitesPositionsMeters[i];
+        pseudorangeResidualsMeters[keptCounter] =
+            residualsMeters[i]
+                - (geometry[i][0] * deltaPositionMeters[0]
+                    + geometry[i][1] * deltaPositionMeters[1]
+                    + geometry[i][2] * deltaPositionMeters[2]
+                    + geometry[i][3] * deltaPositionMeters[3]);
+        keptCounter++;
+      }
+    }
+    int[] allColumns = {0, 1, 2, 3};
+    geometryMatrix = geometryMatrix.getSubMatrix(keptRows, allColumns);
+    if (weightMatrixMetersMinus2 != null) {
+      weightMatrixMetersMinus2 = weightMatrixMetersMinus2.getSubMatrix(keptRows, keptRows);
+    }
+    return new SatellitesPositionPseudorangesResidualAndCovarianceMatrix(
+        satelliteSlots,
+        satellitesPositionsMeters,
+        pseudorangeResidualsMeters,
+        new Array2DRowRealMatrix(satPosPseudorangeResidualAndWeight.covarianceMatrixMetersSquare)
+            .getSubMatrix(keptRows, keptRows)
+            .getData());
   }
 
   /**
@@ -563,9 +969,8 @@ class UserPositionVelocityWeightedLeastSquare {
    * stored in an instance of {@link SatellitesPositionPseudorangesResidualAndCovarianceMatrix}
    *
    * @param navMessageProto parameters of the navigation message
-   * @param usefulSatellitesToReceiverMeasurements Map of useful satellite PRN to {@link
-   *     GpsMeasurementWithRangeAndUncertainty} containing receiver measurements for computing the
-   *     position solution
+   * @param usefulSatellitesToReceiverMeasurements {@link GpsEpochMeasurements} of the useful
+   *     satellites containing receiver measurements for computing the position solution
    * @param receiverGPSTowAtReceptionSeconds Receiver estimate of GPS time of week (seconds)
    * @param receiverGpsWeek Receiver estimate of GPS week (0-1024+)
    * @param dayOfYear1To366 The day of the year between 1 and 366
@@ -573,12 +978,12 @@ class UserPositionVelocityWeightedLeastSquare {
    * @param doAtmosphericCorrections boolean indicating if atmospheric range corrections should be
    *     applied
    * @return SatellitesPositionPseudorangesResidualAndCovarianceMatrix Object containing satellite
-   *     prns, satellite positions in ECEF, pseudorange residuals and covariance matrix.
+   *     slots, satellite positions in ECEF, pseudorange residuals and covariance matrix.
    */
   public SatellitesPositionPseudorangesResidualAndCovarianceMatrix
       calculateSatPosAndPseudorangeResidual(
           GpsNavMessageProto navMessageProto,
-          List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToReceiverMeasurements,
+          GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
           double receiverGPSTowAtReceptionSeconds,
           int receiverGpsWeek,
           int dayOfYear1To366,
@@ -586,13 +991,13 @@ class UserPositionVelocityWeightedLeastSquare {
           boolean doAtmosphericCorrections)
           throws Exception {
     int numberOfUsefulSatellites =
-        getNumberOfUsefulSatellites(usefulSatellitesToReceiverMeasurements);
+        usefulSatellitesToReceiverMeasurements.getNumberOfValidSatellites();
     // deltaPseudorange is the pseudorange measurement residual
     double[] deltaPseudorangesMeters = new double[numberOfUsefulSatellites];
     double[][] satellitesPositionsECEFMeters = new double[numberOfUsefulSatellites][3];
 
-    // satellite PRNs
-    int[] satellitePRNs = new int[numberOfUsefulSatellites];
+    // slots of the satellites in the measurements
+    int[] satelliteSlots = new int[numberOfUsefulSatellites];
 
     // Ionospheric model parameters
     double[] alpha = {
@@ -620,13 +1025,13 @@ class UserPositionVelocityWeightedLeastSquare {
         doAtmosphericCorrections,
         deltaPseudorangesMeters,
         satellitesPositionsECEFMeters,
-        satellitePRNs,
+        satelliteSlots,
         alpha,
         beta,
         covarianceMatrixMetersSquare);
 
     return new SatellitesPositionPseudorangesResidualAndCovarianceMatrix(
-        satellitePRNs,
+        satelliteSlots,
         satellitesPositionsECEFMeters,
         deltaPseudorangesMeters,
         covarianceMatrixMetersSquare.getData());
@@ -636,12 +1041,12 @@ class UserPositionVelocityWeightedLeastSquare {
    * Calculates and fill the position of all visible satellites: {@code
    * satellitesPositionsECEFMeters}, pseudorange measurement residual (difference of measured to
    * predicted pseudoranges): {@code deltaPseudorangesMeters} and covariance matrix from the
-   * weighted least square: {@code covarianceMatrixMetersSquare}. An array of the satellite PRNs
-   * {@code satellitePRNs} is as well filled.
+   * weighted least square: {@code covarianceMatrixMetersSquare}. An array of the slots of the
+   * satellites in the measurements {@code satelliteSlots} is as well filled.
    */
   private void calculateSatPosAndResiduals(
       GpsNavMessageProto navMessageProto,
-      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToReceiverMeasurements,
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements,
       double receiverGPSTowAtReceptionSeconds,
       int receiverGpsWeek,
       int dayOfYear1To366,
@@ -649,7 +1054,7 @@ class UserPositionVelocityWeightedLeastSquare {
       boolean doAtmosphericCorrections,
       double[] deltaPseudorangesMeters,
       double[][] satellitesPositionsECEFMeters,
-      int[] satellitePRNs,
+      int[] satelliteSlots,
       double[] alpha,
       double[] beta,
       RealMatrix covarianceMatrixMetersSquare)
@@ -658,78 +1063,131 @@ class UserPositionVelocityWeightedLeastSquare {
     double[] userPositionTempECEFMeters = {
       userPositionECEFMeters[0], userPositionECEFMeters[1], userPositionECEFMeters[2]
     };
+    doAtmosphericCorrections &= atmosphericCorrectionsEnabled;
+    if (doAtmosphericCorrections) {
+      updateAtmosphericReceiverTerms(userPositionTempECEFMeters, dayOfYear1To366);
+    }
     int satsCounter = 0;
-    for (int i = 0; i < GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES; i++) {
-      if (usefulSatellitesToReceiverMeasurements.get(i) != null) {
-        GpsEphemerisProto ephemeridesProto = getEphemerisForSatellite(navMessageProto, i + 1);
+    for (int i = 0; i < usefulSatellitesToReceiverMeasurements.getNumberOfSlots(); i++) {
+      if (usefulSatellitesToReceiverMeasurements.isValid(i)) {
+        GpsEphemerisProto ephemeridesProto =
+            getEphemerisForSatellite(
+                navMessageProto,
+                SatelliteKey.getSvid(usefulSatellitesToReceiverMeasurements.satelliteKeys[i]));
         // Correct the receiver time of week with the estimated receiver clock bias
         receiverGPSTowAtReceptionSeconds =
             receiverGPSTowAtReceptionSeconds - userPositionECEFMeters[3] / SPEED_OF_LIGHT_MPS;
 
         double pseudorangeMeasurementMeters =
-            usefulSatellitesToReceiverMeasurements.get(i).pseudorangeMeters;
+            usefulSatellitesToReceiverMeasurements.pseudorangeMeters[i];
         double pseudorangeUncertaintyMeters =
-            usefulSatellitesToReceiverMeasurements.get(i).pseudorangeUncertaintyMeters;
+            usefulSatellitesToReceiverMeasurements.pseudorangeUncertaintyMeters[i];
 
         // Assuming uncorrelated pseudorange measurements, the covariance matrix will be diagonal as
         // follows
         covarianceMatrixMetersSquare.setEntry(
             satsCounter, satsCounter, pseudorangeUncertaintyMeters * pseudorangeUncertaintyMeters);
 
-        // Calculate time of week at transmission time corrected with the satellite clock drift
-        GpsTimeOfWeekAndWeekNumber correctedTowAndWeek =
-            calculateCorrectedTransmitTowAndWeek(
-                ephemeridesProto,
-                receiverGPSTowAtReceptionSeconds,
-                receiverGpsWeek,
-                pseudorangeMeasurementMeters);
-
-        // calculate satellite position and velocity
-        PositionAndVelocity satPosECEFMetersVelocityMPS =
-            SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
-                ephemeridesProto,
-                correctedTowAndWeek.gpsTimeOfWeekSeconds,
-                correctedTowAndWeek.weekNumber,
-                userPositionECEFMeters[0],
-                userPositionECEFMeters[1],
-                userPositionECEFMeters[2]);
-
-        satellitesPositionsECEFMeters[satsCounter][0] = satPosECEFMetersVelocityMPS.positionXMeters;
-        satellitesPositionsECEFMeters[satsCounter][1] = satPosECEFMetersVelocityMPS.positionYMeters;
-        satellitesPositionsECEFMeters[satsCounter][2] = satPosECEFMetersVelocityMPS.positionZMeters;
+        // Only the solution of the least square loads and records the products of its epoch
+        IntermediateProductsCache.SatelliteProducts products =
+            solving && useIntermediateProducts ? satelliteProducts[i] : null;
+        boolean productsLoaded = products != null && satelliteProductsLoaded[i];
+        GpsTimeOfWeekAndWeekNumber correctedTowAndWeek = null;
+        double satelliteClockCorrectionMeters;
+        if (productsLoaded) {
+          satellitesPositionsECEFMeters[satsCounter][0] = products.positionXMeters;
+          satellitesPositionsECEFMeters[satsCounter][1] = products.positionYMeters;
+          satellitesPositionsECEFMeters[satsCounter][2] = products.positionZMeters;
+          satelliteClockCorrectionMeters = products.clockCorrectionMeters;
+        } else {
+          // Calculate time of week at transmission time corrected with the satellite clock drift
+          correctedTowAndWeek =
+              calculateCorrectedTransmitTowAndWeek(
+                  ephemeridesProto,
+                  receiverGPSTowAtReceptionSeconds,
+                  receiverGpsWeek,
+                  pseudorangeMeasurementMeters);
+
+          // calculate satellite position and velocity
+          PositionAndVelocity satPosECEFMetersVelocityMPS =
+              calculateSatellitePositionAndVelocity(
+                  ephemeridesProto,
+                  correctedTowAndWeek.gpsTimeOfWeekSeconds,
+                  correctedTowAndWeek.weekNumber,
+                  userPositionECEFMeters[0],
+                  userPositionECEFMeters[1],
+                  userPositionECEFMeters[2]);
+
+          satellitesPositionsECEFMeters[satsCounter][0] =
+              satPosECEFMetersVelocityMPS.positionXMeters;
+          satellitesPositionsECEFMeters[satsCounter][1] =
+              satPosECEFMetersVelocityMPS.positionYMeters;
+          satellitesPositionsECEFMeters[satsCounter][2] =
+              satPosECEFMetersVelocityMPS.positionZMeters;
+
+          // Calculate the satellite clock drift
+          satelliteClockCorrectionMeters =
+              calculateSatelliteClockCorrectionMeters(
+                  ephemeridesProto,
+                  correctedTowAndWeek.gpsTimeOfWeekSeconds,
+                  correctedTowAndWeek.weekNumber);
+        }
 
         // Calculate ionospheric and tropospheric corrections
         double ionosphericCorrectionMeters;
         double troposphericCorrectionMeters;
         if (doAtmosphericCorrections) {
-          ionosphericCorrectionMeters =
-              IonosphericModel.ionoKlobucharCorrectionSeconds(
-                      userPositionTempECEFMeters,
-                      satellitesPositionsECEFMeters[satsCounter],
-                      correctedTowAndWeek.gpsTimeOfWeekSeconds,
-                      alpha,
-                      beta,
-                      IonosphericModel.L1_FREQ_HZ)
-                  * SPEED_OF_LIGHT_MPS;
-
-          troposphericCorrectionMeters =
-              calculateTroposphericCorrectionMeters(
-                  dayOfYear1To366,
-                  satellitesPositionsECEFMeters,
-                  userPositionTempECEFMeters,
-                  satsCounter);
+          if (!solving || !reuseAtmosphericCorrections || !atmosphericCorrectionsComputed[i]) {
+            if (productsLoaded && !Double.isNaN(products.ionosphericCorrectionMeters)) {
+              ionosphericCorrectionsMeters[i] = products.ionosphericCorrectionMeters;
+              troposphericCorrectionsMeters[i] = products.troposphericCorrectionMeters;
+            } else {
+              if (correctedTowAndWeek == null) {
+                correctedTowAndWeek =
+                    calculateCorrectedTransmitTowAndWeek(
+                        ephemeridesProto,
+                        receiverGPSTowAtReceptionSeconds,
+                        receiverGpsWeek,
+                        pseudorangeMeasurementMeters);
+              }
+              atmosphericCorrectionCalculator.calculateCorrectionsMeters(
+                  satellitesPositionsECEFMeters[satsCounter],
+                  correctedTowAndWeek.gpsTimeOfWeekSeconds,
+                  alpha,
+                  beta,
+                  atmosphericCorrections);
+              ionosphericCorrectionsMeters[i] = atmosphericCorrections.ionosphericCorrectionMeters;
+              troposphericCorrectionsMeters[i] =
+                  atmosphericCorrections.troposphericCorrectionMeters;
+            }
+            atmosphericCorrectionsComputed[i] = solving;
+          }
+          ionosphericCorrectionMeters = ionosphericCorrectionsMeters[i];
+          troposphericCorrectionMeters = troposphericCorrectionsMeters[i];
         } else {
           troposphericCorrectionMeters = 0.0;
           ionosphericCorrectionMeters = 0.0;
         }
+
+        // The products of the last iteration are recorded with the solution
+        if (products != null && !productsLoaded) {
+          products.positionXMeters = satellitesPositionsECEFMeters[satsCounter][0];
+          products.positionYMeters = satellitesPositionsECEFMeters[satsCounter][1];
+          products.positionZMeters = satellitesPositionsECEFMeters[satsCounter][2];
+          products.clockCorrectionMeters = satelliteClockCorrectionMeters;
+          products.ionosphericCorrectionMeters =
+              doAtmosphericCorrections ? ionosphericCorrectionMeters : Double.NaN;
+          products.troposphericCorrectionMeters =
+              doAtmosphericCorrections ? troposphericCorrectionMeters : Double.NaN;
+        }
+
         double predictedPseudorangeMeters =
             calculatePredictedPseudorange(
                 userPositionECEFMeters,
                 satellitesPositionsECEFMeters,
                 userPositionTempECEFMeters,
                 satsCounter,
-                ephemeridesProto,
-                correctedTowAndWeek,
+                satelliteClockCorrectionMeters,
                 ionosphericCorrectionMeters,
                 troposphericCorrectionMeters);
 
@@ -737,28 +1195,171 @@ class UserPositionVelocityWeightedLeastSquare {
         deltaPseudorangesMeters[satsCounter] =
             pseudorangeMeasurementMeters - predictedPseudorangeMeters;
 
-        // Satellite PRNs
-        satellitePRNs[satsCounter] = i + 1;
+        // Satellite slots
+        satelliteSlots[satsCounter] = i;
         satsCounter++;
       }
     }
   }
 
+  /**
+   * Loads from {@link #intermediateProductsCache} the products of the satellites of {@link
+   * #smoothedMeasurements} at the epoch of the solution, computed from the current ephemerides.
+   * The atmospheric delays of the satellites whose products are not found are reset, so that only
+   * those computed for this epoch are recorded.
+   */
+  private void loadIntermediateProducts(
+      GpsNavMessageProto navMessageProto, double receiverGpsTowSeconds, int receiverGpsWeek) {
+    epochGpsNanos =
+        receiverGpsWeek * GpsTime.NANOS_IN_WEEK + Math.round(receiverGpsTowSeconds * 1e9);
+    for (int i = 0; i < smoothedMeasurements.getNumberOfSlots(); i++) {
+      IntermediateProductsCache.SatelliteProducts products = satelliteProducts[i];
+      int satelliteKey = smoothedMeasurements.satelliteKeys[i];
+      GpsEphemerisProto ephemerisProto =
+          getEphemerisForSatellite(navMessageProto, SatelliteKey.getSvid(satelliteKey));
+      satelliteProductsLoaded[i] =
+          smoothedMeasurements.isValid(i)
+              && ephemerisProto != null
+              && intermediateProductsCache.find(
+                  epochGpsNanos,
+                  satelliteKey,
+                  IntermediateProductsCache.getEphemerisVersion(ephemerisProto),
+                  products);
+      if (!satelliteProductsLoaded[i]) {
+        products.ionosphericCorrectionMeters = Double.NaN;
+        products.troposphericCorrectionMeters = Double.NaN;
+      }
+    }
+  }
+
+  /**
+   * Records into {@link #intermediateProductsCache} the products computed for the satellites of
+   * the solution, i.e. the satellites of {@link #smoothedMeasurements} that are still valid.
+   */
+  private void recordIntermediateProducts(GpsNavMessageProto navMessageProto) {
+    for (int i = 0; i < smoothedMeasurements.getNumberOfSlots(); i++) {
+      if (smoothedMeasurements.isValid(i) && !satelliteProductsLoaded[i]) {
+        int satelliteKey = smoothedMeasurements.satelliteKeys[i];
+        intermediateProductsCache.record(
+            epochGpsNanos,
+            satelliteKey,
+            IntermediateProductsCache.getEphemerisVersion(
+                getEphemerisForSatellite(navMessageProto, SatelliteKey.getSvid(satelliteKey))),
+            satelliteProducts[i]);
+      }
+    }
+  }
+
+  /** Returns {@code true} if a deadline is set and passed. */
+  private boolean isDeadlinePassed() {
+    return hasDeadline && System.nanoTime() - deadlineNanoTime > 0;
+  }
+
+  /**
+   * Calculates the position and velocity of the satellite of {@code ephemerisProto} from the
+   * precise orbits if they cover it, else from its broadcast ephemeris, including the Sagnac effect
+   * seen from the user position. The returned instance is only valid until the next call.
+   */
+  private PositionAndVelocity calculateSatellitePositionAndVelocity(
+      GpsEphemerisProto ephemerisProto,
+      double receiverGpsTowAtTimeOfTransmissionCorrectedSec,
+      int receiverGpsWeekAtTimeOfTransmission,
+      double userPosXMeters,
+      double userPosYMeters,
+      double userPosZMeters)
+      throws Exception {
+    if (preciseEphemeris != null) {
+      PositionAndVelocity satPosAndVel = preciseSatPosAndVel;
+      if (preciseEphemeris.hasSatellite(
+              ephemerisProto.prn,
+              receiverGpsTowAtTimeOfTransmissionCorrectedSec,
+              receiverGpsWeekAtTimeOfTransmission)
+          && preciseEphemeris.calculateSatellitePositionAndVelocity(
+              ephemerisProto.prn,
+              receiverGpsTowAtTimeOfTransmissionCorrectedSec,
+              receiverGpsWeekAtTimeOfTransmission,
+              userPosXMeters,
+              userPosYMeters,
+              userPosZMeters,
+              satPosAndVel)) {
+        return satPosAndVel;
+      }
+    }
+    return SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+        ephemerisProto,
+        receiverGpsTowAtTimeOfTransmissionCorrectedSec,
+        receiverGpsWeekAtTimeOfTransmission,
+        userPosXMeters,
+        userPosYMeters,
+        userPosZMeters);
+  }
+
+  /**
+   * Calculates the clock correction in meters of the satellite of {@code ephemerisProto} from the
+   * precise clocks if they cover it, corrected with the broadcast group delay, else from its
+   * broadcast ephemeris.
+   */
+  private double calculateSatelliteClockCorrectionMeters(
+      GpsEphemerisProto ephemerisProto,
+      double receiverGpsTowAtTimeOfTransmission,
+      int receiverGpsWeekAtTimeOfTransmission)
+      throws Exception {
+    if (preciseEphemeris != null
+        && preciseEphemeris.hasSatellite(
+            ephemerisProto.prn,
+            receiverGpsTowAtTimeOfTransmission,
+            receiverGpsWeekAtTimeOfTransmission)) {
+      double satelliteClockCorrectionMeters =
+          preciseEphemeris.calculateSatelliteClockCorrectionMeters(
+              ephemerisProto.prn,
+              receiverGpsTowAtTimeOfTransmission,
+              receiverGpsWeekAtTimeOfTransmission);
+      if (!Double.isNaN(satelliteClockCorrectionMeters)) {
+        return satelliteClockCorrectionMeters - ephemerisProto.tgd * SPEED_OF_LIGHT_MPS;
+      }
+    }
+    return SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+            ephemerisProto, receiverGpsTowAtTimeOfTransmission, receiverGpsWeekAtTimeOfTransmission)
+        .satelliteClockCorrectionMeters;
+  }
+
+  /**
+   * Calculates the clock error rate in meters per second of the satellite of {@code
+   * ephemerisProto} from the derivatives of the precise clock and orbit interpolations if they
+   * cover it, else from its broadcast ephemeris. The group delay is constant and has no rate.
+   */
+  private double calculateSatelliteClockCorrectionRateMps(
+      GpsEphemerisProto ephemerisProto,
+      double receiverGpsTowAtTimeOfTransmission,
+      int receiverGpsWeekAtTimeOfTransmission)
+      throws Exception {
+    if (preciseEphemeris != null
+        && preciseEphemeris.hasSatellite(
+            ephemerisProto.prn,
+            receiverGpsTowAtTimeOfTransmission,
+            receiverGpsWeekAtTimeOfTransmission)) {
+      double satelliteClockCorrectionRateMps =
+          preciseEphemeris.calculateSatelliteClockCorrectionRateMps(
+              ephemerisProto.prn,
+              receiverGpsTowAtTimeOfTransmission,
+              receiverGpsWeekAtTimeOfTransmission);
+      if (!Double.isNaN(satelliteClockCorrectionRateMps)) {
+        return satelliteClockCorrectionRateMps;
+      }
+    }
+    return SatelliteClockCorrectionCalculator.calculateSatClockCorrErrorRate(
+        ephemerisProto, receiverGpsTowAtTimeOfTransmission, receiverGpsWeekAtTimeOfTransmission);
+  }
+
   /** Searches ephemerides list for the ephemeris associated with current satellite in process */
   private GpsEphemerisProto getEphemerisForSatellite(
       GpsNavMessageProto navMessageProto, int satPrn) {
-    List<GpsEphemerisProto> ephemeridesList =
-        new ArrayList<GpsEphemerisProto>(Arrays.asList(navMessageProto.ephemerids));
-    GpsEphemerisProto ephemeridesProto = null;
-    int ephemerisPrn = 0;
-    for (GpsEphemerisProto ephProtoFromList : ephemeridesList) {
-      ephemerisPrn = ephProtoFromList.prn;
-      if (ephemerisPrn == satPrn) {
-        ephemeridesProto = ephProtoFromList;
-        break;
+    for (GpsEphemerisProto ephemeridesProto : navMessageProto.ephemerids) {
+      if (ephemeridesProto.prn == satPrn) {
+        return ephemeridesProto;
       }
     }
-    return ephemeridesProto;
+    return null;
   }
 
   /** Calculates predicted pseudorange in meters */
@@ -767,19 +1368,9 @@ class UserPositionVelocityWeightedLeastSquare {
       double[][] satellitesPositionsECEFMeters,
       double[] userPositionNoClockECEFMeters,
       int satsCounter,
-      GpsEphemerisProto ephemeridesProto,
-      GpsTimeOfWeekAndWeekNumber correctedTowAndWeek,
+      double satelliteClockCorrectionMeters,
       double ionosphericCorrectionMeters,
-      double troposphericCorrectionMeters)
-      throws Exception {
-    // Calculate the satellite clock drift
-    double satelliteClockCorrectionMeters =
-        SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
-                ephemeridesProto,
-                correctedTowAndWeek.gpsTimeOfWeekSeconds,
-                correctedTowAndWeek.weekNumber)
-            .satelliteClockCorrectionMeters;
-
+      double troposphericCorrectionMeters) {
     double satelliteToUserDistanceMeters =
         GpsMathOperations.vectorNorm(
             GpsMathOperations.subtractTwoVectors(
@@ -794,31 +1385,30 @@ class UserPositionVelocityWeightedLeastSquare {
     return predictedPseudorangeMeters;
   }
 
-  /** Calculates the Gps tropospheric correction in meters */
-  private double calculateTroposphericCorrectionMeters(
-      int dayOfYear1To366,
-      double[][] satellitesPositionsECEFMeters,
-      double[] userPositionTempECEFMeters,
-      int satsCounter) {
-    double troposphericCorrectionMeters;
-    TopocentricAEDValues elevationAzimuthDist =
-        EcefToTopocentricConverter.convertCartesianToTopocentricRadMeters(
-            userPositionTempECEFMeters,
-            GpsMathOperations.subtractTwoVectors(
-                satellitesPositionsECEFMeters[satsCounter], userPositionTempECEFMeters));
-
-    GeodeticLlaValues lla =
-        Ecef2LlaConverter.convertECEFToLLACloseForm(
-            userPositionTempECEFMeters[0],
-            userPositionTempECEFMeters[1],
-            userPositionTempECEFMeters[2]);
-
-    // Geoid of the area where the receiver is located is calculated once and used for the
-    // rest of the dataset as it change very slowly over wide area. This to save the delay
-    // associated with accessing Google Elevation API. We assume this very first iteration of WLS
-    // will compute the correct altitude above the ellipsoid of the ground at the latitude and
-    // longitude
-    if (calculateGeoidMeters) {
+  /**
+   * Updates the receiver dependent terms of the atmospheric corrections at the user position {@code
+   * userPositionTempECEFMeters}. The height above sea level used by the tropospheric model is
+   * derived once per call from the geoid grid, or the Elevation API if no grid is set, rather than
+   * once per satellite.
+   */
+  private void updateAtmosphericReceiverTerms(
+      double[] userPositionTempECEFMeters, int dayOfYear1To366) {
+    atmosphericCorrectionCalculator.updateReceiverPosition(userPositionTempECEFMeters);
+    GeodeticLlaValues lla = atmosphericCorrectionCalculator.getReceiverLla();
+
+    double heightMetersAboveSeaLevel;
+    if (geoidGrid != null) {
+      // A local lookup in the geoid grid is cheap enough to follow the receiver at each update
+      geoidHeightMeters =
+          geoidGrid.getGeoidHeightMeters(
+              Math.toDegrees(lla.latitudeRadians), Math.toDegrees(lla.longitudeRadians));
+      heightMetersAboveSeaLevel = lla.altitudeMeters - geoidHeightMeters;
+    } else if (calculateGeoidMeters) {
+      // Without a geoid grid, the geoid of the area where the receiver is located is calculated
+      // once and used for the rest of the dataset as it change very slowly over wide area. This to
+      // save the delay associated with accessing Google Elevation API. We assume this very first
+      // iteration of WLS will compute the correct altitude above the ellipsoid of the ground at the
+      // latitude and longitude
       double elevationAboveSeaLevelMeters = 0;
       if (elevationApiHelper == null) {
         System.out.println(
@@ -841,37 +1431,12 @@ class UserPositionVelocityWeightedLeastSquare {
       geoidHeightMeters =
           ElevationApiHelper.calculateGeoidHeightMeters(
               lla.altitudeMeters, elevationAboveSeaLevelMeters);
-      troposphericCorrectionMeters =
-          TroposphericModelEgnos.calculateTropoCorrectionMeters(
-              elevationAzimuthDist.elevationRadians,
-              lla.latitudeRadians,
-              elevationAboveSeaLevelMeters,
-              dayOfYear1To366);
+      heightMetersAboveSeaLevel = elevationAboveSeaLevelMeters;
     } else {
-      troposphericCorrectionMeters =
-          TroposphericModelEgnos.calculateTropoCorrectionMeters(
-              elevationAzimuthDist.elevationRadians,
-              lla.latitudeRadians,
-              lla.altitudeMeters - geoidHeightMeters,
-              dayOfYear1To366);
-    }
-    return troposphericCorrectionMeters;
-  }
-
-  /**
-   * Gets the number of useful satellites from a list of {@link
-   * GpsMeasurementWithRangeAndUncertainty}.
-   */
-  private int getNumberOfUsefulSatellites(
-      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToReceiverMeasurements) {
-    // calculate the number of useful satellites
-    int numberOfUsefulSatellites = 0;
-    for (int i = 0; i < usefulSatellitesToReceiverMeasurements.size(); i++) {
-      if (usefulSatellitesToReceiverMeasurements.get(i) != null) {
-        numberOfUsefulSatellites++;
-      }
+      heightMetersAboveSeaLevel = lla.altitudeMeters - geoidHeightMeters;
     }
-    return numberOfUsefulSatellites;
+    atmosphericCorrectionCalculator.updateTroposphericTerms(
+        heightMetersAboveSeaLevel, dayOfYear1To366);
   }
 
   /**
@@ -887,7 +1452,7 @@ class UserPositionVelocityWeightedLeastSquare {
    * @param pseudorangeMeters Measured pseudorange in meters
    * @return GpsTimeOfWeekAndWeekNumber Object containing Gps time of week and week number.
    */
-  private static GpsTimeOfWeekAndWeekNumber calculateCorrectedTransmitTowAndWeek(
+  private GpsTimeOfWeekAndWeekNumber calculateCorrectedTransmitTowAndWeek(
       GpsEphemerisProto ephemerisProto,
       double receiverGpsTowAtReceptionSeconds,
       int receiverGpsWeek,
@@ -909,9 +1474,8 @@ class UserPositionVelocityWeightedLeastSquare {
 
     // Compute the satellite clock correction term (Seconds)
     double clockCorrectionSeconds =
-        SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
-                    ephemerisProto, receiverGpsTowAtTimeOfTransmission, receiverGpsWeek)
-                .satelliteClockCorrectionMeters
+        calculateSatelliteClockCorrectionMeters(
+                ephemerisProto, receiverGpsTowAtTimeOfTransmission, receiverGpsWeek)
             / SPEED_OF_LIGHT_MPS;
 
     // Correct with the satellite clock correction term
@@ -966,14 +1530,14 @@ class UserPositionVelocityWeightedLeastSquare {
   }
 
   /**
-   * Class containing satellites' PRNs, satellites' positions in ECEF meters, the pseudorange
+   * Class containing satellites' slots, satellites' positions in ECEF meters, the pseudorange
    * residual per visible satellite in meters and the covariance matrix of the pseudoranges in
    * meters square
    */
   protected static class SatellitesPositionPseudorangesResidualAndCovarianceMatrix {
 
-    /** Satellites' PRNs */
-    protected final int[] satellitePRNs;
+    /** Slots of the satellites in the {@link GpsEpochMeasurements} */
+    protected final int[] satelliteSlots;
 
     /** ECEF positions (meters) of useful satellites */
     protected final double[][] satellitesPositionsMeters;
@@ -985,12 +1549,13 @@ class UserPositionVelocityWeightedLeastSquare {
     protected final double[][] covarianceMatrixMetersSquare;
 
     /** Constructor */
-    private SatellitesPositionPseudorangesResidualAndCovarianceMatrix(
-        int[] satellitePRNs,
+    @VisibleForTesting
+    SatellitesPositionPseudorangesResidualAndCovarianceMatrix(
+        int[] satelliteSlots,
         double[][] satellitesPositionsMeters,
         double[] pseudorangeResidualsMeters,
         double[][] covarianceMatrixMetersSquare) {
-      this.satellitePRNs = satellitePRNs;
+      this.satelliteSlots = satelliteSlots;
       this.satellitesPositionsMeters = satellitesPositionsMeters;
       this.pseudorangeResidualsMeters = pseudorangeResidualsMeters;
       this.covarianceMatrixMetersSquare = covarianceMatrixMetersSquare;
@@ -1015,26 +1580,21 @@ class UserPositionVelocityWeightedLeastSquare {
   /**
    * Uses the common reception time approach to calculate pseudoranges from the time of week
    * measurements reported by the receiver according to http://cdn.intechopen.com/pdfs-wm/27712.pdf.
-   * As well computes the pseudoranges uncertainties for each input satellite
+   * As well computes the pseudoranges uncertainties for each input satellite. The pseudoranges and
+   * uncertainties are stored in {@code usefulSatellitesToReceiverMeasurements}.
    */
   @VisibleForTesting
-  static List<GpsMeasurementWithRangeAndUncertainty> computePseudorangeAndUncertainties(
-      List<GpsMeasurement> usefulSatellitesToReceiverMeasurements,
-      Long[] usefulSatellitesToTOWNs,
-      long largestTowNs) {
-
-    List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToPseudorangeMeasurements =
-        Arrays.asList(
-            new GpsMeasurementWithRangeAndUncertainty
-                [GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES]);
-    for (int i = 0; i < GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES; i++) {
-      if (usefulSatellitesToTOWNs[i] != null) {
-        double deltai = largestTowNs - usefulSatellitesToTOWNs[i];
+  static void computePseudorangeAndUncertainties(
+      GpsEpochMeasurements usefulSatellitesToReceiverMeasurements) {
+    long largestTowNs = usefulSatellitesToReceiverMeasurements.largestReceivedSvTimeNs;
+    for (int i = 0; i < usefulSatellitesToReceiverMeasurements.getNumberOfSlots(); i++) {
+      if (usefulSatellitesToReceiverMeasurements.isValid(i)) {
+        double deltai = largestTowNs - usefulSatellitesToReceiverMeasurements.receivedSvTimeNs[i];
         double pseudorangeMeters =
             (AVERAGE_TRAVEL_TIME_SECONDS + deltai * SECONDS_PER_NANO) * SPEED_OF_LIGHT_MPS;
 
         double signalToNoiseRatioLinear =
-            Math.pow(10, usefulSatellitesToReceiverMeasurements.get(i).signalToNoiseRatioDb / 10.0);
+            Math.pow(10, usefulSatellitesToReceiverMeasurements.signalToNoiseRatioDb[i] / 10.0);
         // From Global Positioning System book, Misra and Enge, page 416, the uncertainty of the
         // pseudorange measurement is calculated next.
         // For GPS C/A code chip width Tc = 1 microseconds. Narrow correlator with spacing d = 0.1
@@ -1045,12 +1605,9 @@ class UserPositionVelocityWeightedLeastSquare {
                 * Math.sqrt(
                     GPS_CORRELATOR_SPACING_IN_CHIPS
                         / (4 * GPS_DLL_AVERAGING_TIME_SEC * signalToNoiseRatioLinear));
-        usefulSatellitesToPseudorangeMeasurements.set(
-            i,
-            new GpsMeasurementWithRangeAndUncertainty(
-                usefulSatellitesToReceiverMeasurements.get(i), pseudorangeMeters, sigmaMeters));
+        usefulSatellitesToReceiverMeasurements.pseudorangeMeters[i] = pseudorangeMeters;
+        usefulSatellitesToReceiverMeasurements.pseudorangeUncertaintyMeters[i] = sigmaMeters;
       }
     }
-    return usefulSatellitesToPseudorangeMeasurements;
   }
 }
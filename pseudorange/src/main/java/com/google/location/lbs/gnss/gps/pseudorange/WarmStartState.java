@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.util.Log;
+import com.google.protobuf.nano.MessageNano;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The state of the position solver saved across restarts so that the first fix after a restart
+ * does not need to wait for new assistance data: the last navigation message used (ephemerides and
+ * ionospheric parameters), the last position and receiver clock bias solution and the geoid
+ * height.
+ *
+ * <p>The state is stored in a small binary file: a header with a format version, the state itself
+ * and a CRC32 checksum. The file is written to a temporary file first and renamed, so a crash while
+ * saving never corrupts the previous state.
+ */
+class WarmStartState {
+
+  private static final String TAG = "WarmStartState";
+  private static final int MAGIC = 0x57534753; // "WSGS"
+  private static final int FORMAT_VERSION = 1;
+  private static final int SECONDS_IN_WEEK = 604800;
+  /** A state older than this is discarded entirely */
+  private static final long MAXIMUM_STATE_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+  /** Valid receiver positions are within this range of distances from the earth center */
+  private static final double MINIMUM_EARTH_CENTER_DISTANCE_METERS = 6.3e6;
+  private static final double MAXIMUM_EARTH_CENTER_DISTANCE_METERS = 6.5e6;
+
+  /** Time in milliseconds since the Java epoch at which the state was saved */
+  public long savedTimeMillis;
+  /** Last position solution in ECEF meters, or {@code null} if not available */
+  public double[] positionEcefMeters;
+  /** Receiver clock bias in meters of the last position solution */
+  public double clockBiasMeters;
+  /** Geoid height in meters at the last position, or NaN if not known */
+  public double geoidHeightMeters = Double.NaN;
+  /** Last navigation message used, or {@code null} if not available */
+  public GpsNavMessageProto navMessageProto;
+
+  /** Writes the state to {@code file}, replacing its previous content atomically. */
+  public void write(File file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream dataOutputStream = new DataOutputStream(bytes);
+    dataOutputStream.writeInt(MAGIC);
+    dataOutputStream.writeInt(FORMAT_VERSION);
+    dataOutputStream.writeLong(savedTimeMillis);
+    dataOutputStream.writeBoolean(positionEcefMeters != null);
+    if (positionEcefMeters != null) {
+      dataOutputStream.writeDouble(positionEcefMeters[0]);
+      dataOutputStream.writeDouble(positionEcefMeters[1]);
+      dataOutputStream.writeDouble(positionEcefMeters[2]);
+      dataOutputStream.writeDouble(clockBiasMeters);
+    }
+    dataOutputStream.writeDouble(geoidHeightMeters);
+    byte[] navMessageBytes =
+        navMessageProto == null ? new byte[0] : MessageNano.toByteArray(navMessageProto);
+    dataOutputStream.writeInt(navMessageBytes.length);
+    dataOutputStream.write(navMessageBytes);
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    dataOutputStream.writeLong(crc.getValue());
+    dataOutputStream.flush();
+
+    File temporaryFile = new File(file.getPath() + ".tmp");
+    FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile);
+    try {
+      bytes.writeTo(fileOutputStream);
+      fileOutputStream.getFD().sync();
+    } finally {
+      fileOutputStream.close();
+    }
+    if (!temporaryFile.renameTo(file)) {
+      throw new IOException("Could not rename " + temporaryFile + " to " + file);
+    }
+  }
+
+  /**
+   * Reads the state saved in {@code file} and checks its validity at the time {@code nowMillis} in
+   * milliseconds since the Java epoch. Returns {@code null} if the file does not exist, is
+   * corrupted or is too old. Ephemerides that are no longer valid are dropped, and so is the
+   * navigation message if none is left; an implausible position is dropped as well.
+   */
+  public static WarmStartState read(File file, long nowMillis) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      byte[] bytes = readFully(file);
+      if (bytes.length < 8) {
+        return null;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length - 8);
+      DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (dataInputStream.readInt() != MAGIC || dataInputStream.readInt() != FORMAT_VERSION) {
+        Log.w(TAG, "Ignoring warm start state of another format: " + file);
+        return null;
+      }
+      WarmStartState state = new WarmStartState();
+      state.savedTimeMillis = dataInputStream.readLong();
+      if (dataInputStream.readBoolean()) {
+        state.positionEcefMeters =
+            new double[] {
+              dataInputStream.readDouble(),
+              dataInputStream.readDouble(),
+              dataInputStream.readDouble()
+            };
+        state.clockBiasMeters = dataInputStream.readDouble();
+      }
+      state.geoidHeightMeters = dataInputStream.readDouble();
+      int navMessageLength = dataInputStream.readInt();
+      if (navMessageLength < 0 || navMessageLength > bytes.length) {
+        return null;
+      }
+      byte[] navMessageBytes = new byte[navMessageLength];
+      dataInputStream.readFully(navMessageBytes);
+      if (dataInputStream.readLong() != crc.getValue()) {
+        Log.w(TAG, "Ignoring corrupted warm start state: " + file);
+        return null;
+      }
+      if (navMessageLength > 0) {
+        state.navMessageProto = GpsNavMessageProto.parseFrom(navMessageBytes);
+      }
+
+      long ageMillis = nowMillis - state.savedTimeMillis;
+      if (ageMillis < 0 || ageMillis > MAXIMUM_STATE_AGE_MILLIS) {
+        return null;
+      }
+      if (state.positionEcefMeters != null && !isPlausiblePosition(state.positionEcefMeters)) {
+        state.positionEcefMeters = null;
+      }
+      if (state.navMessageProto != null) {
+        state.navMessageProto =
+            removeExpiredEphemerides(
+                state.navMessageProto, GpsTimeArithmetic.utcMillisToGpsNanos(nowMillis));
+      }
+      return state;
+    } catch (IOException e) {
+      Log.w(TAG, "Cannot read warm start state: " + file, e);
+      return null;
+    }
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    FileInputStream fileInputStream = new FileInputStream(file);
+    try {
+      byte[] chunk = new byte[4096];
+      int count;
+      while ((count = fileInputStream.read(chunk)) != -1) {
+        bytes.write(chunk, 0, count);
+      }
+    } finally {
+      fileInputStream.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  private static boolean isPlausiblePosition(double[] positionEcefMeters) {
+    double distanceMeters = GpsMathOperations.vectorNorm(positionEcefMeters);
+    return distanceMeters >= MINIMUM_EARTH_CENTER_DISTANCE_METERS
+        && distanceMeters <= MAXIMUM_EARTH_CENTER_DISTANCE_METERS;
+  }
+
+  /**
+   * Returns {@code navMessageProto} without the ephemerides that are not valid at {@code
+   * nowGpsNanos} nanoseconds since the GPS epoch, or {@code null} if no valid ephemeris or no
+   * ionospheric parameters are left.
+   */
+  private static GpsNavMessageProto removeExpiredEphemerides(
+      GpsNavMessageProto navMessageProto, long nowGpsNanos) {
+    if (navMessageProto.iono == null) {
+      return null;
+    }
+    int gpsWeek = GpsTimeArithmetic.getGpsWeek(nowGpsNanos);
+    double gpsTowSeconds = GpsTimeArithmetic.getGpsTowSeconds(nowGpsNanos);
+    List<GpsEphemerisProto> validEphemerides = new ArrayList<GpsEphemerisProto>();
+    for (GpsEphemerisProto ephemeris : navMessageProto.ephemerids) {
+      double secondsSinceToe =
+          (gpsWeek - ephemeris.week) * (double) SECONDS_IN_WEEK + gpsTowSeconds - ephemeris.toe;
+      if (Math.abs(secondsSinceToe) <= AsyncNavMessageFetcher.EPHEMERIS_VALIDITY_SECONDS) {
+        validEphemerides.add(ephemeris);
+      }
+    }
+    if (validEphemerides.isEmpty()) {
+      return null;
+    }
+    navMessageProto.ephemerids =
+        validEphemerides.toArray(new GpsEphemerisProto[validEphemerides.size()]);
+    return navMessageProto;
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AsyncNavMessageFetcher}, fetching from a {@link LocalSuplResponder} on the
+ * calling thread with a manually advanced time.
+ */
+public class AsyncNavMessageFetcherTest {
+
+  private static final double[] ALPHA = {1.0e-8, 1.5e-8, -6.0e-8, -1.2e-7};
+  private static final double[] BETA = {9.0e4, 1.0e5, -6.0e4, -5.0e5};
+  private static final int GPS_WEEK = 2200;
+  private static final double TOE_SECONDS = 345600.0;
+  private static final long LAT_E7 = 374220000L;
+  private static final long LNG_E7 = -1220840000L;
+  /** PRNs 1, 2 and 3 */
+  private static final long VISIBLE_SATELLITES_MASK = 0b111;
+  /** Time of week at which the ephemerides are fresh */
+  private static final double FRESH_TOW_SECONDS = TOE_SECONDS + 600.0;
+  /** Time of week at which the ephemerides are about to expire */
+  private static final double EXPIRING_TOW_SECONDS =
+      TOE_SECONDS + AsyncNavMessageFetcher.EPHEMERIS_VALIDITY_SECONDS - 60.0;
+
+  private LocalSuplResponder responder;
+  private ManualTicker ticker;
+  private AsyncNavMessageFetcher fetcher;
+
+  /** Ticker advanced by the tests */
+  private static class ManualTicker extends Ticker {
+    private long nanos = TimeUnit.HOURS.toNanos(1);
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    responder =
+        new LocalSuplResponder(
+            LocalSuplResponder.createNavMessage(ALPHA, BETA, GPS_WEEK, TOE_SECONDS, 1, 2, 3));
+    ticker = new ManualTicker();
+    fetcher =
+        new AsyncNavMessageFetcher(responder, MoreExecutors.newDirectExecutorService(), ticker);
+  }
+
+  private boolean requestRefresh(long visibleSatellitesMask, double gpsTowSeconds) {
+    return fetcher.requestRefreshIfNeeded(
+        LAT_E7, LNG_E7, visibleSatellitesMask, gpsTowSeconds, GPS_WEEK);
+  }
+
+  @Test
+  public void requestRefreshIfNeeded_fetchesFirstMessage() {
+    assertNull(fetcher.getLatestNavMessage());
+
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+
+    assertEquals(1, responder.getNumberOfRequests());
+    assertEquals(3, fetcher.getLatestNavMessage().ephemerids.length);
+  }
+
+  @Test
+  public void requestRefreshIfNeeded_doesNotRefetchFreshEphemerides() {
+    requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS);
+    ticker.advanceMillis(TimeUnit.MINUTES.toMillis(30));
+
+    assertFalse(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS + 1800.0));
+    assertEquals(1, responder.getNumberOfRequests());
+  }
+
+  @Test
+  public void requestRefreshIfNeeded_throttlesExpiringEphemerides() {
+    // The server keeps returning the same ephemerides, about to expire
+    requestRefresh(VISIBLE_SATELLITES_MASK, EXPIRING_TOW_SECONDS);
+
+    // One request per epoch during the minimum refresh interval
+    for (int i = 1; i < AsyncNavMessageFetcher.MINIMUM_REFRESH_INTERVAL_MILLIS / 1000; i++) {
+      ticker.advanceMillis(1000);
+      assertFalse(requestRefresh(VISIBLE_SATELLITES_MASK, EXPIRING_TOW_SECONDS + i));
+    }
+    assertEquals(1, responder.getNumberOfRequests());
+
+    ticker.advanceMillis(1000);
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, EXPIRING_TOW_SECONDS + 60.0));
+    assertEquals(2, responder.getNumberOfRequests());
+  }
+
+  @Test
+  public void requestRefreshIfNeeded_throttlesMissingEphemerides() {
+    // PRN 4 is visible but the server has no ephemeris for it
+    long visibleSatellitesMask = VISIBLE_SATELLITES_MASK | 0b1000;
+    requestRefresh(visibleSatellitesMask, FRESH_TOW_SECONDS);
+
+    ticker.advanceMillis(AsyncNavMessageFetcher.MINIMUM_REFRESH_INTERVAL_MILLIS - 1);
+    assertFalse(requestRefresh(visibleSatellitesMask, FRESH_TOW_SECONDS + 59.0));
+
+    ticker.advanceMillis(1);
+    assertTrue(requestRefresh(visibleSatellitesMask, FRESH_TOW_SECONDS + 60.0));
+    assertEquals(2, responder.getNumberOfRequests());
+  }
+
+  @Test
+  public void requestRefreshIfNeeded_refreshesInitialMessageAtOnce() {
+    GpsNavMessageProto restoredNavMessage =
+        LocalSuplResponder.createNavMessage(ALPHA, BETA, GPS_WEEK, TOE_SECONDS, 1, 2, 3);
+    fetcher.setInitialNavMessage(restoredNavMessage);
+
+    // The restored message was not fetched by this run, so it is not throttled
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, EXPIRING_TOW_SECONDS));
+    assertEquals(1, responder.getNumberOfRequests());
+  }
+
+  @Test
+  public void requestRefreshIfNeeded_backsOffExponentiallyOnFailures() {
+    responder.failNextRequests(2);
+    long backoffMillis = AsyncNavMessageFetcher.INITIAL_BACKOFF_MILLIS;
+
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+    ticker.advanceMillis(backoffMillis - 1);
+    assertFalse(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+    ticker.advanceMillis(1);
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+
+    // The backoff doubled after the second failure
+    ticker.advanceMillis(backoffMillis);
+    assertFalse(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+    ticker.advanceMillis(backoffMillis);
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+
+    assertEquals(3, responder.getNumberOfRequests());
+    assertEquals(3, fetcher.getLatestNavMessage().ephemerids.length);
+  }
+
+  @Test
+  public void requestRefreshIfNeeded_treatsEmptyMessageAsFailure() {
+    responder.setNavMessage(new GpsNavMessageProto());
+
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+    assertNull(fetcher.getLatestNavMessage());
+    assertFalse(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+
+    ticker.advanceMillis(AsyncNavMessageFetcher.INITIAL_BACKOFF_MILLIS);
+    assertTrue(requestRefresh(VISIBLE_SATELLITES_MASK, FRESH_TOW_SECONDS));
+    assertEquals(2, responder.getNumberOfRequests());
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.location.lbs.gnss.gps.pseudorange.AtmosphericCorrectionCalculator.AtmosphericCorrections;
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import com.google.location.lbs.gnss.gps.pseudorange.EcefToTopocentricConverter.TopocentricAEDValues;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AtmosphericCorrectionCalculator}, comparing the corrections computed from the
+ * receiver terms of each epoch with the per satellite evaluation of {@link IonosphericModel} and
+ * {@link TroposphericModelEgnos} they replace.
+ */
+public class AtmosphericCorrectionCalculatorTest {
+
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double SATELLITE_RANGE_METERS = 2.2e7;
+  private static final double GEOID_HEIGHT_METERS = 25.0;
+  private static final double GPS_TOW_SECONDS = 345600.0 + 13 * 3600.0;
+  private static final double[] ALPHA = {1.1176e-8, 7.4506e-9, -5.9605e-8, -5.9605e-8};
+  private static final double[] BETA = {90112, 0, -196608, -65536};
+
+  // Latitudes on both sides and at the nodes of the 15 to 75 degrees tables of the EGNOS model
+  private static final double[] LATITUDES_DEGREES = {-89.5, -75, -47.3, -15, 0, 10, 37.4, 75, 82};
+  private static final double[] LONGITUDES_DEGREES = {-122.1, 0.0, 151.2};
+  private static final double[] HEIGHTS_METERS = {-50.0, 0.0, 812.5, 4300.0};
+  // Days of minimum temperature in both hemispheres and the ends of the year
+  private static final int[] DAYS_OF_YEAR = {1, 28, 183, 211, 366};
+  // Elevations below the 2 degrees clamp of the mapping functions and at zenith
+  private static final double[] ELEVATIONS_DEGREES = {-3, 1, 2, 5, 15, 30, 60, 89.9, 90};
+  private static final double AZIMUTH_STEP_DEGREES = 30.0;
+
+  /** Returns the ECEF position of a satellite seen at {@code elevation} and {@code azimuth}. */
+  private static double[] createSatellitePosition(
+      double[] receiverEcefMeters,
+      GeodeticLlaValues receiverLla,
+      double elevationRadians,
+      double azimuthRadians) {
+    double[][] ecefToEnu =
+        Ecef2EnuConverter.getRotationMatrix(
+                receiverLla.latitudeRadians, receiverLla.longitudeRadians)
+            .getData();
+    double[] enu = {
+      Math.cos(elevationRadians) * Math.sin(azimuthRadians),
+      Math.cos(elevationRadians) * Math.cos(azimuthRadians),
+      Math.sin(elevationRadians)
+    };
+    double[] satelliteEcefMeters = new double[3];
+    for (int i = 0; i < 3; i++) {
+      satelliteEcefMeters[i] = receiverEcefMeters[i];
+      for (int j = 0; j < 3; j++) {
+        satelliteEcefMeters[i] += SATELLITE_RANGE_METERS * ecefToEnu[j][i] * enu[j];
+      }
+    }
+    return satelliteEcefMeters;
+  }
+
+  /**
+   * Returns the tropospheric correction as computed before the receiver terms were split from the
+   * mapping functions, with the coefficients of the UNBabc mapping functions evaluated for each
+   * satellite. The zenith delays are computed by the same unchanged code in both paths.
+   */
+  private static double calculateUnsplitTroposphericCorrectionMeters(
+      double satElevationRadians,
+      double userLatitudeRadians,
+      double heightMetersAboveSeaLevel,
+      int dayOfYear1To366) {
+    if (satElevationRadians > Math.PI / 2.0) {
+      satElevationRadians = Math.PI / 2.0;
+    } else if (satElevationRadians < 2.0 * Math.PI / 180.0) {
+      satElevationRadians = Math.toRadians(2.0);
+    }
+    double bHydrostatic = 0.0035716;
+    double cHydrostatic = 0.082456;
+    double bNonHydrostatic = 0.0018576;
+    double cNonHydrostatic = 0.062741;
+
+    double aHydrostatic =
+        (1.18972
+                - 0.026855 * heightMetersAboveSeaLevel / 1000.0
+                + 0.10664 * Math.cos(userLatitudeRadians))
+            / 1000.0;
+    double numeratorDry = 1.0 + (aHydrostatic / (1.0 + (bHydrostatic / (1.0 + cHydrostatic))));
+    double denominatorDry =
+        Math.sin(satElevationRadians)
+            + (aHydrostatic
+                / (Math.sin(satElevationRadians)
+                    + (bHydrostatic / (Math.sin(satElevationRadians) + cHydrostatic))));
+    double drymap = numeratorDry / denominatorDry;
+
+    double aNonHydrostatic =
+        (0.61120
+                - 0.035348 * heightMetersAboveSeaLevel / 1000.0
+                - 0.01526 * Math.cos(userLatitudeRadians))
+            / 1000.0;
+    double numeratorWet =
+        1.0 + (aNonHydrostatic / (1.0 + (bNonHydrostatic / (1.0 + cNonHydrostatic))));
+    double denominatorWet =
+        Math.sin(satElevationRadians)
+            + (aNonHydrostatic
+                / (Math.sin(satElevationRadians)
+                    + (bNonHydrostatic / (Math.sin(satElevationRadians) + cNonHydrostatic))));
+    double wetmap = numeratorWet / denominatorWet;
+
+    TroposphericModelEgnos.ReceiverTerms zenithDelays =
+        TroposphericModelEgnos.calculateReceiverTerms(
+            userLatitudeRadians, heightMetersAboveSeaLevel, dayOfYear1To366);
+    double drydelaySeconds = zenithDelays.dryZenithDelaySec * drymap;
+    double wetdelaySeconds = zenithDelays.wetZenithDelaySec * wetmap;
+    return drydelaySeconds + wetdelaySeconds;
+  }
+
+  @Test
+  public void calculateCorrectionsMeters_equalsPerSatelliteModels() {
+    // A single calculator follows the receiver through the grid, refreshing its receiver terms
+    AtmosphericCorrectionCalculator calculator = new AtmosphericCorrectionCalculator();
+    AtmosphericCorrections corrections = new AtmosphericCorrections();
+    int numberOfComparisons = 0;
+    for (double latitudeDegrees : LATITUDES_DEGREES) {
+      for (double longitudeDegrees : LONGITUDES_DEGREES) {
+        for (double heightMeters : HEIGHTS_METERS) {
+          double[] receiverEcefMeters =
+              Lla2EcefConverter.convertFromLlaToEcefMeters(
+                  new GeodeticLlaValues(
+                      Math.toRadians(latitudeDegrees),
+                      Math.toRadians(longitudeDegrees),
+                      heightMeters));
+          GeodeticLlaValues receiverLla =
+              Ecef2LlaConverter.convertECEFToLLACloseForm(
+                  receiverEcefMeters[0], receiverEcefMeters[1], receiverEcefMeters[2]);
+          double heightMetersAboveSeaLevel = receiverLla.altitudeMeters - GEOID_HEIGHT_METERS;
+          calculator.updateReceiverPosition(receiverEcefMeters);
+          for (int dayOfYear : DAYS_OF_YEAR) {
+            calculator.updateTroposphericTerms(heightMetersAboveSeaLevel, dayOfYear);
+            for (double elevationDegrees : ELEVATIONS_DEGREES) {
+              for (double azimuthDegrees = 0.0;
+                  azimuthDegrees < 360.0;
+                  azimuthDegrees += AZIMUTH_STEP_DEGREES) {
+                double[] satelliteEcefMeters =
+                    createSatellitePosition(
+                        receiverEcefMeters,
+                        receiverLla,
+                        Math.toRadians(elevationDegrees),
+                        Math.toRadians(azimuthDegrees));
+                TopocentricAEDValues elevationAzimuth =
+                    EcefToTopocentricConverter.calculateElAzDistBetween2Points(
+                        receiverEcefMeters, satelliteEcefMeters);
+                double expectedIonosphericMeters =
+                    IonosphericModel.ionoKlobucharCorrectionSeconds(
+                            receiverEcefMeters,
+                            satelliteEcefMeters,
+                            GPS_TOW_SECONDS,
+                            ALPHA,
+                            BETA,
+                            IonosphericModel.L1_FREQ_HZ)
+                        * SPEED_OF_LIGHT_MPS;
+                double expectedTroposphericMeters =
+                    calculateUnsplitTroposphericCorrectionMeters(
+                        elevationAzimuth.elevationRadians,
+                        receiverLla.latitudeRadians,
+                        heightMetersAboveSeaLevel,
+                        dayOfYear);
+
+                calculator.calculateCorrectionsMeters(
+                    satelliteEcefMeters, GPS_TOW_SECONDS, ALPHA, BETA, corrections);
+
+                String message =
+                    String.format(
+                        "lat %s lng %s h %s day %d el %s az %s",
+                        latitudeDegrees,
+                        longitudeDegrees,
+                        heightMeters,
+                        dayOfYear,
+                        elevationDegrees,
+                        azimuthDegrees);
+                assertEquals(
+                    message, elevationAzimuth.elevationRadians, corrections.elevationRadians, 0.0);
+                assertEquals(
+                    message, elevationAzimuth.azimuthRadians, corrections.azimuthRadians, 0.0);
+                assertEquals(
+                    message,
+                    expectedIonosphericMeters,
+                    corrections.ionosphericCorrectionMeters,
+                    0.0);
+                assertEquals(
+                    message,
+                    expectedTroposphericMeters,
+                    corrections.troposphericCorrectionMeters,
+                    0.0);
+                numberOfComparisons++;
+              }
+            }
+          }
+        }
+      }
+    }
+    assertEquals(
+        LATITUDES_DEGREES.length
+            * LONGITUDES_DEGREES.length
+            * HEIGHTS_METERS.length
+            * DAYS_OF_YEAR.length
+            * ELEVATIONS_DEGREES.length
+            * (int) (360.0 / AZIMUTH_STEP_DEGREES),
+        numberOfComparisons);
+  }
+
+  @Test
+  public void updateReceiverPosition_refreshesOnlyWhenReceiverMoves() {
+    AtmosphericCorrectionCalculator calculator = new AtmosphericCorrectionCalculator();
+    double[] receiverEcefMeters = {-2694685.473, -4293642.366, 3857878.924};
+
+    assertTrue(calculator.updateReceiverPosition(receiverEcefMeters));
+    assertFalse(calculator.updateReceiverPosition(receiverEcefMeters.clone()));
+    receiverEcefMeters[2] += 1e-3;
+    assertTrue(calculator.updateReceiverPosition(receiverEcefMeters));
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.GnssStatus;
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.location.cts.nano.Ephemeris.IonosphericModelProto;
+import com.google.location.lbs.gnss.gps.pseudorange.AtmosphericCorrectionCalculator.AtmosphericCorrections;
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import com.google.location.lbs.gnss.gps.pseudorange.SatelliteClockCorrectionCalculator.SatClockCorrection;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Input data shared by the benchmarks and the unit tests: the broadcast ephemerides of a full GPS
+ * constellation, the measurement epochs of a static receiver at 1 Hz and the navigation message
+ * subframes of the ephemerides as they are received over a few minutes.
+ *
+ * <p>The data is simulated with a fixed seed, so that every run of every benchmark sees exactly
+ * the same inputs and results can be compared across changes. The pseudoranges and pseudorange
+ * rates are computed from the ephemerides with the satellite clocks, the Klobuchar and EGNOS
+ * atmospheric delays and a 1 meter, respectively 5 cm/s, Gaussian noise.
+ */
+final class BenchmarkFixture {
+
+  static final int GPS_WEEK = 2200;
+  /** Reference time of the ephemerides: 2022-03-10 00:00 GPS time */
+  static final double EPHEMERIS_REFERENCE_TOW_SECONDS = 345600;
+  static final int DAY_OF_YEAR_1_TO_366 = 69;
+  static final int NUMBER_OF_SATELLITES = 31;
+  static final int NUMBER_OF_EPOCHS = 300;
+  /** Number of 30 second frames of five subframes broadcast by each satellite */
+  static final int NUMBER_OF_FRAMES = 20;
+  static final double[] RECEIVER_POSITION_ECEF_METERS =
+      Lla2EcefConverter.convertFromLlaToEcefMeters(
+          new GeodeticLlaValues(Math.toRadians(37.422), Math.toRadians(-122.084), 10.0));
+  static final double[] IONOSPHERIC_ALPHA = {1.1176e-8, 7.4506e-9, -5.9605e-8, -5.9605e-8};
+  static final double[] IONOSPHERIC_BETA = {90112, 0, -196608, -65536};
+
+  private static final long SEED = 20220310;
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double ELEVATION_MASK_RADIANS = Math.toRadians(10);
+  private static final double FIRST_EPOCH_DELAY_SECONDS = 60;
+  private static final double PSEUDORANGE_NOISE_METERS = 1.0;
+  private static final double PSEUDORANGE_RATE_NOISE_MPS = 0.05;
+  private static final double PSEUDORANGE_RATE_UNCERTAINTY_MPS = 0.1;
+  private static final int SUBFRAMES_PER_FRAME = 5;
+  private static final int EPHEMERIS_SUBFRAMES = 3;
+  private static final int PAGES_PER_SUBFRAME = 25;
+  /** Page of subframe 4 holding the ionospheric parameters */
+  private static final int IONOSPHERIC_PARAMETERS_PAGE = 18;
+  /** SV ID of the pages of subframe 4 that are not decoded, e.g. reserved pages */
+  private static final int RESERVED_PAGE_SV_ID = 57;
+  /** SV ID of the last page of subframe 5, the almanac reference time and health */
+  private static final int SUBFRAME_5_PAGE_25_SV_ID = 51;
+
+  /** Broadcast ephemerides of all the satellites and ionospheric model */
+  final GpsNavMessageProto navMessage;
+  /** GPS L1 measurements of each epoch, with their pseudoranges and uncertainties */
+  final GpsEpochMeasurements[] epochs = new GpsEpochMeasurements[NUMBER_OF_EPOCHS];
+  /** Receiver GPS time of week of each epoch */
+  final double[] receiverTowSeconds = new double[NUMBER_OF_EPOCHS];
+  /** ECEF position and GPS time of week at transmission of the satellite of each measurement */
+  final double[][] satellitePositionsEcefMeters;
+  final double[] transmitTowSeconds;
+  /** PRN, subframe id and data of the subframes in the order they are received */
+  final byte[] subframePrns =
+      new byte[NUMBER_OF_FRAMES * SUBFRAMES_PER_FRAME * NUMBER_OF_SATELLITES];
+  final short[] subframeIds = new short[subframePrns.length];
+  final byte[][] subframes = new byte[subframePrns.length][];
+
+  private BenchmarkFixture() throws Exception {
+    Random random = new Random(SEED);
+    navMessage = createNavMessage(random);
+    List<double[]> satellitePositions = new ArrayList<>();
+    List<Double> transmitTows = new ArrayList<>();
+    simulateEpochs(random, satellitePositions, transmitTows);
+    satellitePositionsEcefMeters = satellitePositions.toArray(new double[0][]);
+    transmitTowSeconds = new double[transmitTows.size()];
+    for (int i = 0; i < transmitTowSeconds.length; i++) {
+      transmitTowSeconds[i] = transmitTows.get(i);
+    }
+    simulateSubframes();
+  }
+
+  /** Creates the fixture, identical at each call. */
+  static BenchmarkFixture create() throws Exception {
+    return new BenchmarkFixture();
+  }
+
+  /** Creates ephemerides with realistic orbital planes, elements and clocks. */
+  private static GpsNavMessageProto createNavMessage(Random random) {
+    GpsNavMessageProto navMessageProto = new GpsNavMessageProto();
+    navMessageProto.ephemerids = new GpsEphemerisProto[NUMBER_OF_SATELLITES];
+    for (int i = 0; i < NUMBER_OF_SATELLITES; i++) {
+      int plane = i % 6;
+      int slot = i / 6;
+      GpsEphemerisProto ephemeris = new GpsEphemerisProto();
+      ephemeris.prn = i + 1;
+      ephemeris.week = GPS_WEEK;
+      ephemeris.toe = EPHEMERIS_REFERENCE_TOW_SECONDS;
+      ephemeris.toc = EPHEMERIS_REFERENCE_TOW_SECONDS;
+      ephemeris.iode = 16 + i;
+      ephemeris.iodc = ephemeris.iode;
+      ephemeris.svAccuracyM = 2.0;
+      ephemeris.rootOfA = 5153.6 + 2.0 * random.nextGaussian();
+      ephemeris.e = 0.002 + 0.015 * random.nextDouble();
+      ephemeris.i0 = Math.toRadians(55.0 + 1.5 * random.nextGaussian());
+      ephemeris.iDot = 1e-10 * random.nextGaussian();
+      ephemeris.omega0 = -Math.PI + plane * Math.PI / 3 + 0.05 * random.nextGaussian();
+      ephemeris.omegaDot = -8e-9 + 3e-10 * random.nextGaussian();
+      ephemeris.omega = Math.PI * (2 * random.nextDouble() - 1);
+      ephemeris.m0 = Math.IEEEremainder(slot * Math.PI / 3 + plane * 0.3, 2 * Math.PI);
+      ephemeris.deltaN = 4.5e-9 + 5e-10 * random.nextGaussian();
+      ephemeris.cuc = 5e-6 * random.nextGaussian();
+      ephemeris.cus = 5e-6 * random.nextGaussian();
+      ephemeris.cic = 1e-7 * random.nextGaussian();
+      ephemeris.cis = 1e-7 * random.nextGaussian();
+      ephemeris.crc = 200.0 + 50.0 * random.nextGaussian();
+      ephemeris.crs = 20.0 * random.nextGaussian();
+      ephemeris.af0 = 2e-4 * random.nextGaussian();
+      ephemeris.af1 = 1e-12 * random.nextGaussian();
+      ephemeris.tgd = -5e-9 + 3e-9 * random.nextGaussian();
+      navMessageProto.ephemerids[i] = ephemeris;
+    }
+    navMessageProto.iono = new IonosphericModelProto();
+    navMessageProto.iono.alpha = IONOSPHERIC_ALPHA.clone();
+    navMessageProto.iono.beta = IONOSPHERIC_BETA.clone();
+    return navMessageProto;
+  }
+
+  /**
+   * Simulates the measurements of the satellites above the elevation mask at each epoch, and lists
+   * the positions and transmission times of their satellites.
+   */
+  private void simulateEpochs(
+      Random random, List<double[]> satellitePositions, List<Double> transmitTows)
+      throws Exception {
+    AtmosphericCorrectionCalculator atmosphericCorrectionCalculator =
+        new AtmosphericCorrectionCalculator();
+    atmosphericCorrectionCalculator.updateReceiverPosition(RECEIVER_POSITION_ECEF_METERS);
+    atmosphericCorrectionCalculator.updateTroposphericTerms(
+        atmosphericCorrectionCalculator.getReceiverLla().altitudeMeters, DAY_OF_YEAR_1_TO_366);
+    AtmosphericCorrections atmosphericCorrections = new AtmosphericCorrections();
+    double[] satellitePositionEcefMeters = new double[3];
+    for (int k = 0; k < NUMBER_OF_EPOCHS; k++) {
+      double towSeconds = EPHEMERIS_REFERENCE_TOW_SECONDS + FIRST_EPOCH_DELAY_SECONDS + k;
+      GpsEpochMeasurements epoch = new GpsEpochMeasurements();
+      epoch.arrivalTimeSinceGpsWeekNs = Math.round(towSeconds * 1e9);
+      for (GpsEphemerisProto ephemeris : navMessage.ephemerids) {
+        // Time of flight of the signal, converging in a few iterations
+        double rangeMeters = 0.0;
+        double timeOfFlightSeconds = 0.075;
+        PositionAndVelocity satellite = null;
+        for (int iteration = 0; iteration < 3; iteration++) {
+          satellite =
+              SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+                  ephemeris,
+                  towSeconds - timeOfFlightSeconds,
+                  GPS_WEEK,
+                  RECEIVER_POSITION_ECEF_METERS[0],
+                  RECEIVER_POSITION_ECEF_METERS[1],
+                  RECEIVER_POSITION_ECEF_METERS[2]);
+          satellitePositionEcefMeters[0] = satellite.positionXMeters;
+          satellitePositionEcefMeters[1] = satellite.positionYMeters;
+          satellitePositionEcefMeters[2] = satellite.positionZMeters;
+          rangeMeters =
+              GpsMathOperations.vectorNorm(
+                  GpsMathOperations.subtractTwoVectors(
+                      satellitePositionEcefMeters, RECEIVER_POSITION_ECEF_METERS));
+          timeOfFlightSeconds = rangeMeters / SPEED_OF_LIGHT_MPS;
+        }
+        double transmissionTowSeconds = towSeconds - timeOfFlightSeconds;
+        atmosphericCorrectionCalculator.calculateCorrectionsMeters(
+            satellitePositionEcefMeters,
+            transmissionTowSeconds,
+            IONOSPHERIC_ALPHA,
+            IONOSPHERIC_BETA,
+            atmosphericCorrections);
+        if (atmosphericCorrections.elevationRadians < ELEVATION_MASK_RADIANS) {
+          continue;
+        }
+        satellitePositions.add(satellitePositionEcefMeters.clone());
+        transmitTows.add(transmissionTowSeconds);
+
+        SatClockCorrection satClockCorrection =
+            SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+                ephemeris, transmissionTowSeconds, GPS_WEEK);
+        double pseudorangeMeters =
+            rangeMeters
+                - satClockCorrection.satelliteClockCorrectionMeters
+                + atmosphericCorrections.ionosphericCorrectionMeters
+                + atmosphericCorrections.troposphericCorrectionMeters
+                + PSEUDORANGE_NOISE_METERS * random.nextGaussian();
+        long receivedSvTimeNs =
+            Math.round((towSeconds - pseudorangeMeters / SPEED_OF_LIGHT_MPS) * 1e9);
+
+        double rangeRateMps =
+            (satellite.velocityXMetersPerSec
+                        * (satellite.positionXMeters - RECEIVER_POSITION_ECEF_METERS[0])
+                    + satellite.velocityYMetersPerSec
+                        * (satellite.positionYMeters - RECEIVER_POSITION_ECEF_METERS[1])
+                    + satellite.velocityZMetersPerSec
+                        * (satellite.positionZMeters - RECEIVER_POSITION_ECEF_METERS[2]))
+                / rangeMeters;
+        double pseudorangeRateMps =
+            rangeRateMps
+                - SatelliteClockCorrectionCalculator.calculateSatClockCorrErrorRate(
+                    ephemeris, transmissionTowSeconds, GPS_WEEK)
+                + PSEUDORANGE_RATE_NOISE_MPS * random.nextGaussian();
+        double signalToNoiseRatioDb =
+            30.0 + 20.0 * Math.sin(atmosphericCorrections.elevationRadians);
+
+        epoch.setMeasurement(
+            SatelliteKey.create(
+                GnssStatus.CONSTELLATION_GPS, ephemeris.prn, SatelliteKey.SIGNAL_L1),
+            receivedSvTimeNs,
+            0.0 /*accumulatedDeltaRangeMeters*/,
+            false /*validAccumulatedDeltaRangeMeters*/,
+            false /*accumulatedDeltaRangeDiscontinuity*/,
+            pseudorangeRateMps,
+            signalToNoiseRatioDb,
+            0.0 /*accumulatedDeltaRangeUncertaintyMeters*/,
+            PSEUDORANGE_RATE_UNCERTAINTY_MPS);
+      }
+      UserPositionVelocityWeightedLeastSquare.computePseudorangeAndUncertainties(epoch);
+      epochs[k] = epoch;
+      receiverTowSeconds[k] = towSeconds;
+    }
+  }
+
+  /**
+   * Lists the subframes broadcast by all the satellites during {@link #NUMBER_OF_FRAMES} frames:
+   * the ephemeris subframes are repeated in every frame, and subframes 4 and 5 cycle through their
+   * pages, page 18 of subframe 4 holding the ionospheric parameters.
+   */
+  private void simulateSubframes() {
+    byte[][][] ephemerisSubframes = new byte[NUMBER_OF_SATELLITES][][];
+    for (int i = 0; i < NUMBER_OF_SATELLITES; i++) {
+      GpsEphemerisProto ephemeris = navMessage.ephemerids[i];
+      ephemerisSubframes[i] =
+          new byte[][] {
+            LnavSubframeEncoder.encodeFirstSubframe(ephemeris),
+            LnavSubframeEncoder.encodeSecondSubframe(ephemeris),
+            LnavSubframeEncoder.encodeThirdSubframe(ephemeris)
+          };
+    }
+    byte[] ionosphericPage = LnavSubframeEncoder.encodeIonosphericPage(navMessage.iono);
+    int index = 0;
+    for (int frame = 0; frame < NUMBER_OF_FRAMES; frame++) {
+      int page = frame % PAGES_PER_SUBFRAME + 1;
+      byte[] fourthSubframe =
+          page == IONOSPHERIC_PARAMETERS_PAGE
+              ? ionosphericPage
+              : LnavSubframeEncoder.encodeAlmanacPage(RESERVED_PAGE_SV_ID);
+      byte[] fifthSubframe =
+          LnavSubframeEncoder.encodeAlmanacPage(
+              page < PAGES_PER_SUBFRAME ? page : SUBFRAME_5_PAGE_25_SV_ID);
+      for (int id = 1; id <= SUBFRAMES_PER_FRAME; id++) {
+        for (int i = 0; i < NUMBER_OF_SATELLITES; i++) {
+          if (id <= EPHEMERIS_SUBFRAMES) {
+            subframes[index] = ephemerisSubframes[i][id - 1];
+          } else {
+            subframes[index] = id == 4 ? fourthSubframe : fifthSubframe;
+          }
+          subframePrns[index] = (byte) navMessage.ephemerids[i].prn;
+          subframeIds[index] = (short) id;
+          index++;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link GeoidGrid}. */
+public class GeoidGridTest {
+
+  private static final double DELTA_METERS = 1e-9;
+  /** Spacing of the test grid, giving 5 rows and 9 columns */
+  private static final double SPACING_DEGREES = 45.0;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  /**
+   * Returns a global grid in the {@code WW15MGH.GRD} format whose undulation is {@code 10 * row +
+   * column} meters, linear in latitude and longitude so that the bilinear interpolation is exact.
+   */
+  private static String createWw15mghGrid(double spacingDegrees) {
+    StringBuilder grid = new StringBuilder();
+    grid.append("-90.0 90.0 0.0 360.0 ")
+        .append(spacingDegrees)
+        .append(' ')
+        .append(spacingDegrees)
+        .append('\n');
+    int rows = (int) Math.round(180.0 / spacingDegrees) + 1;
+    int columns = (int) Math.round(360.0 / spacingDegrees) + 1;
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        grid.append(10.0 * row + column).append(column == columns - 1 ? '\n' : ' ');
+      }
+    }
+    return grid.toString();
+  }
+
+  private static byte[] convert(String ww15mghGrid, int decimationFactor) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    GeoidGrid.convertFromWw15mghGrid(
+        new StringReader(ww15mghGrid), outputStream, decimationFactor);
+    return outputStream.toByteArray();
+  }
+
+  @Test
+  public void getGeoidHeightMeters_atGridPoints() throws IOException {
+    GeoidGrid geoidGrid =
+        GeoidGrid.fromInputStream(
+            new ByteArrayInputStream(convert(createWw15mghGrid(SPACING_DEGREES), 1)));
+
+    assertEquals(0.0, geoidGrid.getGeoidHeightMeters(90.0, 0.0), DELTA_METERS);
+    assertEquals(12.0, geoidGrid.getGeoidHeightMeters(45.0, 90.0), DELTA_METERS);
+    assertEquals(47.0, geoidGrid.getGeoidHeightMeters(-90.0, 315.0), DELTA_METERS);
+  }
+
+  @Test
+  public void getGeoidHeightMeters_interpolatesBilinearly() throws IOException {
+    GeoidGrid geoidGrid =
+        GeoidGrid.fromInputStream(
+            new ByteArrayInputStream(convert(createWw15mghGrid(SPACING_DEGREES), 1)));
+
+    assertEquals(5.5, geoidGrid.getGeoidHeightMeters(67.5, 22.5), DELTA_METERS);
+    assertEquals(20.75, geoidGrid.getGeoidHeightMeters(11.25, 146.25), DELTA_METERS);
+  }
+
+  @Test
+  public void getGeoidHeightMeters_wrapsLongitude() throws IOException {
+    GeoidGrid geoidGrid =
+        GeoidGrid.fromInputStream(
+            new ByteArrayInputStream(convert(createWw15mghGrid(SPACING_DEGREES), 1)));
+
+    assertEquals(
+        geoidGrid.getGeoidHeightMeters(30.0, 270.0),
+        geoidGrid.getGeoidHeightMeters(30.0, -90.0),
+        DELTA_METERS);
+    assertEquals(
+        geoidGrid.getGeoidHeightMeters(-20.0, 100.0),
+        geoidGrid.getGeoidHeightMeters(-20.0, 460.0),
+        DELTA_METERS);
+  }
+
+  @Test
+  public void convertFromWw15mghGrid_decimates() throws IOException {
+    GeoidGrid geoidGrid =
+        GeoidGrid.fromInputStream(
+            new ByteArrayInputStream(convert(createWw15mghGrid(SPACING_DEGREES), 2)));
+
+    // The kept grid points are every other row and column of the source grid
+    assertEquals(0.0, geoidGrid.getGeoidHeightMeters(90.0, 0.0), DELTA_METERS);
+    assertEquals(24.0, geoidGrid.getGeoidHeightMeters(0.0, 180.0), DELTA_METERS);
+    assertEquals(46.0, geoidGrid.getGeoidHeightMeters(-90.0, 270.0), DELTA_METERS);
+  }
+
+  @Test
+  public void fromFile_readsConvertedGrid() throws IOException {
+    File file = temporaryFolder.newFile("geoid_grid.bin");
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(convert(createWw15mghGrid(SPACING_DEGREES), 1));
+    } finally {
+      outputStream.close();
+    }
+
+    GeoidGrid geoidGrid = GeoidGrid.fromFile(file);
+
+    assertEquals(5.5, geoidGrid.getGeoidHeightMeters(67.5, 22.5), DELTA_METERS);
+  }
+
+  @Test
+  public void convertFromWw15mghGrid_rejectsRegionalGrid() {
+    try {
+      convert("-45.0 45.0 0.0 360.0 45.0 45.0\n0 0 0 0 0 0 0 0 0\n", 1);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // Only global grids are supported
+    }
+  }
+
+  @Test
+  public void convertFromWw15mghGrid_rejectsTruncatedGrid() {
+    try {
+      convert("-90.0 90.0 0.0 360.0 45.0 45.0\n0 0 0\n", 1);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // The grid ends before its last row
+    }
+  }
+
+  @Test
+  public void fromInputStream_rejectsOtherContent() {
+    try {
+      GeoidGrid.fromInputStream(new ByteArrayInputStream(new byte[64]));
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // No magic number
+    }
+  }
+}
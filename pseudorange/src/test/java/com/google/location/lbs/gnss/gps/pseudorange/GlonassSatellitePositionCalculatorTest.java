@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.RangeAndRangeRate;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GlonassSatellitePositionCalculator}, against an integration of the same
+ * equations of motion with a step of 0.1 seconds.
+ */
+public class GlonassSatellitePositionCalculatorTest {
+
+  private static final double GRAVITATIONAL_PARAMETER_M3_SM2 = 398600.4418e9;
+  private static final double EARTH_EQUATORIAL_RADIUS_METERS = 6378136.0;
+  private static final double SECOND_ZONAL_HARMONIC = 1082625.75e-9;
+  private static final double EARTH_ROTATION_RATE_RAD_PER_SEC = 7.292115e-5;
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double ORBIT_RADIUS_METERS = 25510000.0;
+  private static final double INCLINATION_RADIANS = Math.toRadians(64.8);
+  private static final int GPS_WEEK = 2200;
+  private static final double REFERENCE_GPS_TOW_SECONDS = 345600.0;
+
+  private static final double REFERENCE_STEP_SECONDS = 0.1;
+  /** Interval between the compared queries, not a multiple of the integration step */
+  private static final double QUERY_INTERVAL_SECONDS = 17.0;
+  private static final double PROPAGATION_SECONDS = 1800.0;
+  private static final double POSITION_TOLERANCE_METERS = 2e-3;
+  private static final double VELOCITY_TOLERANCE_MPS = 1e-5;
+
+  private static final RangeAndRangeRate NO_SIGNAL_TRAVEL = new RangeAndRangeRate(0.0, 0.0);
+
+  /**
+   * Returns the ephemeris of a satellite of the GLONASS constellation crossing the equator at the
+   * reference time, at the longitude {@code longitudeRadians}.
+   */
+  private static GlonassEphemeris createEphemeris(int slot, double longitudeRadians) {
+    double inertialSpeedMps = Math.sqrt(GRAVITATIONAL_PARAMETER_M3_SM2 / ORBIT_RADIUS_METERS);
+    double cosLongitude = Math.cos(longitudeRadians);
+    double sinLongitude = Math.sin(longitudeRadians);
+    // Earth fixed velocity: the inertial velocity minus the rotation of the frame
+    double eastVelocityMps =
+        inertialSpeedMps * Math.cos(INCLINATION_RADIANS)
+            - EARTH_ROTATION_RATE_RAD_PER_SEC * ORBIT_RADIUS_METERS;
+    GlonassEphemeris ephemeris = new GlonassEphemeris();
+    ephemeris.slot = slot;
+    ephemeris.frequencyChannel = 1;
+    ephemeris.referenceGpsWeek = GPS_WEEK;
+    ephemeris.referenceGpsTowSeconds = REFERENCE_GPS_TOW_SECONDS;
+    ephemeris.positionXMeters = ORBIT_RADIUS_METERS * cosLongitude;
+    ephemeris.positionYMeters = ORBIT_RADIUS_METERS * sinLongitude;
+    ephemeris.positionZMeters = 0.0;
+    ephemeris.velocityXMetersPerSec = -eastVelocityMps * sinLongitude;
+    ephemeris.velocityYMetersPerSec = eastVelocityMps * cosLongitude;
+    ephemeris.velocityZMetersPerSec = inertialSpeedMps * Math.sin(INCLINATION_RADIANS);
+    ephemeris.accelerationXMetersPerSec2 = 1.8e-6;
+    ephemeris.accelerationYMetersPerSec2 = -9.3e-7;
+    ephemeris.accelerationZMetersPerSec2 = -2.8e-6;
+    ephemeris.clockBiasSeconds = 3.2e-5;
+    ephemeris.relativeFrequencyBias = 1.8e-12;
+    return ephemeris;
+  }
+
+  private static double[] getReferenceState(GlonassEphemeris ephemeris) {
+    return new double[] {
+      ephemeris.positionXMeters,
+      ephemeris.positionYMeters,
+      ephemeris.positionZMeters,
+      ephemeris.velocityXMetersPerSec,
+      ephemeris.velocityYMetersPerSec,
+      ephemeris.velocityZMetersPerSec
+    };
+  }
+
+  private static PositionAndVelocity calculate(
+      GlonassSatellitePositionCalculator calculator,
+      GlonassEphemeris ephemeris,
+      double timeFromReferenceSeconds) {
+    PositionAndVelocity satPosAndVel = new PositionAndVelocity(0, 0, 0, 0, 0, 0);
+    calculator.calculateSatellitePositionAndVelocity(
+        ephemeris,
+        REFERENCE_GPS_TOW_SECONDS + timeFromReferenceSeconds,
+        GPS_WEEK,
+        NO_SIGNAL_TRAVEL,
+        satPosAndVel);
+    return satPosAndVel;
+  }
+
+  /** Returns the largest position error of the queries from tb towards {@code direction}. */
+  private static double calculateMaximumPositionErrorMeters(
+      GlonassSatellitePositionCalculator calculator, GlonassEphemeris ephemeris, int direction) {
+    double[] state = getReferenceState(ephemeris);
+    double[][] derivatives = new double[4][6];
+    double[] intermediateState = new double[6];
+    double maximumErrorMeters = 0.0;
+    int stepsPerQuery = (int) Math.round(QUERY_INTERVAL_SECONDS / REFERENCE_STEP_SECONDS);
+    int numberOfQueries = (int) (PROPAGATION_SECONDS / QUERY_INTERVAL_SECONDS);
+    for (int query = 1; query <= numberOfQueries; query++) {
+      for (int step = 0; step < stepsPerQuery; step++) {
+        integrate(
+            state, direction * REFERENCE_STEP_SECONDS, ephemeris, derivatives, intermediateState);
+      }
+      PositionAndVelocity satPosAndVel =
+          calculate(calculator, ephemeris, direction * query * QUERY_INTERVAL_SECONDS);
+      double errorMeters =
+          Math.sqrt(
+              square(satPosAndVel.positionXMeters - state[0])
+                  + square(satPosAndVel.positionYMeters - state[1])
+                  + square(satPosAndVel.positionZMeters - state[2]));
+      maximumErrorMeters = Math.max(maximumErrorMeters, errorMeters);
+      assertEquals(state[3], satPosAndVel.velocityXMetersPerSec, VELOCITY_TOLERANCE_MPS);
+      assertEquals(state[4], satPosAndVel.velocityYMetersPerSec, VELOCITY_TOLERANCE_MPS);
+      assertEquals(state[5], satPosAndVel.velocityZMetersPerSec, VELOCITY_TOLERANCE_MPS);
+    }
+    return maximumErrorMeters;
+  }
+
+  @Test
+  public void calculateSatellitePositionAndVelocity_matchesFineStepIntegration() {
+    GlonassSatellitePositionCalculator calculator = new GlonassSatellitePositionCalculator();
+    GlonassEphemeris ephemeris = createEphemeris(1, Math.toRadians(40.0));
+
+    double forwardErrorMeters = calculateMaximumPositionErrorMeters(calculator, ephemeris, 1);
+    double backwardErrorMeters = calculateMaximumPositionErrorMeters(calculator, ephemeris, -1);
+
+    assertTrue(
+        "Forward error " + forwardErrorMeters, forwardErrorMeters < POSITION_TOLERANCE_METERS);
+    assertTrue(
+        "Backward error " + backwardErrorMeters, backwardErrorMeters < POSITION_TOLERANCE_METERS);
+  }
+
+  @Test
+  public void calculateSatellitePositionAndVelocity_doesNotDependOnQueryOrder() {
+    GlonassSatellitePositionCalculator calculator = new GlonassSatellitePositionCalculator();
+    GlonassEphemeris ephemeris = createEphemeris(1, Math.toRadians(40.0));
+    // Fills the cached nodes up to the last one
+    calculate(
+        calculator, ephemeris, GlonassSatellitePositionCalculator.MAXIMUM_PROPAGATION_SECONDS);
+
+    PositionAndVelocity cached = calculate(calculator, ephemeris, 1234.5);
+    PositionAndVelocity expected =
+        calculate(new GlonassSatellitePositionCalculator(), ephemeris, 1234.5);
+
+    assertPositionAndVelocityEquals(expected, cached);
+  }
+
+  @Test
+  public void calculateSatellitePositionAndVelocity_resetsNodesWhenEphemerisChanges() {
+    GlonassSatellitePositionCalculator calculator = new GlonassSatellitePositionCalculator();
+    GlonassEphemeris firstEphemeris = createEphemeris(3, Math.toRadians(40.0));
+    GlonassEphemeris secondEphemeris = createEphemeris(3, Math.toRadians(-75.0));
+    calculate(calculator, firstEphemeris, 900.0);
+    calculate(calculator, firstEphemeris, -900.0);
+
+    // The nodes integrated from the first ephemeris are not reused for the second one
+    assertPositionAndVelocityEquals(
+        calculate(new GlonassSatellitePositionCalculator(), secondEphemeris, 610.0),
+        calculate(calculator, secondEphemeris, 610.0));
+    assertPositionAndVelocityEquals(
+        calculate(new GlonassSatellitePositionCalculator(), secondEphemeris, -610.0),
+        calculate(calculator, secondEphemeris, -610.0));
+    // Nor the nodes of the second ephemeris once the first one is used again
+    assertPositionAndVelocityEquals(
+        calculate(new GlonassSatellitePositionCalculator(), firstEphemeris, 610.0),
+        calculate(calculator, firstEphemeris, 610.0));
+  }
+
+  @Test
+  public void calculateSatellitePositionAndVelocity_rotatesBySignalTravelTime() {
+    GlonassEphemeris ephemeris = createEphemeris(5, Math.toRadians(10.0));
+    double rangeMeters = 2.2e7;
+    PositionAndVelocity atTransmission =
+        calculate(new GlonassSatellitePositionCalculator(), ephemeris, 300.0);
+    PositionAndVelocity rotated = new PositionAndVelocity(0, 0, 0, 0, 0, 0);
+
+    new GlonassSatellitePositionCalculator()
+        .calculateSatellitePositionAndVelocity(
+            ephemeris,
+            REFERENCE_GPS_TOW_SECONDS + 300.0,
+            GPS_WEEK,
+            new RangeAndRangeRate(rangeMeters, 0.0),
+            rotated);
+
+    double rotationRadians = EARTH_ROTATION_RATE_RAD_PER_SEC * rangeMeters / SPEED_OF_LIGHT_MPS;
+    double expectedX =
+        Math.cos(rotationRadians) * atTransmission.positionXMeters
+            + Math.sin(rotationRadians) * atTransmission.positionYMeters;
+    assertEquals(expectedX, rotated.positionXMeters, 1e-6);
+    assertEquals(atTransmission.positionZMeters, rotated.positionZMeters, 0.0);
+    assertEquals(
+        Math.hypot(atTransmission.positionXMeters, atTransmission.positionYMeters),
+        Math.hypot(rotated.positionXMeters, rotated.positionYMeters),
+        1e-6);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void calculateSatellitePositionAndVelocity_rejectsExpiredEphemeris() {
+    calculate(
+        new GlonassSatellitePositionCalculator(),
+        createEphemeris(1, 0.0),
+        -GlonassSatellitePositionCalculator.MAXIMUM_PROPAGATION_SECONDS - 1.0);
+  }
+
+  @Test
+  public void calculateSatelliteClockCorrectionMeters_appliesFrequencyBias() {
+    GlonassEphemeris ephemeris = createEphemeris(1, 0.0);
+
+    double correctionMeters =
+        GlonassSatellitePositionCalculator.calculateSatelliteClockCorrectionMeters(
+            ephemeris, REFERENCE_GPS_TOW_SECONDS + 600.0, GPS_WEEK);
+
+    assertEquals(
+        SPEED_OF_LIGHT_MPS
+            * (-ephemeris.clockBiasSeconds + ephemeris.relativeFrequencyBias * 600.0),
+        correctionMeters,
+        1e-9);
+  }
+
+  private static void assertPositionAndVelocityEquals(
+      PositionAndVelocity expected, PositionAndVelocity actual) {
+    assertEquals(expected.positionXMeters, actual.positionXMeters, 0.0);
+    assertEquals(expected.positionYMeters, actual.positionYMeters, 0.0);
+    assertEquals(expected.positionZMeters, actual.positionZMeters, 0.0);
+    assertEquals(expected.velocityXMetersPerSec, actual.velocityXMetersPerSec, 0.0);
+    assertEquals(expected.velocityYMetersPerSec, actual.velocityYMetersPerSec, 0.0);
+    assertEquals(expected.velocityZMetersPerSec, actual.velocityZMetersPerSec, 0.0);
+  }
+
+  private static double square(double x) {
+    return x * x;
+  }
+
+  /** Integrates {@code state} in place over {@code stepSeconds} with one Runge-Kutta step */
+  private static void integrate(
+      double[] state,
+      double stepSeconds,
+      GlonassEphemeris ephemeris,
+      double[][] derivatives,
+      double[] intermediateState) {
+    calculateDerivative(state, ephemeris, derivatives[0]);
+    for (int i = 0; i < 6; i++) {
+      intermediateState[i] = state[i] + 0.5 * stepSeconds * derivatives[0][i];
+    }
+    calculateDerivative(intermediateState, ephemeris, derivatives[1]);
+    for (int i = 0; i < 6; i++) {
+      intermediateState[i] = state[i] + 0.5 * stepSeconds * derivatives[1][i];
+    }
+    calculateDerivative(intermediateState, ephemeris, derivatives[2]);
+    for (int i = 0; i < 6; i++) {
+      intermediateState[i] = state[i] + stepSeconds * derivatives[2][i];
+    }
+    calculateDerivative(intermediateState, ephemeris, derivatives[3]);
+    for (int i = 0; i < 6; i++) {
+      state[i] +=
+          stepSeconds
+              / 6.0
+              * (derivatives[0][i]
+                  + 2.0 * derivatives[1][i]
+                  + 2.0 * derivatives[2][i]
+                  + derivatives[3][i]);
+    }
+  }
+
+  /** Equations of motion of the GLONASS ICD, Appendix A.3.1.2 */
+  private static void calculateDerivative(
+      double[] state, GlonassEphemeris ephemeris, double[] derivative) {
+    double x = state[0];
+    double y = state[1];
+    double z = state[2];
+    double radius = Math.sqrt(x * x + y * y + z * z);
+    double mu = GRAVITATIONAL_PARAMETER_M3_SM2 / square(radius);
+    double rho = EARTH_EQUATORIAL_RADIUS_METERS / radius;
+    double zRatio = z / radius;
+    double j2Term = 1.5 * SECOND_ZONAL_HARMONIC * mu * square(rho);
+    double omega = EARTH_ROTATION_RATE_RAD_PER_SEC;
+    derivative[0] = state[3];
+    derivative[1] = state[4];
+    derivative[2] = state[5];
+    derivative[3] =
+        -mu * x / radius
+            - j2Term * x / radius * (1.0 - 5.0 * square(zRatio))
+            + square(omega) * x
+            + 2.0 * omega * state[4]
+            + ephemeris.accelerationXMetersPerSec2;
+    derivative[4] =
+        -mu * y / radius
+            - j2Term * y / radius * (1.0 - 5.0 * square(zRatio))
+            + square(omega) * y
+            - 2.0 * omega * state[3]
+            + ephemeris.accelerationYMetersPerSec2;
+    derivative[5] =
+        -mu * z / radius
+            - j2Term * z / radius * (3.0 - 5.0 * square(zRatio))
+            + ephemeris.accelerationZMetersPerSec2;
+  }
+}
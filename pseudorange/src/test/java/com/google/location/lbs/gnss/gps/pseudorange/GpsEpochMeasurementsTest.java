@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.location.GnssStatus;
+import org.junit.Test;
+
+/** Tests for the slots and the validity bitmask of {@link GpsEpochMeasurements}. */
+public class GpsEpochMeasurementsTest {
+
+  private static int setMeasurement(GpsEpochMeasurements measurements, int satelliteKey) {
+    return measurements.setMeasurement(
+        satelliteKey,
+        70_000_000_000L + SatelliteKey.getSvid(satelliteKey),
+        0.0,
+        false,
+        false,
+        -512.5,
+        42.0,
+        0.0,
+        0.1);
+  }
+
+  private static int gpsL1(int prn) {
+    return SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, prn, SatelliteKey.SIGNAL_L1);
+  }
+
+  /** Fills the first {@code numberOfSignals} slots with signals of distinct BeiDou satellites. */
+  private static void fillSlots(GpsEpochMeasurements measurements, int numberOfSignals) {
+    for (int i = 0; i < numberOfSignals; i++) {
+      assertEquals(
+          i,
+          setMeasurement(
+              measurements,
+              SatelliteKey.create(
+                  GnssStatus.CONSTELLATION_BEIDOU, 1 + i, SatelliteKey.SIGNAL_OTHER)));
+    }
+  }
+
+  @Test
+  public void setMeasurement_storesSignalInItsSlot() {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+
+    int slot = setMeasurement(measurements, gpsL1(12));
+
+    assertEquals(0, slot);
+    assertEquals(1, measurements.getNumberOfSlots());
+    assertEquals(slot, measurements.getSlot(gpsL1(12)));
+    assertEquals(gpsL1(12), measurements.satelliteKeys[slot]);
+    assertEquals(70_000_000_012L, measurements.receivedSvTimeNs[slot]);
+    assertEquals(-512.5, measurements.pseudorangeRateMps[slot], 0.0);
+    assertTrue(Double.isNaN(measurements.pseudorangeMeters[slot]));
+    assertTrue(measurements.isValid(slot));
+    assertEquals(70_000_000_012L, measurements.largestReceivedSvTimeNs);
+    assertEquals(-1, measurements.getSlot(gpsL1(13)));
+  }
+
+  @Test
+  public void setMeasurement_dropsSignalsOfFullContainer() {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    fillSlots(measurements, GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS);
+
+    assertEquals(-1, setMeasurement(measurements, gpsL1(1)));
+    assertEquals(
+        GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS, measurements.getNumberOfValidSatellites());
+    assertEquals(0L, measurements.getValidGpsSatellitesMask());
+  }
+
+  @Test
+  public void getNumberOfValidSatellites_countsAcrossMaskWords() {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    fillSlots(measurements, 65);
+    assertEquals(65, measurements.getNumberOfValidSatellites());
+
+    // The last slot of the first word and the first slot of the second word
+    measurements.invalidate(63);
+    assertEquals(64, measurements.getNumberOfValidSatellites());
+    assertFalse(measurements.isValid(63));
+    assertTrue(measurements.isValid(64));
+    measurements.invalidate(64);
+    assertEquals(63, measurements.getNumberOfValidSatellites());
+    assertTrue(measurements.isValid(62));
+    assertFalse(measurements.isValid(64));
+    // Storing the signal again makes it valid
+    setMeasurement(measurements, measurements.satelliteKeys[64]);
+    assertTrue(measurements.isValid(64));
+    assertEquals(64, measurements.getNumberOfValidSatellites());
+  }
+
+  @Test
+  public void getValidGpsSatellitesMask_setsBitsOfValidGpsL1Signals() {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    setMeasurement(measurements, gpsL1(1));
+    setMeasurement(measurements, gpsL1(32));
+    int invalidSlot = setMeasurement(measurements, gpsL1(7));
+    measurements.invalidate(invalidSlot);
+    // Neither GPS L1 signals nor GPS satellites
+    setMeasurement(
+        measurements,
+        SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, 5, SatelliteKey.SIGNAL_L5));
+    setMeasurement(
+        measurements,
+        SatelliteKey.create(GnssStatus.CONSTELLATION_GALILEO, 3, SatelliteKey.SIGNAL_L1));
+    setMeasurement(measurements, gpsL1(33));
+
+    assertEquals((1L << 0) | (1L << 31), measurements.getValidGpsSatellitesMask());
+  }
+
+  @Test
+  public void clear_allowsReuseForNextEpoch() {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    fillSlots(measurements, 100);
+
+    measurements.clear();
+
+    assertEquals(0, measurements.getNumberOfSlots());
+    assertEquals(0, measurements.getNumberOfValidSatellites());
+    assertEquals(Long.MIN_VALUE, measurements.largestReceivedSvTimeNs);
+    assertEquals(0, setMeasurement(measurements, gpsL1(9)));
+    assertEquals(1, measurements.getNumberOfValidSatellites());
+    assertEquals(1L << 8, measurements.getValidGpsSatellitesMask());
+  }
+
+  @Test
+  public void copyFrom_copiesSlotsAndValidity() {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    fillSlots(measurements, 70);
+    int gpsSlot = setMeasurement(measurements, gpsL1(4));
+    measurements.invalidate(64);
+    measurements.arrivalTimeSinceGpsWeekNs = 345_600_000_000_000L;
+    measurements.hardwareClockDiscontinuityCount = 3;
+    GpsEpochMeasurements copy = new GpsEpochMeasurements();
+    fillSlots(copy, 100);
+
+    copy.copyFrom(measurements);
+    measurements.clear();
+
+    assertEquals(71, copy.getNumberOfSlots());
+    assertEquals(70, copy.getNumberOfValidSatellites());
+    assertFalse(copy.isValid(64));
+    assertEquals(gpsSlot, copy.getSlot(gpsL1(4)));
+    assertEquals(1L << 3, copy.getValidGpsSatellitesMask());
+    assertEquals(70_000_000_004L, copy.receivedSvTimeNs[gpsSlot]);
+    assertEquals(70_000_000_004L, copy.largestReceivedSvTimeNs);
+    assertEquals(345_600_000_000_000L, copy.arrivalTimeSinceGpsWeekNs);
+    assertEquals(3, copy.hardwareClockDiscontinuityCount);
+    // The slots of the signals received only before the copy are gone
+    assertEquals(
+        -1,
+        copy.getSlot(
+            SatelliteKey.create(GnssStatus.CONSTELLATION_BEIDOU, 80, SatelliteKey.SIGNAL_OTHER)));
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.location.cts.nano.Ephemeris.IonosphericModelProto;
+import com.google.location.lbs.gnss.gps.pseudorange.GpsNavigationMessageStore.NavMessageSnapshot;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the decoding of LNAV subframes by {@link GpsNavigationMessageStore}. */
+public class GpsNavigationMessageStoreTest {
+
+  private static final byte GPS_L1CA_MESSAGE_TYPE = 1;
+  private static final byte PRN = 7;
+  private static final int NUMBER_OF_READERS = 4;
+
+  private GpsEphemerisProto ephemeris;
+  private GpsNavigationMessageStore store;
+
+  @Before
+  public void setUp() {
+    ephemeris = GpsNavigationSubframeDecoderTest.createEphemeris(PRN);
+    store = new GpsNavigationMessageStore();
+  }
+
+  private void report(int subframeId, byte[] rawData) {
+    store.onNavMessageReported(PRN, GPS_L1CA_MESSAGE_TYPE, (short) subframeId, rawData);
+  }
+
+  private void reportEphemerisSubframes() {
+    reportEphemerisSubframes(ephemeris);
+  }
+
+  private void reportEphemerisSubframes(GpsEphemerisProto ephemeris) {
+    report(1, LnavSubframeEncoder.encodeFirstSubframe(ephemeris));
+    report(2, LnavSubframeEncoder.encodeSecondSubframe(ephemeris));
+    report(3, LnavSubframeEncoder.encodeThirdSubframe(ephemeris));
+  }
+
+  /** Returns a new upload of the ephemeris: new issue of data and orbit. */
+  private static GpsEphemerisProto createNewIssueEphemeris() {
+    GpsEphemerisProto newEphemeris = GpsNavigationSubframeDecoderTest.createEphemeris(PRN);
+    newEphemeris.iode = 43;
+    newEphemeris.iodc = 43;
+    newEphemeris.toe = 352800.0;
+    newEphemeris.toc = 352800.0;
+    newEphemeris.crc = 250.0;
+    return newEphemeris;
+  }
+
+  private static IonosphericModelProto createIonosphericModel() {
+    IonosphericModelProto iono = new IonosphericModelProto();
+    iono.alpha = new double[] {1.0245e-8, 1.4901e-8, -5.9605e-8, -1.1921e-7};
+    iono.beta = new double[] {90112.0, 98304.0, -65536.0, -524288.0};
+    return iono;
+  }
+
+  @Test
+  public void onNavMessageReported_decodesEphemeris() {
+    reportEphemerisSubframes();
+
+    GpsNavMessageProto navMessage = store.createDecodedNavMessage();
+    assertEquals(1, navMessage.ephemerids.length);
+    GpsEphemerisProto decoded = navMessage.ephemerids[0];
+    assertEquals(PRN, decoded.prn);
+    assertEquals(ephemeris.week, decoded.week);
+    assertEquals(ephemeris.iode, decoded.iode);
+    assertEquals(ephemeris.iodc, decoded.iodc);
+    // Tolerances of half the scale factor of each field (IS-GPS-200 Tables 20-I and 20-III)
+    assertEquals(ephemeris.toe, decoded.toe, 8.0);
+    assertEquals(ephemeris.toc, decoded.toc, 8.0);
+    assertEquals(ephemeris.rootOfA, decoded.rootOfA, Math.scalb(1.0, -20));
+    assertEquals(ephemeris.e, decoded.e, Math.scalb(1.0, -34));
+    assertEquals(ephemeris.i0, decoded.i0, Math.PI * Math.scalb(1.0, -32));
+    assertEquals(ephemeris.m0, decoded.m0, Math.PI * Math.scalb(1.0, -32));
+    assertEquals(ephemeris.omegaDot, decoded.omegaDot, Math.PI * Math.scalb(1.0, -44));
+    assertEquals(ephemeris.crc, decoded.crc, Math.scalb(1.0, -6));
+    assertEquals(ephemeris.af0, decoded.af0, Math.scalb(1.0, -32));
+    assertEquals(ephemeris.tgd, decoded.tgd, Math.scalb(1.0, -32));
+  }
+
+  @Test
+  public void onNavMessageReported_decodesIonosphericParameters() {
+    IonosphericModelProto iono = createIonosphericModel();
+
+    report(4, LnavSubframeEncoder.encodeAlmanacPage(57));
+    assertNull(store.createDecodedNavMessage().iono);
+    report(4, LnavSubframeEncoder.encodeIonosphericPage(iono));
+
+    IonosphericModelProto decoded = store.createDecodedNavMessage().iono;
+    assertEquals(iono.alpha[0], decoded.alpha[0], Math.scalb(1.0, -31));
+    assertEquals(iono.alpha[3], decoded.alpha[3], Math.scalb(1.0, -25));
+    assertEquals(iono.beta[0], decoded.beta[0], Math.scalb(1.0, 10));
+    assertEquals(iono.beta[3], decoded.beta[3], Math.scalb(1.0, 15));
+  }
+
+  @Test
+  public void onNavMessageReported_ignoresSubframeFailingParity() {
+    report(1, LnavSubframeEncoder.encodeFirstSubframe(ephemeris));
+    report(
+        2,
+        GpsNavigationSubframeDecoderTest.flipBit(
+            LnavSubframeEncoder.encodeSecondSubframe(ephemeris), 100));
+    report(3, LnavSubframeEncoder.encodeThirdSubframe(ephemeris));
+
+    assertEquals(1, store.getNumberOfSubframesFailingParity());
+    assertEquals(0, store.createDecodedNavMessage().ephemerids.length);
+
+    report(2, LnavSubframeEncoder.encodeSecondSubframe(ephemeris));
+
+    assertEquals(1, store.getNumberOfSubframesFailingParity());
+    assertEquals(1, store.createDecodedNavMessage().ephemerids.length);
+  }
+
+  @Test
+  public void getNumberOfSubframesFailingParity_countsRejectedSubframes() {
+    reportEphemerisSubframes();
+    byte[] subframe = LnavSubframeEncoder.encodeThirdSubframe(ephemeris);
+    for (int bitIndex = 0;
+        bitIndex < GpsNavigationSubframeDecoderTest.BITS_PER_SUBFRAME;
+        bitIndex += 10) {
+      report(3, GpsNavigationSubframeDecoderTest.flipBit(subframe, bitIndex));
+    }
+    reportEphemerisSubframes();
+
+    assertEquals(
+        GpsNavigationSubframeDecoderTest.BITS_PER_SUBFRAME / 10,
+        store.getNumberOfSubframesFailingParity());
+    // The corrupted subframes did not alter the decoded ephemeris
+    assertEquals(ephemeris.crc, store.createDecodedNavMessage().ephemerids[0].crc, 1.0 / 64);
+  }
+
+  @Test
+  public void getNavMessageSnapshot_oldSnapshotUnaffectedByNewerPublish() {
+    reportEphemerisSubframes();
+    NavMessageSnapshot oldSnapshot = store.getNavMessageSnapshot();
+    GpsEphemerisProto oldEphemeris = oldSnapshot.navMessageProto.ephemerids[0];
+    double oldCrc = oldEphemeris.crc;
+    GpsEphemerisProto newEphemeris = createNewIssueEphemeris();
+
+    reportEphemerisSubframes(newEphemeris);
+    report(4, LnavSubframeEncoder.encodeIonosphericPage(createIonosphericModel()));
+
+    NavMessageSnapshot newSnapshot = store.getNavMessageSnapshot();
+    assertTrue(newSnapshot.version > oldSnapshot.version);
+    assertEquals(43, newSnapshot.navMessageProto.ephemerids[0].iode);
+    assertEquals(newEphemeris.crc, newSnapshot.navMessageProto.ephemerids[0].crc, 1.0 / 64);
+    // The reader of the old snapshot still sees the ephemeris and model it was published with
+    assertEquals(1, oldSnapshot.navMessageProto.ephemerids.length);
+    assertSame(oldEphemeris, oldSnapshot.navMessageProto.ephemerids[0]);
+    assertNotSame(oldEphemeris, newSnapshot.navMessageProto.ephemerids[0]);
+    assertEquals(42, oldEphemeris.iode);
+    assertEquals(ephemeris.toe, oldEphemeris.toe, 8.0);
+    assertEquals(oldCrc, oldEphemeris.crc, 0.0);
+    assertNull(oldSnapshot.navMessageProto.iono);
+  }
+
+  @Test
+  public void getNavMessageSnapshot_versionIncreasesOnlyWhenContentChanges() {
+    long version = store.getNavMessageSnapshot().version;
+
+    // A partially decoded ephemeris is not published
+    report(1, LnavSubframeEncoder.encodeFirstSubframe(ephemeris));
+    report(2, LnavSubframeEncoder.encodeSecondSubframe(ephemeris));
+    assertEquals(version, store.getNavMessageSnapshot().version);
+    report(3, LnavSubframeEncoder.encodeThirdSubframe(ephemeris));
+    assertEquals(version + 1, store.getNavMessageSnapshot().version);
+
+    // The same ephemeris received again, a corrupted subframe and an almanac page change nothing
+    NavMessageSnapshot snapshot = store.getNavMessageSnapshot();
+    reportEphemerisSubframes();
+    report(
+        2,
+        GpsNavigationSubframeDecoderTest.flipBit(
+            LnavSubframeEncoder.encodeSecondSubframe(ephemeris), 100));
+    report(4, LnavSubframeEncoder.encodeAlmanacPage(57));
+    assertSame(snapshot, store.getNavMessageSnapshot());
+
+    report(4, LnavSubframeEncoder.encodeIonosphericPage(createIonosphericModel()));
+    assertEquals(version + 2, store.getNavMessageSnapshot().version);
+    snapshot = store.getNavMessageSnapshot();
+    report(4, LnavSubframeEncoder.encodeIonosphericPage(createIonosphericModel()));
+    assertSame(snapshot, store.getNavMessageSnapshot());
+  }
+
+  @Test
+  public void getNavMessageSnapshot_concurrentReaders_seeConsistentSnapshots() throws Exception {
+    final GpsEphemerisProto newEphemeris = createNewIssueEphemeris();
+    final int numberOfPublishes = 200;
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_READERS);
+    List<Future<Integer>> readers = new ArrayList<>();
+    try {
+      for (int i = 0; i < NUMBER_OF_READERS; i++) {
+        readers.add(
+            executor.submit(
+                new Callable<Integer>() {
+                  @Override
+                  public Integer call() {
+                    return readSnapshotsWhile(writing, newEphemeris);
+                  }
+                }));
+      }
+
+      // Two issues of the ephemeris uploaded in turn, each publishing a new snapshot
+      for (int i = 0; i < numberOfPublishes; i++) {
+        reportEphemerisSubframes(i % 2 == 0 ? ephemeris : newEphemeris);
+      }
+      writing.set(false);
+
+      for (Future<Integer> reader : readers) {
+        assertTrue(reader.get(10, TimeUnit.SECONDS) > 0);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(numberOfPublishes, store.getNavMessageSnapshot().version);
+  }
+
+  /**
+   * Reads the snapshots of the store while {@code writing}, checking that each one holds one of the
+   * two issues of the ephemeris, whole and unchanged by the newer publishes, and that the versions
+   * never go back. Returns the number of snapshots read.
+   */
+  private int readSnapshotsWhile(AtomicBoolean writing, GpsEphemerisProto newEphemeris) {
+    int numberOfSnapshots = 0;
+    NavMessageSnapshot previousSnapshot = store.getNavMessageSnapshot();
+    do {
+      NavMessageSnapshot snapshot = store.getNavMessageSnapshot();
+      assertTrue(snapshot.version >= previousSnapshot.version);
+      assertHoldsOneIssue(snapshot, newEphemeris);
+      assertHoldsOneIssue(previousSnapshot, newEphemeris);
+      previousSnapshot = snapshot;
+      numberOfSnapshots++;
+    } while (writing.get());
+    return numberOfSnapshots;
+  }
+
+  private void assertHoldsOneIssue(NavMessageSnapshot snapshot, GpsEphemerisProto newEphemeris) {
+    if (snapshot.version == 0) {
+      assertEquals(0, snapshot.navMessageProto.ephemerids.length);
+      return;
+    }
+    assertEquals(1, snapshot.navMessageProto.ephemerids.length);
+    GpsEphemerisProto decodedEphemeris = snapshot.navMessageProto.ephemerids[0];
+    GpsEphemerisProto expectedEphemeris =
+        decodedEphemeris.iode == newEphemeris.iode ? newEphemeris : ephemeris;
+    assertEquals(expectedEphemeris.iode, decodedEphemeris.iode);
+    assertEquals(expectedEphemeris.iodc, decodedEphemeris.iodc);
+    assertEquals(expectedEphemeris.toe, decodedEphemeris.toe, 8.0);
+    assertEquals(expectedEphemeris.crc, decodedEphemeris.crc, 1.0 / 64);
+  }
+}
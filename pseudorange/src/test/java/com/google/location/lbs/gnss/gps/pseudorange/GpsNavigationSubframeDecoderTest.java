@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import org.junit.Test;
+
+/** Tests for {@link GpsNavigationSubframeDecoder}. */
+public class GpsNavigationSubframeDecoderTest {
+
+  /** Number of bits of a subframe, not counting the padding bits */
+  static final int BITS_PER_SUBFRAME = 300;
+
+  private static final int WORD_SIZE_BITS = 30;
+  private static final int BYTES_PER_WORD = 4;
+  private static final int DATA_BITS_PER_WORD = 24;
+  private static final int PARITY_BITS_PER_WORD = 6;
+
+  /** Returns a broadcast ephemeris with typical values of a GPS satellite. */
+  static GpsEphemerisProto createEphemeris(int prn) {
+    GpsEphemerisProto ephemeris = new GpsEphemerisProto();
+    ephemeris.prn = prn;
+    ephemeris.week = 2200;
+    ephemeris.toe = 345600.0;
+    ephemeris.toc = 345600.0;
+    ephemeris.iode = 42;
+    ephemeris.iodc = 42;
+    ephemeris.rootOfA = 5153.62;
+    ephemeris.e = 0.0123;
+    ephemeris.i0 = 0.9612;
+    ephemeris.iDot = 1.2e-10;
+    ephemeris.omega0 = -2.345;
+    ephemeris.omegaDot = -8.07e-9;
+    ephemeris.omega = 0.789;
+    ephemeris.m0 = 1.2;
+    ephemeris.deltaN = 4.5e-9;
+    ephemeris.cuc = -3.1e-6;
+    ephemeris.cus = 5.4e-6;
+    ephemeris.cic = 1.1e-7;
+    ephemeris.cis = -6.0e-8;
+    ephemeris.crc = 234.5;
+    ephemeris.crs = -12.3;
+    ephemeris.af0 = 1.4e-4;
+    ephemeris.af1 = -2.3e-12;
+    ephemeris.tgd = -4.7e-9;
+    return ephemeris;
+  }
+
+  /** Flips the bit {@code bitIndex} of the subframe, not counting the padding bits. */
+  static byte[] flipBit(byte[] rawData, int bitIndex) {
+    byte[] flipped = rawData.clone();
+    int bitFromLsb = WORD_SIZE_BITS - 1 - bitIndex % WORD_SIZE_BITS;
+    int byteIndex = (bitIndex / WORD_SIZE_BITS + 1) * BYTES_PER_WORD - 1 - bitFromLsb / 8;
+    flipped[byteIndex] ^= (byte) (1 << (bitFromLsb % 8));
+    return flipped;
+  }
+
+  private static byte[][] encodeEphemerisSubframes() {
+    GpsEphemerisProto ephemeris = createEphemeris(7);
+    return new byte[][] {
+      LnavSubframeEncoder.encodeFirstSubframe(ephemeris),
+      LnavSubframeEncoder.encodeSecondSubframe(ephemeris),
+      LnavSubframeEncoder.encodeThirdSubframe(ephemeris)
+    };
+  }
+
+  @Test
+  public void unpackWordsAndCheckParity_acceptsValidSubframe() {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+
+    assertTrue(
+        GpsNavigationSubframeDecoder.unpackWordsAndCheckParity(
+            LnavSubframeEncoder.encodeSecondSubframe(createEphemeris(7)), words));
+
+    assertEquals(
+        42,
+        GpsNavigationSubframeDecoder.extractField(
+            GpsNavigationSubframeDecoder.field(60, 8), words));
+  }
+
+  @Test
+  public void unpackWordsAndCheckParity_rejectsSingleBitFlips() {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    for (byte[] subframe : encodeEphemerisSubframes()) {
+      for (int bitIndex = 0; bitIndex < BITS_PER_SUBFRAME; bitIndex++) {
+        assertFalse(
+            "Bit " + bitIndex + " flipped",
+            GpsNavigationSubframeDecoder.unpackWordsAndCheckParity(
+                flipBit(subframe, bitIndex), words));
+      }
+    }
+  }
+
+  @Test
+  public void unpackWordsAndCheckParity_restoresInvertedDataBits() {
+    int[] expectedWords = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    int numberOfInvertedWords = 0;
+    for (byte[] subframe : encodeEphemerisSubframes()) {
+      assertTrue(GpsNavigationSubframeDecoder.unpackWordsAndCheckParity(subframe, expectedWords));
+      // Report the data bits as transmitted: inverted after each word whose D30 bit is set
+      byte[] transmitted = subframe.clone();
+      for (int i = 1; i < GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME; i++) {
+        if ((expectedWords[i - 1] & 1) == 0) {
+          continue;
+        }
+        numberOfInvertedWords++;
+        for (int bit = 0; bit < DATA_BITS_PER_WORD; bit++) {
+          transmitted = flipBit(transmitted, i * WORD_SIZE_BITS + bit);
+        }
+      }
+
+      assertTrue(GpsNavigationSubframeDecoder.unpackWordsAndCheckParity(transmitted, words));
+      assertArrayEquals(expectedWords, words);
+    }
+    assertTrue("No word follows a D30 bit set", numberOfInvertedWords > 0);
+  }
+
+  @Test
+  public void unpackWordsAndCheckParity_rejectsInvertedParityBits() {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    byte[] subframe = LnavSubframeEncoder.encodeThirdSubframe(createEphemeris(7));
+    // Inverting a whole word, parity bits included, is not a valid transmission
+    for (int bit = DATA_BITS_PER_WORD; bit < DATA_BITS_PER_WORD + PARITY_BITS_PER_WORD; bit++) {
+      subframe = flipBit(subframe, 2 * WORD_SIZE_BITS + bit);
+    }
+
+    assertFalse(GpsNavigationSubframeDecoder.unpackWordsAndCheckParity(subframe, words));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void field_rejectsFieldSpanningTwoWords() {
+    GpsNavigationSubframeDecoder.field(25, 8);
+  }
+}
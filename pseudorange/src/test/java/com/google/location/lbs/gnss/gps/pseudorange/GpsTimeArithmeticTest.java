@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GpsTimeArithmetic}, checked against Joda {@code DateTime} for the calendar and
+ * against the leap seconds announced in the IERS bulletin C.
+ */
+public class GpsTimeArithmeticTest {
+
+  private static final long NANOS_IN_DAY = TimeUnit.DAYS.toNanos(1);
+  private static final long NANOS_IN_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Leap seconds inserted at the end of the day before each date as {year, month, day, GPS - UTC
+   * seconds from 00:00 UTC of the date}.
+   */
+  private static final int[][] LEAP_SECONDS = {
+    {1981, 7, 1, 1},
+    {1982, 7, 1, 2},
+    {1983, 7, 1, 3},
+    {1985, 7, 1, 4},
+    {1988, 1, 1, 5},
+    {1990, 1, 1, 6},
+    {1991, 1, 1, 7},
+    {1992, 7, 1, 8},
+    {1993, 7, 1, 9},
+    {1994, 7, 1, 10},
+    {1996, 1, 1, 11},
+    {1997, 7, 1, 12},
+    {1999, 1, 1, 13},
+    {2006, 1, 1, 14},
+    {2009, 1, 1, 15},
+    {2012, 7, 1, 16},
+    {2015, 7, 1, 17},
+    {2017, 1, 1, 18}
+  };
+
+  private static long toUtcMillis(int year, int month, int day) {
+    return new DateTime(year, month, day, 0, 0, DateTimeZone.UTC).getMillis();
+  }
+
+  /** Returns the GPS nanoseconds of a date in the GPS time scale, i.e. without leap seconds. */
+  private static long toGpsNanos(int year, int month, int day) {
+    return TimeUnit.MILLISECONDS.toNanos(toUtcMillis(year, month, day))
+        - GpsTime.GPS_UTC_EPOCH_OFFSET_NANOS;
+  }
+
+  @Test
+  public void getGpsWeek_splitsWeekAndTimeOfWeek() {
+    long weekStart = 2200 * GpsTime.NANOS_IN_WEEK;
+    long timeOfWeek = TimeUnit.SECONDS.toNanos(345600) + 123456789L;
+
+    assertEquals(0, GpsTimeArithmetic.getGpsWeek(0L));
+    assertEquals(0L, GpsTimeArithmetic.getNanosSinceGpsWeek(0L));
+    assertEquals(2200, GpsTimeArithmetic.getGpsWeek(weekStart + timeOfWeek));
+    assertEquals(timeOfWeek, GpsTimeArithmetic.getNanosSinceGpsWeek(weekStart + timeOfWeek));
+    assertEquals(
+        345600.123456789, GpsTimeArithmetic.getGpsTowSeconds(weekStart + timeOfWeek), 1e-9);
+  }
+
+  @Test
+  public void getGpsWeek_handlesWeekBoundaries() {
+    long weekStart = 2200 * GpsTime.NANOS_IN_WEEK;
+
+    assertEquals(2199, GpsTimeArithmetic.getGpsWeek(weekStart - 1));
+    assertEquals(
+        GpsTime.NANOS_IN_WEEK - 1, GpsTimeArithmetic.getNanosSinceGpsWeek(weekStart - 1));
+    assertEquals(2200, GpsTimeArithmetic.getGpsWeek(weekStart));
+    assertEquals(0L, GpsTimeArithmetic.getNanosSinceGpsWeek(weekStart));
+    assertEquals(604800.0, GpsTimeArithmetic.getGpsTowSeconds(weekStart - 1), 1e-9);
+  }
+
+  @Test
+  public void getGpsWeek_floorsNegativeTimes() {
+    // Times before the GPS epoch belong to negative weeks with a positive time of week
+    assertEquals(-1, GpsTimeArithmetic.getGpsWeek(-1L));
+    assertEquals(GpsTime.NANOS_IN_WEEK - 1, GpsTimeArithmetic.getNanosSinceGpsWeek(-1L));
+    assertEquals(-1, GpsTimeArithmetic.getGpsWeek(-GpsTime.NANOS_IN_WEEK));
+    assertEquals(0L, GpsTimeArithmetic.getNanosSinceGpsWeek(-GpsTime.NANOS_IN_WEEK));
+    assertEquals(-2, GpsTimeArithmetic.getGpsWeek(-GpsTime.NANOS_IN_WEEK - 1));
+  }
+
+  @Test
+  public void getDayOfYear1To366_matchesCalendarAcrossYearBoundaries() {
+    int[] years = {1979, 1980, 1999, 2000, 2016, 2017, 2020, 2023, 2099, 2100, 2101};
+    for (int year : years) {
+      long yearStart = toGpsNanos(year, 1, 1);
+      int lastDayOfYear = new DateTime(year, 12, 31, 0, 0, DateTimeZone.UTC).getDayOfYear();
+
+      assertEquals("First day of " + year, 1, GpsTimeArithmetic.getDayOfYear1To366(yearStart));
+      assertEquals(
+          "Last nanosecond before " + year,
+          new DateTime(year - 1, 12, 31, 0, 0, DateTimeZone.UTC).getDayOfYear(),
+          GpsTimeArithmetic.getDayOfYear1To366(yearStart - 1));
+      assertEquals(
+          "Last day of " + year,
+          lastDayOfYear,
+          GpsTimeArithmetic.getDayOfYear1To366(toGpsNanos(year, 12, 31) + NANOS_IN_DAY - 1));
+    }
+  }
+
+  @Test
+  public void getDayOfYear1To366_matchesCalendarOnEveryDay() {
+    // Every day from 1979 to 2104, at a time of day moving through the day
+    for (long gpsNanos = toGpsNanos(1979, 1, 1) + 1;
+        gpsNanos < toGpsNanos(2105, 1, 1);
+        gpsNanos += NANOS_IN_DAY + TimeUnit.MINUTES.toNanos(7)) {
+      DateTime expected =
+          new DateTime(
+              Math.floorDiv(gpsNanos + GpsTime.GPS_UTC_EPOCH_OFFSET_NANOS, NANOS_IN_MILLI),
+              DateTimeZone.UTC);
+
+      assertEquals(
+          expected.toString(),
+          expected.getDayOfYear(),
+          GpsTimeArithmetic.getDayOfYear1To366(gpsNanos));
+    }
+  }
+
+  @Test
+  public void daysSinceJavaEpoch_matchesCalendar() {
+    for (int year = 1600; year <= 2400; year += 7) {
+      for (int month = 1; month <= 12; month++) {
+        long expectedDays = Math.floorDiv(toUtcMillis(year, month, 1), TimeUnit.DAYS.toMillis(1));
+        assertEquals(
+            year + "/" + month,
+            expectedDays,
+            GpsTimeArithmetic.daysSinceJavaEpoch(year, month, 1));
+      }
+    }
+    assertEquals(0L, GpsTimeArithmetic.daysSinceJavaEpoch(1970, 1, 1));
+    assertEquals(-1L, GpsTimeArithmetic.daysSinceJavaEpoch(1969, 12, 31));
+    assertEquals(
+        GpsTime.GPS_UTC_EPOCH_OFFSET_SECONDS,
+        TimeUnit.DAYS.toSeconds(GpsTimeArithmetic.daysSinceJavaEpoch(1980, 1, 6)));
+  }
+
+  @Test
+  public void getLeapSecondsAtUtcMillis_stepsAtEveryRowOfTheTable() {
+    assertEquals(0, GpsTimeArithmetic.getLeapSecondsAtUtcMillis(toUtcMillis(1980, 1, 6)));
+    for (int[] row : LEAP_SECONDS) {
+      long stepUtcMillis = toUtcMillis(row[0], row[1], row[2]);
+      String date = row[0] + "/" + row[1] + "/" + row[2];
+
+      assertEquals(
+          "Before " + date,
+          row[3] - 1,
+          GpsTimeArithmetic.getLeapSecondsAtUtcMillis(stepUtcMillis - 1));
+      assertEquals(
+          "At " + date, row[3], GpsTimeArithmetic.getLeapSecondsAtUtcMillis(stepUtcMillis));
+      // GpsTime delegates to the same table, including before 2012
+      assertEquals(
+          "GpsTime before " + date,
+          row[3] - 1,
+          GpsTime.getLeapSecond(new DateTime(stepUtcMillis - 1, DateTimeZone.UTC)));
+      assertEquals(
+          "GpsTime at " + date,
+          row[3],
+          GpsTime.getLeapSecond(new DateTime(stepUtcMillis, DateTimeZone.UTC)));
+    }
+  }
+
+  @Test
+  public void getLeapSecondsAtGpsNanos_stepsAfterTheInsertedSecond() {
+    for (int[] row : LEAP_SECONDS) {
+      // 00:00 UTC after the leap second, in GPS time
+      long stepGpsNanos = toGpsNanos(row[0], row[1], row[2]) + TimeUnit.SECONDS.toNanos(row[3]);
+      String date = row[0] + "/" + row[1] + "/" + row[2];
+
+      assertEquals(
+          "During the leap second before " + date,
+          row[3] - 1,
+          GpsTimeArithmetic.getLeapSecondsAtGpsNanos(stepGpsNanos - 1));
+      assertEquals(
+          "At " + date, row[3], GpsTimeArithmetic.getLeapSecondsAtGpsNanos(stepGpsNanos));
+    }
+  }
+
+  @Test
+  public void utcMillisToGpsNanos_roundTripsAroundEveryStep() {
+    for (int[] row : LEAP_SECONDS) {
+      long stepUtcMillis = toUtcMillis(row[0], row[1], row[2]);
+      for (long utcMillis = stepUtcMillis - 1500; utcMillis <= stepUtcMillis + 1500; utcMillis++) {
+        long gpsNanos = GpsTimeArithmetic.utcMillisToGpsNanos(utcMillis);
+
+        assertEquals(utcMillis, GpsTimeArithmetic.gpsNanosToUtcMillis(gpsNanos));
+      }
+      assertEquals(
+          TimeUnit.MILLISECONDS.toNanos(stepUtcMillis)
+              + TimeUnit.SECONDS.toNanos(row[3])
+              - GpsTime.GPS_UTC_EPOCH_OFFSET_NANOS,
+          GpsTimeArithmetic.utcMillisToGpsNanos(stepUtcMillis));
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IncrementalCholeskyFactorization}, comparing the updated and downdated
+ * factorizations with a factorization of the normal matrix computed from scratch on random
+ * weighted least square geometries.
+ */
+public class IncrementalCholeskyFactorizationTest {
+
+  /** Position and clock bias unknowns */
+  private static final int DIMENSION = 4;
+  private static final int NUMBER_OF_ROWS = 8;
+  private static final int NUMBER_OF_TRIALS = 50;
+  private static final double RELATIVE_TOLERANCE = 1e-9;
+
+  private final Random random = new Random(20170101);
+
+  /** Returns random geometry rows: a unit line of sight and a clock column of ones. */
+  private double[][] createRows(int numberOfRows) {
+    double[][] rows = new double[numberOfRows][DIMENSION];
+    for (double[] row : rows) {
+      double norm = 0.0;
+      for (int i = 0; i < DIMENSION - 1; i++) {
+        row[i] = random.nextGaussian();
+        norm += row[i] * row[i];
+      }
+      for (int i = 0; i < DIMENSION - 1; i++) {
+        row[i] /= Math.sqrt(norm);
+      }
+      row[DIMENSION - 1] = 1.0;
+    }
+    return rows;
+  }
+
+  private double[] createWeights(int numberOfRows) {
+    double[] weights = new double[numberOfRows];
+    for (int i = 0; i < numberOfRows; i++) {
+      // Pseudorange uncertainties from 1 to 30 meters
+      double sigmaMeters = 1.0 + 29.0 * random.nextDouble();
+      weights[i] = 1.0 / (sigmaMeters * sigmaMeters);
+    }
+    return weights;
+  }
+
+  private static double[][] computeInverse(IncrementalCholeskyFactorization factorization) {
+    double[][] inverse = new double[DIMENSION][DIMENSION];
+    factorization.computeInverse(inverse);
+    return inverse;
+  }
+
+  private static void assertInverseEquals(
+      IncrementalCholeskyFactorization expected, IncrementalCholeskyFactorization actual) {
+    double[][] expectedInverse = computeInverse(expected);
+    double[][] actualInverse = computeInverse(actual);
+    double scale = 0.0;
+    for (int i = 0; i < DIMENSION; i++) {
+      scale = Math.max(scale, Math.abs(expectedInverse[i][i]));
+    }
+    for (int i = 0; i < DIMENSION; i++) {
+      for (int j = 0; j < DIMENSION; j++) {
+        assertEquals(expectedInverse[i][j], actualInverse[i][j], RELATIVE_TOLERANCE * scale);
+      }
+    }
+  }
+
+  /** Returns {@code rows} or {@code weights} without the element {@code removedIndex}. */
+  private static double[][] remove(double[][] rows, int removedIndex) {
+    double[][] remaining = new double[rows.length - 1][];
+    for (int i = 0, j = 0; i < rows.length; i++) {
+      if (i != removedIndex) {
+        remaining[j++] = rows[i];
+      }
+    }
+    return remaining;
+  }
+
+  private static double[] remove(double[] weights, int removedIndex) {
+    double[] remaining = new double[weights.length - 1];
+    for (int i = 0, j = 0; i < weights.length; i++) {
+      if (i != removedIndex) {
+        remaining[j++] = weights[i];
+      }
+    }
+    return remaining;
+  }
+
+  @Test
+  public void update_matchesFactorizationWithAddedRow() {
+    for (int trial = 0; trial < NUMBER_OF_TRIALS; trial++) {
+      double[][] rows = createRows(NUMBER_OF_ROWS);
+      double[] weights = createWeights(NUMBER_OF_ROWS);
+      IncrementalCholeskyFactorization expected = new IncrementalCholeskyFactorization(DIMENSION);
+      assertTrue(expected.factorize(rows, weights, NUMBER_OF_ROWS));
+
+      IncrementalCholeskyFactorization updated = new IncrementalCholeskyFactorization(DIMENSION);
+      assertTrue(updated.factorize(rows, weights, NUMBER_OF_ROWS - 1));
+      updated.update(rows[NUMBER_OF_ROWS - 1], weights[NUMBER_OF_ROWS - 1]);
+
+      assertInverseEquals(expected, updated);
+    }
+  }
+
+  @Test
+  public void downdate_matchesFactorizationWithoutRow() {
+    for (int trial = 0; trial < NUMBER_OF_TRIALS; trial++) {
+      double[][] rows = createRows(NUMBER_OF_ROWS);
+      double[] weights = createWeights(NUMBER_OF_ROWS);
+      int removedIndex = random.nextInt(NUMBER_OF_ROWS);
+      IncrementalCholeskyFactorization expected = new IncrementalCholeskyFactorization(DIMENSION);
+      assertTrue(
+          expected.factorize(
+              remove(rows, removedIndex), remove(weights, removedIndex), NUMBER_OF_ROWS - 1));
+
+      IncrementalCholeskyFactorization downdated =
+          new IncrementalCholeskyFactorization(DIMENSION);
+      assertTrue(downdated.factorize(rows, weights, NUMBER_OF_ROWS));
+      assertTrue(downdated.downdate(rows[removedIndex], weights[removedIndex]));
+
+      assertInverseEquals(expected, downdated);
+    }
+  }
+
+  @Test
+  public void downdate_undoesUpdate() {
+    double[][] rows = createRows(NUMBER_OF_ROWS + 1);
+    double[] weights = createWeights(NUMBER_OF_ROWS + 1);
+    IncrementalCholeskyFactorization expected = new IncrementalCholeskyFactorization(DIMENSION);
+    assertTrue(expected.factorize(rows, weights, NUMBER_OF_ROWS));
+    IncrementalCholeskyFactorization factorization =
+        new IncrementalCholeskyFactorization(DIMENSION);
+    factorization.copyFrom(expected);
+
+    factorization.update(rows[NUMBER_OF_ROWS], weights[NUMBER_OF_ROWS]);
+    assertTrue(factorization.downdate(rows[NUMBER_OF_ROWS], weights[NUMBER_OF_ROWS]));
+
+    assertInverseEquals(expected, factorization);
+  }
+
+  @Test
+  public void solve_matchesNormalEquations() {
+    double[][] rows = createRows(NUMBER_OF_ROWS);
+    double[] weights = createWeights(NUMBER_OF_ROWS);
+    IncrementalCholeskyFactorization factorization =
+        new IncrementalCholeskyFactorization(DIMENSION);
+    assertTrue(factorization.factorize(rows, weights, NUMBER_OF_ROWS - 2));
+    factorization.update(rows[NUMBER_OF_ROWS - 2], weights[NUMBER_OF_ROWS - 2]);
+    factorization.update(rows[NUMBER_OF_ROWS - 1], weights[NUMBER_OF_ROWS - 1]);
+    double[] expectedSolution = {12.0, -7.5, 3.25, 1000.0};
+    // Right hand side G^T * W * G * x of the expected solution x
+    double[] rightHandSide = new double[DIMENSION];
+    for (int k = 0; k < NUMBER_OF_ROWS; k++) {
+      double predicted = 0.0;
+      for (int i = 0; i < DIMENSION; i++) {
+        predicted += rows[k][i] * expectedSolution[i];
+      }
+      for (int i = 0; i < DIMENSION; i++) {
+        rightHandSide[i] += weights[k] * rows[k][i] * predicted;
+      }
+    }
+
+    double[] solution = new double[DIMENSION];
+    factorization.solve(rightHandSide, solution);
+
+    for (int i = 0; i < DIMENSION; i++) {
+      assertEquals(expectedSolution[i], solution[i], 1e-7);
+    }
+  }
+
+  @Test
+  public void factorize_rejectsUnobservedUnknown() {
+    double[][] rows = createRows(NUMBER_OF_ROWS);
+    double[] weights = createWeights(NUMBER_OF_ROWS);
+    // No row observes the third unknown
+    for (double[] row : rows) {
+      row[2] = 0.0;
+    }
+
+    assertFalse(
+        new IncrementalCholeskyFactorization(DIMENSION).factorize(rows, weights, NUMBER_OF_ROWS));
+  }
+
+  @Test
+  public void downdate_rejectsRankDeficientResult() {
+    // As many rows as unknowns: removing any of them leaves the unknowns undetermined
+    double[][] rows = createRows(DIMENSION);
+    double[] weights = createWeights(DIMENSION);
+    IncrementalCholeskyFactorization expected = new IncrementalCholeskyFactorization(DIMENSION);
+    assertTrue(expected.factorize(rows, weights, DIMENSION));
+    IncrementalCholeskyFactorization factorization =
+        new IncrementalCholeskyFactorization(DIMENSION);
+    factorization.copyFrom(expected);
+
+    for (int i = 0; i < DIMENSION; i++) {
+      assertFalse(factorization.downdate(rows[i], weights[i]));
+      // A rejected downdate leaves the factorization unchanged
+      assertInverseEquals(expected, factorization);
+    }
+  }
+
+  @Test
+  public void downdate_rejectsNearlySingularResult() {
+    double[][] rows = createRows(NUMBER_OF_ROWS);
+    double[] weights = createWeights(NUMBER_OF_ROWS);
+    // Only the last row observes the third unknown, the first one barely does
+    for (double[] row : rows) {
+      row[2] = 0.0;
+    }
+    rows[0][2] = 1e-7;
+    rows[NUMBER_OF_ROWS - 1][2] = 1.0;
+    IncrementalCholeskyFactorization factorization =
+        new IncrementalCholeskyFactorization(DIMENSION);
+    assertTrue(factorization.factorize(rows, weights, NUMBER_OF_ROWS));
+
+    assertFalse(factorization.downdate(rows[NUMBER_OF_ROWS - 1], weights[NUMBER_OF_ROWS - 1]));
+    assertTrue(factorization.downdate(rows[1], weights[1]));
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link IntermediateProductsCache}: the sidecar file written by a recording run and
+ * loaded by the next runs of the same log, on its own and through the solvers using it.
+ */
+public class IntermediateProductsCacheTest {
+
+  private static final long EPOCH_NANOS = 1_330_000_000_000_000_000L;
+  private static final long EPOCH_INTERVAL_NANOS = 1_000_000_000L;
+  private static final int SATELLITE_KEY = 7;
+  private static final long EPHEMERIS_VERSION = (42L << 32) | 345600L;
+  private static final int NUMBER_OF_SOLVED_EPOCHS = 10;
+  private static final double POSITION_TOLERANCE_METERS = 1e-3;
+
+  private static BenchmarkFixture fixture;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File logFile;
+  private File cacheDirectory;
+
+  @BeforeClass
+  public static void createFixture() throws Exception {
+    fixture = BenchmarkFixture.create();
+  }
+
+  /** Creates the log file {@code name} with {@code content}, and the cache directory. */
+  private void createLog(String name, String content) throws IOException {
+    logFile = temporaryFolder.newFile(name);
+    Files.write(content.getBytes(StandardCharsets.UTF_8), logFile);
+    if (cacheDirectory == null) {
+      cacheDirectory = temporaryFolder.newFolder("cache");
+    }
+  }
+
+  private File getSidecarFile(File log) throws IOException {
+    return new File(
+        cacheDirectory,
+        Hashing.sha256().hashBytes(Files.toByteArray(log))
+            + IntermediateProductsCache.FILE_EXTENSION);
+  }
+
+  private static IntermediateProductsCache.SatelliteProducts createProducts(double offset) {
+    IntermediateProductsCache.SatelliteProducts products =
+        new IntermediateProductsCache.SatelliteProducts();
+    products.positionXMeters = 15600000.123456789 + offset;
+    products.positionYMeters = -7540000.987654321 + offset;
+    products.positionZMeters = 20140000.5 + offset;
+    products.velocityXMetersPerSec = -1234.5678 + offset;
+    products.velocityYMetersPerSec = 2345.6789 + offset;
+    products.velocityZMetersPerSec = 345.678 + offset;
+    products.clockCorrectionMeters = 41970.123456 + offset;
+    products.clockCorrectionRateMps = -0.00068945 + offset;
+    products.ionosphericCorrectionMeters = 4.3210987 + offset;
+    products.troposphericCorrectionMeters = Double.NaN;
+    return products;
+  }
+
+  private static void assertProductsEquals(
+      IntermediateProductsCache.SatelliteProducts expected,
+      IntermediateProductsCache.SatelliteProducts actual) {
+    // The positions and clock corrections are stored as doubles, the other products as floats
+    assertEquals(expected.positionXMeters, actual.positionXMeters, 0.0);
+    assertEquals(expected.positionYMeters, actual.positionYMeters, 0.0);
+    assertEquals(expected.positionZMeters, actual.positionZMeters, 0.0);
+    assertEquals(expected.clockCorrectionMeters, actual.clockCorrectionMeters, 0.0);
+    assertEquals(
+        (float) expected.velocityXMetersPerSec, (float) actual.velocityXMetersPerSec, 0.0f);
+    assertEquals(
+        (float) expected.velocityYMetersPerSec, (float) actual.velocityYMetersPerSec, 0.0f);
+    assertEquals(
+        (float) expected.velocityZMetersPerSec, (float) actual.velocityZMetersPerSec, 0.0f);
+    assertEquals(
+        (float) expected.clockCorrectionRateMps, (float) actual.clockCorrectionRateMps, 0.0f);
+    assertEquals(
+        (float) expected.ionosphericCorrectionMeters,
+        (float) actual.ionosphericCorrectionMeters,
+        0.0f);
+    assertEquals(
+        expected.troposphericCorrectionMeters, actual.troposphericCorrectionMeters, 0.0);
+  }
+
+  /** Records the products of two epochs of {@link #SATELLITE_KEY} and saves the sidecar file. */
+  private void recordAndSave() throws IOException {
+    IntermediateProductsCache cache = IntermediateProductsCache.open(logFile, cacheDirectory);
+    assertTrue(cache.isRecording());
+    cache.record(EPOCH_NANOS, SATELLITE_KEY, EPHEMERIS_VERSION, createProducts(0.0));
+    cache.record(
+        EPOCH_NANOS + EPOCH_INTERVAL_NANOS, SATELLITE_KEY, EPHEMERIS_VERSION, createProducts(1.0));
+    cache.save();
+  }
+
+  @Test
+  public void open_loadsRecordedProducts() throws IOException {
+    createLog("gnss_log.txt", "Raw,1,2,3\n");
+    recordAndSave();
+
+    IntermediateProductsCache cache = IntermediateProductsCache.open(logFile, cacheDirectory);
+
+    assertFalse(cache.isRecording());
+    assertEquals(2, cache.size());
+    IntermediateProductsCache.SatelliteProducts products =
+        new IntermediateProductsCache.SatelliteProducts();
+    assertTrue(cache.find(EPOCH_NANOS, SATELLITE_KEY, EPHEMERIS_VERSION, products));
+    assertProductsEquals(createProducts(0.0), products);
+    assertTrue(
+        cache.find(
+            EPOCH_NANOS + EPOCH_INTERVAL_NANOS, SATELLITE_KEY, EPHEMERIS_VERSION, products));
+    assertProductsEquals(createProducts(1.0), products);
+    assertFalse(
+        cache.find(
+            EPOCH_NANOS + 2 * EPOCH_INTERVAL_NANOS, SATELLITE_KEY, EPHEMERIS_VERSION, products));
+    assertFalse(cache.find(EPOCH_NANOS, SATELLITE_KEY + 1, EPHEMERIS_VERSION, products));
+  }
+
+  @Test
+  public void find_missesOtherEphemerisVersion() throws IOException {
+    createLog("gnss_log.txt", "Raw,1,2,3\n");
+    recordAndSave();
+    IntermediateProductsCache cache = IntermediateProductsCache.open(logFile, cacheDirectory);
+
+    // Products computed from an earlier upload of the ephemeris, or another issue of data
+    assertFalse(
+        cache.find(
+            EPOCH_NANOS,
+            SATELLITE_KEY,
+            EPHEMERIS_VERSION - 7200,
+            new IntermediateProductsCache.SatelliteProducts()));
+    assertFalse(
+        cache.find(
+            EPOCH_NANOS,
+            SATELLITE_KEY,
+            EPHEMERIS_VERSION + (1L << 32),
+            new IntermediateProductsCache.SatelliteProducts()));
+  }
+
+  @Test
+  public void open_rejectsSidecarOfAnotherLog() throws IOException {
+    createLog("gnss_log.txt", "Raw,1,2,3\n");
+    recordAndSave();
+    File recordedLog = logFile;
+    createLog("other_gnss_log.txt", "Raw,4,5,6\n");
+    Files.copy(getSidecarFile(recordedLog), getSidecarFile(logFile));
+
+    try {
+      IntermediateProductsCache.open(logFile, cacheDirectory);
+      fail("The sidecar file of another log was loaded");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("another log"));
+    }
+  }
+
+  @Test
+  public void save_replacesSidecarAtomically() throws IOException {
+    createLog("gnss_log.txt", "Raw,1,2,3\n");
+    IntermediateProductsCache cache = IntermediateProductsCache.open(logFile, cacheDirectory);
+    cache.record(EPOCH_NANOS, SATELLITE_KEY, EPHEMERIS_VERSION, createProducts(0.0));
+    // A sidecar file left by an interrupted run is replaced, not appended to
+    File sidecarFile = getSidecarFile(logFile);
+    Files.write(new byte[] {1, 2, 3}, sidecarFile);
+
+    cache.save();
+
+    assertArrayEquals(new String[] {sidecarFile.getName()}, cacheDirectory.list());
+    IntermediateProductsCache loadedCache =
+        IntermediateProductsCache.open(logFile, cacheDirectory);
+    assertEquals(1, loadedCache.size());
+    byte[] savedBytes = Files.toByteArray(sidecarFile);
+    // Saving a loaded cache leaves the sidecar file as it is
+    loadedCache.save();
+    assertArrayEquals(savedBytes, Files.toByteArray(sidecarFile));
+    assertArrayEquals(new String[] {sidecarFile.getName()}, cacheDirectory.list());
+  }
+
+  /** Solves the first epochs of the fixture, returning the positions of each epoch. */
+  private static double[][] solveLeastSquare(IntermediateProductsCache cache) throws Exception {
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    leastSquare.setGeoidHeightMeters(0.0);
+    leastSquare.setIntermediateProductsCache(cache);
+    double[][] solutions = new double[NUMBER_OF_SOLVED_EPOCHS][];
+    for (int i = 0; i < NUMBER_OF_SOLVED_EPOCHS; i++) {
+      solutions[i] = new double[8];
+      leastSquare.calculateUserPositionVelocityLeastSquare(
+          fixture.navMessage,
+          fixture.epochs[i],
+          fixture.receiverTowSeconds[i],
+          BenchmarkFixture.GPS_WEEK,
+          BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+          solutions[i],
+          new double[6],
+          new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+    }
+    return solutions;
+  }
+
+  /** Filters the first epochs of the fixture, returning the positions of each epoch. */
+  private static double[][] solveExtendedKalmanFilter(IntermediateProductsCache cache)
+      throws Exception {
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    leastSquare.setGeoidHeightMeters(0.0);
+    leastSquare.setIntermediateProductsCache(cache);
+    UserPositionVelocityExtendedKalmanFilter filter =
+        new UserPositionVelocityExtendedKalmanFilter(leastSquare);
+    double[][] solutions = new double[NUMBER_OF_SOLVED_EPOCHS][];
+    for (int i = 0; i < NUMBER_OF_SOLVED_EPOCHS; i++) {
+      solutions[i] = new double[8];
+      filter.calculateUserPositionVelocity(
+          fixture.navMessage,
+          fixture.epochs[i],
+          fixture.receiverTowSeconds[i],
+          BenchmarkFixture.GPS_WEEK,
+          BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+          solutions[i],
+          new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+    }
+    return solutions;
+  }
+
+  /** Records the products of the least square solutions of the fixture epochs. */
+  private IntermediateProductsCache recordAndLoadFixtureProducts() throws Exception {
+    createLog("gnss_log.txt", "Fixture\n");
+    IntermediateProductsCache recordingCache =
+        IntermediateProductsCache.open(logFile, cacheDirectory);
+    solveLeastSquare(recordingCache);
+    assertTrue(recordingCache.size() > 0);
+    recordingCache.save();
+    IntermediateProductsCache cache = IntermediateProductsCache.open(logFile, cacheDirectory);
+    assertFalse(cache.isRecording());
+    return cache;
+  }
+
+  private static void assertPositionsEquals(double[][] expected, double[][] actual) {
+    for (int i = 0; i < expected.length; i++) {
+      for (int axis = 0; axis < 3; axis++) {
+        assertEquals(
+            "Epoch " + i, expected[i][axis], actual[i][axis], POSITION_TOLERANCE_METERS);
+      }
+    }
+  }
+
+  @Test
+  public void leastSquare_loadedProductsGiveSamePositions() throws Exception {
+    IntermediateProductsCache cache = recordAndLoadFixtureProducts();
+
+    assertPositionsEquals(solveLeastSquare(null), solveLeastSquare(cache));
+  }
+
+  @Test
+  public void extendedKalmanFilter_loadedProductsGiveSamePositions() throws Exception {
+    IntermediateProductsCache cache = recordAndLoadFixtureProducts();
+
+    // The filtered epochs after the first one must not reuse the products of an earlier epoch
+    assertPositionsEquals(solveExtendedKalmanFilter(null), solveExtendedKalmanFilter(cache));
+  }
+}
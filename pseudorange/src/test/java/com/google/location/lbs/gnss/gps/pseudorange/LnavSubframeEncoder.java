@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.IonosphericModelProto;
+
+/**
+ * Encodes ephemerides and ionospheric parameters into GPS L1 C/A (LNAV) subframes in the format
+ * reported by {@link android.location.GnssNavigationMessage#getData()}, the inverse of {@link
+ * GpsNavigationMessageStore}, so that the decoding can be tested and benchmarked on subframes with
+ * valid parity. The benchmark module compiles this class from the unit tests.
+ *
+ * <p>The data bits are written as restored by the receiver, i.e. not inverted after a word whose
+ * last parity bit is set. Reference: IS-GPS-200, sections 20.3.3 and 20.3.5.
+ */
+final class LnavSubframeEncoder {
+
+  /** SV ID of page 18 of subframe 4, holding the ionospheric and UTC parameters */
+  static final int IONOSPHERIC_PARAMETERS_SV_ID = 56;
+
+  private static final int WORD_SIZE_BITS = 30;
+  private static final int PARITY_BITS_PER_WORD = 6;
+  private static final int BYTES_PER_WORD = 4;
+  private static final int L1_CA_MESSAGE_LENGTH_BYTES = 40;
+  private static final int GPS_WEEKS_IN_CYCLE = 1024;
+
+  /** Data bits d1 to d24 taking part in the parity bits D25 to D30 (IS-GPS-200 Table 20-XIV) */
+  private static final int[][] PARITY_DATA_BITS = {
+    {1, 2, 3, 5, 6, 10, 11, 12, 13, 14, 17, 18, 20, 23},
+    {2, 3, 4, 6, 7, 11, 12, 13, 14, 15, 18, 19, 21, 24},
+    {1, 3, 4, 5, 7, 8, 12, 13, 14, 15, 16, 19, 20, 22},
+    {2, 4, 5, 6, 8, 9, 13, 14, 15, 16, 17, 20, 21, 23},
+    {1, 3, 5, 6, 7, 9, 10, 14, 15, 16, 17, 18, 21, 22, 24},
+    {3, 5, 6, 8, 9, 10, 11, 13, 15, 19, 22, 23, 24}
+  };
+  private static final int PREVIOUS_D29_PARITY_MASK = 0b101001;
+  private static final int PREVIOUS_D30_PARITY_MASK = 0b010110;
+
+  private LnavSubframeEncoder() {}
+
+  /** Encodes the week, clock and group delay parameters of {@code ephemeris}. */
+  static byte[] encodeFirstSubframe(GpsEphemerisProto ephemeris) {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    insert(60, 10, ephemeris.week % GPS_WEEKS_IN_CYCLE, words);
+    insert(82, 2, ephemeris.iodc >>> 8, words);
+    insert(196, 8, scale(ephemeris.tgd, -31), words);
+    insert(210, 8, ephemeris.iodc, words);
+    insert(218, 16, scale(ephemeris.toc, 4), words);
+    insert(240, 8, scale(ephemeris.af2, -55), words);
+    insert(248, 16, scale(ephemeris.af1, -43), words);
+    insert(270, 22, scale(ephemeris.af0, -31), words);
+    return pack(words);
+  }
+
+  /** Encodes the first half of the orbital parameters of {@code ephemeris}. */
+  static byte[] encodeSecondSubframe(GpsEphemerisProto ephemeris) {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    insert(60, 8, ephemeris.iode, words);
+    insert(68, 16, scale(ephemeris.crs, -5), words);
+    insert(90, 16, scale(ephemeris.deltaN / Math.PI, -43), words);
+    insert32(106, 120, scale(ephemeris.m0 / Math.PI, -31), words);
+    insert(150, 16, scale(ephemeris.cuc, -29), words);
+    insert32(166, 180, scale(ephemeris.e, -33), words);
+    insert(210, 16, scale(ephemeris.cus, -29), words);
+    insert32(226, 240, scale(ephemeris.rootOfA, -19), words);
+    insert(270, 16, scale(ephemeris.toe, 4), words);
+    return pack(words);
+  }
+
+  /** Encodes the second half of the orbital parameters of {@code ephemeris}. */
+  static byte[] encodeThirdSubframe(GpsEphemerisProto ephemeris) {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    insert(60, 16, scale(ephemeris.cic, -29), words);
+    insert32(76, 90, scale(ephemeris.omega0 / Math.PI, -31), words);
+    insert(120, 16, scale(ephemeris.cis, -29), words);
+    insert32(136, 150, scale(ephemeris.i0 / Math.PI, -31), words);
+    insert(180, 16, scale(ephemeris.crc, -5), words);
+    insert32(196, 210, scale(ephemeris.omega / Math.PI, -31), words);
+    insert(240, 24, scale(ephemeris.omegaDot / Math.PI, -43), words);
+    insert(270, 8, ephemeris.iode, words);
+    insert(278, 14, scale(ephemeris.iDot / Math.PI, -43), words);
+    return pack(words);
+  }
+
+  /** Encodes page 18 of subframe 4 with the ionospheric parameters of {@code ionosphericModel}. */
+  static byte[] encodeIonosphericPage(IonosphericModelProto ionosphericModel) {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    insert(62, 6, IONOSPHERIC_PARAMETERS_SV_ID, words);
+    insert(68, 8, scale(ionosphericModel.alpha[0], -30), words);
+    insert(76, 8, scale(ionosphericModel.alpha[1], -27), words);
+    insert(90, 8, scale(ionosphericModel.alpha[2], -24), words);
+    insert(98, 8, scale(ionosphericModel.alpha[3], -24), words);
+    insert(106, 8, scale(ionosphericModel.beta[0], 11), words);
+    insert(120, 8, scale(ionosphericModel.beta[1], 14), words);
+    insert(128, 8, scale(ionosphericModel.beta[2], 16), words);
+    insert(136, 8, scale(ionosphericModel.beta[3], 16), words);
+    return pack(words);
+  }
+
+  /**
+   * Encodes a page of subframe 4 or 5 without content for the decoder, e.g. an almanac page,
+   * identified by the SV ID {@code svId} of the page.
+   */
+  static byte[] encodeAlmanacPage(int svId) {
+    int[] words = new int[GpsNavigationSubframeDecoder.WORDS_PER_SUBFRAME];
+    insert(62, 6, svId, words);
+    return pack(words);
+  }
+
+  /** Returns {@code value} in units of 2^{@code exponent}, rounded to the nearest integer. */
+  private static long scale(double value, int exponent) {
+    return Math.round(Math.scalb(value, -exponent));
+  }
+
+  /** Writes the {@code length} low bits of {@code value} at the bit {@code index} of the words. */
+  private static void insert(int index, int length, long value, int[] words) {
+    int descriptor = GpsNavigationSubframeDecoder.field(index, length);
+    int shift = (descriptor >>> 8) & 0xFF;
+    words[descriptor >>> 16] |= (int) (value & ((1L << length) - 1)) << shift;
+  }
+
+  /** Writes a 32 bit value split in its 8 most and 24 least significant bits. */
+  private static void insert32(int index8, int index24, long value, int[] words) {
+    insert(index8, 8, value >>> 24, words);
+    insert(index24, 24, value, words);
+  }
+
+  /** Computes the parity of the words and packs them right aligned in 4 bytes each. */
+  private static byte[] pack(int[] words) {
+    byte[] rawData = new byte[L1_CA_MESSAGE_LENGTH_BYTES];
+    int previousWord = 0;
+    for (int i = 0; i < words.length; i++) {
+      int data = words[i] >>> PARITY_BITS_PER_WORD;
+      int parity = computeParity(data);
+      if ((previousWord & 0b10) != 0) {
+        parity ^= PREVIOUS_D29_PARITY_MASK;
+      }
+      if ((previousWord & 0b01) != 0) {
+        parity ^= PREVIOUS_D30_PARITY_MASK;
+      }
+      int word = (data << PARITY_BITS_PER_WORD) | parity;
+      for (int j = 0; j < BYTES_PER_WORD; j++) {
+        rawData[i * BYTES_PER_WORD + j] = (byte) (word >>> (8 * (BYTES_PER_WORD - 1 - j)));
+      }
+      previousWord = word;
+    }
+    return rawData;
+  }
+
+  /** Computes the parity bits D25 to D30 of 24 data bits, ignoring the previous word. */
+  private static int computeParity(int data) {
+    int parity = 0;
+    for (int[] dataBits : PARITY_DATA_BITS) {
+      int bit = 0;
+      for (int dataBit : dataBits) {
+        bit ^= (data >>> (WORD_SIZE_BITS - PARITY_BITS_PER_WORD - dataBit)) & 1;
+      }
+      parity = (parity << 1) | bit;
+    }
+    return parity;
+  }
+}
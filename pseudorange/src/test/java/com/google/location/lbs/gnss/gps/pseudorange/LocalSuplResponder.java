@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.location.cts.nano.Ephemeris.IonosphericModelProto;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the SUPL server answering navigation message requests in process, for tests
+ * and latency benchmarks of the code using a {@link NavMessageSource}.
+ *
+ * <p>The responder returns a canned navigation message after a configurable delay and can be set
+ * to fail a number of the next requests to exercise the retry logic.
+ */
+public class LocalSuplResponder implements NavMessageSource {
+
+  private volatile GpsNavMessageProto navMessageProto;
+  private volatile long responseDelayMillis;
+  private final AtomicInteger numberOfFailuresToSimulate = new AtomicInteger(0);
+  private final AtomicInteger numberOfRequests = new AtomicInteger(0);
+
+  /** Constructor answering each request with {@code navMessageProto} after no delay. */
+  public LocalSuplResponder(GpsNavMessageProto navMessageProto) {
+    this.navMessageProto = navMessageProto;
+  }
+
+  /** Sets the navigation message returned by the next requests. */
+  public void setNavMessage(GpsNavMessageProto navMessageProto) {
+    this.navMessageProto = navMessageProto;
+  }
+
+  /** Sets the delay in milliseconds before each request is answered. */
+  public void setResponseDelayMillis(long responseDelayMillis) {
+    this.responseDelayMillis = responseDelayMillis;
+  }
+
+  /** Makes the next {@code numberOfFailures} requests fail with an {@link IOException}. */
+  public void failNextRequests(int numberOfFailures) {
+    numberOfFailuresToSimulate.set(numberOfFailures);
+  }
+
+  /** Returns the number of requests received so far. */
+  public int getNumberOfRequests() {
+    return numberOfRequests.get();
+  }
+
+  @Override
+  public GpsNavMessageProto fetchNavMessage(long latE7, long lngE7) throws IOException {
+    numberOfRequests.incrementAndGet();
+    if (responseDelayMillis > 0) {
+      try {
+        Thread.sleep(responseDelayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while answering the request", e);
+      }
+    }
+    if (numberOfFailuresToSimulate.getAndDecrement() > 0) {
+      throw new IOException("Simulated SUPL server failure");
+    }
+    return navMessageProto;
+  }
+
+  /**
+   * Creates a navigation message with the given ionospheric parameters and one ephemeris for each
+   * of the given PRNs, all sharing the given week and time of ephemeris. The orbital parameters are
+   * left to zero except for a GPS like semi-major axis, which is enough to exercise the refresh and
+   * selection logic but not to compute meaningful positions.
+   */
+  public static GpsNavMessageProto createNavMessage(
+      double[] alpha, double[] beta, int week, double toeSeconds, int... prns) {
+    GpsNavMessageProto navMessageProto = new GpsNavMessageProto();
+    IonosphericModelProto ionosphericModelProto = new IonosphericModelProto();
+    ionosphericModelProto.alpha = alpha.clone();
+    ionosphericModelProto.beta = beta.clone();
+    navMessageProto.iono = ionosphericModelProto;
+    navMessageProto.ephemerids = new GpsEphemerisProto[prns.length];
+    for (int i = 0; i < prns.length; i++) {
+      GpsEphemerisProto ephemerisProto = new GpsEphemerisProto();
+      ephemerisProto.prn = prns[i];
+      ephemerisProto.week = week;
+      ephemerisProto.toe = toeSeconds;
+      ephemerisProto.toc = toeSeconds;
+      ephemerisProto.rootOfA = Math.sqrt(26560000.0);
+      navMessageProto.ephemerids[i] = ephemerisProto;
+    }
+    return navMessageProto;
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link PreciseEphemeris}, on SP3 and RINEX clock files of a satellite on a Keplerian
+ * orbit with a quadratic clock, whose positions, velocities and clocks are known at any time.
+ */
+public class PreciseEphemerisTest {
+
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double EARTH_ROTATION_RATE_RAD_PER_SEC = 7.2921151467e-5;
+  private static final double GRAVITATIONAL_PARAMETER_M3_SM2 = 3.986005e14;
+  private static final int SECONDS_IN_WEEK = 604800;
+
+  private static final int PRN = 7;
+  private static final double SEMI_MAJOR_AXIS_METERS = 26560000.0;
+  private static final double ECCENTRICITY = 0.02;
+  private static final double INCLINATION_RADIANS = Math.toRadians(55.0);
+  private static final double MEAN_MOTION_RAD_PER_SEC =
+      Math.sqrt(
+          GRAVITATIONAL_PARAMETER_M3_SM2
+              / (SEMI_MAJOR_AXIS_METERS * SEMI_MAJOR_AXIS_METERS * SEMI_MAJOR_AXIS_METERS));
+  /** Clock bias, drift and drift rate of the satellite at the first epoch */
+  private static final double[] CLOCK_COEFFICIENTS = {1.2e-4, 3.0e-11, 1.0e-18};
+
+  private static final GpsTime FIRST_EPOCH = new GpsTime(2022, 3, 10, 0, 0, 0.0);
+  private static final int SP3_INTERVAL_SECONDS = 900;
+  private static final int CLOCK_INTERVAL_SECONDS = 30;
+  private static final int NUMBER_OF_SP3_EPOCHS = 12;
+  private static final int COVERED_SECONDS = (NUMBER_OF_SP3_EPOCHS - 1) * SP3_INTERVAL_SECONDS;
+  /** Query time from the first epoch, between the epochs of both files */
+  private static final double QUERY_SECONDS = 4321.7;
+
+  private static final double POSITION_TOLERANCE_METERS = 5e-3;
+  private static final double CLOCK_TOLERANCE_METERS = 1e-6;
+  private static final double CLOCK_RATE_TOLERANCE_MPS = 1e-7;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private PreciseEphemeris preciseEphemeris;
+  private int gpsWeek;
+  private double firstEpochGpsTowSeconds;
+
+  @Before
+  public void setUp() throws IOException {
+    preciseEphemeris = new PreciseEphemeris();
+    preciseEphemeris.readSp3(toBuffer(createSp3()));
+    preciseEphemeris.readClockRinex(toBuffer(createClockRinex()));
+    double firstEpochGpsSeconds = FIRST_EPOCH.getMillisSinceGpsEpoch() * 1e-3;
+    gpsWeek = (int) (firstEpochGpsSeconds / SECONDS_IN_WEEK);
+    firstEpochGpsTowSeconds = firstEpochGpsSeconds - gpsWeek * (double) SECONDS_IN_WEEK;
+  }
+
+  /** Returns the position and velocity of the satellite {@code seconds} after the first epoch. */
+  private static double[] calculateOrbit(double seconds) {
+    double meanAnomaly = MEAN_MOTION_RAD_PER_SEC * seconds;
+    double eccentricAnomaly = meanAnomaly;
+    for (int i = 0; i < 20; i++) {
+      eccentricAnomaly = meanAnomaly + ECCENTRICITY * Math.sin(eccentricAnomaly);
+    }
+    double eccentricAnomalyRate =
+        MEAN_MOTION_RAD_PER_SEC / (1.0 - ECCENTRICITY * Math.cos(eccentricAnomaly));
+    double minorAxisRatio = Math.sqrt(1.0 - ECCENTRICITY * ECCENTRICITY);
+    double x = SEMI_MAJOR_AXIS_METERS * (Math.cos(eccentricAnomaly) - ECCENTRICITY);
+    double y = SEMI_MAJOR_AXIS_METERS * minorAxisRatio * Math.sin(eccentricAnomaly);
+    double vx = -SEMI_MAJOR_AXIS_METERS * Math.sin(eccentricAnomaly) * eccentricAnomalyRate;
+    double vy =
+        SEMI_MAJOR_AXIS_METERS * minorAxisRatio * Math.cos(eccentricAnomaly) * eccentricAnomalyRate;
+    double cosInclination = Math.cos(INCLINATION_RADIANS);
+    double sinInclination = Math.sin(INCLINATION_RADIANS);
+    return new double[] {
+      x, y * cosInclination, y * sinInclination, vx, vy * cosInclination, vy * sinInclination
+    };
+  }
+
+  private static double calculateClockSeconds(double seconds) {
+    return CLOCK_COEFFICIENTS[0]
+        + CLOCK_COEFFICIENTS[1] * seconds
+        + CLOCK_COEFFICIENTS[2] * seconds * seconds;
+  }
+
+  private static String formatEpoch(String prefix, int secondsFromFirstEpoch) {
+    int hours = secondsFromFirstEpoch / 3600;
+    int minutes = secondsFromFirstEpoch / 60 % 60;
+    int seconds = secondsFromFirstEpoch % 60;
+    return String.format(
+        Locale.US, "%s2022 03 10 %02d %02d %9.6f", prefix, hours, minutes, (double) seconds);
+  }
+
+  private static String createSp3() {
+    StringBuilder sp3 = new StringBuilder();
+    sp3.append("#dP2022  3 10  0  0  0.00000000      12 ORBIT IGS14 HLM  IGS\n");
+    sp3.append("%c G  cc GPS ccc cccc cccc cccc cccc ccccc ccccc ccccc ccccc\n");
+    for (int epoch = 0; epoch < NUMBER_OF_SP3_EPOCHS; epoch++) {
+      int seconds = epoch * SP3_INTERVAL_SECONDS;
+      double[] orbit = calculateOrbit(seconds);
+      sp3.append(formatEpoch("*  ", seconds)).append('\n');
+      sp3.append(
+          String.format(
+              Locale.US,
+              "PG%02d%14.6f%14.6f%14.6f%14.6f\n",
+              PRN,
+              orbit[0] / 1000.0,
+              orbit[1] / 1000.0,
+              orbit[2] / 1000.0,
+              calculateClockSeconds(seconds) * 1e6));
+    }
+    sp3.append("EOF\n");
+    return sp3.toString();
+  }
+
+  private static String createClockRinex() {
+    StringBuilder rinex = new StringBuilder();
+    rinex.append(
+        "     3.04           C                   G                   RINEX VERSION / TYPE\n");
+    rinex.append("                                                            END OF HEADER\n");
+    for (int seconds = 0; seconds <= COVERED_SECONDS; seconds += CLOCK_INTERVAL_SECONDS) {
+      rinex
+          .append(formatEpoch(String.format(Locale.US, "AS G%02d  ", PRN), seconds))
+          .append(String.format(Locale.US, "  1   %.12E\n", calculateClockSeconds(seconds)));
+    }
+    return rinex.toString();
+  }
+
+  private static ByteBuffer toBuffer(String content) {
+    return ByteBuffer.wrap(content.getBytes(US_ASCII));
+  }
+
+  /** Returns the analytic clock correction rate, the clock drift and relativistic term rates. */
+  private static double calculateExpectedClockCorrectionRateMps(double seconds) {
+    double[] orbit = calculateOrbit(seconds);
+    double radiusMeters =
+        Math.sqrt(orbit[0] * orbit[0] + orbit[1] * orbit[1] + orbit[2] * orbit[2]);
+    double squareSpeedMps2 = orbit[3] * orbit[3] + orbit[4] * orbit[4] + orbit[5] * orbit[5];
+    double clockDriftMps =
+        (CLOCK_COEFFICIENTS[1] + 2.0 * CLOCK_COEFFICIENTS[2] * seconds) * SPEED_OF_LIGHT_MPS;
+    return clockDriftMps
+        - 2.0
+            * (squareSpeedMps2 - GRAVITATIONAL_PARAMETER_M3_SM2 / radiusMeters)
+            / SPEED_OF_LIGHT_MPS;
+  }
+
+  @Test
+  public void calculateSatellitePositionAndVelocity_interpolatesOrbit() {
+    PositionAndVelocity satPosAndVel = new PositionAndVelocity(0, 0, 0, 0, 0, 0);
+
+    // Seen from the center of the earth, rotated by the earth rotation during the travel time
+    assertTrue(
+        preciseEphemeris.calculateSatellitePositionAndVelocity(
+            PRN, firstEpochGpsTowSeconds + QUERY_SECONDS, gpsWeek, 0.0, 0.0, 0.0, satPosAndVel));
+
+    double[] orbit = calculateOrbit(QUERY_SECONDS);
+    double radiusMeters =
+        Math.sqrt(orbit[0] * orbit[0] + orbit[1] * orbit[1] + orbit[2] * orbit[2]);
+    double rotationRadians = EARTH_ROTATION_RATE_RAD_PER_SEC * radiusMeters / SPEED_OF_LIGHT_MPS;
+    double cosRotation = Math.cos(rotationRadians);
+    double sinRotation = Math.sin(rotationRadians);
+    assertEquals(
+        cosRotation * orbit[0] + sinRotation * orbit[1],
+        satPosAndVel.positionXMeters,
+        POSITION_TOLERANCE_METERS);
+    assertEquals(
+        -sinRotation * orbit[0] + cosRotation * orbit[1],
+        satPosAndVel.positionYMeters,
+        POSITION_TOLERANCE_METERS);
+    assertEquals(orbit[2], satPosAndVel.positionZMeters, POSITION_TOLERANCE_METERS);
+    assertEquals(orbit[5], satPosAndVel.velocityZMetersPerSec, 1e-5);
+  }
+
+  @Test
+  public void calculateSatelliteClockCorrectionMeters_addsRelativisticCorrection() {
+    double[] orbit = calculateOrbit(QUERY_SECONDS);
+    double expectedMeters =
+        calculateClockSeconds(QUERY_SECONDS) * SPEED_OF_LIGHT_MPS
+            - 2.0
+                * (orbit[0] * orbit[3] + orbit[1] * orbit[4] + orbit[2] * orbit[5])
+                / SPEED_OF_LIGHT_MPS;
+
+    assertEquals(
+        expectedMeters,
+        preciseEphemeris.calculateSatelliteClockCorrectionMeters(
+            PRN, firstEpochGpsTowSeconds + QUERY_SECONDS, gpsWeek),
+        CLOCK_TOLERANCE_METERS);
+  }
+
+  @Test
+  public void calculateSatelliteClockCorrectionRateMps_matchesAnalyticRate() {
+    for (double seconds = QUERY_SECONDS; seconds < QUERY_SECONDS + 100.0; seconds += 7.3) {
+      assertEquals(
+          calculateExpectedClockCorrectionRateMps(seconds),
+          preciseEphemeris.calculateSatelliteClockCorrectionRateMps(
+              PRN, firstEpochGpsTowSeconds + seconds, gpsWeek),
+          CLOCK_RATE_TOLERANCE_MPS);
+    }
+  }
+
+  @Test
+  public void calculateSatelliteClockCorrectionRateMps_matchesClockCorrectionDifference() {
+    double towSeconds = firstEpochGpsTowSeconds + QUERY_SECONDS;
+    double differenceMps =
+        preciseEphemeris.calculateSatelliteClockCorrectionMeters(PRN, towSeconds + 0.5, gpsWeek)
+            - preciseEphemeris.calculateSatelliteClockCorrectionMeters(
+                PRN, towSeconds - 0.5, gpsWeek);
+
+    assertEquals(
+        differenceMps,
+        preciseEphemeris.calculateSatelliteClockCorrectionRateMps(PRN, towSeconds, gpsWeek),
+        CLOCK_RATE_TOLERANCE_MPS);
+  }
+
+  @Test
+  public void hasSatellite_onlyWithinCoveredEpochs() {
+    assertTrue(preciseEphemeris.hasSatellite(PRN, firstEpochGpsTowSeconds, gpsWeek));
+    assertTrue(
+        preciseEphemeris.hasSatellite(PRN, firstEpochGpsTowSeconds + COVERED_SECONDS, gpsWeek));
+    assertFalse(preciseEphemeris.hasSatellite(PRN, firstEpochGpsTowSeconds - 1.0, gpsWeek));
+    assertFalse(
+        preciseEphemeris.hasSatellite(
+            PRN, firstEpochGpsTowSeconds + COVERED_SECONDS + 1.0, gpsWeek));
+    assertFalse(preciseEphemeris.hasSatellite(PRN + 1, firstEpochGpsTowSeconds, gpsWeek));
+    assertTrue(
+        Double.isNaN(
+            preciseEphemeris.calculateSatelliteClockCorrectionRateMps(
+                PRN, firstEpochGpsTowSeconds - 1.0, gpsWeek)));
+  }
+
+  @Test
+  public void fromFiles_readsSp3AndClockFiles() throws IOException {
+    File sp3File = temporaryFolder.newFile("igs21990.sp3");
+    File clockFile = temporaryFolder.newFile("igs21990.clk");
+    write(sp3File, createSp3());
+    write(clockFile, createClockRinex());
+
+    PreciseEphemeris fromFiles = PreciseEphemeris.fromFiles(sp3File, clockFile);
+
+    double towSeconds = firstEpochGpsTowSeconds + QUERY_SECONDS;
+    assertEquals(
+        preciseEphemeris.calculateSatelliteClockCorrectionRateMps(PRN, towSeconds, gpsWeek),
+        fromFiles.calculateSatelliteClockCorrectionRateMps(PRN, towSeconds, gpsWeek),
+        0.0);
+  }
+
+  @Test
+  public void readSp3_rejectsOtherContent() {
+    try {
+      new PreciseEphemeris().readSp3(toBuffer(createClockRinex()));
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // No SP3 header line
+    }
+  }
+
+  @Test
+  public void readClockRinex_rejectsOtherContent() {
+    try {
+      new PreciseEphemeris().readClockRinex(toBuffer(createSp3()));
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // No RINEX version line
+    }
+  }
+
+  private static void write(File file, String content) throws IOException {
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(content.getBytes(US_ASCII));
+    } finally {
+      outputStream.close();
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.location.GnssStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PseudorangeHatchFilterSmoother} on a satellite moving away at a constant range
+ * rate, whose accumulated delta range follows the range exactly. The number of epochs averaged in
+ * a smoothed pseudorange is read from its uncertainty, the raw one divided by its square root.
+ */
+public class PseudorangeHatchFilterSmootherTest {
+
+  private static final int SATELLITE_KEY =
+      SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, 12, SatelliteKey.SIGNAL_L1);
+  private static final long FIRST_ARRIVAL_TIME_NS = 345600L * 1000000000L;
+  /** Travel time assumed by the pseudoranges, so that they are ranges from the receiver clock */
+  private static final long TRAVEL_TIME_NS = 70000000L;
+  private static final long EPOCH_INTERVAL_NS = 1000000000L;
+  private static final double FIRST_RANGE_METERS = 2.2e7;
+  private static final double RANGE_RATE_MPS = 300.0;
+  private static final double PSEUDORANGE_UNCERTAINTY_METERS = 10.0;
+  private static final int CARRIER_SMOOTHING_WINDOW = 100;
+  private static final int DOPPLER_SMOOTHING_WINDOW = 10;
+
+  private PseudorangeHatchFilterSmoother smoother;
+  private final GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+  private final GpsEpochMeasurements smoothedMeasurements = new GpsEpochMeasurements();
+
+  @Before
+  public void setUp() {
+    smoother = new PseudorangeHatchFilterSmoother();
+  }
+
+  private static double rangeMeters(int epoch) {
+    return FIRST_RANGE_METERS + RANGE_RATE_MPS * epoch;
+  }
+
+  /**
+   * Smooths the measurement of epoch {@code epoch} of the satellite, with its pseudorange off the
+   * range by {@code codeErrorMeters} and its accumulated delta range off by {@code
+   * carrierErrorMeters}, and returns the number of epochs averaged.
+   */
+  private int smooth(
+      int epoch,
+      double codeErrorMeters,
+      double carrierErrorMeters,
+      boolean validAccumulatedDeltaRange,
+      boolean accumulatedDeltaRangeDiscontinuity) {
+    long arrivalTimeNs = FIRST_ARRIVAL_TIME_NS + epoch * EPOCH_INTERVAL_NS;
+    measurements.clear();
+    measurements.arrivalTimeSinceGpsWeekNs = arrivalTimeNs;
+    int slot =
+        measurements.setMeasurement(
+            SATELLITE_KEY,
+            arrivalTimeNs - TRAVEL_TIME_NS,
+            rangeMeters(epoch) - FIRST_RANGE_METERS + carrierErrorMeters,
+            validAccumulatedDeltaRange,
+            accumulatedDeltaRangeDiscontinuity,
+            RANGE_RATE_MPS,
+            40.0 /*signalToNoiseRatioDb*/,
+            0.01 /*accumulatedDeltaRangeUncertaintyMeters*/,
+            0.1 /*pseudorangeRateUncertaintyMps*/);
+    measurements.pseudorangeMeters[slot] = rangeMeters(epoch) + codeErrorMeters;
+    measurements.pseudorangeUncertaintyMeters[slot] = PSEUDORANGE_UNCERTAINTY_METERS;
+
+    smoother.updatePseudorangeSmoothingResult(measurements, smoothedMeasurements);
+
+    double uncertaintyRatio =
+        PSEUDORANGE_UNCERTAINTY_METERS / smoothedMeasurements.pseudorangeUncertaintyMeters[slot];
+    return (int) Math.round(uncertaintyRatio * uncertaintyRatio);
+  }
+
+  private int smoothWithCarrier(int epoch, double codeErrorMeters) {
+    return smooth(epoch, codeErrorMeters, 0.0, true, false);
+  }
+
+  private double getSmoothedErrorMeters(int epoch) {
+    return smoothedMeasurements.pseudorangeMeters[0] - rangeMeters(epoch);
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_firstEpoch_returnsRawPseudorange() {
+    assertEquals(1, smoothWithCarrier(0, 7.5));
+
+    assertEquals(7.5, getSmoothedErrorMeters(0), 1e-6);
+    assertEquals(
+        PSEUDORANGE_UNCERTAINTY_METERS, smoothedMeasurements.pseudorangeUncertaintyMeters[0], 0.0);
+    // The other fields are copied unchanged
+    assertEquals(SATELLITE_KEY, smoothedMeasurements.satelliteKeys[0]);
+    assertEquals(RANGE_RATE_MPS, smoothedMeasurements.pseudorangeRateMps[0], 0.0);
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_carrier_growsWindowUpToLimit() {
+    for (int epoch = 0; epoch < 2 * CARRIER_SMOOTHING_WINDOW; epoch++) {
+      assertEquals(
+          "Epoch " + epoch,
+          Math.min(epoch + 1, CARRIER_SMOOTHING_WINDOW),
+          smoothWithCarrier(epoch, 0.0));
+      assertEquals("Epoch " + epoch, 0.0, getSmoothedErrorMeters(epoch), 1e-6);
+    }
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_carrier_averagesCodeNoise() {
+    // Code errors alternating around zero, averaged by the window
+    for (int epoch = 0; epoch < CARRIER_SMOOTHING_WINDOW; epoch++) {
+      smoothWithCarrier(epoch, epoch % 2 == 0 ? 5.0 : -5.0);
+    }
+
+    assertEquals(0.0, getSmoothedErrorMeters(CARRIER_SMOOTHING_WINDOW - 1), 0.1);
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_invalidAccumulatedDeltaRange_usesDopplerWindow() {
+    for (int epoch = 0; epoch < 20; epoch++) {
+      smoothWithCarrier(epoch, 0.0);
+    }
+
+    // The carrier average restarts with the weight of the Doppler window
+    assertEquals(DOPPLER_SMOOTHING_WINDOW, smooth(20, 0.0, 0.0, false, false));
+    for (int epoch = 21; epoch < 40; epoch++) {
+      assertEquals(
+          "Epoch " + epoch, DOPPLER_SMOOTHING_WINDOW, smooth(epoch, 0.0, 0.0, false, false));
+      assertEquals("Epoch " + epoch, 0.0, getSmoothedErrorMeters(epoch), 1e-6);
+    }
+    // Carrier smoothing only resumes with two consecutive valid accumulated delta ranges
+    assertEquals(DOPPLER_SMOOTHING_WINDOW, smoothWithCarrier(40, 0.0));
+    assertEquals(DOPPLER_SMOOTHING_WINDOW + 1, smoothWithCarrier(41, 0.0));
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_accumulatedDeltaRangeDiscontinuity_bridgesSlip() {
+    for (int epoch = 0; epoch < 20; epoch++) {
+      smoothWithCarrier(epoch, 0.0);
+    }
+
+    // A reset of the accumulated delta range is propagated with the Doppler, not the carrier
+    assertEquals(DOPPLER_SMOOTHING_WINDOW, smooth(20, 0.0, 1234.5, true, true));
+    assertEquals(0.0, getSmoothedErrorMeters(20), 1e-6);
+    for (int epoch = 21; epoch < 30; epoch++) {
+      assertEquals(
+          "Epoch " + epoch,
+          epoch - 20 + DOPPLER_SMOOTHING_WINDOW,
+          smooth(epoch, 0.0, 1234.5, true, false));
+      assertEquals("Epoch " + epoch, 0.0, getSmoothedErrorMeters(epoch), 1e-6);
+    }
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_undetectedCycleSlip_restartsFromMeasurement() {
+    for (int epoch = 0; epoch < 20; epoch++) {
+      smoothWithCarrier(epoch, 0.0);
+    }
+
+    // The carrier jumps without a reported discontinuity: the code departs from the propagation
+    assertEquals(1, smooth(20, 3.0, 1234.5, true, false));
+    assertEquals(3.0, getSmoothedErrorMeters(20), 1e-6);
+    assertEquals(2, smooth(21, 0.0, 1234.5, true, false));
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_gapInMeasurements_restartsFromMeasurement() {
+    for (int epoch = 0; epoch < 20; epoch++) {
+      smoothWithCarrier(epoch, 0.0);
+    }
+
+    assertEquals(1, smoothWithCarrier(26, 2.0));
+    assertEquals(2.0, getSmoothedErrorMeters(26), 1e-6);
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_hardwareClockDiscontinuity_restartsAllSatellites() {
+    for (int epoch = 0; epoch < 20; epoch++) {
+      smoothWithCarrier(epoch, 0.0);
+    }
+
+    measurements.hardwareClockDiscontinuityCount = 1;
+    assertEquals(1, smoothWithCarrier(20, 2.0));
+    assertEquals(2.0, getSmoothedErrorMeters(20), 1e-6);
+    assertEquals(2, smoothWithCarrier(21, 0.0));
+  }
+
+  @Test
+  public void updatePseudorangeSmoothingResult_invalidMeasurement_isNotSmoothed() {
+    for (int epoch = 0; epoch < 20; epoch++) {
+      smoothWithCarrier(epoch, 0.0);
+    }
+    long arrivalTimeNs = FIRST_ARRIVAL_TIME_NS + 20 * EPOCH_INTERVAL_NS;
+    measurements.clear();
+    measurements.arrivalTimeSinceGpsWeekNs = arrivalTimeNs;
+    int slot =
+        measurements.setMeasurement(
+            SATELLITE_KEY, arrivalTimeNs - TRAVEL_TIME_NS, 0.0, true, false, 0.0, 40.0, 0.01, 0.1);
+    measurements.pseudorangeMeters[slot] = 1.0;
+    measurements.invalidate(slot);
+
+    smoother.updatePseudorangeSmoothingResult(measurements, smoothedMeasurements);
+
+    assertEquals(1.0, smoothedMeasurements.pseudorangeMeters[slot], 0.0);
+    assertFalse(smoothedMeasurements.isValid(slot));
+  }
+}
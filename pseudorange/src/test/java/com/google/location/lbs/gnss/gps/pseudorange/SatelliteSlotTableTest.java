@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.location.GnssStatus;
+import org.junit.Test;
+
+/** Tests for {@link SatelliteSlotTable} and the keys of {@link SatelliteKey} it stores. */
+public class SatelliteSlotTableTest {
+
+  private static final int MAXIMUM_NUMBER_OF_SLOTS = 40;
+
+  /** Returns the keys of all the signals of a multi constellation epoch, more than the table. */
+  private static int[] createKeys(int numberOfKeys) {
+    int[] constellations = {
+      GnssStatus.CONSTELLATION_GPS,
+      GnssStatus.CONSTELLATION_GLONASS,
+      GnssStatus.CONSTELLATION_GALILEO,
+      GnssStatus.CONSTELLATION_BEIDOU
+    };
+    int[] keys = new int[numberOfKeys];
+    for (int i = 0; i < numberOfKeys; i++) {
+      keys[i] =
+          SatelliteKey.create(
+              constellations[i % constellations.length],
+              1 + i / 8,
+              (i / constellations.length) % 2 == 0
+                  ? SatelliteKey.SIGNAL_L1
+                  : SatelliteKey.SIGNAL_L5);
+    }
+    return keys;
+  }
+
+  @Test
+  public void getOrAddSlot_assignsDenseSlotsInInsertionOrder() {
+    SatelliteSlotTable table = new SatelliteSlotTable(MAXIMUM_NUMBER_OF_SLOTS);
+    int[] keys = createKeys(MAXIMUM_NUMBER_OF_SLOTS);
+
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(-1, table.getSlot(keys[i]));
+      assertEquals(i, table.getOrAddSlot(keys[i]));
+    }
+
+    assertEquals(MAXIMUM_NUMBER_OF_SLOTS, table.size());
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(i, table.getSlot(keys[i]));
+      // Adding a key again returns its slot
+      assertEquals(i, table.getOrAddSlot(keys[i]));
+    }
+    assertEquals(MAXIMUM_NUMBER_OF_SLOTS, table.size());
+  }
+
+  @Test
+  public void getOrAddSlot_dropsNewKeysOfFullTable() {
+    SatelliteSlotTable table = new SatelliteSlotTable(MAXIMUM_NUMBER_OF_SLOTS);
+    int[] keys = createKeys(MAXIMUM_NUMBER_OF_SLOTS + 5);
+    for (int i = 0; i < MAXIMUM_NUMBER_OF_SLOTS; i++) {
+      table.getOrAddSlot(keys[i]);
+    }
+
+    for (int i = MAXIMUM_NUMBER_OF_SLOTS; i < keys.length; i++) {
+      assertEquals(-1, table.getOrAddSlot(keys[i]));
+      assertEquals(-1, table.getSlot(keys[i]));
+    }
+    assertEquals(MAXIMUM_NUMBER_OF_SLOTS, table.size());
+    assertEquals(MAXIMUM_NUMBER_OF_SLOTS - 1, table.getSlot(keys[MAXIMUM_NUMBER_OF_SLOTS - 1]));
+  }
+
+  @Test
+  public void getSlot_findsAllKeysOfHalfFullTable() {
+    // With at most half of the entries in use, the probe sequences of absent keys end on an empty
+    // entry even when the present keys collided
+    SatelliteSlotTable table = new SatelliteSlotTable(64);
+    int[] keys = createKeys(64);
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(i, table.getOrAddSlot(keys[i]));
+    }
+
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(i, table.getSlot(keys[i]));
+    }
+    for (int svid = 100; svid < 400; svid++) {
+      assertEquals(
+          -1,
+          table.getSlot(
+              SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, svid, SatelliteKey.SIGNAL_L1)));
+    }
+  }
+
+  @Test
+  public void clear_allowsReuseFromFirstSlot() {
+    SatelliteSlotTable table = new SatelliteSlotTable(MAXIMUM_NUMBER_OF_SLOTS);
+    int[] keys = createKeys(MAXIMUM_NUMBER_OF_SLOTS);
+    for (int key : keys) {
+      table.getOrAddSlot(key);
+    }
+
+    table.clear();
+
+    assertEquals(0, table.size());
+    for (int key : keys) {
+      assertEquals(-1, table.getSlot(key));
+    }
+    // The next epoch receives the signals in another order
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(i, table.getOrAddSlot(keys[keys.length - 1 - i]));
+    }
+    assertEquals(0, table.getSlot(keys[keys.length - 1]));
+  }
+
+  @Test
+  public void copyFrom_copiesKeysSlotsAndPairs() {
+    SatelliteSlotTable table = new SatelliteSlotTable(MAXIMUM_NUMBER_OF_SLOTS);
+    SatelliteSlotTable copy = new SatelliteSlotTable(MAXIMUM_NUMBER_OF_SLOTS);
+    int[] keys = createKeys(MAXIMUM_NUMBER_OF_SLOTS);
+    for (int i = 0; i < keys.length / 2; i++) {
+      table.getOrAddSlot(keys[i]);
+    }
+    copy.getOrAddSlot(keys[keys.length - 1]);
+
+    copy.copyFrom(table);
+    // The copy is independent of the table it was copied from
+    table.clear();
+
+    assertEquals(keys.length / 2, copy.size());
+    for (int i = 0; i < keys.length / 2; i++) {
+      assertEquals(i, copy.getSlot(keys[i]));
+      // Keys i and i + 4 are the L1 and L5 signals of a satellite
+      int pairedSlot = i % 8 < 4 ? i + 4 : i - 4;
+      assertEquals(pairedSlot < keys.length / 2 ? pairedSlot : -1, copy.getPairedSlot(i));
+    }
+    assertEquals(-1, copy.getSlot(keys[keys.length - 1]));
+    assertEquals(keys.length / 2, copy.getOrAddSlot(keys[keys.length - 1]));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void copyFrom_rejectsTableOfOtherSize() {
+    new SatelliteSlotTable(MAXIMUM_NUMBER_OF_SLOTS)
+        .copyFrom(new SatelliteSlotTable(MAXIMUM_NUMBER_OF_SLOTS + 1));
+  }
+
+  @Test
+  public void create_packsConstellationSvidAndSignal() {
+    int[] constellations = {GnssStatus.CONSTELLATION_GPS, GnssStatus.CONSTELLATION_GALILEO, 0x7F};
+    int[] svids = {1, 32, 193, 0xFFFF};
+    int[] signals = {SatelliteKey.SIGNAL_L1, SatelliteKey.SIGNAL_L2, SatelliteKey.SIGNAL_L5, 0xFF};
+    for (int constellation : constellations) {
+      for (int svid : svids) {
+        for (int signal : signals) {
+          int key = SatelliteKey.create(constellation, svid, signal);
+
+          assertEquals(constellation, SatelliteKey.getConstellationType(key));
+          assertEquals(svid, SatelliteKey.getSvid(key));
+          assertEquals(signal, SatelliteKey.getSignal(key));
+          // Never the empty marker of the slot table
+          assertTrue(key >= 0);
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_rejectsSvidOutOfRange() {
+    SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, 0x10000, SatelliteKey.SIGNAL_L1);
+  }
+
+  @Test
+  public void getPairedKey_pairsL1AndL5Only() {
+    int l1 = SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, 24, SatelliteKey.SIGNAL_L1);
+    int l5 = SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, 24, SatelliteKey.SIGNAL_L5);
+
+    assertEquals(l5, SatelliteKey.getPairedKey(l1));
+    assertEquals(l1, SatelliteKey.getPairedKey(l5));
+    assertEquals(
+        -1,
+        SatelliteKey.getPairedKey(
+            SatelliteKey.create(GnssStatus.CONSTELLATION_GPS, 24, SatelliteKey.SIGNAL_L2)));
+  }
+
+  @Test
+  public void getSignalOfCarrierFrequency_classifiesBands() {
+    assertEquals(SatelliteKey.SIGNAL_L1, SatelliteKey.getSignalOfCarrierFrequency(false, 0.0));
+    assertEquals(
+        SatelliteKey.SIGNAL_L1, SatelliteKey.getSignalOfCarrierFrequency(true, 1575.42e6));
+    assertEquals(
+        SatelliteKey.SIGNAL_L1, SatelliteKey.getSignalOfCarrierFrequency(true, 1602.5625e6));
+    assertEquals(
+        SatelliteKey.SIGNAL_L2, SatelliteKey.getSignalOfCarrierFrequency(true, 1227.60e6));
+    assertEquals(
+        SatelliteKey.SIGNAL_L5, SatelliteKey.getSignalOfCarrierFrequency(true, 1176.45e6));
+    assertEquals(
+        SatelliteKey.SIGNAL_OTHER, SatelliteKey.getSignalOfCarrierFrequency(true, 1207.14e6));
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SatelliteSubsetSelector} on the epochs of the static receiver simulated by
+ * {@link BenchmarkFixture}, the subsets being compared by their weighted geometric dilution of
+ * precision.
+ */
+public class SatelliteSubsetSelectorTest {
+
+  private static final int MAXIMUM_NUMBER_OF_SATELLITES = 6;
+  private static final int EPOCH = 100;
+  private static final double AVERAGE_TRAVEL_TIME_SECONDS = 70.0e-3;
+  private static final double MINIMUM_SINE_ELEVATION = 0.1;
+
+  private static BenchmarkFixture fixture;
+
+  @BeforeClass
+  public static void createFixture() throws Exception {
+    fixture = BenchmarkFixture.create();
+  }
+
+  private static GpsEpochMeasurements copyEpoch(int epoch) {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    measurements.copyFrom(fixture.epochs[epoch]);
+    return measurements;
+  }
+
+  private static int selectSatellites(
+      SatelliteSubsetSelector selector,
+      GpsNavMessageProto navMessage,
+      GpsEpochMeasurements measurements,
+      int epoch)
+      throws Exception {
+    return selector.selectSatellites(
+        navMessage,
+        measurements,
+        fixture.receiverTowSeconds[epoch],
+        BenchmarkFixture.GPS_WEEK,
+        BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS);
+  }
+
+  private static SatelliteSubsetSelector createSelector(int maximumNumberOfSatellites) {
+    SatelliteSubsetSelector selector = new SatelliteSubsetSelector();
+    selector.setMaximumNumberOfSatellites(maximumNumberOfSatellites);
+    return selector;
+  }
+
+  private static boolean[] getValidSlots(GpsEpochMeasurements measurements) {
+    boolean[] valid = new boolean[measurements.getNumberOfSlots()];
+    for (int i = 0; i < valid.length; i++) {
+      valid[i] = measurements.isValid(i);
+    }
+    return valid;
+  }
+
+  private static GpsEphemerisProto getEphemeris(int svid) {
+    for (GpsEphemerisProto ephemeris : fixture.navMessage.ephemerids) {
+      if (ephemeris.prn == svid) {
+        return ephemeris;
+      }
+    }
+    throw new IllegalArgumentException("No ephemeris for " + svid);
+  }
+
+  /**
+   * Returns the geometry rows, with the weights sin(elevation)^2 / sigma^2 of the selection
+   * appended, of the satellites of {@code measurements} seen from the receiver at {@code epoch}.
+   */
+  private static double[][] computeWeightedRows(GpsEpochMeasurements measurements, int epoch)
+      throws Exception {
+    double[] receiver = BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS;
+    double receiverRadiusMeters = GpsMathOperations.vectorNorm(receiver);
+    double[][] rows = new double[measurements.getNumberOfSlots()][];
+    for (int i = 0; i < rows.length; i++) {
+      PositionAndVelocity satellite =
+          SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+              getEphemeris(SatelliteKey.getSvid(measurements.satelliteKeys[i])),
+              fixture.receiverTowSeconds[epoch] - AVERAGE_TRAVEL_TIME_SECONDS,
+              BenchmarkFixture.GPS_WEEK,
+              receiver[0],
+              receiver[1],
+              receiver[2]);
+      double[] lineOfSight = {
+        satellite.positionXMeters - receiver[0],
+        satellite.positionYMeters - receiver[1],
+        satellite.positionZMeters - receiver[2]
+      };
+      double rangeMeters = GpsMathOperations.vectorNorm(lineOfSight);
+      double sineElevation = 0.0;
+      for (int axis = 0; axis < 3; axis++) {
+        lineOfSight[axis] /= rangeMeters;
+        sineElevation += lineOfSight[axis] * receiver[axis] / receiverRadiusMeters;
+      }
+      sineElevation = Math.max(sineElevation, MINIMUM_SINE_ELEVATION);
+      double sigmaMeters = measurements.pseudorangeUncertaintyMeters[i];
+      rows[i] =
+          new double[] {
+            lineOfSight[0],
+            lineOfSight[1],
+            lineOfSight[2],
+            1.0,
+            sineElevation * sineElevation / (sigmaMeters * sigmaMeters)
+          };
+    }
+    return rows;
+  }
+
+  /** Returns the weighted geometric dilution of precision of the satellites in {@code subset}. */
+  private static double computeDilutionOfPrecision(double[][] weightedRows, boolean[] subset) {
+    RealMatrix normalMatrix = new Array2DRowRealMatrix(4, 4);
+    for (int k = 0; k < weightedRows.length; k++) {
+      if (!subset[k]) {
+        continue;
+      }
+      double[] row = weightedRows[k];
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          normalMatrix.addToEntry(i, j, row[4] * row[i] * row[j]);
+        }
+      }
+    }
+    return Math.sqrt(new LUDecomposition(normalMatrix).getSolver().getInverse().getTrace());
+  }
+
+  @Test
+  public void selectSatellites_moreThanMaximum_keepsMaximum() throws Exception {
+    for (int epoch = 0; epoch < BenchmarkFixture.NUMBER_OF_EPOCHS; epoch += 50) {
+      GpsEpochMeasurements measurements = copyEpoch(epoch);
+      int numberOfSatellites = measurements.getNumberOfValidSatellites();
+      assertTrue(numberOfSatellites > MAXIMUM_NUMBER_OF_SATELLITES);
+      SatelliteSubsetSelector selector = createSelector(MAXIMUM_NUMBER_OF_SATELLITES);
+
+      int numberOfInvalidated = selectSatellites(selector, fixture.navMessage, measurements, epoch);
+
+      assertEquals(numberOfSatellites - MAXIMUM_NUMBER_OF_SATELLITES, numberOfInvalidated);
+      assertEquals(MAXIMUM_NUMBER_OF_SATELLITES, measurements.getNumberOfValidSatellites());
+    }
+  }
+
+  @Test
+  public void selectSatellites_atMostMaximum_keepsAll() throws Exception {
+    GpsEpochMeasurements measurements = copyEpoch(EPOCH);
+    int numberOfSatellites = measurements.getNumberOfValidSatellites();
+
+    assertEquals(
+        0,
+        selectSatellites(
+            createSelector(numberOfSatellites), fixture.navMessage, measurements, EPOCH));
+    assertEquals(0, selectSatellites(createSelector(0), fixture.navMessage, measurements, EPOCH));
+    assertEquals(numberOfSatellites, measurements.getNumberOfValidSatellites());
+  }
+
+  @Test
+  public void selectSatellites_isDeterministic() throws Exception {
+    SatelliteSubsetSelector selector = createSelector(MAXIMUM_NUMBER_OF_SATELLITES);
+    GpsEpochMeasurements firstMeasurements = copyEpoch(EPOCH);
+    selectSatellites(selector, fixture.navMessage, firstMeasurements, EPOCH);
+    // The selection of another epoch in between leaves no state behind
+    selectSatellites(selector, fixture.navMessage, copyEpoch(EPOCH + 50), EPOCH + 50);
+    GpsEpochMeasurements secondMeasurements = copyEpoch(EPOCH);
+    GpsEpochMeasurements thirdMeasurements = copyEpoch(EPOCH);
+
+    selectSatellites(selector, fixture.navMessage, secondMeasurements, EPOCH);
+    selectSatellites(
+        createSelector(MAXIMUM_NUMBER_OF_SATELLITES), fixture.navMessage, thirdMeasurements, EPOCH);
+
+    assertArrayEquals(getValidSlots(firstMeasurements), getValidSlots(secondMeasurements));
+    assertArrayEquals(getValidSlots(firstMeasurements), getValidSlots(thirdMeasurements));
+  }
+
+  @Test
+  public void selectSatellites_satellitesWithoutEphemeris_areKept() throws Exception {
+    GpsEpochMeasurements measurements = copyEpoch(EPOCH);
+    int numberOfSatellites = measurements.getNumberOfValidSatellites();
+    int[] svidsWithoutEphemeris = {
+      SatelliteKey.getSvid(measurements.satelliteKeys[0]),
+      SatelliteKey.getSvid(measurements.satelliteKeys[1])
+    };
+    GpsNavMessageProto navMessage = new GpsNavMessageProto();
+    navMessage.ephemerids = new GpsEphemerisProto[fixture.navMessage.ephemerids.length - 2];
+    int numberOfEphemerides = 0;
+    for (GpsEphemerisProto ephemeris : fixture.navMessage.ephemerids) {
+      if (ephemeris.prn != svidsWithoutEphemeris[0] && ephemeris.prn != svidsWithoutEphemeris[1]) {
+        navMessage.ephemerids[numberOfEphemerides++] = ephemeris;
+      }
+    }
+
+    int numberOfInvalidated =
+        selectSatellites(
+            createSelector(MAXIMUM_NUMBER_OF_SATELLITES), navMessage, measurements, EPOCH);
+
+    // They are left to the solver and count in the maximum
+    assertTrue(measurements.isValid(0));
+    assertTrue(measurements.isValid(1));
+    assertEquals(numberOfSatellites - MAXIMUM_NUMBER_OF_SATELLITES, numberOfInvalidated);
+    assertEquals(MAXIMUM_NUMBER_OF_SATELLITES, measurements.getNumberOfValidSatellites());
+  }
+
+  @Test
+  public void selectSatellites_minimizesDilutionOfPrecision() throws Exception {
+    for (int epoch = 0; epoch < BenchmarkFixture.NUMBER_OF_EPOCHS; epoch += 50) {
+      GpsEpochMeasurements measurements = copyEpoch(epoch);
+      double[][] weightedRows = computeWeightedRows(measurements, epoch);
+      selectSatellites(
+          createSelector(MAXIMUM_NUMBER_OF_SATELLITES), fixture.navMessage, measurements, epoch);
+      double selectedDilutionOfPrecision =
+          computeDilutionOfPrecision(weightedRows, getValidSlots(measurements));
+
+      // Compared with all the subsets of the same size
+      int numberOfSatellites = weightedRows.length;
+      int numberOfSubsets = 0;
+      int numberOfBetterSubsets = 0;
+      double bestDilutionOfPrecision = Double.MAX_VALUE;
+      boolean[] subset = new boolean[numberOfSatellites];
+      for (int mask = 0; mask < 1 << numberOfSatellites; mask++) {
+        if (Integer.bitCount(mask) != MAXIMUM_NUMBER_OF_SATELLITES) {
+          continue;
+        }
+        for (int k = 0; k < numberOfSatellites; k++) {
+          subset[k] = (mask & (1 << k)) != 0;
+        }
+        double dilutionOfPrecision = computeDilutionOfPrecision(weightedRows, subset);
+        bestDilutionOfPrecision = Math.min(bestDilutionOfPrecision, dilutionOfPrecision);
+        numberOfSubsets++;
+        if (dilutionOfPrecision < selectedDilutionOfPrecision) {
+          numberOfBetterSubsets++;
+        }
+      }
+      // The greedy selection is close to the best subset, and better than almost all of them
+      assertTrue(
+          "Epoch " + epoch + " selected " + selectedDilutionOfPrecision + " best "
+              + bestDilutionOfPrecision,
+          selectedDilutionOfPrecision <= 1.01 * bestDilutionOfPrecision);
+      assertTrue(
+          "Epoch " + epoch + " better subsets " + numberOfBetterSubsets + "/" + numberOfSubsets,
+          numberOfBetterSubsets <= numberOfSubsets / 100);
+    }
+  }
+}
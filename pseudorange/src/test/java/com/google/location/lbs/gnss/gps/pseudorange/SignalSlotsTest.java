@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.location.GnssStatus;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SignalSlots}, the storage of the signals of an epoch by {@link GnssSignalIndex},
+ * and for the pairing of their L1 and L5 bands by {@link SatelliteSlotTable}.
+ */
+public class SignalSlotsTest {
+
+  private static final int MAXIMUM_NUMBER_OF_SIGNALS = 8;
+
+  private final SignalSlots<String> signals = new SignalSlots<>(MAXIMUM_NUMBER_OF_SIGNALS);
+
+  private static int galileo(int svid, int signal) {
+    return SatelliteKey.create(GnssStatus.CONSTELLATION_GALILEO, svid, signal);
+  }
+
+  @Test
+  public void put_l1ThenL5_pairsSlots() {
+    int l1Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L1), "E1");
+    assertEquals(-1, signals.getPairedSlot(l1Slot));
+
+    int l5Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L5), "E5a");
+
+    assertEquals(l5Slot, signals.getPairedSlot(l1Slot));
+    assertEquals(l1Slot, signals.getPairedSlot(l5Slot));
+    assertEquals("E1", signals.getMeasurement(l1Slot));
+    assertEquals("E5a", signals.getMeasurement(l5Slot));
+    assertEquals(galileo(11, SatelliteKey.SIGNAL_L5), signals.getSatelliteKey(l5Slot));
+  }
+
+  @Test
+  public void put_l5ThenL1_pairsSlots() {
+    // Another satellite in between, not paired with either
+    int l5Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L5), "E5a");
+    int otherSlot = signals.put(galileo(12, SatelliteKey.SIGNAL_L1), "other E1");
+
+    int l1Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L1), "E1");
+
+    assertEquals(l1Slot, signals.getPairedSlot(l5Slot));
+    assertEquals(l5Slot, signals.getPairedSlot(l1Slot));
+    assertEquals(-1, signals.getPairedSlot(otherSlot));
+    assertEquals(l1Slot, signals.getSlot(galileo(11, SatelliteKey.SIGNAL_L1)));
+  }
+
+  @Test
+  public void put_duplicateSignal_keepsSlotAndLastMeasurement() {
+    int l1Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L1), "first E1");
+    int l5Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L5), "E5a");
+
+    assertEquals(l1Slot, signals.put(galileo(11, SatelliteKey.SIGNAL_L1), "last E1"));
+
+    assertEquals(2, signals.size());
+    assertEquals("last E1", signals.getMeasurement(l1Slot));
+    assertEquals(l5Slot, signals.getPairedSlot(l1Slot));
+    assertEquals(l1Slot, signals.getPairedSlot(l5Slot));
+  }
+
+  @Test
+  public void put_l2_isNotPaired() {
+    int l1Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L1), "E1");
+
+    int l2Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L2), "L2");
+
+    assertEquals(-1, signals.getPairedSlot(l2Slot));
+    assertEquals(-1, signals.getPairedSlot(l1Slot));
+    // The L5 signal received later is still paired with the L1 signal
+    int l5Slot = signals.put(galileo(11, SatelliteKey.SIGNAL_L5), "E5a");
+    assertEquals(l5Slot, signals.getPairedSlot(l1Slot));
+    assertEquals(-1, signals.getPairedSlot(l2Slot));
+  }
+
+  @Test
+  public void put_fullSlots_dropsAndCountsNewSignals() {
+    for (int svid = 1; svid <= MAXIMUM_NUMBER_OF_SIGNALS; svid++) {
+      signals.put(galileo(svid, SatelliteKey.SIGNAL_L1), "E1 " + svid);
+    }
+
+    // The L5 signal of a stored L1 signal is dropped, and leaves it unpaired
+    assertEquals(-1, signals.put(galileo(1, SatelliteKey.SIGNAL_L5), "E5a 1"));
+    assertEquals(-1, signals.put(galileo(20, SatelliteKey.SIGNAL_L1), "E1 20"));
+    // A stored signal is still replaced
+    int slot = signals.put(galileo(2, SatelliteKey.SIGNAL_L1), "last E1 2");
+
+    assertEquals(2, signals.getNumberOfDroppedSignals());
+    assertEquals(MAXIMUM_NUMBER_OF_SIGNALS, signals.size());
+    assertEquals("last E1 2", signals.getMeasurement(slot));
+    assertEquals(-1, signals.getPairedSlot(signals.getSlot(galileo(1, SatelliteKey.SIGNAL_L1))));
+    assertEquals(-1, signals.getSlot(galileo(1, SatelliteKey.SIGNAL_L5)));
+  }
+
+  @Test
+  public void clear_releasesMeasurementsAndResetsDroppedCount() {
+    for (int svid = 1; svid <= MAXIMUM_NUMBER_OF_SIGNALS + 2; svid++) {
+      signals.put(galileo(svid, SatelliteKey.SIGNAL_L1), "E1 " + svid);
+    }
+
+    signals.clear();
+
+    assertEquals(0, signals.size());
+    assertEquals(0, signals.getNumberOfDroppedSignals());
+    for (int slot = 0; slot < MAXIMUM_NUMBER_OF_SIGNALS; slot++) {
+      assertNull(signals.getMeasurement(slot));
+    }
+    // The slots are reused from the first one, without the pairs of the previous epoch
+    String measurement = "E5a 8";
+    assertEquals(0, signals.put(galileo(8, SatelliteKey.SIGNAL_L5), measurement));
+    assertEquals(-1, signals.getPairedSlot(0));
+    assertSame(measurement, signals.getMeasurement(0));
+    assertEquals(-1, signals.getSlot(galileo(1, SatelliteKey.SIGNAL_L1)));
+  }
+}
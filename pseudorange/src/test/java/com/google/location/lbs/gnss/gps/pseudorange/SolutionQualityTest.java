@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.location.lbs.gnss.gps.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
+import com.google.location.lbs.gnss.gps.pseudorange.SolutionQuality.DilutionOfPrecision;
+import java.util.Random;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SolutionQuality}, comparing the outputs computed on demand with the eager
+ * computation they replace: the inverse of the weighted normal matrix by LU decomposition, rotated
+ * to the local ENU system with matrix products.
+ */
+public class SolutionQualityTest {
+
+  private static final double[] POSITION_ECEF_METERS =
+      Lla2EcefConverter.convertFromLlaToEcefMeters(
+          new GeodeticLlaValues(Math.toRadians(37.422), Math.toRadians(-122.084), 10.0));
+  private static final double[] SOLUTION = {
+    POSITION_ECEF_METERS[0], POSITION_ECEF_METERS[1], POSITION_ECEF_METERS[2], 120.0, 0, 0, 0, 0
+  };
+  /** The LU and Cholesky factorizations round differently on the poor random geometries */
+  private static final double RELATIVE_TOLERANCE = 1e-7;
+
+  /** Returns the geometry rows of {@code numberOfSatellites} satellites above the horizon. */
+  private static double[][] createGeometry(Random random, int numberOfSatellites) {
+    RealMatrix ecefToEnu =
+        Ecef2EnuConverter.getRotationMatrix(Math.toRadians(37.422), Math.toRadians(-122.084));
+    double[][] geometry = new double[numberOfSatellites][];
+    for (int i = 0; i < numberOfSatellites; i++) {
+      double elevation = Math.toRadians(5.0 + 85.0 * random.nextDouble());
+      double azimuth = 2.0 * Math.PI * random.nextDouble();
+      double[] enu = {
+        Math.cos(elevation) * Math.sin(azimuth),
+        Math.cos(elevation) * Math.cos(azimuth),
+        Math.sin(elevation)
+      };
+      // Line of sight from the satellite to the receiver, as in the solvers
+      double[] row = new double[4];
+      for (int j = 0; j < 3; j++) {
+        for (int k = 0; k < 3; k++) {
+          row[j] -= ecefToEnu.getEntry(k, j) * enu[k];
+        }
+      }
+      row[3] = 1.0;
+      geometry[i] = row;
+    }
+    return geometry;
+  }
+
+  private static double[] createWeights(Random random, int numberOfSatellites, double scale) {
+    double[] weights = new double[numberOfSatellites];
+    for (int i = 0; i < numberOfSatellites; i++) {
+      weights[i] = scale * (0.1 + random.nextDouble());
+    }
+    return weights;
+  }
+
+  private static double[] createUnitWeights(int numberOfSatellites) {
+    return GpsMathOperations.createAndFillArray(numberOfSatellites, 1.0);
+  }
+
+  /** Returns (G^T * W * G)^-1 inverted by LU decomposition. */
+  private static RealMatrix invertNormalMatrix(double[][] geometry, double[] weights) {
+    RealMatrix g = new Array2DRowRealMatrix(geometry);
+    RealMatrix w = new Array2DRowRealMatrix(geometry.length, geometry.length);
+    for (int i = 0; i < geometry.length; i++) {
+      w.setEntry(i, i, weights[i]);
+    }
+    return new LUDecomposition(g.transpose().multiply(w).multiply(g)).getSolver().getInverse();
+  }
+
+  /** Returns R * Q * R^T of the 3 x 3 ECEF block of {@code covariance}, rotated to ENU. */
+  private static RealMatrix rotateToEnu(RealMatrix covariance) {
+    GeodeticLlaValues lla =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+            POSITION_ECEF_METERS[0], POSITION_ECEF_METERS[1], POSITION_ECEF_METERS[2]);
+    RealMatrix rotation =
+        Ecef2EnuConverter.getRotationMatrix(lla.latitudeRadians, lla.longitudeRadians);
+    return rotation.multiply(covariance.getSubMatrix(0, 2, 0, 2)).multiply(rotation.transpose());
+  }
+
+  private static void assertRelativeEquals(String message, double expected, double actual) {
+    assertEquals(message, expected, actual, RELATIVE_TOLERANCE * Math.abs(expected));
+  }
+
+  private static SolutionQuality createSolutionQuality(
+      double[][] geometry, double[] positionWeights, double[] velocityWeights) {
+    SolutionQuality solutionQuality = new SolutionQuality();
+    for (int i = 0; i < geometry.length; i++) {
+      solutionQuality.addSatellite(geometry[i], positionWeights[i], velocityWeights[i]);
+    }
+    solutionQuality.setSolution(SOLUTION);
+    return solutionQuality;
+  }
+
+  @Test
+  public void getDilutionOfPrecision_matchesEagerComputation() {
+    Random random = new Random(39);
+    for (int numberOfSatellites = 4; numberOfSatellites <= 32; numberOfSatellites++) {
+      double[][] geometry = createGeometry(random, numberOfSatellites);
+      double[] weights = createWeights(random, numberOfSatellites, 1.0);
+      SolutionQuality solutionQuality = createSolutionQuality(geometry, weights, weights);
+
+      DilutionOfPrecision dilutionOfPrecision = solutionQuality.getDilutionOfPrecision();
+
+      // The dilutions of precision do not depend on the weights
+      RealMatrix inverse = invertNormalMatrix(geometry, createUnitWeights(numberOfSatellites));
+      RealMatrix enu = rotateToEnu(inverse);
+      double east = enu.getEntry(0, 0);
+      double north = enu.getEntry(1, 1);
+      double up = enu.getEntry(2, 2);
+      double time = inverse.getEntry(3, 3);
+      String message = numberOfSatellites + " satellites";
+      assertRelativeEquals(
+          message, Math.sqrt(east + north + up + time), dilutionOfPrecision.geometric);
+      assertRelativeEquals(message, Math.sqrt(east + north + up), dilutionOfPrecision.position);
+      assertRelativeEquals(message, Math.sqrt(east + north), dilutionOfPrecision.horizontal);
+      assertRelativeEquals(message, Math.sqrt(up), dilutionOfPrecision.vertical);
+      assertRelativeEquals(message, Math.sqrt(time), dilutionOfPrecision.time);
+    }
+  }
+
+  @Test
+  public void getPositionVelocityUncertaintyEnu_matchesEagerComputation() {
+    Random random = new Random(3939);
+    double[] uncertaintyEnu = new double[6];
+    double[][] covarianceEnu = new double[3][3];
+    for (int numberOfSatellites = 4; numberOfSatellites <= 32; numberOfSatellites++) {
+      double[][] geometry = createGeometry(random, numberOfSatellites);
+      double[] positionWeights = createWeights(random, numberOfSatellites, 0.04);
+      double[] velocityWeights = createWeights(random, numberOfSatellites, 25.0);
+      SolutionQuality solutionQuality =
+          createSolutionQuality(geometry, positionWeights, velocityWeights);
+
+      solutionQuality.getPositionVelocityUncertaintyEnu(uncertaintyEnu);
+      solutionQuality.getPositionCovarianceEnu(covarianceEnu);
+
+      RealMatrix positionEnu = rotateToEnu(invertNormalMatrix(geometry, positionWeights));
+      RealMatrix velocityEnu = rotateToEnu(invertNormalMatrix(geometry, velocityWeights));
+      String message = numberOfSatellites + " satellites";
+      for (int axis = 0; axis < 3; axis++) {
+        assertRelativeEquals(
+            message, Math.sqrt(positionEnu.getEntry(axis, axis)), uncertaintyEnu[axis]);
+        assertRelativeEquals(
+            message, Math.sqrt(velocityEnu.getEntry(axis, axis)), uncertaintyEnu[axis + 3]);
+        for (int j = 0; j < 3; j++) {
+          assertEquals(
+              message,
+              positionEnu.getEntry(axis, j),
+              covarianceEnu[axis][j],
+              RELATIVE_TOLERANCE * positionEnu.getEntry(axis, axis));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void outputs_doNotDependOnTheOrderOfTheRequests() {
+    Random random = new Random(7);
+    double[][] geometry = createGeometry(random, 9);
+    double[] positionWeights = createWeights(random, 9, 0.04);
+    double[] velocityWeights = createWeights(random, 9, 25.0);
+    SolutionQuality dilutionFirst =
+        createSolutionQuality(geometry, positionWeights, velocityWeights);
+    SolutionQuality uncertaintyFirst =
+        createSolutionQuality(geometry, positionWeights, velocityWeights);
+    double[] uncertaintyEnu = new double[6];
+    double[] expectedUncertaintyEnu = new double[6];
+
+    double horizontal = dilutionFirst.getDilutionOfPrecision().horizontal;
+    dilutionFirst.getPositionVelocityUncertaintyEnu(uncertaintyEnu);
+    uncertaintyFirst.getPositionVelocityUncertaintyEnu(expectedUncertaintyEnu);
+
+    assertEquals(uncertaintyFirst.getDilutionOfPrecision().horizontal, horizontal, 0.0);
+    for (int i = 0; i < 6; i++) {
+      assertEquals(expectedUncertaintyEnu[i], uncertaintyEnu[i], 0.0);
+    }
+  }
+
+  @Test
+  public void getDilutionOfPrecision_cachedUntilNextSolution() {
+    Random random = new Random(11);
+    double[][] geometry = createGeometry(random, 6);
+    double[] weights = createUnitWeights(6);
+    SolutionQuality solutionQuality = createSolutionQuality(geometry, weights, weights);
+    DilutionOfPrecision dilutionOfPrecision = solutionQuality.getDilutionOfPrecision();
+    double sixSatellitesPdop = dilutionOfPrecision.position;
+
+    assertSame(dilutionOfPrecision, solutionQuality.getDilutionOfPrecision());
+    assertEquals(sixSatellitesPdop, solutionQuality.getDilutionOfPrecision().position, 0.0);
+
+    // One more satellite: the dilutions are computed again, and can only improve
+    solutionQuality.addSatellite(createGeometry(random, 1)[0], 1.0, 1.0);
+    solutionQuality.setSolution(SOLUTION);
+    assertTrue(solutionQuality.getDilutionOfPrecision().position < sixSatellitesPdop);
+  }
+
+  @Test
+  public void outputs_withTooFewSatellites_areNaN() {
+    Random random = new Random(13);
+    double[][] geometry = createGeometry(random, 3);
+    double[] weights = createUnitWeights(3);
+    SolutionQuality solutionQuality = createSolutionQuality(geometry, weights, weights);
+    double[] uncertaintyEnu = new double[6];
+
+    solutionQuality.getPositionVelocityUncertaintyEnu(uncertaintyEnu);
+
+    assertTrue(Double.isNaN(solutionQuality.getDilutionOfPrecision().horizontal));
+    for (double uncertainty : uncertaintyEnu) {
+      assertTrue(Double.isNaN(uncertainty));
+    }
+    // No output either after clear(), until the next solution
+    weights = createUnitWeights(8);
+    solutionQuality = createSolutionQuality(createGeometry(random, 8), weights, weights);
+    solutionQuality.clear();
+    assertEquals(0, solutionQuality.getNumberOfSatellites());
+    assertTrue(Double.isNaN(solutionQuality.getDilutionOfPrecision().position));
+  }
+
+  @Test
+  public void getPositionVelocityUncertaintyEnu_usesCovarianceOfTheSolver() {
+    Random random = new Random(17);
+    double[][] geometry = createGeometry(random, 8);
+    double[] weights = createUnitWeights(8);
+    SolutionQuality solutionQuality = new SolutionQuality();
+    for (double[] row : geometry) {
+      solutionQuality.addSatellite(row, 1.0, 1.0);
+    }
+    double[][] covarianceEcef = new double[8][8];
+    for (int i = 0; i < 8; i++) {
+      covarianceEcef[i][i] = 4.0;
+    }
+    double[] uncertaintyEnu = new double[6];
+
+    solutionQuality.setSolution(SOLUTION, covarianceEcef);
+    solutionQuality.getPositionVelocityUncertaintyEnu(uncertaintyEnu);
+
+    // An isotropic covariance is unchanged by the rotation, the geometry only gives the dilutions
+    for (double uncertainty : uncertaintyEnu) {
+      assertEquals(2.0, uncertainty, 1e-12);
+    }
+    RealMatrix inverse = invertNormalMatrix(geometry, weights);
+    assertRelativeEquals(
+        "TDOP", Math.sqrt(inverse.getEntry(3, 3)), solutionQuality.getDilutionOfPrecision().time);
+  }
+}
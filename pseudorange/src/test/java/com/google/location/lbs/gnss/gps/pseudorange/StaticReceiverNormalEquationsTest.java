@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StaticReceiverNormalEquations} on linear pseudorange epochs of a static
+ * receiver, each with its own geometry, weights and clock bias, compared with the least square
+ * solution of all the epochs solved at once.
+ */
+public class StaticReceiverNormalEquationsTest {
+
+  private static final double[] TRUE_POSITION_ECEF_METERS = {
+    -2694685.473, -4293642.366, 3857878.924
+  };
+  private static final double TOLERANCE_METERS = 1e-6;
+
+  /** A linearized epoch: y = G * (x - TRUE_POSITION_ECEF_METERS) + b + noise. */
+  private static class Epoch {
+    final double[][] lineOfSights;
+    final double[] weights;
+    final double[] pseudorangeResidualsMeters;
+
+    Epoch(Random random, int numberOfSatellites) {
+      lineOfSights = new double[numberOfSatellites][];
+      weights = new double[numberOfSatellites];
+      pseudorangeResidualsMeters = new double[numberOfSatellites];
+      double clockBiasMeters = 1000.0 * random.nextGaussian();
+      for (int i = 0; i < numberOfSatellites; i++) {
+        double[] lineOfSight = {
+          random.nextGaussian(), random.nextGaussian(), random.nextGaussian()
+        };
+        double norm = GpsMathOperations.vectorNorm(lineOfSight);
+        lineOfSights[i] = new double[] {
+          lineOfSight[0] / norm, lineOfSight[1] / norm, lineOfSight[2] / norm, 1.0
+        };
+        weights[i] = 0.1 + random.nextDouble();
+        pseudorangeResidualsMeters[i] = clockBiasMeters + 3.0 * random.nextGaussian();
+      }
+    }
+
+    /** Returns the weighted least square position of this epoch alone. */
+    double[] solvePositionEcefMeters() {
+      RealMatrix g = new Array2DRowRealMatrix(lineOfSights);
+      RealMatrix gTransposeW = g.transpose().copy();
+      for (int i = 0; i < weights.length; i++) {
+        for (int j = 0; j < 4; j++) {
+          gTransposeW.multiplyEntry(j, i, weights[i]);
+        }
+      }
+      RealVector solution =
+          new LUDecomposition(gTransposeW.multiply(g))
+              .getSolver()
+              .solve(gTransposeW.operate(new ArrayRealVector(pseudorangeResidualsMeters)));
+      return new double[] {
+        TRUE_POSITION_ECEF_METERS[0] + solution.getEntry(0),
+        TRUE_POSITION_ECEF_METERS[1] + solution.getEntry(1),
+        TRUE_POSITION_ECEF_METERS[2] + solution.getEntry(2)
+      };
+    }
+
+    /** Returns the solution quality recorded by a solver for the solution of this epoch. */
+    SolutionQuality createSolutionQuality() {
+      SolutionQuality solutionQuality = new SolutionQuality();
+      for (int i = 0; i < weights.length; i++) {
+        solutionQuality.addSatellite(lineOfSights[i], weights[i], 1.0);
+      }
+      double[] position = solvePositionEcefMeters();
+      solutionQuality.setSolution(
+          new double[] {position[0], position[1], position[2], 0, 0, 0, 0, 0});
+      return solutionQuality;
+    }
+  }
+
+  private static Epoch[] createEpochs(Random random, int numberOfEpochs) {
+    Epoch[] epochs = new Epoch[numberOfEpochs];
+    for (int k = 0; k < numberOfEpochs; k++) {
+      epochs[k] = new Epoch(random, 4 + random.nextInt(9));
+    }
+    return epochs;
+  }
+
+  /**
+   * Returns the weighted least square position of all the {@code epochs} solved at once, with the
+   * three position unknowns shared and one clock bias unknown per epoch.
+   */
+  private static double[] solveBatchPositionEcefMeters(Epoch[] epochs) {
+    int numberOfRows = 0;
+    for (Epoch epoch : epochs) {
+      numberOfRows += epoch.weights.length;
+    }
+    int numberOfUnknowns = 3 + epochs.length;
+    RealMatrix g = new Array2DRowRealMatrix(numberOfRows, numberOfUnknowns);
+    RealMatrix w = new Array2DRowRealMatrix(numberOfRows, numberOfRows);
+    RealVector y = new ArrayRealVector(numberOfRows);
+    int row = 0;
+    for (int k = 0; k < epochs.length; k++) {
+      Epoch epoch = epochs[k];
+      for (int i = 0; i < epoch.weights.length; i++) {
+        for (int axis = 0; axis < 3; axis++) {
+          g.setEntry(row, axis, epoch.lineOfSights[i][axis]);
+        }
+        g.setEntry(row, 3 + k, 1.0);
+        w.setEntry(row, row, epoch.weights[i]);
+        y.setEntry(row, epoch.pseudorangeResidualsMeters[i]);
+        row++;
+      }
+    }
+    RealMatrix gTransposeW = g.transpose().multiply(w);
+    RealVector solution =
+        new LUDecomposition(gTransposeW.multiply(g)).getSolver().solve(gTransposeW.operate(y));
+    return new double[] {
+      TRUE_POSITION_ECEF_METERS[0] + solution.getEntry(0),
+      TRUE_POSITION_ECEF_METERS[1] + solution.getEntry(1),
+      TRUE_POSITION_ECEF_METERS[2] + solution.getEntry(2)
+    };
+  }
+
+  @Test
+  public void getPositionEcefMeters_equalsBatchLeastSquareAfterEachEpoch() {
+    Epoch[] epochs = createEpochs(new Random(41), 30);
+    StaticReceiverNormalEquations normalEquations = new StaticReceiverNormalEquations();
+    double[] positionEcefMeters = new double[3];
+
+    for (int k = 0; k < epochs.length; k++) {
+      assertTrue(normalEquations.addEpoch(epochs[k].createSolutionQuality()));
+
+      assertEquals(k + 1, normalEquations.getNumberOfEpochs());
+      assertTrue(normalEquations.getPositionEcefMeters(positionEcefMeters));
+      Epoch[] accumulatedEpochs = new Epoch[k + 1];
+      System.arraycopy(epochs, 0, accumulatedEpochs, 0, k + 1);
+      assertArrayEquals(
+          "Epochs 0 to " + k,
+          solveBatchPositionEcefMeters(accumulatedEpochs),
+          positionEcefMeters,
+          TOLERANCE_METERS);
+    }
+  }
+
+  @Test
+  public void getPositionEcefMeters_singleEpoch_returnsItsSolution() {
+    Epoch epoch = createEpochs(new Random(4141), 1)[0];
+    StaticReceiverNormalEquations normalEquations = new StaticReceiverNormalEquations();
+    double[] positionEcefMeters = new double[3];
+
+    normalEquations.addEpoch(epoch.createSolutionQuality());
+
+    assertTrue(normalEquations.getPositionEcefMeters(positionEcefMeters));
+    assertArrayEquals(epoch.solvePositionEcefMeters(), positionEcefMeters, TOLERANCE_METERS);
+  }
+
+  @Test
+  public void reset_clearsAccumulatedEpochs() {
+    Random random = new Random(414141);
+    Epoch[] firstEpochs = createEpochs(random, 10);
+    Epoch[] secondEpochs = createEpochs(random, 10);
+    StaticReceiverNormalEquations normalEquations = new StaticReceiverNormalEquations();
+    double[] positionEcefMeters = {1.0, 2.0, 3.0};
+    for (Epoch epoch : firstEpochs) {
+      normalEquations.addEpoch(epoch.createSolutionQuality());
+    }
+    normalEquations.getPositionEcefMeters(new double[3]);
+
+    normalEquations.reset();
+
+    assertEquals(0, normalEquations.getNumberOfEpochs());
+    assertFalse(normalEquations.getPositionEcefMeters(positionEcefMeters));
+    assertArrayEquals(new double[] {1.0, 2.0, 3.0}, positionEcefMeters, 0.0);
+    // The next epochs are accumulated from a new reference, as by a new instance
+    StaticReceiverNormalEquations newNormalEquations = new StaticReceiverNormalEquations();
+    double[] expectedPositionEcefMeters = new double[3];
+    for (Epoch epoch : secondEpochs) {
+      normalEquations.addEpoch(epoch.createSolutionQuality());
+      newNormalEquations.addEpoch(epoch.createSolutionQuality());
+    }
+    assertTrue(normalEquations.getPositionEcefMeters(positionEcefMeters));
+    assertTrue(newNormalEquations.getPositionEcefMeters(expectedPositionEcefMeters));
+    assertArrayEquals(expectedPositionEcefMeters, positionEcefMeters, 0.0);
+    assertArrayEquals(
+        solveBatchPositionEcefMeters(secondEpochs), positionEcefMeters, TOLERANCE_METERS);
+  }
+
+  @Test
+  public void addEpoch_tooFewSatellites_addsNothing() {
+    Random random = new Random(41414141);
+    StaticReceiverNormalEquations normalEquations = new StaticReceiverNormalEquations();
+    SolutionQuality solutionQuality = new SolutionQuality();
+    Epoch epoch = createEpochs(random, 1)[0];
+    for (int i = 0; i < 3; i++) {
+      solutionQuality.addSatellite(epoch.lineOfSights[i], epoch.weights[i], 1.0);
+    }
+    solutionQuality.setSolution(new double[8]);
+
+    assertFalse(normalEquations.addEpoch(solutionQuality));
+    assertFalse(normalEquations.addEpoch(new SolutionQuality()));
+    assertEquals(0, normalEquations.getNumberOfEpochs());
+    assertFalse(normalEquations.getPositionEcefMeters(new double[3]));
+  }
+}
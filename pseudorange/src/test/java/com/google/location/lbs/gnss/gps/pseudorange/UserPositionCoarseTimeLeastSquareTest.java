@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link UserPositionCoarseTimeLeastSquare} on the epochs of the static receiver
+ * simulated by {@link BenchmarkFixture}, of which only the received satellite times modulo 1
+ * millisecond are used, from an approximate time and a reference position that are off.
+ */
+public class UserPositionCoarseTimeLeastSquareTest {
+
+  private static final int EPOCH = 10;
+  /**
+   * Error of the coarse position, mostly the atmospheric delays of the simulated pseudoranges that
+   * the coarse solution does not correct
+   */
+  private static final double POSITION_TOLERANCE_METERS = 20.0;
+  private static final double TIME_TOLERANCE_SECONDS = 5.0e-3;
+
+  private static BenchmarkFixture fixture;
+
+  @BeforeClass
+  public static void createFixture() throws Exception {
+    fixture = BenchmarkFixture.create();
+  }
+
+  /** Returns the true position moved by {@code offsetMeters} along each ECEF axis. */
+  private static double[] offsetReferencePosition(double offsetMeters) {
+    double[] truth = BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS;
+    return new double[] {truth[0] + offsetMeters, truth[1] - offsetMeters, truth[2] + offsetMeters};
+  }
+
+  private static boolean solve(
+      GpsEpochMeasurements measurements,
+      double timeOffsetSeconds,
+      double[] referencePositionEcefMeters,
+      double[] solution)
+      throws Exception {
+    return new UserPositionCoarseTimeLeastSquare()
+        .calculateUserPositionCoarseTime(
+            fixture.navMessage,
+            measurements,
+            fixture.receiverTowSeconds[EPOCH] + timeOffsetSeconds,
+            BenchmarkFixture.GPS_WEEK,
+            referencePositionEcefMeters,
+            solution);
+  }
+
+  @Test
+  public void calculateUserPositionCoarseTime_recoversTimeOffsetAndPosition() throws Exception {
+    double[] truth = BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS;
+    for (double timeOffsetSeconds : new double[] {0.0, -10.0, 2.0, 30.0, 60.0}) {
+      for (double positionOffsetMeters : new double[] {0.0, 10000.0, 50000.0}) {
+        String message = "Time offset " + timeOffsetSeconds + " position " + positionOffsetMeters;
+        double[] solution = new double[5];
+
+        assertTrue(
+            message,
+            solve(
+                fixture.epochs[EPOCH],
+                timeOffsetSeconds,
+                offsetReferencePosition(positionOffsetMeters),
+                solution));
+
+        assertEquals(message, -timeOffsetSeconds, solution[4], TIME_TOLERANCE_SECONDS);
+        for (int axis = 0; axis < 3; axis++) {
+          assertEquals(message, truth[axis], solution[axis], POSITION_TOLERANCE_METERS);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void calculateUserPositionCoarseTime_convergesToSameSolution() throws Exception {
+    double[] solution = new double[5];
+    double[] offsetSolution = new double[5];
+
+    solve(fixture.epochs[EPOCH], 0.0, offsetReferencePosition(0.0), solution);
+    solve(fixture.epochs[EPOCH], 30.0, offsetReferencePosition(50000.0), offsetSolution);
+
+    // The same time of reception, position and clock bias are found from both starts
+    assertEquals(solution[4], offsetSolution[4] + 30.0, 1e-6);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(solution[i], offsetSolution[i], 1e-3);
+    }
+  }
+
+  @Test
+  public void calculateUserPositionCoarseTime_referenceTooFar_returnsFalse() throws Exception {
+    double[] solution = {1.0, 2.0, 3.0, 4.0, 5.0};
+
+    // The whole milliseconds can not be resolved from a reference half a millisecond away
+    assertFalse(solve(fixture.epochs[EPOCH], 0.0, offsetReferencePosition(150000.0), solution));
+
+    assertArrayEquals(new double[] {1.0, 2.0, 3.0, 4.0, 5.0}, solution, 0.0);
+  }
+
+  @Test
+  public void calculateUserPositionCoarseTime_tooFewSatellites_returnsFalse() throws Exception {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    measurements.copyFrom(fixture.epochs[EPOCH]);
+    for (int slot = UserPositionCoarseTimeLeastSquare.MINIMUM_NUMBER_OF_SATELLITES - 1;
+        slot < measurements.getNumberOfSlots();
+        slot++) {
+      measurements.invalidate(slot);
+    }
+    double[] solution = new double[5];
+
+    assertFalse(solve(measurements, 0.0, offsetReferencePosition(0.0), solution));
+    assertArrayEquals(new double[5], solution, 0.0);
+  }
+}
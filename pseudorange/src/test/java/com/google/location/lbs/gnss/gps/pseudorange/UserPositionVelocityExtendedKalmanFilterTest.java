@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link UserPositionVelocityExtendedKalmanFilter} on the static receiver simulated by
+ * {@link BenchmarkFixture}.
+ */
+public class UserPositionVelocityExtendedKalmanFilterTest {
+
+  /** Epochs after which the filter is expected to have converged */
+  private static final int CONVERGENCE_EPOCHS = 60;
+  private static final double MAXIMUM_POSITION_UNCERTAINTY_METERS = 5.0;
+  private static final double MAXIMUM_VELOCITY_UNCERTAINTY_MPS = 1.0;
+  private static final double MAXIMUM_MEAN_SPEED_MPS = 0.1;
+
+  private static BenchmarkFixture fixture;
+
+  private UserPositionVelocityWeightedLeastSquare leastSquare;
+  private UserPositionVelocityExtendedKalmanFilter filter;
+  private final double[] solution = new double[8];
+
+  @BeforeClass
+  public static void createFixture() throws Exception {
+    fixture = BenchmarkFixture.create();
+  }
+
+  private static UserPositionVelocityWeightedLeastSquare createLeastSquare() {
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    leastSquare.setGeoidHeightMeters(0.0);
+    return leastSquare;
+  }
+
+  private void createFilter() {
+    leastSquare = createLeastSquare();
+    filter = new UserPositionVelocityExtendedKalmanFilter(leastSquare);
+  }
+
+  /** Filters {@code epoch} received at {@code receiverTowSeconds} into {@link #solution}. */
+  private void filter(GpsEpochMeasurements epoch, double receiverTowSeconds) throws Exception {
+    filter.calculateUserPositionVelocity(
+        fixture.navMessage,
+        epoch,
+        receiverTowSeconds,
+        BenchmarkFixture.GPS_WEEK,
+        BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+        solution,
+        new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+  }
+
+  /** Returns the least square solution of {@code epoch} computed by a new solver. */
+  private static double[] solveLeastSquare(GpsEpochMeasurements epoch, double receiverTowSeconds)
+      throws Exception {
+    double[] leastSquareSolution = new double[8];
+    createLeastSquare()
+        .calculateUserPositionVelocityLeastSquare(
+            fixture.navMessage,
+            epoch,
+            receiverTowSeconds,
+            BenchmarkFixture.GPS_WEEK,
+            BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+            leastSquareSolution,
+            new double[6],
+            new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+    return leastSquareSolution;
+  }
+
+  private static double distanceMeters(double[] solution, double[] position) {
+    return Math.sqrt(
+        (solution[0] - position[0]) * (solution[0] - position[0])
+            + (solution[1] - position[1]) * (solution[1] - position[1])
+            + (solution[2] - position[2]) * (solution[2] - position[2]));
+  }
+
+  private static double speedMps(double[] solution) {
+    return Math.sqrt(
+        solution[4] * solution[4] + solution[5] * solution[5] + solution[6] * solution[6]);
+  }
+
+  /** Filters the first {@code numberOfEpochs} epochs of the fixture. */
+  private void filterFixtureEpochs(int numberOfEpochs) throws Exception {
+    for (int i = 0; i < numberOfEpochs; i++) {
+      filter(fixture.epochs[i], fixture.receiverTowSeconds[i]);
+    }
+  }
+
+  /** Asserts that the last solution is the least square solution of {@code epoch}. */
+  private void assertInitializedWithLeastSquare(
+      GpsEpochMeasurements epoch, double receiverTowSeconds) throws Exception {
+    assertSame(leastSquare.getSolutionQuality(), filter.getSolutionQuality());
+    assertArrayEquals(solveLeastSquare(epoch, receiverTowSeconds), solution, 1e-3);
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_staticReceiver_convergesWithBoundedCovariance()
+      throws Exception {
+    createFilter();
+    double[] truth = BenchmarkFixture.RECEIVER_POSITION_ECEF_METERS;
+    double[] uncertaintyEnu = new double[6];
+    double[] firstUncertaintyEnu = null;
+    double[] previousSolution = null;
+    double[] previousLeastSquareSolution = null;
+    double filteredErrorSumMeters = 0.0;
+    double leastSquareErrorSumMeters = 0.0;
+    double filteredStepSumMeters = 0.0;
+    double leastSquareStepSumMeters = 0.0;
+    double speedSumMps = 0.0;
+
+    for (int i = 0; i < BenchmarkFixture.NUMBER_OF_EPOCHS; i++) {
+      filter(fixture.epochs[i], fixture.receiverTowSeconds[i]);
+      if (i == 0) {
+        continue;
+      }
+
+      // Every epoch after the first one is predicted and updated, never initialized again
+      assertNotSame("Epoch " + i, leastSquare.getSolutionQuality(), filter.getSolutionQuality());
+      // The covariance shrinks from the least square one and stays bounded
+      filter.getSolutionQuality().getPositionVelocityUncertaintyEnu(uncertaintyEnu);
+      if (firstUncertaintyEnu == null) {
+        firstUncertaintyEnu = uncertaintyEnu.clone();
+      }
+      for (int axis = 0; axis < 3; axis++) {
+        assertTrue(
+            "Epoch " + i + " position uncertainty " + uncertaintyEnu[axis],
+            uncertaintyEnu[axis] > 0.0
+                && uncertaintyEnu[axis] <= firstUncertaintyEnu[axis] + 1e-9
+                && uncertaintyEnu[axis] < MAXIMUM_POSITION_UNCERTAINTY_METERS);
+        assertTrue(
+            "Epoch " + i + " velocity uncertainty " + uncertaintyEnu[axis + 3],
+            uncertaintyEnu[axis + 3] > 0.0
+                && uncertaintyEnu[axis + 3] < MAXIMUM_VELOCITY_UNCERTAINTY_MPS);
+      }
+
+      double[] leastSquareSolution =
+          solveLeastSquare(fixture.epochs[i], fixture.receiverTowSeconds[i]);
+      if (i > CONVERGENCE_EPOCHS) {
+        filteredErrorSumMeters += distanceMeters(solution, truth);
+        leastSquareErrorSumMeters += distanceMeters(leastSquareSolution, truth);
+        filteredStepSumMeters += distanceMeters(solution, previousSolution);
+        leastSquareStepSumMeters +=
+            distanceMeters(leastSquareSolution, previousLeastSquareSolution);
+        speedSumMps += speedMps(solution);
+      }
+      previousSolution = solution.clone();
+      previousLeastSquareSolution = leastSquareSolution;
+    }
+
+    // Once converged the filter is closer to the truth than the snapshot solutions and much
+    // smoother, and the receiver is seen static
+    int numberOfConvergedEpochs = BenchmarkFixture.NUMBER_OF_EPOCHS - CONVERGENCE_EPOCHS - 1;
+    double filteredErrorMeters = filteredErrorSumMeters / numberOfConvergedEpochs;
+    double leastSquareErrorMeters = leastSquareErrorSumMeters / numberOfConvergedEpochs;
+    assertTrue(
+        "Mean error " + filteredErrorMeters + " least square " + leastSquareErrorMeters,
+        filteredErrorMeters < leastSquareErrorMeters);
+    double filteredStepMeters = filteredStepSumMeters / numberOfConvergedEpochs;
+    double leastSquareStepMeters = leastSquareStepSumMeters / numberOfConvergedEpochs;
+    assertTrue(
+        "Mean step " + filteredStepMeters + " least square " + leastSquareStepMeters,
+        filteredStepMeters < leastSquareStepMeters / 10);
+    double speedMps = speedSumMps / numberOfConvergedEpochs;
+    assertTrue("Mean speed " + speedMps, speedMps < MAXIMUM_MEAN_SPEED_MPS);
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_timeGoingBackward_initializesAgain() throws Exception {
+    createFilter();
+    filterFixtureEpochs(10);
+
+    filter(fixture.epochs[5], fixture.receiverTowSeconds[5]);
+
+    assertInitializedWithLeastSquare(fixture.epochs[5], fixture.receiverTowSeconds[5]);
+    filter(fixture.epochs[6], fixture.receiverTowSeconds[6]);
+    assertNotSame(leastSquare.getSolutionQuality(), filter.getSolutionQuality());
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_gapInMeasurements_initializesAgain() throws Exception {
+    createFilter();
+    filterFixtureEpochs(10);
+
+    filter(fixture.epochs[30], fixture.receiverTowSeconds[30]);
+
+    assertInitializedWithLeastSquare(fixture.epochs[30], fixture.receiverTowSeconds[30]);
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_hardwareClockDiscontinuity_initializesAgain()
+      throws Exception {
+    createFilter();
+    filterFixtureEpochs(10);
+    GpsEpochMeasurements epoch = new GpsEpochMeasurements();
+    epoch.copyFrom(fixture.epochs[10]);
+    epoch.hardwareClockDiscontinuityCount++;
+
+    filter(epoch, fixture.receiverTowSeconds[10]);
+
+    assertInitializedWithLeastSquare(epoch, fixture.receiverTowSeconds[10]);
+    // The new count is the reference of the next epochs
+    GpsEpochMeasurements nextEpoch = new GpsEpochMeasurements();
+    nextEpoch.copyFrom(fixture.epochs[11]);
+    nextEpoch.hardwareClockDiscontinuityCount = epoch.hardwareClockDiscontinuityCount;
+    filter(nextEpoch, fixture.receiverTowSeconds[11]);
+    assertNotSame(leastSquare.getSolutionQuality(), filter.getSolutionQuality());
+  }
+
+  @Test
+  public void reset_initializesAgainAtNextEpoch() throws Exception {
+    createFilter();
+    filterFixtureEpochs(10);
+
+    filter.reset();
+    filter(fixture.epochs[10], fixture.receiverTowSeconds[10]);
+
+    assertInitializedWithLeastSquare(fixture.epochs[10], fixture.receiverTowSeconds[10]);
+  }
+}
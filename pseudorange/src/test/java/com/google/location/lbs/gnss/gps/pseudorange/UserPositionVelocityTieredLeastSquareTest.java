@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link UserPositionVelocityTieredLeastSquare}: the single step from the previous
+ * solution is tried first, and the full least square solution of the epoch is returned whenever
+ * the step can not be used or fails.
+ */
+public class UserPositionVelocityTieredLeastSquareTest {
+
+  private static final double ANCHOR_INTERVAL_SECONDS = 5.0;
+  /** Distance between a step and the least square solution of the same epoch */
+  private static final double STEP_TOLERANCE_METERS = 0.5;
+
+  private static BenchmarkFixture fixture;
+
+  private UserPositionVelocityWeightedLeastSquare leastSquare;
+  private UserPositionVelocityTieredLeastSquare solver;
+  private final double[] solution = new double[8];
+  /** Solution before the last epoch, from which the least square starts */
+  private double[] previousSolution;
+
+  @BeforeClass
+  public static void createFixture() throws Exception {
+    fixture = BenchmarkFixture.create();
+  }
+
+  private static UserPositionVelocityWeightedLeastSquare createLeastSquare() {
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    leastSquare.setGeoidHeightMeters(0.0);
+    return leastSquare;
+  }
+
+  @Before
+  public void setUp() {
+    leastSquare = createLeastSquare();
+    solver = new UserPositionVelocityTieredLeastSquare(leastSquare);
+    solver.setAnchorIntervalSeconds(ANCHOR_INTERVAL_SECONDS);
+  }
+
+  private void solve(GpsEpochMeasurements epoch, double receiverTowSeconds) throws Exception {
+    previousSolution = solution.clone();
+    solver.calculateUserPositionVelocity(
+        fixture.navMessage,
+        epoch,
+        receiverTowSeconds,
+        BenchmarkFixture.GPS_WEEK,
+        BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+        solution,
+        new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+  }
+
+  private void solve(int epoch) throws Exception {
+    solve(fixture.epochs[epoch], fixture.receiverTowSeconds[epoch]);
+  }
+
+  /**
+   * Returns the least square solution of {@code epoch} computed by a new solver starting from
+   * {@code initialSolution}.
+   */
+  private static double[] solveLeastSquare(
+      GpsEpochMeasurements epoch, double receiverTowSeconds, double[] initialSolution)
+      throws Exception {
+    double[] leastSquareSolution = initialSolution.clone();
+    createLeastSquare()
+        .calculateUserPositionVelocityLeastSquare(
+            fixture.navMessage,
+            epoch,
+            receiverTowSeconds,
+            BenchmarkFixture.GPS_WEEK,
+            BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+            leastSquareSolution,
+            new double[6],
+            new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+    return leastSquareSolution;
+  }
+
+  /** Returns a copy of {@code epoch} with {@code offsetMeters} added to a pseudorange. */
+  private static GpsEpochMeasurements offsetPseudorange(int epoch, int slot, double offsetMeters) {
+    GpsEpochMeasurements measurements = new GpsEpochMeasurements();
+    measurements.copyFrom(fixture.epochs[epoch]);
+    measurements.pseudorangeMeters[slot] += offsetMeters;
+    return measurements;
+  }
+
+  private void assertStepped(int epoch) throws Exception {
+    assertNotSame("Epoch " + epoch, leastSquare.getSolutionQuality(), solver.getSolutionQuality());
+    double[] expected =
+        solveLeastSquare(fixture.epochs[epoch], fixture.receiverTowSeconds[epoch], new double[8]);
+    for (int axis = 0; axis < 3; axis++) {
+      assertEquals("Epoch " + epoch, expected[axis], solution[axis], STEP_TOLERANCE_METERS);
+    }
+  }
+
+  /** Asserts that the last solution is the least square solution of {@code epoch}. */
+  private void assertLeastSquare(GpsEpochMeasurements epoch, double receiverTowSeconds)
+      throws Exception {
+    assertSame(leastSquare.getSolutionQuality(), solver.getSolutionQuality());
+    assertArrayEquals(
+        solveLeastSquare(epoch, receiverTowSeconds, previousSolution), solution, 1e-6);
+  }
+
+  private void assertLeastSquare(int epoch) throws Exception {
+    assertLeastSquare(fixture.epochs[epoch], fixture.receiverTowSeconds[epoch]);
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_stepsBetweenAnchors() throws Exception {
+    for (int epoch = 0; epoch < 3 * ANCHOR_INTERVAL_SECONDS; epoch++) {
+      solve(epoch);
+
+      if (epoch % ANCHOR_INTERVAL_SECONDS == 0) {
+        assertLeastSquare(epoch);
+      } else {
+        assertStepped(epoch);
+      }
+    }
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_faultyPseudorange_returnsLeastSquare()
+      throws Exception {
+    solve(0);
+    solve(1);
+    assertStepped(1);
+    GpsEpochMeasurements faultyEpoch = offsetPseudorange(2, 3, 200.0);
+
+    solve(faultyEpoch, fixture.receiverTowSeconds[2]);
+
+    // The step can not fit all the satellites, the least square removes the faulty one
+    assertLeastSquare(faultyEpoch, fixture.receiverTowSeconds[2]);
+    // And becomes the anchor of the next steps
+    solve(3);
+    assertStepped(3);
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_clockBiasJump_returnsLeastSquare() throws Exception {
+    solve(0);
+    GpsEpochMeasurements jumpedEpoch = new GpsEpochMeasurements();
+    jumpedEpoch.copyFrom(fixture.epochs[1]);
+    for (int slot = 0; slot < jumpedEpoch.getNumberOfSlots(); slot++) {
+      jumpedEpoch.pseudorangeMeters[slot] += 5000.0;
+    }
+
+    solve(jumpedEpoch, fixture.receiverTowSeconds[1]);
+
+    // The step converges to a clock bias too far from the anchor for its satellite states
+    assertLeastSquare(jumpedEpoch, fixture.receiverTowSeconds[1]);
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_satelliteSetChanged_returnsLeastSquare()
+      throws Exception {
+    solve(0);
+    GpsEpochMeasurements epoch = new GpsEpochMeasurements();
+    epoch.copyFrom(fixture.epochs[1]);
+    epoch.invalidate(0);
+
+    solve(epoch, fixture.receiverTowSeconds[1]);
+
+    assertLeastSquare(epoch, fixture.receiverTowSeconds[1]);
+  }
+
+  @Test
+  public void calculateUserPositionVelocity_timeGoingBackward_returnsLeastSquare()
+      throws Exception {
+    solve(0);
+    solve(1);
+    solve(2);
+
+    solve(1);
+
+    assertLeastSquare(1);
+  }
+
+  @Test
+  public void reset_returnsLeastSquareAtNextEpoch() throws Exception {
+    solve(0);
+    solve(1);
+
+    solver.reset();
+    solve(2);
+
+    assertLeastSquare(2);
+  }
+}
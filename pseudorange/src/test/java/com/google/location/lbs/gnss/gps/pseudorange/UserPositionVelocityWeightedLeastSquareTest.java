@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the iteration budget, tolerance and deadline of {@link
+ * UserPositionVelocityWeightedLeastSquare} on the static receiver simulated by {@link
+ * BenchmarkFixture}, solved from the center of the Earth so that several iterations are needed.
+ */
+public class UserPositionVelocityWeightedLeastSquareTest {
+
+  private static final int EPOCH = 10;
+
+  private static BenchmarkFixture fixture;
+
+  @BeforeClass
+  public static void createFixture() throws Exception {
+    fixture = BenchmarkFixture.create();
+  }
+
+  private static UserPositionVelocityWeightedLeastSquare createLeastSquare(
+      LeastSquareProfile profile) {
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    leastSquare.setGeoidHeightMeters(0.0);
+    leastSquare.setProfile(profile);
+    return leastSquare;
+  }
+
+  /** Returns the solution of {@link #EPOCH} computed by {@code leastSquare} from the origin. */
+  private static double[] solve(UserPositionVelocityWeightedLeastSquare leastSquare)
+      throws Exception {
+    double[] solution = new double[8];
+    leastSquare.calculateUserPositionVelocityLeastSquare(
+        fixture.navMessage,
+        fixture.epochs[EPOCH],
+        fixture.receiverTowSeconds[EPOCH],
+        BenchmarkFixture.GPS_WEEK,
+        BenchmarkFixture.DAY_OF_YEAR_1_TO_366,
+        solution,
+        new double[6],
+        new double[GpsEpochMeasurements.MAX_NUMBER_OF_SIGNALS]);
+    return solution;
+  }
+
+  private static double sumAbsoluteDifferenceMeters(double[] solution, double[] otherSolution) {
+    return Math.abs(solution[0] - otherSolution[0])
+        + Math.abs(solution[1] - otherSolution[1])
+        + Math.abs(solution[2] - otherSolution[2]);
+  }
+
+  /** Asserts that {@code profile} converges within its tolerance and iteration budget. */
+  private static int assertConverges(LeastSquareProfile profile, double[] preciseSolution)
+      throws Exception {
+    UserPositionVelocityWeightedLeastSquare leastSquare = createLeastSquare(profile);
+
+    double[] solution = solve(leastSquare);
+
+    assertFalse(profile.name, leastSquare.getSolutionQuality().isDegraded());
+    int numberOfIterations = leastSquare.getNumberOfIterations();
+    assertTrue(
+        profile.name + " iterations " + numberOfIterations,
+        numberOfIterations > 0 && numberOfIterations <= profile.maximumNumberOfIterations);
+    double differenceMeters = sumAbsoluteDifferenceMeters(solution, preciseSolution);
+    assertTrue(
+        profile.name + " difference " + differenceMeters,
+        differenceMeters < profile.toleranceMeters);
+    return numberOfIterations;
+  }
+
+  @Test
+  public void calculateUserPositionVelocityLeastSquare_profiles_convergeWithinTheirTolerance()
+      throws Exception {
+    UserPositionVelocityWeightedLeastSquare preciseLeastSquare =
+        createLeastSquare(LeastSquareProfile.PRECISE);
+    double[] preciseSolution = solve(preciseLeastSquare);
+    int preciseIterations = preciseLeastSquare.getNumberOfIterations();
+    assertFalse(preciseLeastSquare.getSolutionQuality().isDegraded());
+    assertTrue(preciseIterations <= LeastSquareProfile.PRECISE.maximumNumberOfIterations);
+
+    int balancedIterations = assertConverges(LeastSquareProfile.BALANCED, preciseSolution);
+    int fastIterations = assertConverges(LeastSquareProfile.FAST, preciseSolution);
+
+    // Looser tolerances stop earlier
+    assertTrue(balancedIterations < preciseIterations);
+    assertTrue(fastIterations < balancedIterations);
+  }
+
+  @Test
+  public void calculateUserPositionVelocityLeastSquare_iterationBudgetExhausted_returnsDegraded()
+      throws Exception {
+    LeastSquareProfile profile =
+        new LeastSquareProfile(
+            "test", LeastSquareProfile.PRECISE.toleranceMeters, 2, false, false);
+    UserPositionVelocityWeightedLeastSquare leastSquare = createLeastSquare(profile);
+
+    double[] solution = solve(leastSquare);
+
+    assertTrue(leastSquare.getSolutionQuality().isDegraded());
+    assertEquals(2, leastSquare.getNumberOfIterations());
+    double[] preciseSolution = solve(createLeastSquare(LeastSquareProfile.PRECISE));
+    assertTrue(sumAbsoluteDifferenceMeters(solution, preciseSolution) > profile.toleranceMeters);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void calculateUserPositionVelocityLeastSquare_iterationBudgetExhausted_failsIfRequired()
+      throws Exception {
+    solve(
+        createLeastSquare(
+            new LeastSquareProfile(
+                "test", LeastSquareProfile.PRECISE.toleranceMeters, 2, false, true)));
+  }
+
+  @Test
+  public void calculateUserPositionVelocityLeastSquare_deadlinePassed_returnsLastIterate()
+      throws Exception {
+    for (LeastSquareProfile profile :
+        new LeastSquareProfile[] {LeastSquareProfile.FAST, LeastSquareProfile.BALANCED}) {
+      UserPositionVelocityWeightedLeastSquare leastSquare = createLeastSquare(profile);
+      leastSquare.setDeadlineNanoTime(System.nanoTime() - 1);
+
+      double[] solution = solve(leastSquare);
+
+      // The iterations stop at once, after the first step from the initial estimate
+      assertTrue(profile.name, leastSquare.getSolutionQuality().isDegraded());
+      assertEquals(profile.name, 0, leastSquare.getNumberOfIterations());
+      LeastSquareProfile noIterationsProfile =
+          new LeastSquareProfile(
+              "test",
+              profile.toleranceMeters,
+              0,
+              profile.reuseAtmosphericCorrections,
+              false /*failOnNonConvergence*/);
+      assertArrayEquals(profile.name, solve(createLeastSquare(noIterationsProfile)), solution, 0.0);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void calculateUserPositionVelocityLeastSquare_deadlinePassed_failsIfRequired()
+      throws Exception {
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        createLeastSquare(LeastSquareProfile.PRECISE);
+    leastSquare.setDeadlineNanoTime(System.nanoTime() - 1);
+
+    solve(leastSquare);
+  }
+
+  @Test
+  public void clearDeadline_convergesAgain() throws Exception {
+    UserPositionVelocityWeightedLeastSquare leastSquare =
+        createLeastSquare(LeastSquareProfile.FAST);
+    leastSquare.setDeadlineNanoTime(System.nanoTime() - 1);
+    solve(leastSquare);
+
+    leastSquare.clearDeadline();
+    double[] solution = solve(leastSquare);
+
+    assertFalse(leastSquare.getSolutionQuality().isDegraded());
+    assertArrayEquals(solve(createLeastSquare(LeastSquareProfile.FAST)), solution, 0.0);
+  }
+}